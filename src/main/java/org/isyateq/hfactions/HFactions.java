@@ -35,8 +35,17 @@ public final class HFactions extends JavaPlugin {
     private CooldownManager cooldownManager; // Добавлен? Убедись, что инициализирован
     private CraftingManager craftingManager; // Добавлен? Убедись, что инициализирован
     private DynmapManager dynmapManager;     // Добавлен? Убедись, что инициализирован
+    private NametagManager nametagManager;
+    private FactionChatFormatter factionChatFormatter;
+    private LocaleManager localeManager;
+    private AuditLog auditLog;
+    private SyncManager syncManager; // null, если синхронизация серверов выключена
     private MessageUtil messageUtil;
     private InviteManager inviteManager;
+    // Исполнитель ввода-вывода плагина (БД, файлы)
+    private IoExecutor ioExecutor;
+    // Индекс автодополнения /hf (его обновляют менеджеры фракций, игроков и территорий)
+    private final TabCompletionIndex tabCompletionIndex = new TabCompletionIndex();
 
     // Интеграции
     private VaultIntegration vaultIntegration;
@@ -80,6 +89,19 @@ public final class HFactions extends JavaPlugin {
             return;
         }
 
+        // Собственный исполнитель ввода-вывода - до любой работы с БД и файлами
+        ioExecutor = new IoExecutor(this, configManager.getIoMaxConcurrency());
+
+        // Пул соединений и очередь записи зависят от настроек database.* - открываем после загрузки конфигов
+        databaseManager.initialize();
+
+        // Языки сообщений: нужны до первой сессии игрока (язык клиента привязывается при ее открытии)
+        localeManager = new LocaleManager(this);
+
+        // Журнал действий пишется в ту же БД - после открытия пула и миграций
+        auditLog = new AuditLog(this, databaseManager);
+        auditLog.start();
+
         // 3. Инициализация Интеграций (ДО менеджеров, которые их используют)
         getLogger().info("Setting up integrations...");
         setupVault();/* Vault не обязателен, просто выводим предупреждение */
@@ -101,12 +123,15 @@ public final class HFactions extends JavaPlugin {
         guiManager = new GuiManager(this);         // Зависит от Player, Faction
         cuffManager = new CuffManager(this);       // Зависит от Config, Player, Cooldown?
         craftingManager = new CraftingManager(this); // Зависит от Config, ItemManager?
+        nametagManager = new NametagManager(this); // До загрузки фракций: команды скорборда строятся по ним
+        factionChatFormatter = new FactionChatFormatter(this);
         // DynmapManager инициализирован в setupDynmapManager
 
         // 5. Загрузка Данных (Фракции, Крафты)
         getLogger().info("Loading data...");
         factionManager.loadFactions();
         craftingManager.loadRecipes(); // Загрузка рецептов
+        setupSync(); // После загрузки фракций: применяет к ним изменения других серверов
 
         // 6. Регистрация Команд
         getLogger().info("Registering commands...");
@@ -142,6 +167,17 @@ public final class HFactions extends JavaPlugin {
         // Отмена других задач, если они есть и хранятся ссылки
         Bukkit.getScheduler().cancelTasks(this); // Отменяет все задачи плагина
 
+        // Команды фракций не должны остаться в сохраненном главном скорборде
+        if (nametagManager != null) {
+            nametagManager.shutdown();
+        }
+
+        // Дожидаемся уже поставленных задач ввода-вывода; дальше сохранения выполняются синхронно
+        if (ioExecutor != null) {
+            getLogger().info("Waiting for I/O tasks (" + ioExecutor.getPending() + " pending)...");
+            ioExecutor.shutdown(configManager != null ? configManager.getIoShutdownTimeoutMillis() : 10000L);
+        }
+
         // Сохранение данных (фракции, игроки)
         getLogger().info("Saving data...");
         if (factionManager != null) {
@@ -161,6 +197,9 @@ public final class HFactions extends JavaPlugin {
         // Закрытие соединения с БД
         getLogger().info("Closing database connection...");
         if (databaseManager != null) {
+            databaseManager.drainWriteQueue(); // Дописываем все, что осталось в очереди
+            if (auditLog != null) auditLog.drainSync();
+            if (syncManager != null) syncManager.close(); // Последние записи - другим серверам
             databaseManager.closeConnection();
         }
 
@@ -279,6 +318,27 @@ public final class HFactions extends JavaPlugin {
         }
     }
 
+    // Синхронизация фракций с другими серверами сети через общую БД
+    private void setupSync() {
+        if (!configManager.isSyncEnabled()) {
+            this.syncManager = null;
+            return;
+        }
+        String bus = configManager.getSyncBus();
+        MessageBus messageBus;
+        if ("loopback".equals(bus)) {
+            messageBus = new LoopbackMessageBus(configManager.getSyncChannel(), ioExecutor.mainThread());
+        } else {
+            if (!"bungee".equals(bus)) getLogger().warning("Unknown sync.bus '" + bus + "', using bungee.");
+            messageBus = new BungeeMessageBus(this, configManager.getSyncChannel());
+        }
+        if (configManager.getDatabaseFile().isEmpty()) {
+            getLogger().warning("Sync is enabled but database.file is not set: servers only see each other's changes if they share one database file.");
+        }
+        this.syncManager = new SyncManager(this, messageBus);
+        syncManager.start();
+    }
+
     private void setupOraxen() {
         if (!configManager.isOraxenSupportEnabled()) { // Проверяем конфиг
             getLogger().info("Oraxen support disabled in config.");
@@ -306,12 +366,20 @@ public final class HFactions extends JavaPlugin {
     public FactionManager getFactionManager() { return factionManager; }
     public PlayerManager getPlayerManager() { return playerManager; }
     public DatabaseManager getDatabaseManager() { return databaseManager; }
+    public IoExecutor getIoExecutor() { return ioExecutor; }
+    public TabCompletionIndex getTabCompletionIndex() { return tabCompletionIndex; }
     public GuiManager getGuiManager() { return guiManager; }
     public ItemManager getItemManager() { return itemManager; }
     public CuffManager getCuffManager() { return cuffManager; }
     public CooldownManager getCooldownManager() { return cooldownManager; }
     public CraftingManager getCraftingManager() { return craftingManager; }
     public DynmapManager getDynmapManager() { return dynmapManager; }
+    public NametagManager getNametagManager() { return nametagManager; }
+    public LocaleManager getLocaleManager() { return localeManager; }
+    public AuditLog getAuditLog() { return auditLog; }
+    public SyncManager getSyncManager() { return syncManager; }
+    public MessageUtil getMessageUtil() { return messageUtil; }
+    public FactionChatFormatter getFactionChatFormatter() { return factionChatFormatter; }
     public VaultIntegration getVaultIntegration() { return vaultIntegration; }
     public LuckPermsIntegration getLuckPermsIntegration() { return luckPermsIntegration; }
     public OraxenIntegration getOraxenIntegration() { return oraxenIntegration; }
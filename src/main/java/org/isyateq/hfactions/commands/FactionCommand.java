@@ -3,6 +3,7 @@ package org.isyateq.hfactions.commands;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material; // Импорт для проверки инвентаря
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -13,12 +14,22 @@ import org.isyateq.hfactions.HFactions;
 import org.isyateq.hfactions.managers.*;
 import org.isyateq.hfactions.models.Faction;
 import org.isyateq.hfactions.models.FactionRank;
+import org.isyateq.hfactions.models.FactionTreasury;
+import org.isyateq.hfactions.models.PermissionKey;
+import org.isyateq.hfactions.models.PermissionRegistry;
+import org.isyateq.hfactions.models.PlayerSession;
 import org.isyateq.hfactions.models.FactionType;
 import org.isyateq.hfactions.models.PendingInvite;
+import org.isyateq.hfactions.models.PlayerRecord;
 import org.isyateq.hfactions.util.Utils;
-import org.isyateq.hfactions.managers.CooldownManager;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 public class FactionCommand implements CommandExecutor, TabCompleter {
@@ -31,17 +42,44 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
     private final ItemManager itemManager;
     private final CuffManager cuffManager; // Для команды /hf uncuff
     private final DynmapManager dynmapManager; // Для команд /hf territory
+    private final TabCompletionIndex tabIndex; // Автодополнение без перебора игроков и фракций
 
-    // Список основных подкоманд для автодополнения
-    private final List<String> baseSubCommands = Arrays.asList(
+    // Сколько оффлайн участников показывать в /hf info
+    private static final int OFFLINE_MEMBERS_SHOWN = 30;
+    // Ключ кулдауна штрафа в сессии цели
+    private static final String FINE_TARGET_COOLDOWN = "fine_target";
+
+    // Список основных подкоманд для автодополнения (по алфавиту; индекс в массиве - бит в маске возможностей)
+    private static final String[] SUB_COMMANDS = Arrays.stream(new String[] {
             "help", "list", "info", "listrecipes", "leave", "chat", "c", "fc", "fchat",
             "invite", "kick", "promote", "demote", "setrank", "manageranks",
             "balance", "bal", "deposit", "dep", "withdraw", "wd", "warehouse", "wh",
             "fine",
             "territory",
-            "create", "delete", "reload", "setbalance", "uncuff", "adminmode",
+            "create", "delete", "reload", "setbalance", "uncuff", "adminmode", "logs",
             "givetaser", "givehandcuffs", "giveprotocol"
-    );
+    }).sorted().toArray(String[]::new);
+    // Подкоманда фракции -> права, любое из которых ее открывает (как в проверках самих команд; сокращения - те же права)
+    private static final Map<String, PermissionKey[]> SUB_COMMAND_PERMISSIONS = Map.ofEntries(
+            Map.entry("invite", new PermissionKey[]{PermissionRegistry.INVITE}),
+            Map.entry("kick", new PermissionKey[]{PermissionRegistry.KICK}),
+            Map.entry("promote", new PermissionKey[]{PermissionRegistry.PROMOTE}),
+            Map.entry("demote", new PermissionKey[]{PermissionRegistry.DEMOTE}),
+            Map.entry("setrank", new PermissionKey[]{PermissionRegistry.SET_RANK}),
+            Map.entry("manageranks", new PermissionKey[]{PermissionRegistry.MANAGE_RANKS}),
+            Map.entry("balance", new PermissionKey[]{PermissionRegistry.BALANCE_VIEW}),
+            Map.entry("bal", new PermissionKey[]{PermissionRegistry.BALANCE_VIEW}),
+            Map.entry("deposit", new PermissionKey[]{PermissionRegistry.DEPOSIT}),
+            Map.entry("dep", new PermissionKey[]{PermissionRegistry.DEPOSIT}),
+            Map.entry("withdraw", new PermissionKey[]{PermissionRegistry.WITHDRAW, PermissionRegistry.MANAGE_BALANCE}),
+            Map.entry("wd", new PermissionKey[]{PermissionRegistry.WITHDRAW, PermissionRegistry.MANAGE_BALANCE}),
+            Map.entry("warehouse", new PermissionKey[]{PermissionRegistry.WAREHOUSE_OPEN}),
+            Map.entry("wh", new PermissionKey[]{PermissionRegistry.WAREHOUSE_OPEN}));
+    private static final String[] TERRITORY_SUB_COMMANDS = { "claim", "clear", "corner", "define", "delete", "help", "list", "map" };
+    // Время записей /hf logs (часовой пояс сервера)
+    private static final DateTimeFormatter LOG_TIME_FORMAT = DateTimeFormatter.ofPattern("dd.MM HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final String[] LOG_FILTERS = { "faction:", "player:", "since:", "type:" };
+    private static final String[] FACTION_TYPE_NAMES = Arrays.stream(FactionType.values()).map(Enum::name).sorted().toArray(String[]::new);
 
     public FactionCommand(HFactions plugin) {
         this.plugin = plugin;
@@ -52,6 +90,7 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
         this.itemManager = plugin.getItemManager();
         this.cuffManager = plugin.getCuffManager();
         this.dynmapManager = plugin.getDynmapManager();
+        this.tabIndex = plugin.getTabCompletionIndex();
     }
 
     @Override
@@ -126,7 +165,7 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
             case "invite":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
                 if (args.length < 2) { sender.sendMessage(Utils.color("&cUsage: /" + label + " invite <player>")); return true; }
-                if (!checkFactionPermission(player, "hfactions.faction.invite")) return true;
+                if (!checkFactionPermission(player, PermissionRegistry.INVITE)) return true;
 
                 Player targetInvite = Bukkit.getPlayerExact(args[1]);
                 if (targetInvite == null || !targetInvite.isOnline()) { sender.sendMessage(Utils.color("&cPlayer '" + args[1] + "' not found or offline.")); return true; }
@@ -156,104 +195,29 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
             case "kick":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
                 if (args.length < 2) { sender.sendMessage(Utils.color("&cUsage: /" + label + " kick <player>")); return true; }
-                if (!checkFactionPermission(player, "hfactions.faction.kick")) return true;
-
-                Player targetKick = Bukkit.getPlayerExact(args[1]);
-                if (targetKick == null || !targetKick.isOnline()) { sender.sendMessage(Utils.color("&cPlayer '" + args[1] + "' not found or offline.")); return true; }
-                if (player == targetKick) { sender.sendMessage(Utils.color("&cYou cannot kick yourself.")); return true; }
-
-                String kickerFactionId = playerManager.getPlayerFactionId(player);
-                String targetKickFactionId = playerManager.getPlayerFactionId(targetKick);
-                String adminModeKickFaction = playerManager.getAdminModeFactionId(player);
-
-                // Определяем фракцию, из которой кикаем (либо своя, либо админская)
-                String effectiveKickFactionId = adminModeKickFaction != null ? adminModeKickFaction : kickerFactionId;
-                if (effectiveKickFactionId == null) { sender.sendMessage(Utils.color("&cYou are not in a faction to kick from.")); return true; }
-                if (!effectiveKickFactionId.equals(targetKickFactionId)) { sender.sendMessage(Utils.color("&c" + targetKick.getName() + " is not in your faction (or your admin mode faction).")); return true; }
-
-                // Проверка ранга (нельзя кикнуть игрока с таким же или более высоким рангом, если не админ)
-                if(adminModeKickFaction == null) { // Только если не админ
-                    FactionRank kickerRank = playerManager.getPlayerRank(player);
-                    FactionRank targetKickRank = playerManager.getPlayerRank(targetKick);
-                    if (kickerRank == null || targetKickRank == null || kickerRank.getInternalId() <= targetKickRank.getInternalId()) {
-                        sender.sendMessage(Utils.color("&cYou cannot kick a player with the same or higher rank."));
-                        return true;
-                    }
-                }
-
-                playerManager.kickPlayer(player, targetKick); // Логика кика в PlayerManager
+                if (!checkFactionPermission(player, PermissionRegistry.KICK)) return true;
+                // Цель может быть оффлайн: ее запись приходит асинхронно, проверки - в основном потоке
+                withMemberTarget(player, args[1], "kick", (targetName, target) -> handleKick(player, targetName, target));
                 break;
 
             case "promote":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
                 if (args.length < 2) { sender.sendMessage(Utils.color("&cUsage: /" + label + " promote <player>")); return true; }
-                if (!checkFactionPermission(player, "hfactions.faction.promote")) return true;
-
-                Player targetPromote = Bukkit.getPlayerExact(args[1]);
-                if (targetPromote == null || !targetPromote.isOnline()) { sender.sendMessage(Utils.color("&cPlayer '" + args[1] + "' not found or offline.")); return true; }
-                if (player == targetPromote) { sender.sendMessage(Utils.color("&cYou cannot promote yourself.")); return true; }
-
-                String promoterFactionId = playerManager.getPlayerFactionId(player);
-                String targetPromoteFactionId = playerManager.getPlayerFactionId(targetPromote);
-                String adminModePromoteFaction = playerManager.getAdminModeFactionId(player);
-                String effectivePromoteFactionId = adminModePromoteFaction != null ? adminModePromoteFaction : promoterFactionId;
-
-                if (effectivePromoteFactionId == null) { sender.sendMessage(Utils.color("&cYou are not in a faction to promote from.")); return true; }
-                if (!effectivePromoteFactionId.equals(targetPromoteFactionId)) { sender.sendMessage(Utils.color("&c" + targetPromote.getName() + " is not in your faction (or your admin mode faction).")); return true; }
-
-                FactionRank targetPromoteRank = playerManager.getPlayerRank(targetPromote);
-                if (targetPromoteRank == null) { sender.sendMessage(Utils.color("&cCould not determine rank for " + targetPromote.getName())); return true; }
-
-                // Проверка ранга (нельзя повысить игрока до своего или выше ранга, если не админ)
-                if (adminModePromoteFaction == null) {
-                    FactionRank promoterRank = playerManager.getPlayerRank(player);
-                    if (promoterRank == null || promoterRank.getInternalId() <= targetPromoteRank.getInternalId() + 1) { // +1 т.к. повышаем НА следующий ранг
-                        sender.sendMessage(Utils.color("&cYou cannot promote a player to the same or higher rank than yourself."));
-                        return true;
-                    }
-                }
-                // Дальнейшая логика повышения в PlayerManager
-                playerManager.promotePlayer(player, targetPromote);
+                if (!checkFactionPermission(player, PermissionRegistry.PROMOTE)) return true;
+                withMemberTarget(player, args[1], "promote", (targetName, target) -> handlePromote(player, targetName, target));
                 break;
 
             case "demote":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
                 if (args.length < 2) { sender.sendMessage(Utils.color("&cUsage: /" + label + " demote <player>")); return true; }
-                if (!checkFactionPermission(player, "hfactions.faction.demote")) return true;
-
-                Player targetDemote = Bukkit.getPlayerExact(args[1]);
-                if (targetDemote == null || !targetDemote.isOnline()) { sender.sendMessage(Utils.color("&cPlayer '" + args[1] + "' not found or offline.")); return true; }
-                if (player == targetDemote) { sender.sendMessage(Utils.color("&cYou cannot demote yourself.")); return true; }
-
-                String demoterFactionId = playerManager.getPlayerFactionId(player);
-                String targetDemoteFactionId = playerManager.getPlayerFactionId(targetDemote);
-                String adminModeDemoteFaction = playerManager.getAdminModeFactionId(player);
-                String effectiveDemoteFactionId = adminModeDemoteFaction != null ? adminModeDemoteFaction : demoterFactionId;
-
-                if (effectiveDemoteFactionId == null) { sender.sendMessage(Utils.color("&cYou are not in a faction to demote from.")); return true; }
-                if (!effectiveDemoteFactionId.equals(targetDemoteFactionId)) { sender.sendMessage(Utils.color("&c" + targetDemote.getName() + " is not in your faction (or your admin mode faction).")); return true; }
-
-                // Проверка ранга (нельзя понизить игрока с таким же или более высоким рангом, если не админ)
-                if (adminModeDemoteFaction == null) {
-                    FactionRank demoterRank = playerManager.getPlayerRank(player);
-                    FactionRank targetDemoteRank = playerManager.getPlayerRank(targetDemote);
-                    if (demoterRank == null || targetDemoteRank == null || demoterRank.getInternalId() <= targetDemoteRank.getInternalId()) {
-                        sender.sendMessage(Utils.color("&cYou cannot demote a player with the same or higher rank than yourself."));
-                        return true;
-                    }
-                }
-                // Дальнейшая логика в PlayerManager
-                playerManager.demotePlayer(player, targetDemote);
+                if (!checkFactionPermission(player, PermissionRegistry.DEMOTE)) return true;
+                withMemberTarget(player, args[1], "demote", (targetName, target) -> handleDemote(player, targetName, target));
                 break;
 
             case "setrank":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
                 if (args.length < 3) { sender.sendMessage(Utils.color("&cUsage: /" + label + " setrank <player> <rank_id>")); return true; }
-                if (!checkFactionPermission(player, "hfactions.faction.setrank")) return true;
-
-                Player targetSetRank = Bukkit.getPlayerExact(args[1]);
-                if (targetSetRank == null || !targetSetRank.isOnline()) { sender.sendMessage(Utils.color("&cPlayer '" + args[1] + "' not found or offline.")); return true; }
-                if (player == targetSetRank) { sender.sendMessage(Utils.color("&cYou cannot set your own rank using this command.")); return true; }
+                if (!checkFactionPermission(player, PermissionRegistry.SET_RANK)) return true;
 
                 int rankId;
                 try {
@@ -262,34 +226,12 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
                     sender.sendMessage(Utils.color("&cInvalid rank ID: '" + args[2] + "'. Must be a number."));
                     return true;
                 }
-
-                String setterFactionId = playerManager.getPlayerFactionId(player);
-                String targetSetRankFactionId = playerManager.getPlayerFactionId(targetSetRank);
-                String adminModeSetRankFaction = playerManager.getAdminModeFactionId(player);
-                String effectiveSetRankFactionId = adminModeSetRankFaction != null ? adminModeSetRankFaction : setterFactionId;
-
-                if (effectiveSetRankFactionId == null) { sender.sendMessage(Utils.color("&cYou are not in a faction to set rank from.")); return true; }
-                if (!effectiveSetRankFactionId.equals(targetSetRankFactionId)) { sender.sendMessage(Utils.color("&c" + targetSetRank.getName() + " is not in your faction (or your admin mode faction).")); return true; }
-
-                Faction setRankFaction = factionManager.getFaction(effectiveSetRankFactionId);
-                if (setRankFaction == null) { sender.sendMessage(Utils.color("&cError: Faction " + effectiveSetRankFactionId + " not found internally.")); return true; }
-                if (setRankFaction.getRank(rankId) == null) { sender.sendMessage(Utils.color("&cRank ID " + rankId + " does not exist in faction " + setRankFaction.getName() + ".")); return true; }
-
-                // Проверка ранга (нельзя ставить ранг выше своего, если не админ)
-                if (adminModeSetRankFaction == null) {
-                    FactionRank setterRank = playerManager.getPlayerRank(player);
-                    if (setterRank == null || setterRank.getInternalId() < rankId) {
-                        sender.sendMessage(Utils.color("&cYou cannot set a player's rank higher than your own rank."));
-                        return true;
-                    }
-                }
-                // Дальнейшая логика в PlayerManager
-                playerManager.setPlayerRank(player, targetSetRank, rankId);
+                withMemberTarget(player, args[1], "set rank", (targetName, target) -> handleSetRank(player, targetName, target, rankId));
                 break;
 
             case "manageranks":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
-                if (!checkFactionPermission(player, "hfactions.faction.manage_ranks")) return true;
+                if (!checkFactionPermission(player, PermissionRegistry.MANAGE_RANKS)) return true;
 
                 Faction manageRanksFaction = playerManager.getPlayerFaction(player);
                 String adminModeManageRanksFaction = playerManager.getAdminModeFactionId(player);
@@ -305,7 +247,7 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
             case "balance":
             case "bal":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
-                if (!checkFactionPermission(player, "hfactions.faction.balance.view")) return true;
+                if (!checkFactionPermission(player, PermissionRegistry.BALANCE_VIEW)) return true;
 
                 Faction balanceFaction = playerManager.getPlayerFaction(player);
                 String adminModeBalanceFaction = playerManager.getAdminModeFactionId(player);
@@ -322,11 +264,11 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
             case "dep":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
                 if (args.length < 2) { sender.sendMessage(Utils.color("&cUsage: /" + label + " deposit <amount>")); return true; }
-                if (!checkFactionPermission(player, "hfactions.faction.deposit")) return true;
+                if (!checkFactionPermission(player, PermissionRegistry.DEPOSIT)) return true;
 
                 double depositAmount;
                 try {
-                    depositAmount = Double.parseDouble(args[1]);
+                    depositAmount = FactionTreasury.toAmount(FactionTreasury.toCents(Double.parseDouble(args[1]))); // Казна считает в копейках
                     if (depositAmount <= 0) throw new NumberFormatException();
                 } catch (NumberFormatException e) {
                     sender.sendMessage(Utils.color("&cInvalid amount. Please enter a positive number."));
@@ -349,8 +291,9 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
 
                 if (plugin.getVaultIntegration().withdrawPlayer(player, depositAmount)) {
                     factionManager.depositToFaction(depositFaction.getId(), depositAmount);
-                    factionManager.saveModifiedFactions(); // Сохраняем изменение баланса
+                    factionManager.saveModifiedFactionsAsync(); // Сохраняем изменение баланса
                     sender.sendMessage(Utils.color("&aSuccessfully deposited $" + String.format("%.2f", depositAmount) + " into the faction treasury."));
+                    audit(AuditLog.Action.DEPOSIT, depositFaction.getId(), sender, String.format("%.2f", depositAmount));
                     playerManager.broadcastToFaction(depositFaction.getId(), Utils.color("&e" + player.getName() + " deposited $" + String.format("%.2f", depositAmount) + " into the treasury. New balance: $" + String.format("%.2f", depositFaction.getBalance())));
                 } else {
                     sender.sendMessage(Utils.color("&cFailed to withdraw money from your account. Transaction cancelled."));
@@ -362,12 +305,12 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
                 if (args.length < 2) { sender.sendMessage(Utils.color("&cUsage: /" + label + " withdraw <amount>")); return true; }
                 // Проверяем withdraw ИЛИ manage_balance
-                if (!checkFactionPermission(player, "hfactions.faction.withdraw", "hfactions.faction.manage_balance")) return true;
+                if (!checkFactionPermission(player, PermissionRegistry.WITHDRAW, PermissionRegistry.MANAGE_BALANCE)) return true;
 
 
                 double withdrawAmount;
                 try {
-                    withdrawAmount = Double.parseDouble(args[1]);
+                    withdrawAmount = FactionTreasury.toAmount(FactionTreasury.toCents(Double.parseDouble(args[1]))); // Казна считает в копейках
                     if (withdrawAmount <= 0) throw new NumberFormatException();
                 } catch (NumberFormatException e) {
                     sender.sendMessage(Utils.color("&cInvalid amount. Please enter a positive number."));
@@ -384,16 +327,17 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
 
                 // Снятие из казны фракции
                 if (factionManager.withdrawFromFaction(withdrawFaction.getId(), withdrawAmount)) {
-                    factionManager.saveModifiedFactions(); // Сохраняем изменение баланса
+                    factionManager.saveModifiedFactionsAsync(); // Сохраняем изменение баланса
                     // Зачисление игроку через Vault
                     if (plugin.getVaultIntegration().depositPlayer(player, withdrawAmount)) {
                         sender.sendMessage(Utils.color("&aSuccessfully withdrew $" + String.format("%.2f", withdrawAmount) + " from the faction treasury."));
+                        audit(AuditLog.Action.WITHDRAW, withdrawFaction.getId(), sender, String.format("%.2f", withdrawAmount));
                         playerManager.broadcastToFaction(withdrawFaction.getId(), Utils.color("&e" + player.getName() + " withdrew $" + String.format("%.2f", withdrawAmount) + " from the treasury. New balance: $" + String.format("%.2f", withdrawFaction.getBalance())));
                     } else {
                         sender.sendMessage(Utils.color("&cFailed to deposit money into your account. Refunding faction..."));
                         // Возвращаем деньги фракции, если не удалось зачислить игроку
                         factionManager.depositToFaction(withdrawFaction.getId(), withdrawAmount);
-                        factionManager.saveModifiedFactions();
+                        factionManager.saveModifiedFactionsAsync();
                     }
                 } else {
                     sender.sendMessage(Utils.color("&cFailed to withdraw from faction treasury. Insufficient funds? Current balance: $" + String.format("%.2f", withdrawFaction.getBalance())));
@@ -404,7 +348,7 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
             case "wh":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
                 // Право на ОТКРЫТИЕ склада
-                if (!checkFactionPermission(player, "hfactions.faction.warehouse.open")) return true;
+                if (!checkFactionPermission(player, PermissionRegistry.WAREHOUSE_OPEN)) return true;
                 guiManager.openWarehouseGUI(player, 1); // Открываем первую страницу
                 break;
             //</editor-fold>
@@ -434,7 +378,7 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
 
                 double fineAmount;
                 try {
-                    fineAmount = Double.parseDouble(args[2]);
+                    fineAmount = FactionTreasury.toAmount(FactionTreasury.toCents(Double.parseDouble(args[2]))); // Казна считает в копейках
                     if (fineAmount <= 0) throw new NumberFormatException();
                     // TODO: Проверка максимальной суммы штрафа из конфига?
                 } catch (NumberFormatException e) {
@@ -444,9 +388,10 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
 
                 String reason = String.join(" ", Arrays.copyOfRange(args, 3, args.length));
 
-                // Проверка кулдауна на цель
-                if (plugin.getCooldownManager().isOnCooldown("fine_target_" + targetFine.getUniqueId())) {
-                    long remaining = plugin.getCooldownManager().getRemainingCooldown("fine_target_" + targetFine.getUniqueId());
+                // Проверка кулдауна на цель (хранится в сессии цели)
+                PlayerSession targetSession = playerManager.getSession(targetFine);
+                long remaining = targetSession != null ? targetSession.getCooldownRemaining(FINE_TARGET_COOLDOWN) : 0L;
+                if (remaining > 0) {
                     sender.sendMessage(Utils.color("&cYou must wait " + String.format("%.1f", remaining / 1000.0) + " seconds before fining this player again."));
                     return true;
                 }
@@ -468,7 +413,7 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
                         Faction playerFaction = playerManager.getPlayerFaction(player);
                         if (playerFaction != null) {
                             factionManager.depositToFaction(playerFaction.getId(), fineAmount);
-                            factionManager.saveModifiedFactions();
+                            factionManager.saveModifiedFactionsAsync();
                             paid = true;
                         } else {
                             sender.sendMessage(Utils.color("&cCould not deposit fine to faction treasury (you are not in a faction?). Fine cancelled, money returned to target."));
@@ -482,10 +427,13 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
                     if(paid) {
                         targetFine.sendMessage(Utils.color("&cYou have been fined $" + String.format("%.2f", fineAmount) + " by " + player.getName() + ". Reason: " + reason));
                         player.sendMessage(Utils.color("&aSuccessfully fined " + targetFine.getName() + " $" + String.format("%.2f", fineAmount) + ". Reason: " + reason));
-                        // Логирование
-                        plugin.getLogger().info("FINE: " + player.getName() + " fined " + targetFine.getName() + " $" + String.format("%.2f", fineAmount) + " Reason: " + reason);
+                        // Журнал действий (не консоль)
+                        Faction fineFaction = playerManager.getPlayerFaction(player);
+                        AuditLog auditLog = plugin.getAuditLog();
+                        if (auditLog != null) auditLog.record(AuditLog.Action.FINE, fineFaction != null ? fineFaction.getId() : null, player,
+                                targetFine.getUniqueId(), targetFine.getName(), String.format("%.2f", fineAmount) + ": " + reason);
                         // Установить кулдаун на цель
-                        plugin.getCooldownManager().setCooldown("fine_target_" + targetFine.getUniqueId(), configManager.getFineCooldownTargetSeconds() * 1000L);
+                        if (targetSession != null) targetSession.setCooldown(FINE_TARGET_COOLDOWN, configManager.getFineCooldownTargetSeconds() * 1000L);
                     }
 
                 } else {
@@ -530,6 +478,7 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
 
                 factionManager.createFaction(createId, createName, createType, defaultColor, defaultPrefix, defaultBalance, defaultWarehouseSize);
                 sender.sendMessage(Utils.color("&aFaction '" + createName + "' (ID: " + createId + ", Type: " + createType + ") created successfully!"));
+                audit(AuditLog.Action.CREATE, createId, sender, createName + " (" + createType + ")");
                 break;
 
             case "delete":
@@ -539,8 +488,12 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
                 if (factionManager.getFaction(deleteId) == null) { sender.sendMessage(Utils.color("&cFaction with ID '" + deleteId + "' not found.")); return true; }
 
                 // TODO: Добавить подтверждение?
-                factionManager.deleteFaction(deleteId); // Метод уже содержит логирование и сохранение
-                sender.sendMessage(Utils.color("&aFaction with ID '" + deleteId + "' has been deleted."));
+                // Удаление пишется в БД асинхронно; ответ - после фиксации (в основном потоке)
+                factionManager.deleteFaction(deleteId).thenAccept(deleted -> {
+                    if (!deleted) { sender.sendMessage(Utils.color("&cCould not delete faction '" + deleteId + "'. See the server log.")); return; }
+                    sender.sendMessage(Utils.color("&aFaction with ID '" + deleteId + "' has been deleted."));
+                    audit(AuditLog.Action.DELETE, deleteId, sender, null);
+                });
                 break;
 
             case "reload":
@@ -560,8 +513,9 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
                 if (balFaction == null) { sender.sendMessage(Utils.color("&cFaction with ID '" + balId + "' not found.")); return true; }
 
                 factionManager.setFactionBalance(balId, balAmount);
-                factionManager.saveModifiedFactions(); // Сохраняем изменение
+                factionManager.saveModifiedFactionsAsync(); // Сохраняем изменение
                 sender.sendMessage(Utils.color("&aBalance for faction " + balFaction.getName() + " set to $" + String.format("%.2f", balAmount)));
+                audit(AuditLog.Action.SET_BALANCE, balId, sender, String.format("%.2f", balAmount));
                 break;
 
             case "uncuff":
@@ -577,6 +531,11 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
                 targetUncuff.sendMessage(Utils.color("&eYou have been uncuffed by an administrator (" + sender.getName() + ")."));
                 break;
 
+            case "logs":
+                if (!sender.hasPermission("hfactions.admin.logs")) { sender.sendMessage(Utils.color("&cYou don't have permission.")); return true; }
+                showLogs(sender, args);
+                break;
+
             case "adminmode":
                 if (player == null) { sender.sendMessage(Utils.color("&cThis command can only be run by a player.")); return true; }
                 if (!player.hasPermission("hfactions.admin.adminmode")) { sender.sendMessage(Utils.color("&cYou don't have permission.")); return true; }
@@ -673,22 +632,22 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
         sender.sendMessage(Utils.color("&e/hf leave &7- Leave your current faction"));
         sender.sendMessage(Utils.color("&e/hf chat &7- Toggle faction chat"));
         // Управление (если есть права)
-        if (hasAnyFactionPermission(sender, "invite", "kick", "promote", "demote", "setrank", "manageranks")) {
+        if (hasAnyFactionPermission(sender, PermissionRegistry.INVITE, PermissionRegistry.KICK, PermissionRegistry.PROMOTE, PermissionRegistry.DEMOTE, PermissionRegistry.SET_RANK, PermissionRegistry.MANAGE_RANKS)) {
             sender.sendMessage(Utils.color("&6--- Faction Management ---"));
-            if (hasFactionPermission(sender, "invite")) sender.sendMessage(Utils.color("&e/hf invite <player>"));
-            if (hasFactionPermission(sender, "kick")) sender.sendMessage(Utils.color("&e/hf kick <player>"));
-            if (hasFactionPermission(sender, "promote")) sender.sendMessage(Utils.color("&e/hf promote <player>"));
-            if (hasFactionPermission(sender, "demote")) sender.sendMessage(Utils.color("&e/hf demote <player>"));
-            if (hasFactionPermission(sender, "setrank")) sender.sendMessage(Utils.color("&e/hf setrank <player> <rank_id>"));
-            if (hasFactionPermission(sender, "manageranks")) sender.sendMessage(Utils.color("&e/hf manageranks"));
+            if (hasFactionPermission(sender, PermissionRegistry.INVITE)) sender.sendMessage(Utils.color("&e/hf invite <player>"));
+            if (hasFactionPermission(sender, PermissionRegistry.KICK)) sender.sendMessage(Utils.color("&e/hf kick <player>"));
+            if (hasFactionPermission(sender, PermissionRegistry.PROMOTE)) sender.sendMessage(Utils.color("&e/hf promote <player>"));
+            if (hasFactionPermission(sender, PermissionRegistry.DEMOTE)) sender.sendMessage(Utils.color("&e/hf demote <player>"));
+            if (hasFactionPermission(sender, PermissionRegistry.SET_RANK)) sender.sendMessage(Utils.color("&e/hf setrank <player> <rank_id>"));
+            if (hasFactionPermission(sender, PermissionRegistry.MANAGE_RANKS)) sender.sendMessage(Utils.color("&e/hf manageranks"));
         }
         // Экономика и Склад (если есть права)
-        if (hasAnyFactionPermission(sender, "balance.view", "deposit", "withdraw", "warehouse.open")) {
+        if (hasAnyFactionPermission(sender, PermissionRegistry.BALANCE_VIEW, PermissionRegistry.DEPOSIT, PermissionRegistry.WITHDRAW, PermissionRegistry.MANAGE_BALANCE, PermissionRegistry.WAREHOUSE_OPEN)) {
             sender.sendMessage(Utils.color("&6--- Treasury & Warehouse ---"));
-            if (hasFactionPermission(sender, "balance.view")) sender.sendMessage(Utils.color("&e/hf balance"));
-            if (hasFactionPermission(sender, "deposit")) sender.sendMessage(Utils.color("&e/hf deposit <amount>"));
-            if (hasFactionPermission(sender, "withdraw")) sender.sendMessage(Utils.color("&e/hf withdraw <amount>"));
-            if (hasFactionPermission(sender, "warehouse.open")) sender.sendMessage(Utils.color("&e/hf warehouse"));
+            if (hasFactionPermission(sender, PermissionRegistry.BALANCE_VIEW)) sender.sendMessage(Utils.color("&e/hf balance"));
+            if (hasFactionPermission(sender, PermissionRegistry.DEPOSIT)) sender.sendMessage(Utils.color("&e/hf deposit <amount>"));
+            if (hasAnyFactionPermission(sender, PermissionRegistry.WITHDRAW, PermissionRegistry.MANAGE_BALANCE)) sender.sendMessage(Utils.color("&e/hf withdraw <amount>"));
+            if (hasFactionPermission(sender, PermissionRegistry.WAREHOUSE_OPEN)) sender.sendMessage(Utils.color("&e/hf warehouse"));
         }
         // Штрафы (если есть права)
         if (sender.hasPermission("hfactions.pd.fine")) {
@@ -709,6 +668,7 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
             if (sender.hasPermission("hfactions.admin.setbalance")) sender.sendMessage(Utils.color("&e/hf setbalance <id> <amount>"));
             if (sender.hasPermission("hfactions.admin.uncuff")) sender.sendMessage(Utils.color("&e/hf uncuff <player>"));
             if (sender.hasPermission("hfactions.admin.adminmode")) sender.sendMessage(Utils.color("&e/hf adminmode [id]"));
+            if (sender.hasPermission("hfactions.admin.logs")) sender.sendMessage(Utils.color("&e/hf logs [page] [faction:<id>] [player:<name>] [since:<2h|7d>] [type:<action>]"));
             if (sender.hasPermission("hfactions.admin.givetaser")) sender.sendMessage(Utils.color("&e/hf givetaser <player>"));
             if (sender.hasPermission("hfactions.admin.givehandcuffs")) sender.sendMessage(Utils.color("&e/hf givehandcuffs <player>"));
             if (sender.hasPermission("hfactions.admin.giveprotocol")) sender.sendMessage(Utils.color("&e/hf giveprotocol <player>"));
@@ -770,7 +730,247 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
         } else {
             sender.sendMessage(Utils.color("&eOnline Members: &cNone"));
         }
-        // TODO: Показ оффлайн участников (требует запроса к БД по faction_id)
+
+        // Показ оффлайн участников (состав из кэша, при первом запросе - асинхронно из БД)
+        String infoFactionId = faction.getId();
+        playerManager.getFactionRosterAsync(infoFactionId, roster -> {
+            if (sender instanceof Player && !((Player) sender).isOnline()) return;
+            List<String> offlineMembers = roster.entrySet().stream()
+                    .filter(e -> Bukkit.getPlayer(e.getKey()) == null)
+                    .sorted(Map.Entry.<UUID, Integer>comparingByValue().reversed())
+                    .limit(OFFLINE_MEMBERS_SHOWN + 1)
+                    .map(e -> {
+                        String name = Bukkit.getOfflinePlayer(e.getKey()).getName();
+                        return "&7" + (name != null ? name : e.getKey().toString().substring(0, 8)) + "&8[&7" + e.getValue() + "&8]";
+                    })
+                    .collect(Collectors.toList());
+            long offlineCount = roster.keySet().stream().filter(uuid -> Bukkit.getPlayer(uuid) == null).count();
+            sender.sendMessage(Utils.color("&eTotal Members: &f" + roster.size() + " &7(offline: " + offlineCount + ")"));
+            if (!offlineMembers.isEmpty()) {
+                String shown = String.join(Utils.color("&f, "), offlineMembers.subList(0, Math.min(OFFLINE_MEMBERS_SHOWN, offlineMembers.size())));
+                sender.sendMessage("  " + Utils.color(shown + (offlineCount > OFFLINE_MEMBERS_SHOWN ? " &7... +" + (offlineCount - OFFLINE_MEMBERS_SHOWN) : "")));
+            }
+        });
+    }
+
+    // --- Журнал действий ---
+
+    // Действие команды - в журнал действий
+    private void audit(AuditLog.Action action, String factionId, CommandSender actor, String details) {
+        AuditLog auditLog = plugin.getAuditLog();
+        if (auditLog != null) auditLog.record(action, factionId, actor, details);
+    }
+
+    /**
+     * /hf logs [страница] [faction:&lt;id&gt;] [player:&lt;ник&gt;] [since:&lt;30m|2h|7d&gt;] [type:&lt;действие&gt;].
+     * Выборка идет в потоке ввода-вывода, вывод - в основном потоке.
+     */
+    private void showLogs(CommandSender sender, String[] args) {
+        LocaleManager lm = plugin.getLocaleManager();
+        AuditLog auditLog = plugin.getAuditLog();
+        if (auditLog == null || !auditLog.isEnabled()) { lm.send(sender, "logs-disabled"); return; }
+
+        int page = 1;
+        String factionId = null;
+        UUID playerUuid = null;
+        long since = 0L;
+        AuditLog.Action action = null;
+        StringBuilder filterArgs = new StringBuilder(); // Те же фильтры в подсказке следующей страницы
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            int colon = arg.indexOf(':');
+            if (colon < 0) {
+                try { page = Integer.parseInt(arg); } catch (NumberFormatException e) { page = 0; }
+                if (page < 1) { lm.send(sender, "logs-usage"); return; }
+                continue;
+            }
+            String key = arg.substring(0, colon).toLowerCase(Locale.ROOT);
+            String value = arg.substring(colon + 1);
+            boolean valid = !value.isEmpty();
+            if (valid && key.equals("faction")) {
+                factionId = value.toLowerCase(Locale.ROOT); // Удаленные фракции тоже ищутся
+            } else if (valid && key.equals("player")) {
+                OfflinePlayer target = Bukkit.getPlayerExact(value);
+                if (target == null) target = Bukkit.getOfflinePlayerIfCached(value); // Без запроса к Mojang
+                if (target == null) { lm.send(sender, "logs-unknown-player", "{player}", value); return; }
+                playerUuid = target.getUniqueId();
+            } else if (valid && key.equals("since")) {
+                long duration = parseDurationMillis(value);
+                valid = duration > 0;
+                since = System.currentTimeMillis() - duration;
+            } else if (valid && key.equals("type")) {
+                action = AuditLog.Action.parse(value);
+                valid = action != null;
+            } else {
+                valid = false;
+            }
+            if (!valid) { lm.send(sender, "logs-invalid-filter", "{filter}", arg); return; }
+            filterArgs.append(' ').append(arg);
+        }
+
+        int pageSize = configManager.getAuditLogPageSize();
+        int shownPage = page;
+        auditLog.query(new AuditLog.Filter(factionId, playerUuid, since, action), page, pageSize).whenCompleteAsync((entries, error) -> {
+            if (sender instanceof Player p && !p.isOnline()) return;
+            if (error != null) {
+                plugin.getLogger().log(Level.SEVERE, "Could not query audit log", IoExecutor.unwrap(error));
+                lm.send(sender, "logs-error");
+                return;
+            }
+            if (entries.isEmpty()) { lm.send(sender, "logs-empty"); return; }
+            lm.send(sender, "logs-header", "{page}", shownPage);
+            for (AuditLog.Entry entry : entries) {
+                String target = entry.getTargetName() != null ? lm.get(sender, "logs-entry-target", "{target}", entry.getTargetName()) : "";
+                lm.send(sender, "logs-entry",
+                        "{time}", LOG_TIME_FORMAT.format(Instant.ofEpochMilli(entry.getTime())),
+                        "{action}", entry.getAction().name(),
+                        "{faction}", entry.getFactionId() != null ? entry.getFactionId() : "-",
+                        "{actor}", entry.getActorName() != null ? entry.getActorName() : "?",
+                        "{target}", target,
+                        "{details}", entry.getDetails() != null ? entry.getDetails() : "");
+            }
+            if (entries.size() == pageSize) lm.send(sender, "logs-footer", "{next}", (shownPage + 1) + filterArgs.toString());
+        }, plugin.getIoExecutor().mainThread());
+    }
+
+    // "30m", "2h", "7d", "90s" -> миллисекунды; 0, если формат неверный
+    private static long parseDurationMillis(String value) {
+        if (value.length() < 2) return 0L;
+        long amount;
+        try { amount = Long.parseLong(value.substring(0, value.length() - 1)); } catch (NumberFormatException e) { return 0L; }
+        if (amount <= 0) return 0L;
+        switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 's': return TimeUnit.SECONDS.toMillis(amount);
+            case 'm': return TimeUnit.MINUTES.toMillis(amount);
+            case 'h': return TimeUnit.HOURS.toMillis(amount);
+            case 'd': return TimeUnit.DAYS.toMillis(amount);
+            default: return 0L;
+        }
+    }
+
+    // --- Управление участниками (цель может быть оффлайн) ---
+
+    /**
+     * Находит цель по имени без блокировки основного потока (онлайн или кэш оффлайн игроков сервера),
+     * загружает ее запись и вызывает handler в основном потоке, если управляющий еще онлайн.
+     */
+    private void withMemberTarget(Player player, String name, String action, BiConsumer<String, PlayerRecord> handler) {
+        UUID targetUuid;
+        String targetName;
+        Player online = Bukkit.getPlayerExact(name);
+        if (online != null) {
+            targetUuid = online.getUniqueId();
+            targetName = online.getName();
+        } else {
+            // Только локальный кэш сервера: без запроса к Mojang API
+            OfflinePlayer cached = Bukkit.getOfflinePlayerIfCached(name);
+            if (cached == null) { player.sendMessage(Utils.color("&cPlayer '" + name + "' has never played on this server.")); return; }
+            targetUuid = cached.getUniqueId();
+            targetName = cached.getName() != null ? cached.getName() : name;
+        }
+        if (player.getUniqueId().equals(targetUuid)) { player.sendMessage(Utils.color("&cYou cannot " + action + " yourself.")); return; }
+
+        playerManager.getPlayerRecordAsync(targetUuid).whenCompleteAsync((record, error) -> {
+            if (!player.isOnline()) return;
+            if (error != null) {
+                plugin.getLogger().log(Level.WARNING, "Could not load faction data of " + targetName, IoExecutor.unwrap(error));
+                player.sendMessage(Utils.color("&cCould not load data for " + targetName + ". Please try again later."));
+                return;
+            }
+            handler.accept(targetName, record);
+        }, plugin.getIoExecutor().mainThread());
+    }
+
+    /**
+     * Фракция, в которой игрок управляет участниками (админский режим или своя), если цель в ней состоит.
+     * @return id фракции или null (игроку отправлено сообщение)
+     */
+    private String getManagedFactionId(Player player, String targetName, PlayerRecord target, String action) {
+        String adminModeFaction = playerManager.getAdminModeFactionId(player);
+        String effectiveFactionId = adminModeFaction != null ? adminModeFaction : playerManager.getPlayerFactionId(player);
+        if (effectiveFactionId == null) { player.sendMessage(Utils.color("&cYou are not in a faction to " + action + " from.")); return null; }
+        if (!effectiveFactionId.equals(target.getFactionId())) { player.sendMessage(Utils.color("&c" + targetName + " is not in your faction (or your admin mode faction).")); return null; }
+        return effectiveFactionId;
+    }
+
+    private FactionRank getRecordRank(PlayerRecord record) {
+        Faction faction = record.getFactionId() != null ? factionManager.getFaction(record.getFactionId()) : null;
+        return faction != null && record.getRankId() != null ? faction.getRank(record.getRankId()) : null;
+    }
+
+    private void handleKick(Player player, String targetName, PlayerRecord target) {
+        if (getManagedFactionId(player, targetName, target, "kick") == null) return;
+
+        // Проверка ранга (нельзя кикнуть игрока с таким же или более высоким рангом, если не админ)
+        if (!playerManager.isAdminInMode(player)) {
+            FactionRank kickerRank = playerManager.getPlayerRank(player);
+            FactionRank targetRank = getRecordRank(target);
+            if (kickerRank == null || targetRank == null || kickerRank.getInternalId() <= targetRank.getInternalId()) {
+                player.sendMessage(Utils.color("&cYou cannot kick a player with the same or higher rank."));
+                return;
+            }
+        }
+        // Логика кика в PlayerManager: онлайн - через сессию, оффлайн - условной записью в БД
+        Player online = Bukkit.getPlayer(target.getUuid());
+        if (online != null) playerManager.kickPlayer(player, online);
+        else playerManager.kickOfflinePlayer(player, target, targetName);
+    }
+
+    private void handlePromote(Player player, String targetName, PlayerRecord target) {
+        if (getManagedFactionId(player, targetName, target, "promote") == null) return;
+
+        FactionRank targetRank = getRecordRank(target);
+        if (targetRank == null) { player.sendMessage(Utils.color("&cCould not determine rank for " + targetName)); return; }
+
+        // Проверка ранга (нельзя повысить игрока до своего или выше ранга, если не админ)
+        if (!playerManager.isAdminInMode(player)) {
+            FactionRank promoterRank = playerManager.getPlayerRank(player);
+            if (promoterRank == null || promoterRank.getInternalId() <= targetRank.getInternalId() + 1) { // +1 т.к. повышаем НА следующий ранг
+                player.sendMessage(Utils.color("&cYou cannot promote a player to the same or higher rank than yourself."));
+                return;
+            }
+        }
+        Player online = Bukkit.getPlayer(target.getUuid());
+        if (online != null) playerManager.promotePlayer(player, online);
+        else playerManager.promoteOfflinePlayer(player, target, targetName);
+    }
+
+    private void handleDemote(Player player, String targetName, PlayerRecord target) {
+        if (getManagedFactionId(player, targetName, target, "demote") == null) return;
+
+        // Проверка ранга (нельзя понизить игрока с таким же или более высоким рангом, если не админ)
+        if (!playerManager.isAdminInMode(player)) {
+            FactionRank demoterRank = playerManager.getPlayerRank(player);
+            FactionRank targetRank = getRecordRank(target);
+            if (demoterRank == null || targetRank == null || demoterRank.getInternalId() <= targetRank.getInternalId()) {
+                player.sendMessage(Utils.color("&cYou cannot demote a player with the same or higher rank than yourself."));
+                return;
+            }
+        }
+        Player online = Bukkit.getPlayer(target.getUuid());
+        if (online != null) playerManager.demotePlayer(player, online);
+        else playerManager.demoteOfflinePlayer(player, target, targetName);
+    }
+
+    private void handleSetRank(Player player, String targetName, PlayerRecord target, int rankId) {
+        String factionId = getManagedFactionId(player, targetName, target, "set rank");
+        if (factionId == null) return;
+
+        Faction faction = factionManager.getFaction(factionId);
+        if (faction == null) { player.sendMessage(Utils.color("&cError: Faction " + factionId + " not found internally.")); return; }
+        if (faction.getRank(rankId) == null) { player.sendMessage(Utils.color("&cRank ID " + rankId + " does not exist in faction " + faction.getName() + ".")); return; }
+
+        // Проверка ранга (нельзя ставить ранг выше своего, если не админ)
+        if (!playerManager.isAdminInMode(player)) {
+            FactionRank setterRank = playerManager.getPlayerRank(player);
+            if (setterRank == null || setterRank.getInternalId() < rankId) {
+                player.sendMessage(Utils.color("&cYou cannot set a player's rank higher than your own rank."));
+                return;
+            }
+        }
+        Player online = Bukkit.getPlayer(target.getUuid());
+        if (online != null) playerManager.setPlayerRank(player, online, rankId);
+        else playerManager.setOfflinePlayerRank(player, target, targetName, rankId);
     }
 
     private void reloadPlugin(CommandSender sender) {
@@ -804,65 +1004,63 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
      * @param basePermission Базовое право (e.g., hfactions.faction.invite)
      * @return true, если право есть, иначе false (и отправляет сообщение игроку)
      */
-    private boolean checkFactionPermission(Player player, String basePermission) {
+    private boolean checkFactionPermission(Player player, PermissionKey basePermission) {
         // 1. Проверка админского режима
         if (playerManager.isAdminInMode(player)) {
             return true; // Админ в режиме может все
         }
         // 2. Проверка базового права LuckPerms
-        if (player.hasPermission(basePermission)) {
+        if (player.hasPermission(basePermission.getNode())) {
             return true;
         }
-        // 3. Проверка прав ранга
+        // 3. Проверка прав ранга (скомпилированный набор, один бит)
         FactionRank rank = playerManager.getPlayerRank(player);
-        if (rank != null && rank.getPermissions().contains(basePermission)) {
+        if (rank != null && rank.has(basePermission)) {
             return true;
         }
         // Если ни одно условие не выполнено
-        player.sendMessage(Utils.color("&cYou do not have permission for this action. Required: '" + basePermission + "' or appropriate rank."));
+        player.sendMessage(Utils.color("&cYou do not have permission for this action. Required: '" + basePermission.getNode() + "' or appropriate rank."));
         return false;
     }
 
     /**
-     * Проверяет, имеет ли игрок ОДНО ИЗ прав фракции.
+     * Проверяет, имеет ли игрок ОДНО ИЗ двух прав фракции.
      * @param player Игрок
-     * @param permissions Список базовых прав для проверки
      * @return true, если есть хотя бы одно право
      */
-    private boolean checkFactionPermission(Player player, String... permissions) {
+    private boolean checkFactionPermission(Player player, PermissionKey first, PermissionKey second) {
         if (playerManager.isAdminInMode(player)) return true; // Админ может все
-        if (Arrays.stream(permissions).anyMatch(player::hasPermission)) return true; // Проверка базовых прав
+        if (player.hasPermission(first.getNode()) || player.hasPermission(second.getNode())) return true; // Проверка базовых прав
 
         FactionRank rank = playerManager.getPlayerRank(player);
-        if (rank != null && Arrays.stream(permissions).anyMatch(perm -> rank.getPermissions().contains(perm))) {
+        if (rank != null && (rank.has(first) || rank.has(second))) {
             return true; // Проверка прав ранга
         }
 
-        player.sendMessage(Utils.color("&cYou do not have permission for this action. Required one of: " + String.join(", ", permissions) + " or appropriate rank."));
+        player.sendMessage(Utils.color("&cYou do not have permission for this action. Required one of: " + first.getNode() + ", " + second.getNode() + " or appropriate rank."));
         return false;
     }
 
     /**
-     * Вспомогательный метод для проверки прав для /hf help
+     * Вспомогательный метод для проверки прав для /hf help и подсказок
      */
-    private boolean hasFactionPermission(CommandSender sender, String permissionSuffix) {
-        String basePermission = "hfactions.faction." + permissionSuffix;
-        if (sender.hasPermission(basePermission)) return true;
+    private boolean hasFactionPermission(CommandSender sender, PermissionKey permission) {
+        if (sender.hasPermission(permission.getNode())) return true;
         if (sender instanceof Player) {
             Player p = (Player) sender;
             if (playerManager.isAdminInMode(p)) return true;
             FactionRank rank = playerManager.getPlayerRank(p);
-            if (rank != null && rank.getPermissions().contains(basePermission)) return true;
+            if (rank != null && rank.has(permission)) return true;
         }
         return false;
     }
 
     /**
-     * Вспомогательный метод для проверки наличия ХОТЯ БЫ ОДНОГО права для /hf help
+     * Вспомогательный метод для проверки наличия ХОТЯ БЫ ОДНОГО права для /hf help и подсказок
      */
-    private boolean hasAnyFactionPermission(CommandSender sender, String... permissionSuffixes) {
-        for (String suffix : permissionSuffixes) {
-            if (hasFactionPermission(sender, suffix)) return true;
+    private boolean hasAnyFactionPermission(CommandSender sender, PermissionKey... permissions) {
+        for (PermissionKey permission : permissions) {
+            if (hasFactionPermission(sender, permission)) return true;
         }
         return false;
     }
@@ -873,103 +1071,139 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         List<String> completions = new ArrayList<>();
-        String input = args[args.length - 1].toLowerCase(); // Последний введенный аргумент
+        String input = args[args.length - 1]; // Последний введенный аргумент (деревья индекса не учитывают регистр)
 
-        // Автодополнение для первой подкоманды
+        // Автодополнение для первой подкоманды: фильтр по закэшированной маске прав
         if (args.length == 1) {
-            baseSubCommands.stream()
-                    .filter(sub -> sub.startsWith(input))
-                    // Фильтруем по правам (упрощенно, т.к. полная проверка сложна)
-                    .filter(sub -> checkTabPermission(sender, sub))
-                    .forEach(completions::add);
-        }
-        // Автодополнение для последующих аргументов
-        else if (args.length >= 2) {
-            String subCommand = args[0].toLowerCase();
-            switch (subCommand) {
-                // Команды, ожидающие ID фракции
-                case "info":
-                case "delete":
-                case "setbalance":
-                case "adminmode":
-                    if (args.length == 2) {
-                        factionManager.getAllFactions().keySet().stream()
-                                .filter(id -> id.toLowerCase().startsWith(input))
-                                .forEach(completions::add);
-                    }
-                    break;
-
-                // Команды, ожидающие ник игрока
-                case "invite":
-                case "kick":
-                case "promote":
-                case "demote":
-                case "setrank":
-                case "fine":
-                case "uncuff":
-                case "givetaser":
-                case "givehandcuffs":
-                case "giveprotocol":
-                    if (args.length == 2) {
-                        Bukkit.getOnlinePlayers().stream()
-                                .map(Player::getName)
-                                .filter(name -> name.toLowerCase().startsWith(input))
-                                .forEach(completions::add);
-                    }
-                    // Для setrank ожидаем ID ранга третьим аргументом
-                    else if (subCommand.equals("setrank") && args.length == 3) {
-                        // Предлагаем ID рангов (1-11), если ID фракции уже введен
-                        String targetPlayerName = args[1];
-                        Player targetPlayer = Bukkit.getPlayerExact(targetPlayerName);
-                        if (targetPlayer != null) {
-                            String targetFactionId = playerManager.getPlayerFactionId(targetPlayer);
-                            if(targetFactionId != null) {
-                                Faction targetFaction = factionManager.getFaction(targetFactionId);
-                                if (targetFaction != null) {
-                                    targetFaction.getRanks().keySet().stream() // Получаем ID существующих рангов
-                                            .map(String::valueOf)
-                                            .filter(idStr -> idStr.startsWith(input))
-                                            .forEach(completions::add);
-                                }
-                            }
-                        }
-                        // Как альтернатива - всегда предлагать 1-11
-                         /*
-                         for(int i=1; i<=11; i++) {
-                             String rankIdStr = String.valueOf(i);
-                             if(rankIdStr.startsWith(input)) completions.add(rankIdStr);
-                         }
-                         */
-                    }
-                    break;
-
-                // Команда /hf create <id> "<Name>" <TYPE>
-                case "create":
-                    // Третий аргумент - начало имени (нет смысла автодополнять)
-                    // Последний аргумент - тип
-                    if (args.length >= 4 && args.length == (input.isEmpty() ? 4 : args.length) ) { // Если вводят последний аргумент
-                        Arrays.stream(FactionType.values())
-                                .map(Enum::name)
-                                .filter(name -> name.toLowerCase().startsWith(input))
-                                .forEach(completions::add);
-                    }
-                    break;
+            long mask = getTabCapabilityMask(sender);
+            for (int i = 0; i < SUB_COMMANDS.length; i++) {
+                if ((mask & (1L << i)) != 0 && startsWithIgnoreCase(SUB_COMMANDS[i], input)) completions.add(SUB_COMMANDS[i]);
+            }
+            return completions;
+        }
+        // Автодополнение для последующих аргументов (варианты из индекса уже по алфавиту)
+        String subCommand = args[0].toLowerCase();
+        switch (subCommand) {
+            // Команды, ожидающие ID фракции
+            case "info":
+            case "delete":
+            case "setbalance":
+            case "adminmode":
+                if (args.length == 2) tabIndex.completeFactionIds(input, completions);
+                break;
 
-                // Команда /hf territory ...
-                case "territory":
-                    if (dynmapManager != null && dynmapManager.isDynmapEnabled()) {
-                        // Передаем управление автодополнением DynmapManager'у
-                        return dynmapManager.handleTerritoryTabComplete(sender, label, args);
-                    }
-                    break;
+            // Команды, ожидающие ник игрока онлайн
+            case "invite":
+            case "fine":
+            case "uncuff":
+            case "givetaser":
+            case "givehandcuffs":
+            case "giveprotocol":
+                if (args.length == 2) tabIndex.completeOnlineNames(input, completions);
+                break;
 
-            }
+            // Управление участниками: цель может быть оффлайн - предлагаем участников своей фракции
+            case "kick":
+            case "promote":
+            case "demote":
+            case "setrank":
+                String managedFactionId = getTabManagedFactionId(sender);
+                if (args.length == 2) {
+                    if (managedFactionId == null) tabIndex.completeOnlineNames(input, completions);
+                    else completeMembers(managedFactionId, input, completions);
+                }
+                // Для setrank третьим аргументом ID ранга (цель должна быть во фракции управляющего)
+                else if (subCommand.equals("setrank") && args.length == 3) {
+                    tabIndex.completeRankIds(managedFactionId, input, completions);
+                }
+                break;
+
+            // Команда /hf create <id> "<Name>" <TYPE>
+            case "create":
+                // Третий аргумент - начало имени (нет смысла автодополнять)
+                // Четвертый аргумент - тип (дальше аргументов у команды нет)
+                if (args.length == 4) {
+                    for (String type : FACTION_TYPE_NAMES) if (startsWithIgnoreCase(type, input)) completions.add(type);
+                }
+                break;
+
+            // Команда /hf logs [страница] [фильтр:значение]...
+            case "logs":
+                completeLogFilter(input, completions);
+                break;
+
+            // Команда /hf territory ...
+            case "territory":
+                if (dynmapManager != null && dynmapManager.isDynmapEnabled()) completeTerritory(sender, args, input, completions);
+                break;
+        }
+        return completions;
+    }
+
+    // Фильтры /hf logs: сначала префикс, после двоеточия - значения из индекса
+    private void completeLogFilter(String input, List<String> completions) {
+        int colon = input.indexOf(':');
+        if (colon < 0) {
+            for (String filter : LOG_FILTERS) if (startsWithIgnoreCase(filter, input)) completions.add(filter);
+            return;
+        }
+        String filter = input.substring(0, colon + 1).toLowerCase(Locale.ROOT);
+        String value = input.substring(colon + 1);
+        List<String> values = new ArrayList<>();
+        if (filter.equals("faction:")) tabIndex.completeFactionIds(value, values);
+        else if (filter.equals("player:")) tabIndex.completeOnlineNames(value, values);
+        else if (filter.equals("type:")) {
+            for (AuditLog.Action action : AuditLog.Action.values()) if (startsWithIgnoreCase(action.name(), value)) values.add(action.name());
         }
+        for (String v : values) completions.add(filter + v);
+    }
 
+    private void completeTerritory(CommandSender sender, String[] args, String input, List<String> completions) {
+        boolean isAdmin = sender.hasPermission("hfactions.admin.territory");
+        if (args.length == 2) {
+            for (String sub : TERRITORY_SUB_COMMANDS) if (startsWithIgnoreCase(sub, input)) completions.add(sub);
+            if (isAdmin && startsWithIgnoreCase("reload", input)) completions.add("reload");
+        } else if (args.length == 3) {
+            String territorySub = args[1].toLowerCase();
+            if (territorySub.equals("delete") || territorySub.equals("list")) tabIndex.completeTerritories(input, completions);
+            else if (territorySub.equals("claim") && isAdmin) tabIndex.completeFactionIds(input, completions); // Админ клеймит для любой фракции
+        }
+    }
 
-        // Сортируем и возвращаем результат
+    // Участники фракции из индекса; пока состав не загружен - только онлайн, а загрузка запускается в фоне
+    private void completeMembers(String factionId, String input, List<String> completions) {
+        if (tabIndex.completeMembers(factionId, input, completions)) return;
+        playerManager.getFactionRosterAsync(factionId, roster -> { }); // Индекс заполнится по завершении
+        for (Player member : playerManager.getOnlineFactionMembersView(factionId)) {
+            if (startsWithIgnoreCase(member.getName(), input)) completions.add(member.getName());
+        }
         completions.sort(String.CASE_INSENSITIVE_ORDER);
-        return completions;
+    }
+
+    // Фракция, участниками которой управляет отправитель (админский режим или своя)
+    private String getTabManagedFactionId(CommandSender sender) {
+        if (!(sender instanceof Player player)) return null;
+        PlayerSession session = playerManager.getSession(player);
+        if (session == null) return null;
+        return session.isAdminMode() ? session.getAdminModeFactionId() : session.getFactionId();
+    }
+
+    private long getTabCapabilityMask(CommandSender sender) {
+        PlayerSession session = sender instanceof Player player ? playerManager.getSession(player) : null;
+        if (session == null) return computeTabCapabilityMask(sender);
+        return tabIndex.getCapabilityMask(session, () -> computeTabCapabilityMask(sender));
+    }
+
+    private long computeTabCapabilityMask(CommandSender sender) {
+        long mask = 0L;
+        for (int i = 0; i < SUB_COMMANDS.length; i++) {
+            if (checkTabPermission(sender, SUB_COMMANDS[i])) mask |= 1L << i;
+        }
+        return mask;
+    }
+
+    private static boolean startsWithIgnoreCase(String candidate, String prefix) {
+        return candidate.regionMatches(true, 0, prefix, 0, prefix.length());
     }
 
     // Упрощенная проверка прав для TabCompleter
@@ -977,7 +1211,7 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
         switch (subCommand) {
             // Админские
             case "create": case "delete": case "reload": case "setbalance":
-            case "uncuff": case "adminmode": case "givetaser": case "givehandcuffs": case "giveprotocol":
+            case "uncuff": case "adminmode": case "logs": case "givetaser": case "givehandcuffs": case "giveprotocol":
                 return sender.hasPermission("hfactions.admin." + subCommand);
             // Территории (базовые)
             case "territory":
@@ -990,8 +1224,8 @@ public class FactionCommand implements CommandExecutor, TabCompleter {
             case "setrank": case "manageranks": case "balance": case "bal":
             case "deposit": case "dep": case "withdraw": case "wd":
             case "warehouse": case "wh":
-                // Достаточно проверить базовое право, т.к. все равно покажем, если есть право ранга
-                return hasAnyFactionPermission(sender, subCommand.replace("bal","balance").replace("dep","deposit").replace("wd","withdraw").replace("wh","warehouse.open")); // warehouse -> warehouse.open
+                // Базовое право или право ранга - те же ключи, что проверяет сама команда
+                return hasAnyFactionPermission(sender, SUB_COMMAND_PERMISSIONS.get(subCommand));
             // Общие (по умолчанию true в plugin.yml)
             case "help": case "list": case "info": case "listrecipes": case "leave": case "chat": case "c": case "fc": case "fchat":
                 return true; // Права по умолчанию
@@ -25,11 +25,10 @@ public class FineAmountPrompt extends NumericPrompt { // Наследуемся
         ConfigManager cm = plugin.getConfigManager();
         // Получаем имя цели безопасно
         String targetName = target != null ? target.getName() : "Unknown Player";
-        String prompt = "&eEnter the fine amount for {target_name}:"; // Дефолт
         if (cm != null) {
-            prompt = cm.getMessage("fine.prompt.amount"); // Получаем из конфига
+            return cm.getMessage("fine.prompt.amount", "{target_name}", targetName); // Получаем из конфига
         }
-        return Utils.color(prompt.replace("{target_name}", targetName));
+        return Utils.color("&eEnter the fine amount for " + targetName + ":"); // Дефолт
     }
 
     // Вызывается, если ввод является числом
@@ -51,11 +50,9 @@ public class FineAmountPrompt extends NumericPrompt { // Наследуемся
         double minFine = cm.getConfig().getDouble("mechanics.fining.min_amount", 10.0);
         double maxFine = cm.getConfig().getDouble("mechanics.fining.max_amount", 5000.0);
         if (amount < minFine || amount > maxFine) {
-            String msg = cm.getMessage("fine.amount_limit");
             // Используем sendRawMessage, чтобы не добавлялся префикс беседы
-            context.getForWhom().sendRawMessage(Utils.color(msg
-                    .replace("{min}", vault.format(minFine))
-                    .replace("{max}", vault.format(maxFine))));
+            context.getForWhom().sendRawMessage(cm.getMessage("fine.amount_limit",
+                    "{min}", vault.format(minFine), "{max}", vault.format(maxFine)));
             // Повторяем этот же Prompt для повторного ввода
             return this;
         }
@@ -4,11 +4,14 @@ import org.bukkit.ChatColor; // Для запасных сообщений
 import org.bukkit.conversations.*;
 import org.bukkit.entity.Player;
 import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.managers.AuditLog;
 import org.isyateq.hfactions.managers.ConfigManager;
 import org.isyateq.hfactions.managers.FactionManager;
 import org.isyateq.hfactions.managers.PlayerManager;
 import org.isyateq.hfactions.integrations.VaultIntegration; // Нужен Vault
 import org.isyateq.hfactions.models.Faction;
+import org.isyateq.hfactions.models.FactionTreasury;
+import org.isyateq.hfactions.util.Placeholders;
 import org.isyateq.hfactions.util.Utils; // Для цвета
 import org.jetbrains.annotations.NotNull;
 
@@ -34,11 +37,10 @@ public class FineReasonPrompt extends StringPrompt { // Наследуемся 
         ConfigManager cm = plugin.getConfigManager();
         VaultIntegration vault = plugin.getVaultIntegration(); // Для форматирования суммы
         String formattedAmount = vault != null ? vault.format(amount) : String.format(Locale.US, "%.2f", amount);
-        String prompt = "&eEnter the reason for the fine ({amount}):"; // Дефолт
         if (cm != null) {
-            prompt = cm.getMessage("fine.prompt.reason");
+            return cm.getMessage("fine.prompt.reason", "{amount}", formattedAmount);
         }
-        return Utils.color(prompt.replace("{amount}", formattedAmount));
+        return Utils.color("&eEnter the reason for the fine (" + formattedAmount + "):"); // Дефолт
     }
 
     // Вызывается после ввода строки причины
@@ -73,37 +75,35 @@ public class FineReasonPrompt extends StringPrompt { // Наследуемся 
         }
 
         // --- Повторяем логику выписки штрафа (как в команде /fine) ---
-        String formattedAmount = vault.format(amount); // Форматируем для сообщений
+        // Сумма в копейках: с игрока снимается ровно столько, сколько зачисляется фракции
+        long amountCents = FactionTreasury.toCents(amount);
+        double chargedAmount = FactionTreasury.toAmount(amountCents);
+        String formattedAmount = vault.format(chargedAmount); // Форматируем для сообщений
 
         // Снимаем деньги у цели
-        if (vault.withdraw(target.getUniqueId(), amount)) {
-            plugin.getLogger().info("Withdrew " + formattedAmount + " from " + target.getName() + " for fine by " + officer.getName());
+        if (vault.withdraw(target.getUniqueId(), chargedAmount)) {
             // Начисляем во фракцию офицера
-            if (fm.depositToFaction(officerFaction.getId(), amount)) {
-                plugin.getLogger().info("Deposited fine amount " + formattedAmount + " to faction " + officerFaction.getId());
+            // Диалог идет не в основном потоке - зачисление атомарное (CAS), без блокировок
+            if (fm.depositToFactionCents(officerFaction.getId(), amountCents)) {
+                // Штраф - в журнал действий (не в консоль)
+                AuditLog auditLog = plugin.getAuditLog();
+                if (auditLog != null) auditLog.record(AuditLog.Action.FINE, officerFaction.getId(), officer, target.getUniqueId(), target.getName(), formattedAmount + ": " + reason);
                 // Сообщение оштрафованному
-                String targetMsg = cm.getMessage("fine.target_fined");
-                target.sendMessage(Utils.color(targetMsg
-                        .replace("{amount}", formattedAmount)
-                        .replace("{officer}", officer.getName())
-                        .replace("{reason}", reason)));
+                // Один набор значений на все три сообщения
+                Placeholders fine = Placeholders.of(
+                        "{amount}", formattedAmount,
+                        "{officer}", officer.getName(),
+                        "{target}", target.getName(),
+                        "{reason}", reason);
+                target.sendMessage(cm.getMessage("fine.target_fined", fine));
                 // Сообщение офицеру
-                String officerMsg = cm.getMessage("fine.officer_success");
-                officer.sendMessage(Utils.color(officerMsg
-                        .replace("{target}", target.getName())
-                        .replace("{amount}", formattedAmount)
-                        .replace("{reason}", reason)));
+                officer.sendMessage(cm.getMessage("fine.officer_success", fine));
                 // Логирование во фракцию
-                String logMsg = cm.getMessage("fine.log");
-                pm.broadcastToFaction(officerFaction.getId(), Utils.color(logMsg
-                        .replace("{officer}", officer.getName())
-                        .replace("{target}", target.getName())
-                        .replace("{amount}", formattedAmount)
-                        .replace("{reason}", reason)));
+                pm.broadcastToFaction(officerFaction.getId(), cm.getMessage("fine.log", fine));
             } else {
                 plugin.getLogger().severe("Failed to deposit fine amount " + formattedAmount + " to faction " + officerFaction.getId() + ". Refunding target...");
                 // Ошибка начисления во фракцию - возвращаем деньги цели
-                if (vault.deposit(target.getUniqueId(), amount)) {
+                if (vault.deposit(target.getUniqueId(), chargedAmount)) {
                     plugin.getLogger().info("Refunded " + formattedAmount + " to target " + target.getName());
                     target.sendMessage(Utils.color(cm.getMessage("fine.error_refunded")));
                 } else {
@@ -113,12 +113,10 @@ public class FineReasonPrompt extends StringPrompt { // Наследуемся 
                 officer.sendMessage(cm.getMessage("fine.error_faction_deposit"));
             }
         } else {
-            plugin.getLogger().info("Target " + target.getName() + " did not have enough funds (" + formattedAmount + ") for fine by " + officer.getName());
+            plugin.getLogger().fine("Target " + target.getName() + " did not have enough funds (" + formattedAmount + ") for fine by " + officer.getName());
             // Недостаточно средств у цели
-            String msg = cm.getMessage("fine.target_no_money");
-            officer.sendMessage(Utils.color(msg
-                    .replace("{target}", target.getName())
-                    .replace("{amount}", formattedAmount)));
+            officer.sendMessage(cm.getMessage("fine.target_no_money",
+                    "{target}", target.getName(), "{amount}", formattedAmount));
         }
 
         return Prompt.END_OF_CONVERSATION; // Завершаем диалог в любом случае
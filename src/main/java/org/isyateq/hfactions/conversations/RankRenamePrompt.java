@@ -8,6 +8,7 @@ import org.isyateq.hfactions.HFactions;
 import org.isyateq.hfactions.managers.ConfigManager;
 import org.isyateq.hfactions.managers.FactionManager;
 import org.isyateq.hfactions.managers.GuiManager; // Для переоткрытия GUI
+import org.isyateq.hfactions.util.Placeholders;
 import org.isyateq.hfactions.util.Utils;
 
 /**
@@ -32,10 +33,8 @@ public class RankRenamePrompt extends StringPrompt {
         // Сообщение уже отправлено при начале диалога
         // Можно добавить напоминание
         ConfigManager cm = plugin.getConfigManager();
-        String prompt = cm != null ? cm.getMessage("ranks.rename_prompt")
-                .replace("{old_name}", oldName)
-                : "&eEnter new name or 'cancel'. Current: " + oldName;
-        return Utils.color(prompt);
+        return cm != null ? cm.getMessage("ranks.rename_prompt", Placeholders.of().withColored("{old_name}", oldName))
+                : Utils.color("&eEnter new name or 'cancel'. Current: " + oldName);
     }
 
     @Override
@@ -72,9 +71,7 @@ public class RankRenamePrompt extends StringPrompt {
 
         // Сохраняем новое имя
         fm.updateRankDisplayName(factionId, rankId, input);
-        player.sendMessage(cm.getMessage("ranks.rename_success")
-                .replace("{rank_id}", String.valueOf(rankId))
-                .replace("{new_name}", input));
+        player.sendMessage(cm.getMessage("ranks.rename_success", Placeholders.of("{rank_id}", rankId).withColored("{new_name}", input)));
 
         // Переоткрываем GUI рангов, чтобы показать изменения
         // Делаем с небольшой задержкой, чтобы сообщение успело отправиться
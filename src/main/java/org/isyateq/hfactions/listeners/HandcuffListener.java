@@ -16,6 +16,7 @@ import org.isyateq.hfactions.HFactions;
 import org.isyateq.hfactions.managers.ConfigManager;
 import org.isyateq.hfactions.managers.CuffManager;
 import org.isyateq.hfactions.managers.ItemManager;
+import org.isyateq.hfactions.managers.LocaleManager;
 import org.isyateq.hfactions.util.Utils;
 
 import java.util.UUID;
@@ -26,12 +27,14 @@ public class HandcuffListener implements Listener {
     private final ItemManager itemManager;
     private final CuffManager cuffManager;
     private final ConfigManager configManager;
+    private final LocaleManager localeManager;
 
     public HandcuffListener(HFactions plugin) {
         this.plugin = plugin;
         this.itemManager = plugin.getItemManager();
         this.cuffManager = plugin.getCuffManager();
         this.configManager = plugin.getConfigManager();
+        this.localeManager = plugin.getLocaleManager();
     }
 
     @EventHandler(priority = EventPriority.HIGH)
@@ -62,20 +65,20 @@ public class HandcuffListener implements Listener {
                     Utils.playSound(player.getLocation(), configManager.getHandcuffsSoundUncuff());
                     // Сообщения теперь обрабатываются внутри uncuffPlayer
                 } else {
-                    Utils.msg(player, configManager.getErrorColor() + "Не удалось снять наручники."); // TODO: lang
+                    localeManager.send(player, "uncuff-fail", "{player}", target.getName());
                 }
             } else {
                 // Если пытается снять не тот, кто надел (можно добавить сообщение)
-                // Utils.msg(player, configManager.getErrorColor() + "Снять наручники может только тот, кто их надел.");
+                // localeManager.send(player, "cuffed-only-cuffer-can-remove");
             }
             return; // Завершаем обработку
         }
     }
 
     // --- Запреты ---
-    private boolean checkCuffedAndCancel(Player player, String cantDoMessage) {
+    private boolean checkCuffedAndCancel(Player player, String messageKey) {
         if (cuffManager.isCuffed(player.getUniqueId())) {
-            Utils.msg(player, configManager.getErrorColor() + cantDoMessage);
+            localeManager.send(player, messageKey);
             return true;
         }
         return false;
@@ -84,7 +87,7 @@ public class HandcuffListener implements Listener {
     @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onPlayerDropItem(PlayerDropItemEvent event) {
         if (configManager.disableCuffedItemDrop()
-                && checkCuffedAndCancel(event.getPlayer(), "Вы не можете выбрасывать предметы в наручниках!")) { // TODO: lang
+                && checkCuffedAndCancel(event.getPlayer(), "cuffed-cant-drop")) {
             event.setCancelled(true);
         }
     }
@@ -101,7 +104,7 @@ public class HandcuffListener implements Listener {
     @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onBlockBreak(BlockBreakEvent event) {
         if (configManager.disableCuffedBlockBreak()
-                && checkCuffedAndCancel(event.getPlayer(), "Вы не можете ломать блоки в наручниках!")) { // TODO: lang
+                && checkCuffedAndCancel(event.getPlayer(), "cuffed-cant-break")) {
             event.setCancelled(true);
         }
     }
@@ -109,7 +112,7 @@ public class HandcuffListener implements Listener {
     @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onBlockPlace(BlockPlaceEvent event) {
         if (configManager.disableCuffedBlockPlace()
-                && checkCuffedAndCancel(event.getPlayer(), "Вы не можете ставить блоки в наручниках!")) { // TODO: lang
+                && checkCuffedAndCancel(event.getPlayer(), "cuffed-cant-place")) {
             event.setCancelled(true);
         }
     }
@@ -119,7 +122,7 @@ public class HandcuffListener implements Listener {
         if (!(event.getPlayer() instanceof Player)) return;
         Player player = (Player) event.getPlayer();
         if (configManager.disableCuffedInventoryOpen()
-                && checkCuffedAndCancel(player, "Вы не можете открыть инвентарь в наручниках!")) { // TODO: lang
+                && checkCuffedAndCancel(player, "cuffed-cant-open-inventory")) {
             event.setCancelled(true);
         }
     }
@@ -127,7 +130,7 @@ public class HandcuffListener implements Listener {
     @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
     public void onPlayerItemHeld(PlayerItemHeldEvent event){
         if (configManager.disableCuffedItemSwitch()
-                && checkCuffedAndCancel(event.getPlayer(), "Вы не можете сменить предмет в руке в наручниках!")) { // TODO: lang
+                && checkCuffedAndCancel(event.getPlayer(), "cuffed-cant-switch-item")) {
             // Отмена здесь сложна, пока просто сообщение
         }
     }
@@ -137,7 +140,7 @@ public class HandcuffListener implements Listener {
         if (configManager.disableCuffedInteraction()
                 && event.hasBlock()
                 && (event.getAction().isRightClick())
-                && checkCuffedAndCancel(event.getPlayer(), "Вы не можете взаимодействовать с этим в наручниках!")) { // TODO: lang
+                && checkCuffedAndCancel(event.getPlayer(), "cuffed-cant-interact")) {
             event.setCancelled(true);
         }
     }
@@ -147,7 +150,7 @@ public class HandcuffListener implements Listener {
         if (event.getDamager() instanceof Player) {
             Player damager = (Player) event.getDamager();
             if (cuffManager.isCuffed(damager.getUniqueId())) {
-                Utils.msg(damager, configManager.getErrorColor() + "Вы не можете атаковать в наручниках!"); // TODO: lang
+                localeManager.send(damager, "cuffed-cant-attack");
                 event.setCancelled(true);
             }
         }
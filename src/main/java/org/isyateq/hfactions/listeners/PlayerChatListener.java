@@ -1,23 +1,24 @@
 package org.isyateq.hfactions.listeners;
 
 import io.papermc.paper.event.player.AsyncChatEvent;
+import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
 import org.bukkit.Bukkit;
-import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.isyateq.hfactions.models.Faction;
-import org.isyateq.hfactions.models.FactionRank;
+import org.isyateq.hfactions.models.PlayerSession;
 import org.isyateq.hfactions.HFactions;
 import org.isyateq.hfactions.commands.FactionCommand;
+import org.isyateq.hfactions.managers.AuditLog;
 import org.isyateq.hfactions.managers.ConfigManager;
+import org.isyateq.hfactions.managers.FactionChatFormatter;
 import org.isyateq.hfactions.managers.FactionManager;
 import org.isyateq.hfactions.managers.GuiManager;
 import org.isyateq.hfactions.managers.PlayerManager;
 
-import java.util.List;
 import java.util.UUID;
 
 public class PlayerChatListener implements Listener {
@@ -28,6 +29,7 @@ public class PlayerChatListener implements Listener {
     private final FactionManager factionManager;
     private final FactionCommand factionCommand; // Ссылка на команды для обработки ввода штрафа
     private final ConfigManager configManager;
+    private final FactionChatFormatter chatFormatter;
 
     public PlayerChatListener(HFactions plugin) {
         this.plugin = plugin;
@@ -35,13 +37,14 @@ public class PlayerChatListener implements Listener {
         this.playerManager = plugin.getPlayerManager();
         this.factionManager = plugin.getFactionManager();
         this.configManager = plugin.getConfigManager();
+        this.chatFormatter = plugin.getFactionChatFormatter();
         // Получаем FactionCommand
         Object executor = plugin.getCommand("hfactions").getExecutor();
         if (executor instanceof FactionCommand) {
             this.factionCommand = (FactionCommand) executor;
         } else {
             this.factionCommand = null;
-            plugin.logError("FATAL: Could not get FactionCommand instance for PlayerChatListener!");
+            plugin.getLogger().severe("FATAL: Could not get FactionCommand instance for PlayerChatListener!");
         }
     }
 
@@ -70,44 +73,32 @@ public class PlayerChatListener implements Listener {
             return;
         }
 
-        // 3. Проверка на режим фракционного чата
-        if (configManager.isFactionChatEnabled() && playerManager.isPlayerInFactionChat(playerUuid)) {
+        // 3. Проверка на режим фракционного чата (сессия - одно обращение на событие)
+        PlayerSession session = playerManager.getSession(playerUuid);
+        if (configManager.isFactionChatEnabled() && session != null && session.isFactionChat()) {
             event.setCancelled(true);
 
-            Faction faction = playerManager.getPlayerFaction(playerUuid);
-            Integer rankId = playerManager.getPlayerRankId(playerUuid);
+            String factionId = session.getFactionId();
+            Faction faction = factionId != null ? factionManager.getFaction(factionId) : null;
+            Integer rankId = session.getRankId();
 
             if (faction == null || rankId == null) {
-                playerManager.setFactionChatState(playerUuid, false); // Выключаем режим
-                Bukkit.getScheduler().runTask(plugin, () -> {
-                    player.sendMessage(ChatColor.translateAlternateColorCodes('&', configManager.getErrorColor() + "Ошибка фракционного чата. Режим выключен.")); // TODO: lang
-                });
-                plugin.logWarning("Player " + player.getName() + " was in faction chat but data was missing!");
+                session.setFactionChat(false); // Выключаем режим
+                plugin.getLocaleManager().send(player, "chat-error-no-faction");
+                plugin.getLogger().warning("Player " + player.getName() + " was in faction chat but data was missing!");
                 return;
             }
 
-            String format = configManager.getFactionChatFormat();
-            FactionRank rank = faction.getRank(rankId);
-            String rankName = (rank != null) ? rank.getDisplayName() : "???";
-            String message = PlainTextComponentSerializer.plainText().serialize(event.message());
-
-            String formattedMessage = ChatColor.translateAlternateColorCodes('&', format
-                    .replace("{prefix}", faction.getFormattedPrefix().trim())
-                    .replace("{rank}", rankName)
-                    .replace("{player}", player.getName())
-                    .replace("{message}", message)); // Цвет сообщения должен быть в format
-
-            // Отправка членам фракции
-            List<UUID> memberUuids = factionManager.getFactionMembers(faction.getId());
-            Bukkit.getScheduler().runTask(plugin, () -> { // Отправка сообщений в основном потоке
-                for (UUID memberUuid : memberUuids) {
-                    Player memberPlayer = Bukkit.getPlayer(memberUuid);
-                    if (memberPlayer != null && memberPlayer.isOnline()) {
-                        memberPlayer.sendMessage(formattedMessage);
-                    }
-                }
-                plugin.logInfo("[FactionChat:" + faction.getId() + "] " + player.getName() + ": " + message); // Лог
-            });
+            // Один компонент на сообщение; отправка прямо из потока чата аудитории онлайн-участников
+            Component line = chatFormatter.render(faction, rankId, player, event.message());
+            chatFormatter.audience(faction.getId()).sendMessage(line);
+            // Лог фракционного чата: журнал не блокирует поток чата; в консоль - только без журнала
+            AuditLog auditLog = plugin.getAuditLog();
+            if (auditLog != null && auditLog.isEnabled()) {
+                auditLog.record(AuditLog.Action.CHAT, faction.getId(), player, PlainTextComponentSerializer.plainText().serialize(event.message()));
+            } else {
+                Bukkit.getConsoleSender().sendMessage(line);
+            }
         }
         // Если ни одно условие не сработало, сообщение идет в глобальный чат
     }
@@ -3,8 +3,11 @@ package org.isyateq.hfactions.listeners;
 import org.bukkit.OfflinePlayer; // Используем OfflinePlayer для quit
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLocaleChangeEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.isyateq.hfactions.HFactions;
 import org.isyateq.hfactions.managers.CuffManager; // Добавляем импорт
@@ -30,13 +33,33 @@ public class PlayerJoinQuitListener implements Listener {
 
     }
 
+    // MONITOR: к этому моменту другие плагины уже решили, пускать ли игрока
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (playerManager == null || event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        // Поток авторизации уже асинхронный - загружаем данные заранее, чтобы при входе игрок сразу был во фракции
+        playerManager.prefetchPlayerData(event.getUniqueId());
+    }
+
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
         if (playerManager != null) {
-            // Загружаем данные игрока асинхронно из БД
+            // Применяем данные, загруженные при авторизации (или загружаем асинхронно из БД)
             playerManager.loadPlayerData(player);
         }
+        // Пустой сервер не получает сообщений синхронизации через прокси - догоняем пропущенное
+        if (plugin.getSyncManager() != null && plugin.getServer().getOnlinePlayers().size() == 1) {
+            plugin.getSyncManager().catchUp();
+        }
+    }
+
+    // Клиент сообщает язык после входа и при смене в настройках
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onLocaleChange(PlayerLocaleChangeEvent event) {
+        if (plugin.getLocaleManager() != null) {
+            plugin.getLocaleManager().bind(event.getPlayer(), event.locale()); // player.locale() здесь еще старый
+        }
     }
 
     @EventHandler
@@ -53,5 +76,9 @@ public class PlayerJoinQuitListener implements Listener {
             // Передаем Player, т.к. он еще доступен в этом событии
             cuffManager.handlePlayerQuit(event.getPlayer());
         }
+        // Закрываем сессию последней: выше данные еще сохранялись и читались из нее
+        if (playerManager != null) {
+            playerManager.closeSession(event.getPlayer().getUniqueId());
+        }
     }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ import org.isyateq.hfactions.managers.ItemManager;
 import org.isyateq.hfactions.managers.PlayerManager;
 import org.isyateq.hfactions.managers.ConversationManager; // Нужен ConversationManager
 import org.isyateq.hfactions.models.FactionRank;
+import org.isyateq.hfactions.models.PermissionRegistry;
 import org.isyateq.hfactions.util.Utils;
 
 public class ProtocolListener implements Listener {
@@ -77,7 +78,7 @@ public class ProtocolListener implements Listener {
 
             if (!canFine) { // Проверяем ранг только если нет основного права
                 FactionRank rank = playerManager.getPlayerRank(officer);
-                if (rank != null && rank.getPermissions().contains("hfactions.pd.fine")) {
+                if (rank != null && rank.has(PermissionRegistry.PD_FINE)) {
                     officerRankId = rank.getInternalId();
                     if(officerRankId >= minRank) { // Проверяем минимальный ранг
                         canFine = true;
@@ -110,8 +111,7 @@ public class ProtocolListener implements Listener {
 
             // Начинаем диалог через ConversationManager
             conversationManager.startFineConversation(officer, target); // Нужен такой метод в ConversationManager
-            officer.sendMessage(configManager.getMessage("fine.conversation_started")
-                    .replace("{target_name}", target.getName()));
+            officer.sendMessage(configManager.getMessage("fine.conversation_started", "{target_name}", target.getName()));
         }
     }
 
@@ -12,16 +12,15 @@ import org.bukkit.util.RayTraceResult;
 import org.bukkit.util.Vector;
 import org.isyateq.hfactions.models.Faction;
 import org.isyateq.hfactions.models.FactionType;
+import org.isyateq.hfactions.models.PlayerSession;
 import org.isyateq.hfactions.HFactions;
 import org.isyateq.hfactions.managers.ConfigManager;
 import org.isyateq.hfactions.managers.FactionManager;
 import org.isyateq.hfactions.managers.ItemManager;
+import org.isyateq.hfactions.managers.LocaleManager;
 import org.isyateq.hfactions.managers.PlayerManager;
 import org.isyateq.hfactions.util.Utils;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
 
 public class TaserListener implements Listener {
 
@@ -30,8 +29,10 @@ public class TaserListener implements Listener {
     private final PlayerManager playerManager;
     private final FactionManager factionManager;
     private final ConfigManager configManager;
+    private final LocaleManager localeManager;
 
-    private final Map<UUID, Long> cooldowns = new HashMap<>();
+    // Кулдаун хранится в сессии игрока и удаляется вместе с ней при выходе
+    private static final String COOLDOWN_KEY = "taser";
     private final long taserCooldownMillis;
 
     public TaserListener(HFactions plugin) {
@@ -40,6 +41,7 @@ public class TaserListener implements Listener {
         this.playerManager = plugin.getPlayerManager();
         this.factionManager = plugin.getFactionManager();
         this.configManager = plugin.getConfigManager();
+        this.localeManager = plugin.getLocaleManager();
         this.taserCooldownMillis = configManager.getTaserCooldownSeconds() * 1000L;
     }
 
@@ -58,10 +60,13 @@ public class TaserListener implements Listener {
 
         event.setCancelled(true); // Отменяем действие предмета
 
+        PlayerSession session = playerManager.getSession(player);
+        if (session == null) return; // Сессия еще не открыта (вход в процессе)
+
         // Проверка кулдауна
-        if (isOnCooldown(player.getUniqueId())) {
-            long timeLeft = getCooldownSecondsLeft(player.getUniqueId());
-            Utils.msg(player, configManager.getErrorColor() + "Тайзер перезаряжается... Повторите через " + timeLeft + " сек."); // TODO: lang
+        if (session.isOnCooldown(COOLDOWN_KEY)) {
+            long timeLeft = session.getCooldownRemaining(COOLDOWN_KEY) / 1000 + 1;
+            localeManager.send(player, "taser-cooldown", "{seconds}", timeLeft);
             return;
         }
 
@@ -73,10 +78,10 @@ public class TaserListener implements Listener {
 
         RayTraceResult result = world.rayTraceEntities(
                 eyeLocation, direction, range, 0.4,
-                entity -> entity instanceof LivingEntity && !entity.getUniqueId().equals(player.getUniqueId()) && canTarget(player, entity)
+                entity -> entity instanceof LivingEntity && !entity.getUniqueId().equals(player.getUniqueId()) && canTarget(session, player, entity)
         );
 
-        setCooldown(player.getUniqueId()); // Устанавливаем кулдаун СРАЗУ
+        session.setCooldown(COOLDOWN_KEY, taserCooldownMillis); // Устанавливаем кулдаун СРАЗУ
         Utils.playSound(player.getLocation(), configManager.getTaserSoundFire()); // Звук выстрела
 
         if (result != null && result.getHitEntity() instanceof LivingEntity) {
@@ -86,59 +91,41 @@ public class TaserListener implements Listener {
             Utils.applyEffectsFromStringList(target, configManager.getTaserHitEffects()); // Применяем эффекты
 
             if (target instanceof Player) {
-                Utils.msg(player, configManager.getSuccessColor() + "Вы успешно применили тайзер к игроку " + target.getName() + "!"); // TODO: lang
-                Utils.msg((Player) target, configManager.getErrorColor() + "Вас ударили тайзером!"); // TODO: lang
+                localeManager.send(player, "taser-hit-target", "{player}", target.getName());
+                localeManager.send((Player) target, "taser-hit-by");
             } else {
-                Utils.msg(player, configManager.getHighlightColor() + "Вы применили тайзер к " + target.getType().name().toLowerCase() + "."); // TODO: lang
+                localeManager.send(player, "taser-hit-target-mob", "{mob}", target.getType().name().toLowerCase());
             }
         } else if (result != null && result.getHitBlock() != null) {
             Utils.playSound(result.getHitPosition().toLocation(world), configManager.getTaserSoundHitBlock());
-            Utils.msg(player, configManager.getSecondaryColor() + "Выстрел тайзера попал в блок."); // TODO: lang
+            localeManager.send(player, "taser-hit-block");
         } else {
-            Utils.msg(player, configManager.getSecondaryColor() + "Вы промахнулись."); // TODO: lang
+            localeManager.send(player, "taser-miss");
         }
     }
 
-    // --- Управление кулдауном ---
-    private boolean isOnCooldown(UUID uuid) {
-        return cooldowns.getOrDefault(uuid, 0L) > System.currentTimeMillis();
-    }
-
-    private long getCooldownSecondsLeft(UUID uuid) {
-        long endTime = cooldowns.getOrDefault(uuid, 0L);
-        long currentTime = System.currentTimeMillis();
-        if (currentTime < endTime) {
-            return ((endTime - currentTime) / 1000) + 1;
-        }
-        return 0;
-    }
-
-    private void setCooldown(UUID uuid) {
-        cooldowns.put(uuid, System.currentTimeMillis() + taserCooldownMillis);
-    }
-
-
     /** Проверяет, можно ли атаковать данную цель */
-    private boolean canTarget(Player attacker, Entity target) {
+    private boolean canTarget(PlayerSession attackerSession, Player attacker, Entity target) {
         if (!(target instanceof Player)) return true; // Мобы - ок
         Player targetPlayer = (Player) target;
+        PlayerSession targetSession = playerManager.getSession(targetPlayer);
+        String attackerFactionId = attackerSession.getFactionId();
+        String targetFactionId = targetSession != null ? targetSession.getFactionId() : null;
 
         // Проверка на своих
         if (!configManager.allowTaserFriendlyFire()) {
-            Faction attackerFaction = playerManager.getPlayerFaction(attacker.getUniqueId());
-            Faction targetFaction = playerManager.getPlayerFaction(targetPlayer.getUniqueId());
-            if (attackerFaction != null && attackerFaction.equals(targetFaction)) {
-                Utils.msg(attacker, configManager.getErrorColor() + "Нельзя использовать тайзер против своих."); // TODO: lang
+            if (attackerFactionId != null && attackerFactionId.equals(targetFactionId)) {
+                localeManager.send(attacker, "taser-ff-denied");
                 return false;
             }
         }
         // Проверка гос -> гос
         if (!configManager.allowTaserStateOnStateFire()) {
-            Faction attackerFaction = playerManager.getPlayerFaction(attacker.getUniqueId());
-            Faction targetFaction = playerManager.getPlayerFaction(targetPlayer.getUniqueId());
+            Faction attackerFaction = attackerFactionId != null ? factionManager.getFaction(attackerFactionId) : null;
+            Faction targetFaction = targetFactionId != null ? factionManager.getFaction(targetFactionId) : null;
             if (attackerFaction != null && attackerFaction.getType() == FactionType.STATE &&
                     targetFaction != null && targetFaction.getType() == FactionType.STATE) {
-                Utils.msg(attacker, configManager.getErrorColor() + "Гос. служащие не могут применять тайзер друг против друга."); // TODO: lang
+                localeManager.send(attacker, "taser-state-denied");
                 return false;
             }
         }
@@ -0,0 +1,396 @@
+package org.isyateq.hfactions.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.util.MpscRingBuffer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * Журнал действий: фракционный чат, штрафы, действия с участниками и админские команды.
+ * <p>
+ * record() не блокирует вызывающий поток (в том числе поток асинхронного чата): запись кладется
+ * в ограниченный кольцевой буфер без блокировок. Единственный писатель забирает накопленное
+ * по таймеру или досрочно, когда набралось batch_size записей, и пишет одной транзакцией
+ * в таблицу audit_log. При переполнении буфера новые записи отбрасываются и считаются,
+ * сервер при этом не ждет диска.
+ */
+public final class AuditLog {
+
+    // Ключ упорядочивания сбросов и выборок в IoExecutor (выборка видит все записанное до нее)
+    private static final String FLUSH_KEY = "audit_log";
+    private static final String INSERT_SQL = "INSERT INTO audit_log (time, action, faction_id, actor_uuid, actor_name, target_uuid, target_name, details)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
+    // Длинные сообщения чата и причины обрезаются - журнал не должен расти из-за одной строки
+    private static final int MAX_DETAILS_LENGTH = 512;
+
+    private final HFactions plugin;
+    private final DatabaseManager databaseManager;
+
+    private final boolean enabled;
+    private final MpscRingBuffer<Entry> buffer;
+    private final long flushIntervalTicks;
+    private final int batchSize;
+    private final int retentionDays;
+    // Записи, не попавшие в БД из-за ошибки: пишутся первыми при следующем сбросе (только под flushLock)
+    private final List<Entry> carry = new ArrayList<>();
+    // Гарантирует единственного писателя (и единственного потребителя буфера)
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Поставлен ли уже сброс в исполнитель ввода-вывода
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private BukkitTask flushTask = null;
+
+    // --- Счетчики ---
+    private final AtomicLong recordedTotal = new AtomicLong();
+    private final AtomicLong droppedTotal = new AtomicLong();
+    private final AtomicLong writtenTotal = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    // Сколько отброшенных записей уже попало в предупреждение
+    private long reportedDropped = 0L;
+
+    public AuditLog(HFactions plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        ConfigManager cm = plugin.getConfigManager();
+        this.enabled = cm.isAuditLogEnabled();
+        this.buffer = new MpscRingBuffer<>(cm.getAuditLogBufferSize());
+        this.flushIntervalTicks = cm.getAuditLogFlushIntervalTicks();
+        this.batchSize = Math.min(cm.getAuditLogBatchSize(), buffer.capacity());
+        this.retentionDays = cm.getAuditLogRetentionDays();
+    }
+
+    /** Запускает периодический сброс и удаляет записи старше retention_days. */
+    public void start() {
+        if (!enabled) {
+            plugin.getLogger().info("Audit log is disabled.");
+            return;
+        }
+        stop();
+        flushTask = Bukkit.getScheduler().runTaskTimer(plugin, this::scheduleFlush, flushIntervalTicks, flushIntervalTicks);
+        if (retentionDays > 0) plugin.getIoExecutor().run(FLUSH_KEY, this::purgeExpired);
+        plugin.getLogger().info("Audit log started (buffer " + buffer.capacity() + ", every " + flushIntervalTicks + " ticks, batch " + batchSize
+                + (retentionDays > 0 ? ", kept " + retentionDays + " days)." : ", kept forever)."));
+    }
+
+    /** Останавливает периодический сброс (без записи оставшихся данных). */
+    public void stop() {
+        if (flushTask != null) {
+            try { flushTask.cancel(); } catch (IllegalStateException ignored) {}
+            flushTask = null;
+        }
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    // --- Запись ---
+
+    /** Действие игрока или консоли без цели (чат, создание фракции, админ-режим). */
+    public void record(Action action, String factionId, CommandSender actor, String details) {
+        record(action, factionId, actor, null, null, details);
+    }
+
+    /** Действие игрока или консоли над другим игроком. */
+    public void record(Action action, String factionId, CommandSender actor, UUID targetUuid, String targetName, String details) {
+        UUID actorUuid = actor instanceof Player player ? player.getUniqueId() : null;
+        String actorName = actor != null ? actor.getName() : null;
+        record(action, factionId, actorUuid, actorName, targetUuid, targetName, details);
+    }
+
+    /**
+     * Добавляет запись в журнал. Можно вызывать из любого потока; никогда не ждет ввода-вывода.
+     * Если буфер полон, запись отбрасывается (счетчик getDroppedTotal, предупреждение при сбросе).
+     */
+    public void record(Action action, String factionId, UUID actorUuid, String actorName, UUID targetUuid, String targetName, String details) {
+        if (!enabled || action == null) return;
+        if (details != null && details.length() > MAX_DETAILS_LENGTH) details = details.substring(0, MAX_DETAILS_LENGTH);
+        Entry entry = new Entry(System.currentTimeMillis(), action, factionId, actorUuid, actorName, targetUuid, targetName, details);
+        if (!buffer.offer(entry)) {
+            droppedTotal.incrementAndGet();
+            return;
+        }
+        recordedTotal.incrementAndGet();
+        if (buffer.size() >= batchSize) scheduleFlush();
+    }
+
+    // Сброс в исполнителе ввода-вывода; пропускается, если предыдущий еще не начался
+    private void scheduleFlush() {
+        if (buffer.isEmpty() || !flushScheduled.compareAndSet(false, true)) return;
+        IoExecutor io = plugin.getIoExecutor();
+        if (io == null || io.isShutdown()) {
+            flushScheduled.set(false);
+            return; // Выключение: все запишет drainSync()
+        }
+        io.run(FLUSH_KEY, () -> {
+            flushScheduled.set(false);
+            flush();
+        });
+    }
+
+    /** Записывает накопленное. Если сброс уже выполняется в другом потоке, вызов ничего не делает. */
+    public void flush() {
+        if (!flushLock.tryLock()) return;
+        try {
+            flushLocked();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /** Синхронно дожидается текущего сброса и записывает все оставшееся. Используется в onDisable. */
+    public void drainSync() {
+        if (!enabled) return;
+        stop();
+        flushLock.lock();
+        try {
+            int passes = 0;
+            while ((!buffer.isEmpty() || !carry.isEmpty()) && passes++ < 5) {
+                if (!flushLocked()) break;
+            }
+            if (!buffer.isEmpty() || !carry.isEmpty()) {
+                plugin.getLogger().severe("Audit log still has " + (buffer.size() + carry.size()) + " unsaved entries after shutdown drain!");
+            }
+        } finally {
+            flushLock.unlock();
+        }
+        plugin.getLogger().info("Audit log drained. Entries written: " + writtenTotal.get() + ", dropped: " + droppedTotal.get()
+                + ", max flush: " + String.format("%.2f", maxFlushNanos.get() / 1_000_000.0) + " ms.");
+    }
+
+    /** @return true, если запись прошла успешно (или нечего было писать). */
+    private boolean flushLocked() {
+        long dropped = droppedTotal.get();
+        if (dropped > reportedDropped) {
+            plugin.getLogger().warning("Audit log buffer was full: " + (dropped - reportedDropped) + " entries dropped (buffer size " + buffer.capacity() + ").");
+            reportedDropped = dropped;
+        }
+        // Весь буфер за один проход: пакеты по batch_size, каждый - отдельная транзакция
+        boolean success = true;
+        int budget = buffer.capacity();
+        while (budget > 0 && (!carry.isEmpty() || !buffer.isEmpty())) {
+            if (carry.size() < batchSize) budget -= buffer.drain(carry::add, batchSize - carry.size());
+            if (carry.isEmpty()) break;
+
+            long start = System.nanoTime();
+            success = insertBatch(carry);
+            long elapsed = System.nanoTime() - start;
+            maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+            flushCount.incrementAndGet();
+            if (!success) {
+                // Повторим при следующем сбросе; буфер тем временем продолжает принимать записи
+                failedFlushes.incrementAndGet();
+                plugin.getLogger().warning("Failed to write " + carry.size() + " audit log entries. They will be retried.");
+                break;
+            }
+            writtenTotal.addAndGet(carry.size());
+            carry.clear();
+        }
+        return success;
+    }
+
+    private boolean insertBatch(List<Entry> batch) {
+        try {
+            return databaseManager.getPool().write(conn -> {
+                Connection raw = conn.raw();
+                boolean previousAutoCommit = raw.getAutoCommit();
+                raw.setAutoCommit(false);
+                try {
+                    PreparedStatement pstmt = conn.prepare(INSERT_SQL);
+                    for (Entry entry : batch) {
+                        pstmt.setLong(1, entry.getTime());
+                        pstmt.setString(2, entry.getAction().name());
+                        setNullable(pstmt, 3, entry.getFactionId());
+                        setNullable(pstmt, 4, entry.getActorUuid() != null ? entry.getActorUuid().toString() : null);
+                        setNullable(pstmt, 5, entry.getActorName());
+                        setNullable(pstmt, 6, entry.getTargetUuid() != null ? entry.getTargetUuid().toString() : null);
+                        setNullable(pstmt, 7, entry.getTargetName());
+                        setNullable(pstmt, 8, entry.getDetails());
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                    raw.commit();
+                    return true;
+                } catch (SQLException e) {
+                    raw.rollback();
+                    plugin.getLogger().log(Level.SEVERE, "Could not write batch of " + batch.size() + " audit log entries!", e);
+                    return false;
+                } finally {
+                    raw.setAutoCommit(previousAutoCommit);
+                }
+            });
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Transaction error during audit log write!", e);
+            return false;
+        }
+    }
+
+    private static void setNullable(PreparedStatement pstmt, int index, String value) throws SQLException {
+        if (value != null) pstmt.setString(index, value); else pstmt.setNull(index, Types.VARCHAR);
+    }
+
+    private void purgeExpired() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        try {
+            int removed = databaseManager.getPool().write(conn -> {
+                PreparedStatement pstmt = conn.prepare("DELETE FROM audit_log WHERE time < ?;");
+                pstmt.setLong(1, cutoff);
+                return pstmt.executeUpdate();
+            });
+            if (removed > 0) plugin.getLogger().info("Removed " + removed + " audit log entries older than " + retentionDays + " days.");
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not remove expired audit log entries", e);
+        }
+    }
+
+    // --- Чтение ---
+
+    /**
+     * Страница журнала, новые записи первыми. Перед выборкой дописывает накопленное,
+     * чтобы в ответ попали только что совершенные действия.
+     * @param page номер страницы с 1
+     * @return future с записями страницы (завершается в потоке ввода-вывода)
+     */
+    public CompletableFuture<List<Entry>> query(Filter filter, int page, int pageSize) {
+        StringBuilder sql = new StringBuilder("SELECT time, action, faction_id, actor_uuid, actor_name, target_uuid, target_name, details FROM audit_log");
+        List<Object> params = new ArrayList<>(6);
+        String glue = " WHERE ";
+        if (filter.getFactionId() != null) { sql.append(glue).append("faction_id = ?"); params.add(filter.getFactionId()); glue = " AND "; }
+        if (filter.getPlayerUuid() != null) {
+            sql.append(glue).append("(actor_uuid = ? OR target_uuid = ?)");
+            params.add(filter.getPlayerUuid().toString());
+            params.add(filter.getPlayerUuid().toString());
+            glue = " AND ";
+        }
+        if (filter.getSince() > 0) { sql.append(glue).append("time >= ?"); params.add(filter.getSince()); glue = " AND "; }
+        if (filter.getAction() != null) { sql.append(glue).append("action = ?"); params.add(filter.getAction().name()); }
+        sql.append(" ORDER BY time DESC, id DESC LIMIT ? OFFSET ?;");
+        params.add((long) pageSize);
+        params.add((long) Math.max(0, page - 1) * pageSize);
+        String querySql = sql.toString();
+
+        return plugin.getIoExecutor().supply(FLUSH_KEY, () -> {
+            if (enabled) {
+                flushLock.lock();
+                try { flushLocked(); } finally { flushLock.unlock(); }
+            }
+            return databaseManager.getPool().read(conn -> {
+                PreparedStatement pstmt = conn.prepare(querySql);
+                for (int i = 0; i < params.size(); i++) pstmt.setObject(i + 1, params.get(i));
+                List<Entry> result = new ArrayList<>(pageSize);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        Action action = Action.parse(rs.getString("action"));
+                        if (action == null) continue; // Запись действия из более новой версии плагина
+                        result.add(new Entry(rs.getLong("time"), action, rs.getString("faction_id"),
+                                parseUuid(rs.getString("actor_uuid")), rs.getString("actor_name"),
+                                parseUuid(rs.getString("target_uuid")), rs.getString("target_name"), rs.getString("details")));
+                    }
+                }
+                return result;
+            });
+        });
+    }
+
+    private static UUID parseUuid(String value) {
+        if (value == null) return null;
+        try { return UUID.fromString(value); } catch (IllegalArgumentException e) { return null; }
+    }
+
+    // --- Метрики ---
+    public int getBufferDepth() { return buffer.size(); }
+    public long getRecordedTotal() { return recordedTotal.get(); }
+    public long getDroppedTotal() { return droppedTotal.get(); }
+    public long getWrittenTotal() { return writtenTotal.get(); }
+    public long getFlushCount() { return flushCount.get(); }
+    public long getFailedFlushes() { return failedFlushes.get(); }
+    public double getMaxFlushMillis() { return maxFlushNanos.get() / 1_000_000.0; }
+
+    /**
+     * Виды записей журнала. Имя хранится в колонке action.
+     */
+    public enum Action {
+        CHAT, FINE, KICK, PROMOTE, DEMOTE, SET_RANK, ADMIN_MODE, CREATE, DELETE, SET_BALANCE, DEPOSIT, WITHDRAW;
+
+        /** @return действие по имени без учета регистра или null. */
+        public static Action parse(String name) {
+            if (name == null) return null;
+            try { return valueOf(name.trim().toUpperCase(Locale.ROOT)); } catch (IllegalArgumentException e) { return null; }
+        }
+    }
+
+    /**
+     * Неизменяемая запись журнала.
+     */
+    public static final class Entry {
+        private final long time;
+        private final Action action;
+        private final String factionId;
+        private final UUID actorUuid;
+        private final String actorName;
+        private final UUID targetUuid;
+        private final String targetName;
+        private final String details;
+
+        public Entry(long time, Action action, String factionId, UUID actorUuid, String actorName, UUID targetUuid, String targetName, String details) {
+            this.time = time;
+            this.action = action;
+            this.factionId = factionId;
+            this.actorUuid = actorUuid;
+            this.actorName = actorName;
+            this.targetUuid = targetUuid;
+            this.targetName = targetName;
+            this.details = details;
+        }
+
+        public long getTime() { return time; }
+        public Action getAction() { return action; }
+        public String getFactionId() { return factionId; }
+        public UUID getActorUuid() { return actorUuid; }
+        public String getActorName() { return actorName; }
+        public UUID getTargetUuid() { return targetUuid; }
+        public String getTargetName() { return targetName; }
+        public String getDetails() { return details; }
+    }
+
+    /**
+     * Условия выборки /hf logs. null (или 0 для since) - условие не задано.
+     */
+    public static final class Filter {
+        private final String factionId;
+        private final UUID playerUuid;
+        private final long since;
+        private final Action action;
+
+        public Filter(String factionId, UUID playerUuid, long since, Action action) {
+            this.factionId = factionId;
+            this.playerUuid = playerUuid;
+            this.since = since;
+            this.action = action;
+        }
+
+        public String getFactionId() { return factionId; }
+        /** Игрок - автор или цель записи. */
+        public UUID getPlayerUuid() { return playerUuid; }
+        /** Время в мс, не раньше которого записи попадают в выборку. */
+        public long getSince() { return since; }
+        public Action getAction() { return action; }
+    }
+}
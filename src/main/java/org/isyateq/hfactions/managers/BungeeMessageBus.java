@@ -0,0 +1,97 @@
+package org.isyateq.hfactions.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.messaging.Messenger;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+import org.isyateq.hfactions.HFactions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Канал сообщений через прокси: команда Forward канала BungeeCord (поддерживается BungeeCord и Velocity)
+ * рассылает сообщение на все остальные серверы сети.
+ * <p>
+ * Сообщения плагинов идут через соединение игрока: без игроков онлайн сервер не может ни отправить,
+ * ни получить сообщение. Отправка в этом случае откладывается (publish возвращает false), а пропущенное
+ * сервер догоняет по версиям в БД при входе первого игрока.
+ */
+public final class BungeeMessageBus implements MessageBus, PluginMessageListener {
+
+    private static final String CHANNEL = "BungeeCord";
+    // Размер данных Forward передается как short, а все сообщение плагина ограничено ~32 КБ
+    private static final int MAX_MESSAGE_SIZE = 32000;
+
+    private final HFactions plugin;
+    private final String subchannel;
+    private volatile Consumer<byte[]> receiver = null;
+
+    public BungeeMessageBus(HFactions plugin, String subchannel) {
+        this.plugin = plugin;
+        this.subchannel = subchannel;
+    }
+
+    @Override
+    public String getName() { return "bungee:" + subchannel; }
+
+    @Override
+    public int getMaxMessageSize() { return MAX_MESSAGE_SIZE; }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        Messenger messenger = plugin.getServer().getMessenger();
+        messenger.registerOutgoingPluginChannel(plugin, CHANNEL);
+        messenger.registerIncomingPluginChannel(plugin, CHANNEL, this);
+    }
+
+    @Override
+    public boolean publish(byte[] message) {
+        if (message.length > MAX_MESSAGE_SIZE) return false; // Отправитель должен разбить сообщение
+        Iterator<? extends Player> online = Bukkit.getOnlinePlayers().iterator();
+        if (!online.hasNext()) return false; // Некому передать сообщение
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length + 32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF(subchannel);
+            out.writeShort(message.length);
+            out.write(message);
+            online.next().sendPluginMessage(plugin, CHANNEL, bytes.toByteArray());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not send sync message through the proxy", e);
+            return false;
+        }
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+        Consumer<byte[]> target = receiver;
+        if (target == null || !CHANNEL.equals(channel)) return;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+            if (!subchannel.equals(in.readUTF())) return; // Сообщения других плагинов
+            byte[] data = new byte[in.readUnsignedShort()];
+            in.readFully(data);
+            target.accept(data);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.FINE, "Ignored malformed proxy message", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        receiver = null;
+        Messenger messenger = plugin.getServer().getMessenger();
+        messenger.unregisterOutgoingPluginChannel(plugin, CHANNEL);
+        messenger.unregisterIncomingPluginChannel(plugin, CHANNEL, this);
+    }
+}
@@ -7,6 +7,8 @@ import org.bukkit.configuration.file.YamlConfiguration;
 
 // Локальные классы
 import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.util.MessageTemplate;
+import org.isyateq.hfactions.util.Placeholders;
 import org.isyateq.hfactions.util.Utils;
 
 // Утилиты Java
@@ -15,7 +17,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -31,6 +39,8 @@ public final class ConfigManager {
     private FileConfiguration config;
     private FileConfiguration factionsConfig;
     private FileConfiguration territoriesConfig;
+    // Разобранные сообщения; при перезагрузке заменяются целиком одной записью
+    private volatile MessageCatalog messages = MessageCatalog.EMPTY;
 
     /** Конструктор */
     public ConfigManager(HFactions plugin) {
@@ -44,6 +54,7 @@ public final class ConfigManager {
             plugin.getLogger().info("Loading config.yml..."); configFile = loadOrCreate("config.yml"); config = YamlConfiguration.loadConfiguration(configFile); loadDefaultsFromJar("config.yml", config);
             plugin.getLogger().info("Loading factions.yml..."); factionsConfigFile = loadOrCreate("factions.yml"); factionsConfig = YamlConfiguration.loadConfiguration(factionsConfigFile);
             plugin.getLogger().info("Loading territories.yml..."); territoriesConfigFile = loadOrCreate("territories.yml"); territoriesConfig = YamlConfiguration.loadConfiguration(territoriesConfigFile);
+            compileMessages();
             plugin.getLogger().info("Configurations finished loading.");
         } catch (Exception e) { plugin.getLogger().log(Level.SEVERE, "Fatal error loading configs!", e); success = false; }
         return success;
@@ -59,6 +70,8 @@ public final class ConfigManager {
             config = reloadSingleConfig(configFile, "config.yml", true);
             factionsConfig = reloadSingleConfig(factionsConfigFile, "factions.yml", false);
             territoriesConfig = reloadSingleConfig(territoriesConfigFile, "territories.yml", false);
+            compileMessages();
+            LocaleManager lm = plugin.getLocaleManager(); if (lm != null) lm.reload();
             if (fm != null) fm.reloadFactions();
             CraftingManager cm = plugin.getCraftingManager(); if (cm != null) { if (isCraftingEnabled()) cm.loadRecipes(); else cm.clearRecipes(); }
             DynmapManager dm = plugin.getDynmapManager(); if (dm != null) { if (isDynmapEnabled() && dm.isDynmapApiAvailable()) { dm.reloadTerritories(); } else if (!isDynmapEnabled() && dm.isDynmapApiAvailable()){ dm.clearAllMarkers(); } }
@@ -82,6 +95,21 @@ public final class ConfigManager {
     // --- Методы Сохранения ---
     public void saveFactionsConfig() { saveConfig(factionsConfig, factionsConfigFile, "factions.yml"); }
     public void saveTerritoriesConfig() { saveConfig(territoriesConfig, territoriesConfigFile, "territories.yml"); }
+    /** Сохраняет territories.yml в потоке ввода-вывода: YAML сериализуется сразу, в файл пишется копия. */
+    public CompletableFuture<Void> saveTerritoriesConfigAsync() { return saveConfigAsync(territoriesConfig, territoriesConfigFile, "territories.yml"); }
+    private CompletableFuture<Void> saveConfigAsync(FileConfiguration cfg, File file, String fileName) {
+        if (cfg == null || file == null) return CompletableFuture.completedFuture(null);
+        String data = cfg.saveToString(); // Снимок в вызывающем потоке - дальше конфиг можно менять
+        return plugin.getIoExecutor().run(fileName, () -> writeAtomically(file, data))
+                .exceptionally(error -> { plugin.getLogger().log(Level.SEVERE, "Could not save " + fileName, IoExecutor.unwrap(error)); return null; });
+    }
+    /** Пишет во временный файл рядом и атомарно подменяет им целевой - при сбое файл не останется недописанным. */
+    private static void writeAtomically(File file, String data) throws IOException {
+        Path target = file.toPath(); Path temp = target.resolveSibling(file.getName() + ".tmp");
+        Files.writeString(temp, data, StandardCharsets.UTF_8);
+        try { Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); }
+        catch (AtomicMoveNotSupportedException e) { Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING); }
+    }
     private void saveConfig(FileConfiguration cfg, File file, String fileName) { if(cfg==null||file==null)return;try{cfg.save(file);}catch(IOException ex){plugin.getLogger().log(Level.SEVERE,"Could not save "+fileName, ex);}}
 
     // --- Геттеры Конфигов ---
@@ -98,6 +126,7 @@ public final class ConfigManager {
     // ==================================================
     public boolean isDebugModeEnabled() { return getConfig().getBoolean("general.debug_mode", false); }
     public String getLanguage() { return getConfig().getString("general.language", "en"); }
+    public boolean isPerPlayerLanguage() { return getConfig().getBoolean("general.per_player_language", true); }
     public long getInviteExpireTicks() { return getConfig().getLong("faction.invite_expire_seconds", 60) * 20L; }
     public long getFactionSaveIntervalTicks() { return Math.max(200L, getConfig().getLong("faction.auto_save_interval_seconds", 300) * 20L); }
     public String getDefaultFactionColor() { return getConfig().getString("faction.defaults.color", "#FFFFFF"); }
@@ -108,6 +137,36 @@ public final class ConfigManager {
     public long getPaydayIntervalTicks() { return Math.max(1200L, getConfig().getLong("payday.interval_minutes", 60) * 60 * 20L); }
     public boolean isPaydayRequireOnline() { return getConfig().getBoolean("payday.require_online", true); }
     public int getPaydayMinPlaytimeMinutes() { return getConfig().getInt("payday.min_playtime_minutes", 0); }
+    public long getWriteQueueFlushIntervalTicks() { return Math.max(1L, getConfig().getLong("database.write_queue.flush_interval_ticks", 40L)); }
+    public int getWriteQueueBatchSize() { return Math.max(1, getConfig().getInt("database.write_queue.batch_size", 100)); }
+    public int getWriteQueueMaxPending() { return Math.max(getWriteQueueBatchSize(), getConfig().getInt("database.write_queue.max_pending", 5000)); }
+    public String getDatabaseFile() { return getConfig().getString("database.file", "").trim(); }
+    public int getDatabaseReadConnections() { return Math.max(0, getConfig().getInt("database.pool.read_connections", 2)); }
+    public long getDatabaseMmapSizeBytes() { return Math.max(0L, getConfig().getLong("database.sqlite.mmap_size_mb", 64L)) * 1024L * 1024L; }
+    public int getDatabaseBusyTimeoutMs() { return Math.max(0, getConfig().getInt("database.sqlite.busy_timeout_ms", 5000)); }
+    public long getPrefetchTtlSeconds() { return Math.max(5L, getConfig().getLong("database.prefetch_ttl_seconds", 30L)); }
+    public boolean isItemCodecCompressionEnabled() { return getConfig().getBoolean("database.item_codec.compress", true); }
+    public int getDatabaseCacheSizeKb() { return Math.max(0, getConfig().getInt("database.sqlite.cache_size_kb", 8192)); }
+    public int getIoMaxConcurrency() { return Math.max(1, getConfig().getInt("io.max_concurrency", 4)); }
+    public long getIoShutdownTimeoutMillis() { return Math.max(0L, getConfig().getLong("io.shutdown_timeout_ms", 10000L)); }
+    public int getMigrationChunkSize() { return Math.max(1, getConfig().getInt("database.migrations.chunk_size", 1000)); }
+    public long getMigrationChunkPauseMillis() { return Math.max(0L, getConfig().getLong("database.migrations.chunk_pause_ms", 50L)); }
+    public int getOfflineCacheMaxSize() { return Math.max(1, getConfig().getInt("database.offline_cache.max_size", 2000)); }
+    public long getOfflineCacheExpireSeconds() { return Math.max(1L, getConfig().getLong("database.offline_cache.expire_seconds", 300L)); }
+    public boolean isAuditLogEnabled() { return getConfig().getBoolean("audit_log.enabled", true); }
+    public int getAuditLogBufferSize() { return Math.max(16, getConfig().getInt("audit_log.buffer_size", 8192)); }
+    public long getAuditLogFlushIntervalTicks() { return Math.max(1L, getConfig().getLong("audit_log.flush_interval_ticks", 100L)); }
+    public int getAuditLogBatchSize() { return Math.max(1, getConfig().getInt("audit_log.batch_size", 500)); }
+    public int getAuditLogRetentionDays() { return Math.max(0, getConfig().getInt("audit_log.retention_days", 30)); }
+    public int getAuditLogPageSize() { return Math.max(1, getConfig().getInt("audit_log.page_size", 10)); }
+    public boolean isSyncEnabled() { return getConfig().getBoolean("sync.enabled", false); }
+    public String getSyncBus() { return getConfig().getString("sync.bus", "bungee").trim().toLowerCase(); }
+    public String getSyncServerId() { return getConfig().getString("sync.server_id", "").trim(); }
+    public String getSyncChannel() { return getConfig().getString("sync.channel", "HFactionsSync"); }
+    public long getSyncFlushIntervalTicks() { return Math.max(1L, getConfig().getLong("sync.flush_interval_ticks", 1L)); }
+    public int getSyncMaxChangesPerMessage() { return Math.max(1, getConfig().getInt("sync.max_changes_per_message", 200)); }
+    public boolean isNametagsEnabled() { return getConfig().getBoolean("nametags.enabled", true); }
+    public boolean isFactionChatEnabled() { return getConfig().getBoolean("faction_chat.enabled", true); }
     public String getFactionChatFormat() { return getConfig().getString("faction_chat.format", "&b[Фракция] {prefix} {player}&f: {message}"); }
     private String getItemName(String path, String def) { return Utils.color(getConfig().getString(path + ".name", def)); }
     private List<String> getItemLore(String path) { return getConfig().getStringList(path + ".lore").stream().map(Utils::color).collect(Collectors.toList()); }
@@ -122,6 +181,27 @@ public final class ConfigManager {
     public boolean isDrugsEnabled() { return getConfig().getBoolean("mechanics.drugs.enabled", false); } public boolean isQuestsEnabled() { return getConfig().getBoolean("quests.enabled", false); }
 
     // --- Сообщения ---
+    // Все строки из секции messages разбираются в шаблоны один раз (при загрузке и /hf reload):
+    // цвета применены заранее, подстановки рендерятся за один проход.
+
+    /** Разбирает секцию messages в новый каталог и атомарно подменяет им текущий. */
+    private void compileMessages() {
+        Map<String, MessageTemplate> compiled = new HashMap<>();
+        ConfigurationSection section = config != null ? config.getConfigurationSection("messages") : null;
+        if (section != null) {
+            for (String key : section.getKeys(true)) {
+                if (section.isString(key)) compiled.put(key, MessageTemplate.compile(section.getString(key)));
+            }
+        }
+        messages = new MessageCatalog(compiled);
+        plugin.getLogger().fine("Compiled " + compiled.size() + " messages.");
+    }
+
+    /** @return разобранное сообщение messages.path или null, если его нет в конфиге. */
+    public MessageTemplate getMessageTemplate(String path) {
+        return messages.compiled.get(path);
+    }
+
     /**
      * Получает форматированное сообщение из конфига.
      * @param path Путь к сообщению (начиная с 'messages.').
@@ -129,9 +209,7 @@ public final class ConfigManager {
      * @return Отформатированное сообщение или отформатированное значение по умолчанию.
      */
     public String getMessage(String path, String defaultMessage) {
-        String message = getConfig().getString("messages." + path, defaultMessage);
-        // Проверка на null перед форматированием
-        return Utils.color(message != null ? message : defaultMessage);
+        return template(path, defaultMessage).render();
     }
     /**
      * Получает форматированное сообщение из конфига, используя ключ как дефолтное, если не найдено.
@@ -139,9 +217,32 @@ public final class ConfigManager {
      * @return Отформатированное сообщение.
      */
     public String getMessage(String path) {
-        // Убраны лишние аргументы label и usage
         return getMessage(path, "&cMissing message: messages." + path);
     }
+    /**
+     * Сообщение с подстановками.
+     * @param placeholderPairs пары "{name}", значение
+     */
+    public String getMessage(String path, String firstKey, Object firstValue, Object... placeholderPairs) {
+        return getMessage(path, Placeholders.of(firstKey, firstValue).withAll(placeholderPairs));
+    }
+    /** Сообщение с подстановками из context. */
+    public String getMessage(String path, Placeholders context) {
+        return template(path, "&cMissing message: messages." + path).render(context);
+    }
+    /** @return отформатированный префикс сообщений (messages.prefix). */
+    public String getMessagePrefix() {
+        return template("prefix", "&e[HFactions] &r").render();
+    }
+
+    private MessageTemplate template(String path, String defaultMessage) {
+        MessageCatalog catalog = messages;
+        MessageTemplate template = catalog.compiled.get(path);
+        if (template != null) return template;
+        // Значения по умолчанию тоже разбираются один раз (до следующей перезагрузки)
+        return catalog.defaults.computeIfAbsent(defaultMessage != null ? defaultMessage : "", MessageTemplate::compile);
+    }
+
     /**
      * Получает форматированный список сообщений.
      * @param path Путь к списку.
@@ -156,4 +257,19 @@ public final class ConfigManager {
         return messages.stream().map(Utils::color).collect(Collectors.toList());
     }
 
+    /**
+     * Неизменяемый набор разобранных сообщений.
+     */
+    private static final class MessageCatalog {
+        private static final MessageCatalog EMPTY = new MessageCatalog(Collections.emptyMap());
+
+        private final Map<String, MessageTemplate> compiled;
+        // Значение по умолчанию -> шаблон (сообщения, которых нет в конфиге)
+        private final Map<String, MessageTemplate> defaults = new ConcurrentHashMap<>();
+
+        private MessageCatalog(Map<String, MessageTemplate> compiled) {
+            this.compiled = Collections.unmodifiableMap(compiled);
+        }
+    }
+
 } // Конец класса ConfigManager
\ No newline at end of file
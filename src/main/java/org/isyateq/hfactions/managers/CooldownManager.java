@@ -4,6 +4,10 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Глобальные кулдауны по строковым ключам (не привязанные к игроку онлайн).
+ * Кулдауны игроков хранятся в {@link org.isyateq.hfactions.models.PlayerSession} и удаляются при выходе.
+ */
 public class CooldownManager {
 
     // Мапа для хранения времени окончания кулдауна
@@ -12,13 +12,13 @@ import org.bukkit.scheduler.BukkitTask; // Используем BukkitTask дл
 // HFactions Imports
 import org.isyateq.hfactions.HFactions;
 import org.isyateq.hfactions.models.Faction;
+import org.isyateq.hfactions.models.PlayerSession;
 import org.isyateq.hfactions.tasks.CuffLeashTask; // Импорт задачи
 import org.isyateq.hfactions.util.Utils; // Для color и safe location
 import org.isyateq.hfactions.models.FactionType;
 
 // Java Imports
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 public class CuffManager {
@@ -28,10 +28,8 @@ public class CuffManager {
     private final PlayerManager playerManager; // Нужен для проверки фракций/статусов
     private final FactionManager factionManager;
 
-    // Игрок в наручниках (UUID) -> Тот, кто надел (UUID)
-    private final Map<UUID, UUID> cuffedPlayers = new ConcurrentHashMap<>();
-    // Игрок в наручниках (UUID) -> Задача "поводка"
-    private final Map<UUID, BukkitTask> leashTasks = new ConcurrentHashMap<>(); // Храним BukkitTask
+    // Состояние наручников (кто надел, задача "поводка", кого ведет) хранится в PlayerSession
+    // и исчезает вместе с сессией при выходе игрока
 
     // Настройки из конфига (кэшируем для производительности)
     private List<PotionEffect> cuffEffects;
@@ -159,12 +157,16 @@ public class CuffManager {
             return;
         }
 
+        PlayerSession cuffedSession = session(cuffed.getUniqueId());
+        PlayerSession cufferSession = session(cuffer.getUniqueId());
+        if (cuffedSession == null || cufferSession == null) return; // Кто-то из игроков уже вышел
+
         // Проверка, не находится ли цель уже в наручниках
-        if (isCuffed(cuffed)) {
-            Player currentCuffer = Bukkit.getPlayer(cuffedPlayers.get(cuffed.getUniqueId()));
+        if (cuffedSession.isCuffed()) {
+            Player currentCuffer = Bukkit.getPlayer(cuffedSession.getCuffedBy());
             String cufferName = currentCuffer != null ? currentCuffer.getName() : "someone";
-            String msg = configManager.getMessage("handcuffs.already_cuffed");
-            cuffer.sendMessage(Utils.color(msg.replace("{target_name}", cuffed.getName()).replace("{cuffer_name}", cufferName)));
+            cuffer.sendMessage(configManager.getMessage("handcuffs.already_cuffed",
+                    "{target_name}", cuffed.getName(), "{cuffer_name}", cufferName));
             return;
         }
 
@@ -179,7 +181,8 @@ public class CuffManager {
 
 
         // Надеваем наручники
-        cuffedPlayers.put(cuffed.getUniqueId(), cuffer.getUniqueId());
+        cuffedSession.setCuffedBy(cuffer.getUniqueId());
+        cufferSession.addCuffing(cuffed.getUniqueId());
         plugin.getLogger().info(cuffer.getName() + " cuffed " + cuffed.getName());
 
         // Применяем эффекты
@@ -191,10 +194,8 @@ public class CuffManager {
         }
 
         // Отправляем сообщения
-        String targetMsg = configManager.getMessage("handcuffs.cuffed_target");
-        cuffed.sendMessage(Utils.color(targetMsg.replace("{cuffer_name}", cuffer.getName())));
-        String cufferMsg = configManager.getMessage("handcuffs.cuffed_cuffer");
-        cuffer.sendMessage(Utils.color(cufferMsg.replace("{target_name}", cuffed.getName())));
+        cuffed.sendMessage(configManager.getMessage("handcuffs.cuffed_target", "{cuffer_name}", cuffer.getName()));
+        cuffer.sendMessage(configManager.getMessage("handcuffs.cuffed_cuffer", "{target_name}", cuffed.getName()));
 
         // Звук (если настроено)
         playSound(cuffed.getLocation(), configManager.getConfig().getString("mechanics.handcuffs.sounds.cuff"));
@@ -212,12 +213,12 @@ public class CuffManager {
         if (cuffed == null) return false;
         UUID cuffedUuid = cuffed.getUniqueId();
 
-        UUID originalCufferUuid = cuffedPlayers.get(cuffedUuid);
+        PlayerSession cuffedSession = session(cuffedUuid);
+        UUID originalCufferUuid = cuffedSession != null ? cuffedSession.getCuffedBy() : null;
         if (originalCufferUuid == null) {
             // Игрок не в наручниках
             if (remover != null && configManager != null) { // Сообщаем только если есть кому сообщать
-                String msg = configManager.getMessage("handcuffs.not_cuffed").replace("{target_name}", cuffed.getName());
-                remover.sendMessage(Utils.color(msg));
+                remover.sendMessage(configManager.getMessage("handcuffs.not_cuffed", "{target_name}", cuffed.getName()));
             }
             return false;
         }
@@ -247,7 +248,9 @@ public class CuffManager {
 
 
         // Снимаем наручники
-        cuffedPlayers.remove(cuffedUuid);
+        cuffedSession.setCuffedBy(null);
+        PlayerSession cufferSession = session(originalCufferUuid);
+        if (cufferSession != null) cufferSession.removeCuffing(cuffedUuid);
         stopLeashTask(cuffedUuid); // Останавливаем поводок
         removeCuffEffects(cuffed); // Снимаем эффекты
 
@@ -257,12 +260,10 @@ public class CuffManager {
 
         // Отправляем сообщения
         if (configManager != null) {
-            String targetMsg = configManager.getMessage("handcuffs.uncuffed_target");
-            cuffed.sendMessage(Utils.color(targetMsg.replace("{remover_name}", removerName)));
+            cuffed.sendMessage(configManager.getMessage("handcuffs.uncuffed_target", "{remover_name}", removerName));
 
             if (remover != null && !force) { // Не сообщаем админу при форсе?
-                String removerMsg = configManager.getMessage("handcuffs.uncuffed_remover");
-                remover.sendMessage(Utils.color(removerMsg.replace("{target_name}", cuffed.getName())));
+                remover.sendMessage(configManager.getMessage("handcuffs.uncuffed_remover", "{target_name}", cuffed.getName()));
             }
         }
 
@@ -275,10 +276,11 @@ public class CuffManager {
     // --- Проверки состояния и правил ---
 
     public boolean isCuffed(Player player) {
-        return player != null && cuffedPlayers.containsKey(player.getUniqueId());
+        return player != null && isCuffed(player.getUniqueId());
     }
     public boolean isCuffed(UUID uuid) {
-        return uuid != null && cuffedPlayers.containsKey(uuid);
+        PlayerSession session = session(uuid);
+        return session != null && session.isCuffed();
     }
 
 
@@ -288,10 +290,15 @@ public class CuffManager {
      * @return UUID "ведущего" или null, если игрок не в наручниках.
      */
     public UUID getWhoCuffed(Player cuffedPlayer) {
-        return cuffedPlayer != null ? cuffedPlayers.get(cuffedPlayer.getUniqueId()) : null;
+        return cuffedPlayer != null ? getWhoCuffed(cuffedPlayer.getUniqueId()) : null;
     }
     public UUID getWhoCuffed(UUID cuffedUuid) {
-        return cuffedUuid != null ? cuffedPlayers.get(cuffedUuid) : null;
+        PlayerSession session = session(cuffedUuid);
+        return session != null ? session.getCuffedBy() : null;
+    }
+
+    private PlayerSession session(UUID uuid) {
+        return uuid != null && playerManager != null ? playerManager.getSession(uuid) : null;
     }
 
 
@@ -417,7 +424,9 @@ public class CuffManager {
         CuffLeashTask leashTaskRunnable = new CuffLeashTask(plugin, cuffedUuid, cuffer.getUniqueId());
         // Запускаем задачу с интервалом из конфига
         BukkitTask task = leashTaskRunnable.runTaskTimer(plugin, leashCheckInterval, leashCheckInterval);
-        leashTasks.put(cuffedUuid, task);
+        PlayerSession session = session(cuffedUuid);
+        if (session != null) session.setLeashTask(task);
+        else task.cancel(); // Игрок вышел - поводок не нужен
         plugin.getLogger().fine("Started leash task for cuffed player: " + cuffed.getName());
     }
 
@@ -425,8 +434,10 @@ public class CuffManager {
      * Останавливает задачу "поводка" для игрока. Вызывается из самой задачи или при снятии наручников.
      */
     public void stopLeashTask(UUID cuffedUuid) {
-        if (cuffedUuid == null) return;
-        BukkitTask task = leashTasks.remove(cuffedUuid);
+        PlayerSession session = session(cuffedUuid);
+        if (session == null) return;
+        BukkitTask task = session.getLeashTask();
+        session.setLeashTask(null);
         if (task != null) {
             try {
                 if (!task.isCancelled()) { // Проверяем перед отменой
@@ -444,23 +455,17 @@ public class CuffManager {
     // --- Обработка выхода игрока ---
     public void handlePlayerQuit(Player player) {
         if (player == null) return;
-        UUID uuid = player.getUniqueId();
+        PlayerSession session = session(player.getUniqueId());
+        if (session == null) return;
 
         // Если игрок был в наручниках, освобождаем его
-        if (cuffedPlayers.containsKey(uuid)) {
+        if (session.isCuffed()) {
             plugin.getLogger().info("Player " + player.getName() + " quit while cuffed. Uncuffing...");
             uncuffPlayer(player, null, true); // Снимаем принудительно без уведомителя
         }
 
-        // Если игрок кого-то вел, освобождаем ведомого
-        // Проходим по всем закованным и ищем, не этот ли игрок их вел
-        UUID playerUuid = player.getUniqueId();
-        List<UUID> toUncuff = new ArrayList<>();
-        for (Map.Entry<UUID, UUID> entry : cuffedPlayers.entrySet()) {
-            if (playerUuid.equals(entry.getValue())) { // Если UUID вышедшего = UUID ведущего
-                toUncuff.add(entry.getKey()); // Добавляем UUID закованного в список
-            }
-        }
+        // Если игрок кого-то вел, освобождаем ведомых (сессия знает их сама - без обхода всех закованных)
+        List<UUID> toUncuff = new ArrayList<>(session.getCuffing());
 
         if (!toUncuff.isEmpty()) {
             plugin.getLogger().info("Cuffer " + player.getName() + " quit. Uncuffing " + toUncuff.size() + " players...");
@@ -469,9 +474,8 @@ public class CuffManager {
                 if (cuffedPlayerToRelease != null && cuffedPlayerToRelease.isOnline()) {
                     uncuffPlayer(cuffedPlayerToRelease, null, true); // Снимаем принудительно
                 } else {
-                    // Если ведомый тоже оффлайн, просто удаляем запись
-                    cuffedPlayers.remove(cuffedUuidToRelease);
-                    stopLeashTask(cuffedUuidToRelease);
+                    // Ведомый уже оффлайн - его сессия закрыта вместе с состоянием наручников
+                    session.removeCuffing(cuffedUuidToRelease);
                 }
             }
         }
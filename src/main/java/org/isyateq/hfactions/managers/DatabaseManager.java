@@ -1,18 +1,40 @@
 package org.isyateq.hfactions.managers;
 
-import org.bukkit.Bukkit;
 import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.migrations.MigrationEngine;
+import org.isyateq.hfactions.migrations.Migrations;
+import org.isyateq.hfactions.models.PlayerRecord;
 
 import java.io.File;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 public class DatabaseManager {
 
     private final HFactions plugin;
-    private Connection connection;
-    private final String dbPath;
+    private String dbPath;
+    // Сколько UUID в одном запросе WHERE uuid IN (...) (лимит параметров SQLite - 999 в старых сборках)
+    private static final int BULK_CHUNK_SIZE = 500;
+    // Долгоживущие соединения (null до initialize())
+    private SqliteConnectionPool pool = null;
+    // Очередь отложенной пакетной записи player_data (null, пока не запущена)
+    private PlayerDataWriteQueue writeQueue = null;
+    // Ключ упорядочивания массовых записей player_data в IoExecutor
+    static final String PLAYER_DATA_KEY = "player_data";
+    // Кэш записей оффлайн игроков (создается в initialize() по настройкам database.offline_cache)
+    private volatile PlayerRecordCache recordCache = null;
+    // Upsert вместо INSERT OR REPLACE: не затирает last_seen, который пишется отдельно при выходе,
+    // и увеличивает версию строки для оптимистичных изменений оффлайн игроков
+    private static final String UPSERT_PLAYER_DATA_SQL = "INSERT INTO player_data (uuid, faction_id, rank_id) VALUES(?, ?, ?)"
+            + " ON CONFLICT(uuid) DO UPDATE SET faction_id = excluded.faction_id, rank_id = excluded.rank_id, version = player_data.version + 1;";
 
     public DatabaseManager(HFactions plugin) {
         this.plugin = plugin;
@@ -22,168 +44,541 @@ public class DatabaseManager {
             dataFolder.mkdirs();
         }
         this.dbPath = "jdbc:sqlite:" + dataFolder.getAbsolutePath() + File.separator + "playerdata.db";
-        // Инициализация происходит при первом получении соединения
+        // Соединения открываются в initialize() после загрузки конфигов
     }
 
     // --- Управление соединением ---
 
-    // Получаем соединение, создаем БД и таблицу если нужно
-    public Connection getConnection() throws SQLException {
-        if (connection == null || connection.isClosed()) {
+    /**
+     * Открывает пул соединений, один раз создает таблицы и запускает очередь записи.
+     * Вызывается после загрузки конфигов (настройки из секции database).
+     */
+    public synchronized void initialize() {
+        if (pool == null) {
+            SqliteConnectionPool newPool = null;
             try {
-                // Загружаем драйвер (на всякий случай)
-                Class.forName("org.sqlite.JDBC");
-                connection = DriverManager.getConnection(dbPath);
-                plugin.getLogger().info("SQLite connection established.");
-                // Инициализируем таблицу после успешного соединения
+                newPool = createPool();
+                newPool.open();
+                pool = newPool;
                 initializeDatabaseTable();
-            } catch (ClassNotFoundException e) {
-                plugin.getLogger().log(Level.SEVERE, "SQLite JDBC Driver not found!", e);
-                throw new SQLException("SQLite JDBC Driver not found!", e); // Пробрасываем исключение
             } catch (SQLException e) {
                 plugin.getLogger().log(Level.SEVERE, "Could not connect to SQLite database!", e);
-                throw e; // Пробрасываем исключение
+                if (newPool != null) newPool.close();
+                return;
             }
         }
-        return connection;
+        ConfigManager cm = plugin.getConfigManager();
+        int cacheSize = cm != null ? cm.getOfflineCacheMaxSize() : 2000;
+        long cacheTtl = cm != null ? cm.getOfflineCacheExpireSeconds() : 300L;
+        recordCache = new PlayerRecordCache(cacheSize, cacheTtl, this::loadPlayerRecord);
+        startWriteQueue();
     }
 
-    public void closeConnection() {
-        if (connection != null) {
-            try {
-                if (!connection.isClosed()) {
-                    connection.close();
-                    plugin.getLogger().info("SQLite connection closed.");
+    // Пул по настройкам database.* из конфига (файл БД, число читателей, параметры SQLite)
+    private SqliteConnectionPool createPool() throws SQLException {
+        ConfigManager cm = plugin.getConfigManager();
+        if (cm == null) throw new SQLException("Database settings are not loaded yet (ConfigManager is missing)");
+        // Общий для серверов сети файл БД (database.file); по умолчанию - data/playerdata.db в папке плагина
+        String sharedFile = cm.getDatabaseFile();
+        if (!sharedFile.isEmpty()) {
+            File file = new File(sharedFile);
+            File parent = file.getAbsoluteFile().getParentFile();
+            //noinspection ResultOfMethodCallIgnored
+            if (parent != null && !parent.exists()) parent.mkdirs();
+            dbPath = "jdbc:sqlite:" + file.getAbsolutePath();
+            plugin.getLogger().info("Using shared database file " + file.getAbsolutePath());
+        }
+        return new SqliteConnectionPool(plugin, dbPath, cm.getDatabaseReadConnections(), cm.getDatabaseMmapSizeBytes(),
+                cm.getDatabaseBusyTimeoutMs(), cm.getDatabaseCacheSizeKb());
+    }
+
+    // Пул соединений; если initialize() еще не вызывался (или не смог открыть БД) - открываем с теми же настройками
+    private SqliteConnectionPool pool() throws SQLException {
+        SqliteConnectionPool current = pool;
+        if (current == null) {
+            synchronized (this) {
+                if (pool == null) {
+                    SqliteConnectionPool newPool = createPool();
+                    newPool.open();
+                    pool = newPool;
+                    initializeDatabaseTable();
                 }
-            } catch (SQLException e) {
-                plugin.getLogger().log(Level.SEVERE, "Error closing SQLite connection!", e);
+                current = pool;
             }
-            connection = null; // Сбрасываем ссылку
         }
+        return current;
     }
 
-    // --- Инициализация таблицы ---
+    // Исполнитель ввода-вывода плагина (создается в onEnable до initialize())
+    private IoExecutor io() {
+        return plugin.getIoExecutor();
+    }
 
-    private void initializeDatabaseTable() {
-        // Используем getConnection(), который уже содержит логику подключения
-        // Обертка в try-with-resources для Statement
-        String sql = "CREATE TABLE IF NOT EXISTS player_data (" +
-                " uuid TEXT PRIMARY KEY NOT NULL," +
-                " faction_id TEXT," +
-                " rank_id INTEGER" +
-                ");";
+    /** Пул соединений для других хранилищ в той же БД (FactionStorage). */
+    SqliteConnectionPool getPool() throws SQLException {
+        return pool();
+    }
 
-        try (Connection conn = getConnection(); // Получаем соединение (создаст, если нужно)
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(sql);
-            plugin.getLogger().info("Player data table initialized successfully.");
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not initialize player data table!", e);
-            // Consider disabling the plugin or parts of it if the DB is essential and fails here
+    // --- Очередь записи ---
+
+    /**
+     * Создает и запускает очередь отложенной записи player_data.
+     * Настройки берутся из секции database.write_queue.
+     */
+    public void startWriteQueue() {
+        if (writeQueue != null) {
+            writeQueue.drainSync();
+        }
+        ConfigManager cm = plugin.getConfigManager();
+        long interval = cm != null ? cm.getWriteQueueFlushIntervalTicks() : 40L;
+        // С синхронизацией серверов изменения игроков должны попасть в БД (и к другим серверам) за тик-два
+        if (cm != null && cm.isSyncEnabled()) interval = Math.min(interval, cm.getSyncFlushIntervalTicks());
+        int batchSize = cm != null ? cm.getWriteQueueBatchSize() : 100;
+        int maxPending = cm != null ? cm.getWriteQueueMaxPending() : 5000;
+        writeQueue = new PlayerDataWriteQueue(plugin, this, interval, batchSize, maxPending);
+        writeQueue.start();
+    }
+
+    /**
+     * Синхронно записывает все, что накопилось в очереди. Вызывать в onDisable ДО closeConnection().
+     */
+    public void drainWriteQueue() {
+        if (writeQueue != null) {
+            plugin.getLogger().info("Draining player data write queue (" + writeQueue.getQueueDepth() + " pending)...");
+            writeQueue.drainSync();
+            plugin.getLogger().info("Player data write queue drained. Flushes: " + writeQueue.getFlushCount()
+                    + ", rows written: " + writeQueue.getWrittenTotal()
+                    + ", coalesced: " + writeQueue.getCoalescedTotal()
+                    + ", max flush: " + String.format("%.2f", writeQueue.getMaxFlushMillis()) + " ms.");
         }
     }
 
+    public PlayerDataWriteQueue getWriteQueue() { return writeQueue; }
+
+    public synchronized void closeConnection() {
+        if (pool != null) {
+            pool.close();
+            pool = null; // Сбрасываем ссылку
+        }
+    }
+
+    // --- Инициализация схемы ---
+
+    // Выполняется один раз при открытии пула: применяет еще не примененные миграции (см. migrations.Migrations)
+    private void initializeDatabaseTable() throws SQLException {
+        ConfigManager cm = plugin.getConfigManager();
+        int chunkSize = cm != null ? cm.getMigrationChunkSize() : 1000;
+        long pauseMillis = cm != null ? cm.getMigrationChunkPauseMillis() : 50L;
+        MigrationEngine engine = new MigrationEngine(plugin, pool, Migrations.all(), chunkSize, pauseMillis);
+        int applied = engine.migrate();
+        plugin.getLogger().info("Database schema initialized successfully (" + applied + " migration(s) applied at startup).");
+    }
+
     // --- Методы для работы с данными игрока ---
 
     public void loadPlayerDataAsync(UUID playerUuid, PlayerDataCallback callback) {
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            String sql = "SELECT faction_id, rank_id FROM player_data WHERE uuid = ?;";
-            String factionId = null;
-            Integer rankId = null;
-
-            try (Connection conn = getConnection(); // Получаем соединение
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        // Возвращаемся в основной поток для обновления данных в PlayerManager
+        loadPlayerData(playerUuid).whenCompleteAsync((row, error) -> {
+            if (error != null) {
+                plugin.getLogger().log(Level.SEVERE, "Could not load player data for " + playerUuid, IoExecutor.unwrap(error));
+                callback.onQueryDone(null, null);
+                return;
+            }
+            callback.onQueryDone(row != null ? row.getFactionId() : null, row != null ? row.getRankId() : null);
+        }, io().mainThread());
+    }
 
-                pstmt.setString(1, playerUuid.toString());
-                ResultSet rs = pstmt.executeQuery();
+    /**
+     * Загружает данные игрока в потоке ввода-вывода (по порядку с другими задачами этого UUID).
+     * Если для игрока есть еще не записанные данные - они актуальнее, чем в БД.
+     * @return future с состоянием игрока или null, если записи нет.
+     */
+    public CompletableFuture<PlayerDataWriteQueue.PendingWrite> loadPlayerData(UUID playerUuid) {
+        PlayerDataWriteQueue.PendingWrite pendingWrite = getPendingWrite(playerUuid);
+        if (pendingWrite != null) return CompletableFuture.completedFuture(pendingWrite);
+        return io().supply(playerUuid, () -> loadPlayerDataBlocking(playerUuid));
+    }
 
-                if (rs.next()) {
-                    factionId = rs.getString("faction_id");
-                    int tempRankId = rs.getInt("rank_id");
-                    if (!rs.wasNull()) {
-                        rankId = tempRankId;
-                    }
-                }
-                // Закрываем ResultSet явно (хотя try-with-resources для PreparedStatement обычно этого достаточно)
-                rs.close();
-            } catch (SQLException e) {
-                plugin.getLogger().log(Level.SEVERE, "Could not load player data for " + playerUuid, e);
-                // Важно обработать ошибку - возможно, вызвать callback с null значениями
-                Bukkit.getScheduler().runTask(plugin, () -> callback.onQueryDone(null, null));
-                return; // Прерываем выполнение асинхронной задачи
+    /**
+     * Читает данные игрока в текущем потоке (НЕ вызывать из основного потока).
+     * Учитывает еще не записанные данные из очереди.
+     * @return состояние игрока или null, если записи нет.
+     */
+    public PlayerDataWriteQueue.PendingWrite loadPlayerDataBlocking(UUID playerUuid) throws SQLException {
+        PlayerDataWriteQueue.PendingWrite pendingWrite = getPendingWrite(playerUuid);
+        if (pendingWrite != null) return pendingWrite;
+        String sql = "SELECT faction_id, rank_id FROM player_data WHERE uuid = ?;";
+        return pool().read(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql); // Закэширован пулом, не закрываем
+            pstmt.setString(1, playerUuid.toString());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) return null;
+                String rowFaction = rs.getString("faction_id");
+                int tempRankId = rs.getInt("rank_id");
+                return new PlayerDataWriteQueue.PendingWrite(playerUuid, rowFaction, rs.wasNull() ? null : tempRankId);
             }
+        });
+    }
 
-            // Финальные значения для лямбды
-            final String finalFactionId = factionId;
-            final Integer finalRankId = rankId;
+    // --- Записи оффлайн игроков ---
 
-            // Возвращаемся в основной поток для обновления данных в PlayerManager
-            Bukkit.getScheduler().runTask(plugin, () -> {
-                callback.onQueryDone(finalFactionId, finalRankId);
+    /**
+     * Отдает запись игрока (фракция, ранг, последний выход) из кэша или из БД.
+     * Повторные запросы того же игрока не обращаются к диску, пока запись не устарела или не изменилась.
+     * @return future с записью (для неизвестного игрока - пустая запись, не null).
+     */
+    public CompletableFuture<PlayerRecord> getPlayerRecord(UUID playerUuid) {
+        PlayerRecordCache cache = recordCache;
+        return cache != null ? cache.get(playerUuid) : loadPlayerRecord(playerUuid);
+    }
+
+    /** @return кэш записей оффлайн игроков или null до initialize(). */
+    public PlayerRecordCache getPlayerRecordCache() { return recordCache; }
+
+    // Загрузка для кэша: в потоке ввода-вывода по порядку с другими задачами этого UUID
+    private CompletableFuture<PlayerRecord> loadPlayerRecord(UUID playerUuid) {
+        return io().supply(playerUuid, () -> loadPlayerRecordBlocking(playerUuid));
+    }
+
+    /**
+     * Читает запись игрока в текущем потоке (НЕ вызывать из основного потока).
+     * Еще не записанные фракция и ранг из очереди актуальнее, чем в БД.
+     */
+    public PlayerRecord loadPlayerRecordBlocking(UUID playerUuid) throws SQLException {
+        String sql = "SELECT faction_id, rank_id, last_seen, version FROM player_data WHERE uuid = ?;";
+        PlayerRecord stored = pool().read(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setString(1, playerUuid.toString());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) return PlayerRecord.empty(playerUuid);
+                int rankId = rs.getInt("rank_id");
+                Integer rank = rs.wasNull() ? null : rankId;
+                return new PlayerRecord(playerUuid, rs.getString("faction_id"), rank, rs.getLong("last_seen"), rs.getLong("version"));
+            }
+        });
+        PlayerDataWriteQueue.PendingWrite pendingWrite = getPendingWrite(playerUuid);
+        if (pendingWrite == null) return stored;
+        // Запись из очереди еще не в БД - версию строки после нее заранее не знаем
+        return new PlayerRecord(playerUuid, pendingWrite.getFactionId(), pendingWrite.getRankId(), stored.getLastSeenMillis(), PlayerRecord.UNKNOWN_VERSION);
+    }
+
+    /**
+     * Оптимистичное изменение фракции/ранга игрока, который не на сервере.
+     * Запись применяется, только если строка не изменилась с момента чтения expected:
+     * совпадают фракция и ранг, а если версия известна - то и версия.
+     * @return future: true - записано, false - данные игрока успели измениться (перечитайте и повторите).
+     */
+    public CompletableFuture<Boolean> updatePlayerDataIfUnchanged(PlayerRecord expected, String factionId, Integer rankId) {
+        UUID playerUuid = expected.getUuid();
+        invalidateRecord(playerUuid);
+        String sql = "UPDATE player_data SET faction_id = ?, rank_id = ?, version = version + 1"
+                + " WHERE uuid = ? AND faction_id IS ? AND rank_id IS ? AND (? < 0 OR version = ?);";
+        return io().supply(playerUuid, () -> {
+            // Сначала дописываем очередь: ее запись этого игрока новее прочитанной и должна участвовать в проверке
+            if (writeQueue != null && writeQueue.getPending(playerUuid) != null) writeQueue.flushBlocking();
+            int updated = pool().write(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                if (factionId != null) pstmt.setString(1, factionId); else pstmt.setNull(1, Types.VARCHAR);
+                if (rankId != null) pstmt.setInt(2, rankId); else pstmt.setNull(2, Types.INTEGER);
+                pstmt.setString(3, playerUuid.toString());
+                if (expected.getFactionId() != null) pstmt.setString(4, expected.getFactionId()); else pstmt.setNull(4, Types.VARCHAR);
+                if (expected.getRankId() != null) pstmt.setInt(5, expected.getRankId()); else pstmt.setNull(5, Types.INTEGER);
+                pstmt.setLong(6, expected.getVersion());
+                pstmt.setLong(7, expected.getVersion());
+                return pstmt.executeUpdate();
             });
+            invalidateRecord(playerUuid); // Загрузка, начатая во время записи, могла прочитать старую строку
+            if (updated > 0) publishPlayer(playerUuid, factionId, rankId);
+            return updated > 0;
         });
     }
 
-    public void savePlayerDataAsync(UUID playerUuid, String factionId, Integer rankId) {
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            String sql = "INSERT OR REPLACE INTO player_data (uuid, faction_id, rank_id) VALUES(?, ?, ?);";
+    /** Записывает время выхода игрока (отдельным upsert, фракцию и ранг не трогает). */
+    public void saveLastSeenAsync(UUID playerUuid, long lastSeenMillis) {
+        String sql = "INSERT INTO player_data (uuid, last_seen) VALUES(?, ?) ON CONFLICT(uuid) DO UPDATE SET last_seen = excluded.last_seen;";
+        io().run(playerUuid, () -> {
+            pool().write(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, playerUuid.toString());
+                pstmt.setLong(2, lastSeenMillis);
+                return pstmt.executeUpdate();
+            });
+            invalidateRecord(playerUuid); // Запись, прочитанная до этого, хранит прежнее время выхода
+        }).exceptionally(error -> {
+            plugin.getLogger().log(Level.WARNING, "Could not save last seen time for " + playerUuid, IoExecutor.unwrap(error));
+            return null;
+        });
+    }
 
-            try (Connection conn = getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+    private void invalidateRecord(UUID playerUuid) {
+        PlayerRecordCache cache = recordCache;
+        if (cache != null) cache.invalidate(playerUuid);
+    }
 
-                pstmt.setString(1, playerUuid.toString());
+    // Сообщает другим серверам сети о записанной фракции/ранге игрока (только после фиксации записи)
+    private void publishPlayer(UUID playerUuid, String factionId, Integer rankId) {
+        SyncManager sync = plugin.getSyncManager();
+        if (sync != null) sync.publishPlayer(playerUuid, factionId, rankId);
+    }
 
-                if (factionId != null) {
-                    pstmt.setString(2, factionId);
-                } else {
-                    pstmt.setNull(2, Types.VARCHAR);
-                }
+    /**
+     * Загружает данные многих игроков одним проходом: запросы WHERE uuid IN (...) порциями по BULK_CHUNK_SIZE.
+     * Callback вызывается в основном потоке; при ошибке получает null.
+     */
+    public void loadPlayerDataBulkAsync(Collection<UUID> uuids, Consumer<Map<UUID, PlayerDataWriteQueue.PendingWrite>> callback) {
+        List<UUID> toLoad = new ArrayList<>(uuids);
+        io().supply(() -> loadPlayerDataBulkBlocking(toLoad)).whenCompleteAsync((result, error) -> {
+            if (error != null) {
+                plugin.getLogger().log(Level.SEVERE, "Could not bulk load player data for " + toLoad.size() + " players", IoExecutor.unwrap(error));
+                callback.accept(null);
+                return;
+            }
+            callback.accept(result);
+        }, io().mainThread());
+    }
 
-                if (rankId != null) {
-                    pstmt.setInt(3, rankId);
-                } else {
-                    pstmt.setNull(3, Types.INTEGER);
-                }
+    /**
+     * Загружает данные многих игроков в текущем потоке. Игроки без записи в результат не попадают.
+     * Еще не записанные данные из очереди имеют приоритет над БД.
+     */
+    public Map<UUID, PlayerDataWriteQueue.PendingWrite> loadPlayerDataBulkBlocking(Collection<UUID> uuids) throws SQLException {
+        Map<UUID, PlayerDataWriteQueue.PendingWrite> result = new HashMap<>();
+        List<UUID> fromDb = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            PlayerDataWriteQueue.PendingWrite pendingWrite = getPendingWrite(uuid);
+            if (pendingWrite != null) result.put(uuid, pendingWrite); else fromDb.add(uuid);
+        }
+        if (fromDb.isEmpty()) return result;
 
-                pstmt.executeUpdate();
+        // Один текст запроса на все порции (последняя дополняется повтором UUID) - он остается в кэше запросов
+        StringBuilder sql = new StringBuilder("SELECT uuid, faction_id, rank_id FROM player_data WHERE uuid IN (");
+        for (int i = 0; i < BULK_CHUNK_SIZE; i++) sql.append(i == 0 ? "?" : ", ?");
+        String chunkSql = sql.append(");").toString();
 
-            } catch (SQLException e) {
-                plugin.getLogger().log(Level.SEVERE, "Could not save player data for " + playerUuid, e);
+        pool().read(conn -> {
+            PreparedStatement pstmt = conn.prepare(chunkSql);
+            for (int from = 0; from < fromDb.size(); from += BULK_CHUNK_SIZE) {
+                List<UUID> chunk = fromDb.subList(from, Math.min(from + BULK_CHUNK_SIZE, fromDb.size()));
+                for (int i = 0; i < BULK_CHUNK_SIZE; i++) {
+                    pstmt.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)).toString());
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        UUID uuid = UUID.fromString(rs.getString("uuid"));
+                        int rankId = rs.getInt("rank_id");
+                        result.put(uuid, new PlayerDataWriteQueue.PendingWrite(uuid, rs.getString("faction_id"), rs.wasNull() ? null : rankId));
+                    }
+                }
             }
+            return null;
         });
+        return result;
+    }
+
+    /**
+     * Синхронно сохраняет данные многих игроков одной транзакцией (executeBatch).
+     * Используется при выключении и перезагрузке вместо цикла одиночных запросов.
+     * @return true, если транзакция зафиксирована.
+     */
+    public boolean savePlayerDataBulkSync(Collection<PlayerDataWriteQueue.PendingWrite> writes) {
+        if (writes == null || writes.isEmpty()) return true;
+        List<UUID> uuids = new ArrayList<>(writes.size());
+        for (PlayerDataWriteQueue.PendingWrite write : writes) {
+            invalidateRecord(write.getUuid());
+            uuids.add(write.getUuid());
+        }
+        long start = System.nanoTime();
+        boolean success;
+        if (writeQueue == null) {
+            success = savePlayerDataBatch(writes);
+        } else {
+            // Ожидающие записи этих игроков устарели, а пишущаяся сейчас пачка не должна лечь поверх
+            try {
+                success = writeQueue.writeThrough(uuids, () -> savePlayerDataBatch(writes));
+            } catch (Exception e) { // savePlayerDataBatch сам ловит SQLException
+                plugin.getLogger().log(Level.SEVERE, "Could not save batch of " + writes.size() + " player data entries!", e);
+                success = false;
+            }
+        }
+        if (success) {
+            plugin.getLogger().info("Saved data for " + writes.size() + " players in one transaction (" + String.format("%.2f", (System.nanoTime() - start) / 1_000_000.0) + " ms).");
+        } else if (writeQueue != null) {
+            // Не удалось - возвращаем в очередь, чтобы не потерять
+            for (PlayerDataWriteQueue.PendingWrite write : writes) writeQueue.enqueue(write.getUuid(), write.getFactionId(), write.getRankId(), write.isChanged());
+        }
+        return success;
+    }
+
+    /**
+     * Сохраняет данные многих игроков одной транзакцией в потоке ввода-вывода.
+     * @return future с результатом savePlayerDataBulkSync.
+     */
+    public CompletableFuture<Boolean> savePlayerDataBulk(Collection<PlayerDataWriteQueue.PendingWrite> writes) {
+        List<PlayerDataWriteQueue.PendingWrite> toSave = new ArrayList<>(writes);
+        return io().supply(PLAYER_DATA_KEY, () -> savePlayerDataBulkSync(toSave));
+    }
+
+    /** @return еще не записанное в БД состояние игрока из очереди или null. */
+    public PlayerDataWriteQueue.PendingWrite getPendingWrite(UUID playerUuid) {
+        return writeQueue != null ? writeQueue.getPending(playerUuid) : null;
+    }
+
+    /**
+     * Ставит сохранение данных игрока в очередь отложенной записи.
+     * Повторные сохранения одного игрока до сброса очереди схлопываются в одну запись.
+     */
+    public void savePlayerDataAsync(UUID playerUuid, String factionId, Integer rankId) {
+        savePlayerDataAsync(playerUuid, factionId, rankId, true);
+    }
+
+    /**
+     * @param changed меняется ли фракция/ранг; повторное сохранение того же состояния (false) другим серверам не рассылается.
+     */
+    public void savePlayerDataAsync(UUID playerUuid, String factionId, Integer rankId, boolean changed) {
+        invalidateRecord(playerUuid);
+        if (writeQueue != null) {
+            writeQueue.enqueue(playerUuid, factionId, rankId, changed);
+            return;
+        }
+        // Очередь еще не запущена (ранняя стадия загрузки) - пишем отдельной задачей
+        io().run(playerUuid, () -> savePlayerDataSync(playerUuid, factionId, rankId, changed));
+    }
+
+    /**
+     * Записывает пачку состояний игроков одной транзакцией через executeBatch.
+     * Вызывается только писателем очереди (PlayerDataWriteQueue).
+     * @return true, если транзакция зафиксирована.
+     */
+    boolean savePlayerDataBatch(Collection<PlayerDataWriteQueue.PendingWrite> batch) {
+        if (batch == null || batch.isEmpty()) return true;
+        String sql = UPSERT_PLAYER_DATA_SQL;
+        try {
+            return pool().write(conn -> { // Писатель один - транзакция не смешивается с другими запросами
+                Connection raw = conn.raw();
+                boolean previousAutoCommit = raw.getAutoCommit();
+                raw.setAutoCommit(false);
+                try {
+                    PreparedStatement pstmt = conn.prepare(sql);
+                    for (PlayerDataWriteQueue.PendingWrite write : batch) {
+                        pstmt.setString(1, write.getUuid().toString());
+                        if (write.getFactionId() != null) pstmt.setString(2, write.getFactionId()); else pstmt.setNull(2, Types.VARCHAR);
+                        if (write.getRankId() != null) pstmt.setInt(3, write.getRankId()); else pstmt.setNull(3, Types.INTEGER);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                    raw.commit();
+                    // Строки получили новые версии: записи в кэше (в том числе положенные при выходе) перечитаются из БД
+                    for (PlayerDataWriteQueue.PendingWrite write : batch) invalidateRecord(write.getUuid());
+                    for (PlayerDataWriteQueue.PendingWrite write : batch) {
+                        if (write.isChanged()) publishPlayer(write.getUuid(), write.getFactionId(), write.getRankId());
+                    }
+                    return true;
+                } catch (SQLException e) {
+                    raw.rollback();
+                    plugin.getLogger().log(Level.SEVERE, "Could not save batch of " + batch.size() + " player data entries!", e);
+                    return false;
+                } finally {
+                    raw.setAutoCommit(previousAutoCommit);
+                }
+            });
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Transaction error during batched player data save!", e);
+            return false;
+        }
     }
 
     // Синхронное сохранение для использования в onDisable
     public void savePlayerDataSync(UUID playerUuid, String factionId, Integer rankId) {
-        String sql = "INSERT OR REPLACE INTO player_data (uuid, faction_id, rank_id) VALUES(?, ?, ?);";
-        try (Connection conn = getConnection(); // Получаем соединение напрямую
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        savePlayerDataSync(playerUuid, factionId, rankId, true);
+    }
 
+    private void savePlayerDataSync(UUID playerUuid, String factionId, Integer rankId, boolean changed) {
+        invalidateRecord(playerUuid);
+        String sql = UPSERT_PLAYER_DATA_SQL;
+        IoExecutor.IoTask<Integer> write = () -> pool().write(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
             pstmt.setString(1, playerUuid.toString());
             pstmt.setString(2, factionId); // factionId может быть null
             if (rankId != null) pstmt.setInt(3, rankId); else pstmt.setNull(3, Types.INTEGER);
-            pstmt.executeUpdate();
+            return pstmt.executeUpdate();
+        });
+        try {
+            // Прямая запись актуальнее ожидающей в очереди и пишущейся сейчас пачки - не даем им ее перезаписать
+            if (writeQueue != null) writeQueue.writeThrough(List.of(playerUuid), write);
+            else write.call();
+            invalidateRecord(playerUuid);
             plugin.getLogger().fine("Saved data synchronously for " + playerUuid);
+            if (changed) publishPlayer(playerUuid, factionId, rankId);
 
-        } catch (SQLException e) {
+        } catch (Exception e) {
             plugin.getLogger().log(Level.SEVERE, "Could not save player data synchronously for " + playerUuid, e);
         }
     }
 
-    // Синхронная очистка данных фракции в БД для использования в onDisable или при удалении фракции
-    public void clearFactionDataSync(String factionId) {
-        String sql = "UPDATE player_data SET faction_id = NULL, rank_id = NULL WHERE faction_id = ?;";
-        int updatedRows = 0;
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, factionId.toLowerCase()); // Сравниваем с lowercase ID
-            updatedRows = pstmt.executeUpdate();
-            plugin.getLogger().info("Cleared faction data synchronously in DB for " + updatedRows + " players of faction " + factionId);
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "Could not clear player faction data synchronously in DB for faction " + factionId, e);
-        }
+    /**
+     * Асинхронно загружает страницу состава фракции (включая оффлайн игроков).
+     * Постраничный обход по ключу (uuid > afterUuid) идет по индексу idx_player_data_faction без сканирования таблицы.
+     * Callback вызывается в основном потоке; page == null означает ошибку.
+     * @param afterUuid UUID последнего игрока предыдущей страницы или null для первой страницы.
+     */
+    public void loadFactionRosterPageAsync(String factionId, UUID afterUuid, int pageSize, RosterPageCallback callback) {
+        String factionIdLower = factionId.toLowerCase();
+        int limit = Math.max(1, pageSize);
+        io().supply("roster:" + factionIdLower, () -> {
+            // На первой странице дописываем очередь, чтобы недавние вступления/выходы попали в выборку
+            if (afterUuid == null && writeQueue != null) writeQueue.flushBlocking();
+            String sql = "SELECT uuid, rank_id FROM player_data WHERE faction_id = ? AND uuid > ? ORDER BY uuid LIMIT ?;";
+            return pool().read(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                pstmt.setString(1, factionIdLower);
+                pstmt.setString(2, afterUuid != null ? afterUuid.toString() : "");
+                pstmt.setInt(3, limit);
+                List<RosterEntry> rows = new ArrayList<>(limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        UUID uuid;
+                        try {
+                            uuid = UUID.fromString(rs.getString("uuid"));
+                        } catch (IllegalArgumentException e) {
+                            continue; // Битая строка - пропускаем
+                        }
+                        int rankId = rs.getInt("rank_id");
+                        rows.add(new RosterEntry(uuid, rs.wasNull() ? 1 : rankId));
+                    }
+                }
+                return rows;
+            });
+        }).whenCompleteAsync((page, error) -> {
+            if (error != null) {
+                plugin.getLogger().log(Level.SEVERE, "Could not load roster page for faction " + factionIdLower, IoExecutor.unwrap(error));
+                callback.onPageLoaded(null, false);
+                return;
+            }
+            callback.onPageLoaded(page, page.size() >= limit);
+        }, io().mainThread());
+    }
+
+    // Интерфейс для callback'а после загрузки страницы состава фракции
+    @FunctionalInterface
+    public interface RosterPageCallback {
+        void onPageLoaded(List<RosterEntry> page, boolean hasMore);
     }
 
+    /**
+     * Участник фракции из БД: UUID и ID ранга.
+     */
+    public static final class RosterEntry {
+        private final UUID uuid;
+        private final int rankId;
+
+        public RosterEntry(UUID uuid, int rankId) {
+            this.uuid = uuid;
+            this.rankId = rankId;
+        }
+
+        public UUID getUuid() { return uuid; }
+        public int getRankId() { return rankId; }
+    }
 
     // Интерфейс для callback'а после загрузки данных
     @FunctionalInterface
@@ -74,6 +74,7 @@ public final class DynmapManager {
     public void reloadTerritories() { if (!isDynmapApiAvailable()) return; clearAllMarkers(); loadTerritoriesFromConfig(); renderAllTerritories(); }
     private void loadTerritoriesFromConfig() {
         territoryDataMap.clear();
+        plugin.getTabCompletionIndex().clearTerritories();
         FileConfiguration terrConfig = configManager.getTerritoriesConfig();
         ConfigurationSection territoriesSection = terrConfig.getConfigurationSection("territories");
         if (territoriesSection == null) return;
@@ -85,7 +86,7 @@ public final class DynmapManager {
             if(factionId==null||worldName==null||xCoords.isEmpty()||zCoords.isEmpty()||xCoords.size()!=zCoords.size()){plugin.getLogger().warning("Invalid data for territory '"+zoneName+"'. Skipping.");continue;}
             if(Bukkit.getWorld(worldName)==null){plugin.getLogger().warning("World '"+worldName+"' for territory '"+zoneName+"' not found. Skipping.");continue;}
             Faction faction=factionManager.getFaction(factionId);if(faction==null && factionId != null)plugin.getLogger().warning("Faction '"+factionId+"' for territory '"+zoneName+"' not found.");
-            territoryDataMap.put(zoneName.toLowerCase(), new TerritoryData(factionId,worldName,xCoords,zCoords)); count++;
+            territoryDataMap.put(zoneName.toLowerCase(), new TerritoryData(factionId,worldName,xCoords,zCoords)); plugin.getTabCompletionIndex().addTerritory(zoneName.toLowerCase()); count++;
         }
         plugin.getLogger().info("Loaded "+count+" territory definitions.");
     }
@@ -131,7 +132,7 @@ public final class DynmapManager {
         areaMarkers.clear();
     }
     public void removeTerritoriesForFaction(String factionId) {
-        if (!isDynmapApiAvailable() || factionId == null) return; String lowerId = factionId.toLowerCase(); plugin.getLogger().info("Removing DMarkers for faction: " + lowerId); List<String> zonesToRemove = territoryDataMap.entrySet().stream().filter(e -> lowerId.equals(e.getValue().factionId)).map(Map.Entry::getKey).collect(Collectors.toList()); if (zonesToRemove.isEmpty()) return; int removedCount = 0; FileConfiguration conf = configManager.getTerritoriesConfig(); boolean changed = false; for (String zoneName : zonesToRemove) { territoryDataMap.remove(zoneName); AreaMarker marker = areaMarkers.remove(zoneName); if (marker != null) { marker.deleteMarker(); removedCount++; } String path = "territories." + zoneName; if(conf.contains(path)) { conf.set(path, null); changed = true; } } if(changed) configManager.saveTerritoriesConfig(); plugin.getLogger().info("Removed " + removedCount + " DMarkers for faction " + lowerId);
+        if (!isDynmapApiAvailable() || factionId == null) return; String lowerId = factionId.toLowerCase(); plugin.getLogger().info("Removing DMarkers for faction: " + lowerId); List<String> zonesToRemove = territoryDataMap.entrySet().stream().filter(e -> lowerId.equals(e.getValue().factionId)).map(Map.Entry::getKey).collect(Collectors.toList()); if (zonesToRemove.isEmpty()) return; int removedCount = 0; FileConfiguration conf = configManager.getTerritoriesConfig(); boolean changed = false; for (String zoneName : zonesToRemove) { territoryDataMap.remove(zoneName); plugin.getTabCompletionIndex().removeTerritory(zoneName); AreaMarker marker = areaMarkers.remove(zoneName); if (marker != null) { marker.deleteMarker(); removedCount++; } String path = "territories." + zoneName; if(conf.contains(path)) { conf.set(path, null); changed = true; } } if(changed) configManager.saveTerritoriesConfigAsync(); plugin.getLogger().info("Removed " + removedCount + " DMarkers for faction " + lowerId);
     }
 
     // --- Геттеры ---
@@ -235,7 +236,7 @@ public final class DynmapManager {
         if (args.length < 3) { sendUsage(sender, label, "territory delete <ZoneName>"); return; }
         String zoneName = args[2]; String lowerZoneName = zoneName.toLowerCase();
         TerritoryData data = territoryDataMap.get(lowerZoneName);
-        if (data == null) { sender.sendMessage(configManager.getMessage("dynmap.error.zone_not_found"), "{zone}", zoneName); return; }
+        if (data == null) { sender.sendMessage(configManager.getMessage("dynmap.error.zone_not_found", "{zone}", zoneName)); return; }
 
         // Проверка прав на удаление
         if (!isAdmin) {
@@ -253,10 +254,11 @@ public final class DynmapManager {
 
         // Удаление
         territoryDataMap.remove(lowerZoneName);
+        plugin.getTabCompletionIndex().removeTerritory(lowerZoneName);
         AreaMarker marker = areaMarkers.remove(lowerZoneName); if (marker != null) marker.deleteMarker();
-        FileConfiguration terrConfig = configManager.getTerritoriesConfig(); terrConfig.set("territories." + lowerZoneName, null); configManager.saveTerritoriesConfig(); // Сохраняем удаление
+        FileConfiguration terrConfig = configManager.getTerritoriesConfig(); terrConfig.set("territories." + lowerZoneName, null); configManager.saveTerritoriesConfigAsync(); // Сохраняем удаление
 
-        sender.sendMessage(configManager.getMessage("dynmap.delete.success"), "{zone}", zoneName);
+        sender.sendMessage(configManager.getMessage("dynmap.delete.success", "{zone}", zoneName));
     }
     private void forceMapUpdate(CommandSender sender) { if(!isDynmapApiAvailable())return; dynmapApi.triggerRenderOfVolume(null, 0, 0, 0, 0, 0); /* TODO: Уточнить API */ sender.sendMessage(configManager.getMessage("dynmap.map_update_triggered")); }
 
@@ -268,9 +270,10 @@ public final class DynmapManager {
         terrConfig.set(path + ".world", world);
         terrConfig.set(path + ".x", x);
         terrConfig.set(path + ".z", z);
-        configManager.saveTerritoriesConfig(); // Сохраняем немедленно
+        configManager.saveTerritoriesConfigAsync(); // Сохраняем немедленно
         // Обновляем кэш в памяти
         territoryDataMap.put(zoneNameLower, new TerritoryData(factionId, world, x, z));
+        plugin.getTabCompletionIndex().addTerritory(zoneNameLower);
     }
 
     // --- Вспомогательные сообщения команд ---
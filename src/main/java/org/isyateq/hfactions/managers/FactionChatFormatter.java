@@ -0,0 +1,170 @@
+package org.isyateq.hfactions.managers;
+
+import net.kyori.adventure.audience.Audience;
+import net.kyori.adventure.audience.ForwardingAudience;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import net.kyori.adventure.text.serializer.legacy.LegacyFormat;
+import org.bukkit.entity.Player;
+import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.models.Faction;
+import org.isyateq.hfactions.models.FactionRank;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Фракционный чат на Adventure: формат faction_chat.format разбирается один раз на фракцию
+ * в шаблон из готовых компонентов (текст формата и префикс фракции) и слотов {rank}, {player}, {message}.
+ * Слот получает стиль, действующий в формате в его месте (как при подстановке в строку с &-кодами).
+ * <p>
+ * Сообщение собирается в один компонент и отправляется аудитории фракции прямо из асинхронного потока
+ * чата: аудитория - живой вид онлайн-участников из индекса PlayerManager'а.
+ * Шаблоны сбрасываются при перезагрузке и удалении фракций и при переименовании рангов.
+ */
+public final class FactionChatFormatter {
+
+    private static final LegacyComponentSerializer LEGACY = LegacyComponentSerializer.legacyAmpersand();
+    private static final String[] SLOT_NAMES = { "{rank}", "{player}", "{message}" };
+    private static final int RANK = 0, PLAYER = 1, MESSAGE = 2;
+
+    private final HFactions plugin;
+    private final Map<String, Template> templates = new ConcurrentHashMap<>();
+    private final Map<String, Audience> audiences = new ConcurrentHashMap<>();
+
+    public FactionChatFormatter(HFactions plugin) {
+        this.plugin = plugin;
+    }
+
+    /** Собирает строку чата. Безопасно вызывать из асинхронного потока. */
+    public Component render(Faction faction, int rankId, Player sender, Component message) {
+        Template template = templates.computeIfAbsent(faction.getId().toLowerCase(), id -> compile(faction));
+        Component[] parts = new Component[template.parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            Object part = template.parts[i];
+            if (part instanceof Component literal) { parts[i] = literal; continue; }
+            Slot slot = (Slot) part;
+            parts[i] = switch (slot.type) {
+                case RANK -> slot.rankComponents.computeIfAbsent(rankId, id -> renderRank(faction, id, slot.style));
+                case PLAYER -> Component.text(sender.getName(), slot.style);
+                default -> message.applyFallbackStyle(slot.style); // Цвет сообщения задает формат
+            };
+        }
+        return Component.textOfChildren(parts);
+    }
+
+    /** Онлайн-участники фракции как одна аудитория (живой вид индекса, без копирования). */
+    public Audience audience(String factionId) {
+        return audiences.computeIfAbsent(factionId.toLowerCase(), id -> new FactionAudience(plugin.getPlayerManager(), id));
+    }
+
+    public void invalidate(String factionId) {
+        if (factionId == null) return;
+        templates.remove(factionId.toLowerCase());
+        audiences.remove(factionId.toLowerCase());
+    }
+
+    /** Формат или фракции перезагружены. */
+    public void invalidateAll() {
+        templates.clear();
+        audiences.clear();
+    }
+
+    // --- Разбор формата ---
+
+    private Template compile(Faction faction) {
+        // Префикс фракции постоянен для шаблона - подставляем текстом, чтобы его цвета действовали как раньше
+        String prefix = faction.getPrefix() != null ? faction.getPrefix().trim() : "";
+        String format = plugin.getConfigManager().getFactionChatFormat().replace("{prefix}", prefix);
+
+        List<Object> parts = new ArrayList<>();
+        String carried = ""; // &-коды, действующие в текущем месте формата
+        int position = 0;
+        while (position < format.length()) {
+            int slotType = -1, slotAt = format.length();
+            for (int type = 0; type < SLOT_NAMES.length; type++) {
+                int at = format.indexOf(SLOT_NAMES[type], position);
+                if (at >= 0 && at < slotAt) { slotAt = at; slotType = type; }
+            }
+            String literal = format.substring(position, slotAt);
+            if (!literal.isEmpty()) {
+                parts.add(LEGACY.deserialize(carried + literal));
+                carried = activeCodes(carried, literal);
+            }
+            if (slotType < 0) break;
+            parts.add(new Slot(slotType, styleOf(carried)));
+            position = slotAt + SLOT_NAMES[slotType].length();
+        }
+        return new Template(parts.toArray());
+    }
+
+    private static Component renderRank(Faction faction, int rankId, Style style) {
+        FactionRank rank = faction.getRank(rankId);
+        String rankName = rank != null ? rank.getDisplayName() : "???";
+        return LEGACY.deserialize(rankName).applyFallbackStyle(style);
+    }
+
+    // Коды, действующие после text: цвет или &r сбрасывают все предыдущие, форматирование добавляется
+    private static String activeCodes(String carried, String text) {
+        StringBuilder codes = new StringBuilder(carried);
+        for (int i = 0; i + 1 < text.length(); i++) {
+            if (text.charAt(i) != '&') continue;
+            LegacyFormat format = LegacyComponentSerializer.parseChar(text.charAt(i + 1));
+            if (format == null) continue;
+            if (format.color() != null || format.reset()) codes.setLength(0);
+            if (!format.reset()) codes.append('&').append(text.charAt(i + 1));
+            i++;
+        }
+        return codes.toString();
+    }
+
+    private static Style styleOf(String codes) {
+        Style.Builder style = Style.style();
+        for (int i = 0; i + 1 < codes.length(); i += 2) {
+            LegacyFormat format = LegacyComponentSerializer.parseChar(codes.charAt(i + 1));
+            if (format == null) continue;
+            if (format.color() != null) style.color(format.color());
+            if (format.decoration() != null) style.decoration(format.decoration(), true);
+        }
+        return style.build();
+    }
+
+    private static final class Template {
+        // Component - готовый текст, Slot - место подстановки
+        private final Object[] parts;
+
+        private Template(Object[] parts) {
+            this.parts = parts;
+        }
+    }
+
+    private static final class Slot {
+        private final int type;
+        private final Style style;
+        // Для {rank}: ID ранга -> готовый компонент (название со стилем слота)
+        private final Map<Integer, Component> rankComponents = new ConcurrentHashMap<>();
+
+        private Slot(int type, Style style) {
+            this.type = type;
+            this.style = style;
+        }
+    }
+
+    private static final class FactionAudience implements ForwardingAudience {
+        private final PlayerManager playerManager;
+        private final String factionId;
+
+        private FactionAudience(PlayerManager playerManager, String factionId) {
+            this.playerManager = playerManager;
+            this.factionId = factionId;
+        }
+
+        @Override
+        public Iterable<? extends Audience> audiences() {
+            return playerManager.getOnlineFactionMembersView(factionId);
+        }
+    }
+}
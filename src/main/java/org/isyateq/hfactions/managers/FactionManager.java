@@ -10,18 +10,23 @@ import org.bukkit.inventory.ItemStack;
 import org.isyateq.hfactions.HFactions;
 import org.isyateq.hfactions.models.Faction;
 import org.isyateq.hfactions.models.FactionRank;
+import org.isyateq.hfactions.models.FactionTreasury;
 import org.isyateq.hfactions.models.FactionType;
 import org.isyateq.hfactions.util.Utils; // Для сериализации склада
 
 // Утилиты Java
-import java.io.IOException; // Для сохранения файла
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap; // Потокобезопасная мапа
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 /**
  * Управляет фракциями: загрузка, сохранение, создание, удаление, доступ.
- * Отвечает за взаимодействие с factions.yml и автосохранение изменений.
+ * Данные хранятся в SQLite (FactionStorage), factions.yml читается только для одноразового импорта.
+ * При включенной синхронизации (SyncManager) записанные изменения рассылаются другим серверам сети,
+ * а чужие изменения применяются к уже загруженным фракциям по одной.
  */
 public final class FactionManager { // Делаем класс final
 
@@ -31,6 +36,8 @@ public final class FactionManager { // Делаем класс final
     private final PlayerManager playerManager;
     private final DatabaseManager databaseManager;
     private final DynmapManager dynmapManager; // Может быть null
+    // Хранилище фракций в SQLite (пишет только изменившиеся строки)
+    private final FactionStorage storage;
 
     // Хранилище фракций (ID в lowercase -> Faction object)
     private final Map<String, Faction> factions = new ConcurrentHashMap<>();
@@ -38,6 +45,17 @@ public final class FactionManager { // Делаем класс final
     private final Set<String> modifiedFactions = ConcurrentHashMap.newKeySet();
     // ID задачи автосохранения (-1 если не запущена)
     private int saveTask = -1;
+    // Длительность фаз последнего автосохранения
+    private volatile long lastSnapshotNanos = 0L;
+    private volatile long lastWriteNanos = 0L;
+    // Ключ упорядочивания сохранений фракций в IoExecutor
+    private static final String SAVE_KEY = "factions";
+    // Запись автосохранения дольше этого порога попадает в лог INFO (обычные сохранения - FINE)
+    private static final long SLOW_SAVE_NANOS = 250_000_000L;
+    // Поставлено ли сохранение на следующий тик (синхронизация: изменения уходят в БД и другим серверам сразу)
+    private final AtomicBoolean saveSoonScheduled = new AtomicBoolean(false);
+    // Фракции, удаление которых сейчас записывается в БД (автосохранение их пропускает)
+    private final Set<String> deletingFactions = ConcurrentHashMap.newKeySet();
 
     /**
      * Конструктор FactionManager.
@@ -51,6 +69,7 @@ public final class FactionManager { // Делаем класс final
         this.playerManager = plugin.getPlayerManager();
         this.databaseManager = plugin.getDatabaseManager();
         this.dynmapManager = plugin.getDynmapManager(); // Может быть null
+        this.storage = new FactionStorage(plugin, this.databaseManager);
 
         // Проверка критических зависимостей
         if (this.configManager == null || this.playerManager == null || this.databaseManager == null) {
@@ -63,12 +82,31 @@ public final class FactionManager { // Делаем класс final
     // --- Загрузка Фракций ---
     public void loadFactions() {
         factions.clear(); modifiedFactions.clear();
-        plugin.getLogger().info("Loading factions from factions.yml...");
+        if (!storage.isYamlImported()) importFactionsFromYaml();
+        plugin.getLogger().info("Loading factions from database (in parallel)...");
+        Map<String, Faction> loaded = storage.loadAll();
+        if (loaded == null) { plugin.getLogger().severe("Falling back to factions.yml, changes will be written to the database once it is available."); loaded = loadFactionsFromYaml(); }
+        factions.putAll(loaded);
+        // Склады в старом формате ждут перезаписи в новом
+        for (Faction f : factions.values()) if (f.hasWarehouseChanges()) modifiedFactions.add(f.getId());
+        plugin.getTabCompletionIndex().rebuildFactions(factions.values());
+        if (plugin.getNametagManager() != null) plugin.getNametagManager().refreshAll(factions.values());
+        if (plugin.getFactionChatFormatter() != null) plugin.getFactionChatFormatter().invalidateAll(); // Формат чата тоже мог смениться
+        plugin.getLogger().info("Successfully loaded " + factions.size() + " factions.");
+    }
+    /** Одноразовый перенос фракций из factions.yml в БД (при первом запуске с хранилищем в SQLite). */
+    private void importFactionsFromYaml() {
+        Map<String, Faction> yamlFactions = loadFactionsFromYaml();
+        plugin.getLogger().info("Importing " + yamlFactions.size() + " factions from factions.yml into the database...");
+        if (storage.importFromYaml(yamlFactions.values())) plugin.getLogger().info("Factions imported. factions.yml is no longer used for faction data.");
+        else plugin.getLogger().severe("Failed to import factions from factions.yml! Import will be retried on next load.");
+    }
+    private Map<String, Faction> loadFactionsFromYaml() {
+        Map<String, Faction> result = new HashMap<>();
         FileConfiguration factionsConfig = configManager.getFactionsConfig();
-        if (factionsConfig == null) { plugin.getLogger().severe("Factions configuration is null!"); return; }
+        if (factionsConfig == null) { plugin.getLogger().severe("Factions configuration is null!"); return result; }
         ConfigurationSection factionsSection = factionsConfig.getConfigurationSection("factions");
-        if (factionsSection == null) { plugin.getLogger().info("No 'factions' section found."); return; }
-        int loadedCount = 0;
+        if (factionsSection == null) { plugin.getLogger().info("No 'factions' section found."); return result; }
         for (String factionId : factionsSection.getKeys(false)) {
             ConfigurationSection data = factionsSection.getConfigurationSection(factionId); if (data == null) continue;
             String lowerCaseId = factionId.toLowerCase();
@@ -85,10 +123,10 @@ public final class FactionManager { // Делаем класс final
                 String warehouseBase64 = data.getString("warehouse_contents_base64");
                 ItemStack[] loadedWarehouse = Utils.itemStackArrayFromBase64(warehouseBase64);
                 Faction faction = new Faction(lowerCaseId, name, type, color, prefix, balance, warehouseSize, loadedRanks, loadedWarehouse);
-                factions.put(lowerCaseId, faction); loadedCount++;
+                result.put(lowerCaseId, faction);
             } catch (Exception e) { plugin.getLogger().log(Level.SEVERE, "Failed to load faction '" + lowerCaseId + "'", e); }
         }
-        plugin.getLogger().info("Successfully loaded " + loadedCount + " factions.");
+        return result;
     }
     private Map<Integer, FactionRank> loadRanksFromConfig(ConfigurationSection ranksSection, String factionId) {
         Map<Integer, FactionRank> ranks = new ConcurrentHashMap<>();
@@ -110,56 +148,202 @@ public final class FactionManager { // Делаем класс final
     }
 
     // --- Сохранение Фракций ---
-    public synchronized void saveAllFactions() {
-        stopAutoSaveTask(); plugin.getLogger().info("Performing final save of all faction data...");
-        FileConfiguration conf = configManager.getFactionsConfig(); if (conf == null) {plugin.getLogger().severe("Cannot save factions, config is null!"); return;}
-        conf.set("factions", null); ConfigurationSection sect = conf.createSection("factions"); int cnt = 0;
-        if (!factions.isEmpty()) { for (Faction f : factions.values()) { try { saveSingleFactionData(f, sect); cnt++; } catch (Exception e) { plugin.getLogger().log(Level.SEVERE, "Failed save faction " + f.getId(), e); } } }
-        configManager.saveFactionsConfig(); modifiedFactions.clear();
-        plugin.getLogger().info("Final save complete. Saved data for " + cnt + " factions.");
-    }
-    public synchronized void saveModifiedFactions() {
-        if (modifiedFactions.isEmpty()) return;
-        Set<String> toSave = new HashSet<>(modifiedFactions); modifiedFactions.removeAll(toSave);
-        plugin.getLogger().info("Auto-saving data for " + toSave.size() + " modified factions...");
-        FileConfiguration conf = configManager.getFactionsConfig(); if (conf == null) {plugin.getLogger().severe("Cannot auto-save factions, config is null!"); modifiedFactions.addAll(toSave); return; }
-        ConfigurationSection sect = conf.getConfigurationSection("factions"); if (sect == null) sect = conf.createSection("factions");
-        int saved = 0; boolean changed = false;
-        for (String id : toSave) { Faction f = factions.get(id); if (f != null) { try { saveSingleFactionData(f, sect); saved++; changed = true; } catch (Exception e) { plugin.getLogger().log(Level.SEVERE, "Failed auto-save "+id, e); } } else { if (sect.contains(id)) { sect.set(id, null); changed = true; plugin.getLogger().info("Removed orphaned faction "+id); } } }
-        if (changed) { configManager.saveFactionsConfig(); plugin.getLogger().info("Auto-save complete. Saved " + saved + "."); }
+    // Сохранение в две фазы: снимок в основном потоке (только копии значений), затем запись
+    // снимка в потоке ввода-вывода. Живые Faction вне основного потока не читаются.
+    public void saveAllFactions() { saveFactionsSync(); }
+    /**
+     * Автосохранение: снимок измененных фракций в основном потоке, запись в потоке ввода-вывода.
+     * Сохранения фракций выполняются по одному (общий ключ), поэтому не обгоняют друг друга.
+     * Вызывать из основного потока.
+     * @return future с числом записанных строк (-1 при ошибке; фракции останутся помеченными).
+     */
+    public CompletableFuture<Integer> saveModifiedFactionsAsync() {
+        if (modifiedFactions.isEmpty()) return CompletableFuture.completedFuture(0);
+        long snapshotStart = System.nanoTime();
+        Set<String> toSave = new HashSet<>();
+        for (Iterator<String> it = modifiedFactions.iterator(); it.hasNext(); ) { toSave.add(it.next()); it.remove(); }
+        List<Faction> changed = new ArrayList<>(toSave.size()); List<String> orphans = new ArrayList<>();
+        for (String id : toSave) { if (deletingFactions.contains(id)) continue; Faction f = factions.get(id); if (f != null) changed.add(f); else orphans.add(id); }
+        FactionStorage.Snapshot snapshot = storage.snapshot(changed);
+        long snapshotNanos = System.nanoTime() - snapshotStart;
+
+        return plugin.getIoExecutor().supply(SAVE_KEY, () -> {
+            long writeStart = System.nanoTime();
+            for (String id : orphans) { if (storage.deleteFaction(id)) plugin.getLogger().info("Removed orphaned faction " + id); }
+            int rows = storage.writeSnapshot(snapshot);
+            long writeNanos = System.nanoTime() - writeStart;
+            modifiedFactions.addAll(snapshot.getFailedFactionIds()); // Отдельные неудачные фракции - в следующее сохранение
+            if (rows >= 0) {
+                publishWritten(snapshot);
+                if (!snapshot.getConflictedFactionIds().isEmpty()) refreshFromStore(snapshot.getConflictedFactionIds());
+                lastSnapshotNanos = snapshotNanos; lastWriteNanos = writeNanos;
+                // Обычное сохранение - только в FINE; в INFO - если запись заметно затянулась
+                Level level = writeNanos >= SLOW_SAVE_NANOS ? Level.INFO : Level.FINE;
+                plugin.getLogger().log(level, (level == Level.INFO ? "Slow auto-save. " : "Auto-save complete. ") + "Saved " + snapshot.getFactionCount() + " factions, " + snapshot.getWarehouseSlotCount() + " warehouse slots (" + rows + " rows). "
+                        + "Snapshot: " + String.format("%.3f", snapshotNanos / 1_000_000.0) + " ms (main thread), write: " + String.format("%.2f", writeNanos / 1_000_000.0) + " ms.");
+            }
+            return rows;
+        }).exceptionally(error -> {
+            plugin.getLogger().log(Level.SEVERE, "Faction save task failed!", IoExecutor.unwrap(error));
+            return -1;
+        }).thenApply(rows -> {
+            if (rows < 0) { modifiedFactions.addAll(toSave); plugin.getLogger().warning("Auto-save failed, " + toSave.size() + " factions will be retried."); }
+            return rows;
+        });
+    }
+    /** Синхронный вариант (перезагрузка конфигов): дожидается записи. */
+    public void saveModifiedFactions() { saveModifiedFactionsAsync().join(); }
+    public double getLastSnapshotMillis() { return lastSnapshotNanos / 1_000_000.0; }
+    public double getLastWriteMillis() { return lastWriteNanos / 1_000_000.0; }
+    // Рассылает записанные фракции другим серверам (вызывается в потоке ввода-вывода после записи)
+    private void publishWritten(FactionStorage.Snapshot snapshot) {
+        SyncManager sync = plugin.getSyncManager();
+        if (sync == null) return;
+        for (FactionStorage.StoredVersion written : snapshot.getWritten()) sync.publishFaction(written);
+    }
+    // Сохранение на следующем тике: несколько изменений за тик записываются одной транзакцией
+    private void scheduleSaveSoon() {
+        if (!plugin.isEnabled() || !saveSoonScheduled.compareAndSet(false, true)) return;
+        Bukkit.getScheduler().runTask(plugin, () -> { saveSoonScheduled.set(false); saveModifiedFactionsAsync(); });
     }
     private void scheduleAutoSave() {
         stopAutoSaveTask();
         // ***** ИСПОЛЬЗУЕМ ГЕТТЕР *****
         long interval = configManager.getFactionSaveIntervalTicks();
         if (interval <= 0) { plugin.getLogger().info("Faction auto-save disabled."); return; }
-        saveTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::saveModifiedFactions, interval, interval).getTaskId();
+        saveTask = Bukkit.getScheduler().runTaskTimer(plugin, this::saveModifiedFactionsAsync, interval, interval).getTaskId();
         plugin.getLogger().info("Faction auto-save scheduled every " + (interval / 20L) + " seconds.");
     }
     private void stopAutoSaveTask() { if (saveTask != -1) { try { if (Bukkit.getScheduler().isCurrentlyRunning(saveTask)||Bukkit.getScheduler().isQueued(saveTask)) Bukkit.getScheduler().cancelTask(saveTask); } catch (Exception ignored) {} finally { saveTask = -1; plugin.getLogger().info("Faction auto-save task stopped."); } } }
-    private void saveSingleFactionData(Faction f, ConfigurationSection s) { ConfigurationSection d=s.createSection(f.getId()); d.set("name",f.getName());d.set("type",f.getType().name());d.set("color",f.getColor());d.set("prefix",f.getPrefix());d.set("balance",f.getBalance());d.set("warehouse_size",f.getWarehouseSize());ConfigurationSection rS=d.createSection("ranks");for(Map.Entry<Integer,FactionRank>e:f.getRanks().entrySet()){ConfigurationSection rD=rS.createSection(String.valueOf(e.getKey()));FactionRank r=e.getValue();rD.set("defaultName",r.getDefaultName());if(!Objects.equals(r.getDisplayName(),r.getDefaultName()))rD.set("displayName",r.getDisplayName());else rD.set("displayName",null);rD.set("salary",r.getSalary());rD.set("permissions",r.getPermissions());}String whb64=Utils.itemStackArrayToBase64(f.getWarehouseContents());d.set("warehouse_contents_base64",whb64);}
 
     // --- Управление Фракциями ---
     public boolean createFaction(String id, String name, FactionType type, String color, String prefix, double balance, int warehouseSize) {
         Objects.requireNonNull(id); String lowerId=id.toLowerCase(); if(factions.containsKey(lowerId)){plugin.getLogger().warning("Faction ID '"+lowerId+"' exists.");return false;}
         Map<Integer, FactionRank> iR=new HashMap<>();iR.put(1,new FactionRank(1,"Recruit","Recruit",0.0,new ArrayList<>()));iR.put(11,new FactionRank(11,"Leader","Leader",0.0,getDefaultLeaderPerms()));
-        Faction nF=new Faction(lowerId,name,type,color,prefix,balance,warehouseSize,iR); factions.put(lowerId,nF); markFactionAsModified(lowerId); saveModifiedFactions(); plugin.getLogger().info("Faction '"+name+"' (ID: "+lowerId+") created.");
+        Faction nF=new Faction(lowerId,name,type,color,prefix,balance,warehouseSize,iR); factions.put(lowerId,nF); plugin.getTabCompletionIndex().addFaction(nF); markFactionAsModified(lowerId); saveModifiedFactionsAsync(); plugin.getLogger().info("Faction '"+name+"' (ID: "+lowerId+") created.");
         // ***** ИСПОЛЬЗУЕМ ГЕТТЕР *****
         if(dynmapManager != null && dynmapManager.isDynmapApiAvailable()){ plugin.getLogger().info("Need to implement Dynmap update for new faction"); /* dynmapManager.updateMapForFaction(nF); ? */ } return true;
     }
-    public boolean deleteFaction(String id) {
-        Objects.requireNonNull(id); String lowerId=id.toLowerCase(); Faction removedFaction=factions.remove(lowerId);
-        if(removedFaction!=null){
-            plugin.getLogger().info("Deleting faction '"+removedFaction.getName()+"'...");
+    /**
+     * Удаляет фракцию. Строки фракции и очистка ее игроков в player_data пишутся одной транзакцией в потоке
+     * ввода-вывода; из памяти фракция убирается в основном потоке после фиксации.
+     * @return future (завершается в основном потоке): true - удалена, false - не найдена, уже удаляется или запись не удалась.
+     */
+    public CompletableFuture<Boolean> deleteFaction(String id) {
+        Objects.requireNonNull(id); String lowerId=id.toLowerCase(); Faction faction=factions.get(lowerId);
+        if(faction==null){ plugin.getLogger().warning("Faction ID '"+lowerId+"' not found."); return CompletableFuture.completedFuture(false); }
+        if(!deletingFactions.add(lowerId)){ plugin.getLogger().warning("Faction '"+lowerId+"' is already being deleted."); return CompletableFuture.completedFuture(false); }
+        plugin.getLogger().info("Deleting faction '"+faction.getName()+"'...");
+        return plugin.getIoExecutor().supply(SAVE_KEY, () -> storage.deleteFaction(lowerId)).exceptionally(error -> {
+            plugin.getLogger().log(Level.SEVERE, "Faction delete task failed!", IoExecutor.unwrap(error));
+            return false;
+        }).thenApplyAsync(deleted -> {
+            deletingFactions.remove(lowerId);
+            if (!deleted) { modifiedFactions.add(lowerId); plugin.getLogger().warning("Faction '"+faction.getName()+"' was not deleted: the database write failed."); return false; }
+            Faction removedFaction = factions.remove(lowerId);
             if (playerManager != null) playerManager.clearFactionDataFor(lowerId); else plugin.getLogger().warning("PlayerManager null during delete!");
-            FileConfiguration fc=configManager.getFactionsConfig();ConfigurationSection fs=fc.getConfigurationSection("factions");boolean ch=false;if(fs!=null&&fs.contains(lowerId)){fs.set(lowerId,null);ch=true;}if(ch)configManager.saveFactionsConfig();
-            modifiedFactions.remove(lowerId);
-            // ***** ИСПОЛЬЗУЕМ ГЕТТЕР *****
-            if (dynmapManager != null && dynmapManager.isDynmapApiAvailable()) {
-                dynmapManager.removeTerritoriesForFaction(lowerId);
+            detachFaction(lowerId);
+            if (plugin.getSyncManager() != null) plugin.getSyncManager().publishFactionDeleted(lowerId);
+            plugin.getLogger().info("Faction '"+(removedFaction != null ? removedFaction : faction).getName()+"' deleted."); return true;
+        }, plugin.getIoExecutor().mainThread());
+    }
+    // Убирает удаленную фракцию из кэшей и отображения
+    private void detachFaction(String lowerId) {
+        modifiedFactions.remove(lowerId);
+        plugin.getTabCompletionIndex().removeFaction(lowerId);
+        if (plugin.getNametagManager() != null) plugin.getNametagManager().removeFaction(lowerId);
+        if (plugin.getFactionChatFormatter() != null) plugin.getFactionChatFormatter().invalidate(lowerId);
+        // ***** ИСПОЛЬЗУЕМ ГЕТТЕР *****
+        if (dynmapManager != null && dynmapManager.isDynmapApiAvailable()) {
+            dynmapManager.removeTerritoriesForFaction(lowerId);
+        }
+    }
+
+    // --- Изменения с других серверов сети (основной поток) ---
+    /**
+     * Фракция записана другим сервером. Если изменился только баланс - он сдвигается на месте,
+     * если настройки или ранги (версия новее известной) или фракции здесь еще нет - она перечитывается из БД.
+     */
+    public void applyRemoteFaction(FactionStorage.StoredVersion remote) {
+        String lowerId = remote.getId().toLowerCase();
+        Faction faction = factions.get(lowerId);
+        if (faction == null || remote.getVersion() > storage.getKnownVersion(lowerId)) { refreshFromStore(Collections.singleton(lowerId)); return; }
+        // По ключу сохранений: не пересекается с учетом баланса после собственной записи
+        plugin.getIoExecutor().run(SAVE_KEY, () -> storage.applyBalance(lowerId, remote.getBalanceSeq(), remote.getBalanceCents(), faction.getTreasury()));
+    }
+    /** Фракция удалена другим сервером: в БД ее уже нет, убираем только у себя. */
+    public void applyRemoteDeletion(String factionId) {
+        String lowerId = factionId.toLowerCase();
+        Faction removed = factions.remove(lowerId);
+        plugin.getIoExecutor().run(SAVE_KEY, () -> storage.forgetFaction(lowerId));
+        if (removed == null) return;
+        if (playerManager != null) playerManager.clearFactionDataFor(lowerId);
+        detachFaction(lowerId);
+        plugin.getLogger().info("Faction '" + removed.getName() + "' was deleted on another server.");
+    }
+    /**
+     * Перечитывает фракции из БД (их изменил другой сервер или запись этого сервера отклонена) и применяет
+     * в основном потоке. Фракция, которая здесь еще не записывалась, заменяется целиком вместе со складом.
+     */
+    public void refreshFromStore(Collection<String> factionIds) {
+        List<String> ids = new ArrayList<>(factionIds);
+        plugin.getIoExecutor().run(SAVE_KEY, () -> {
+            for (String id : ids) {
+                Faction current = factions.get(id);
+                boolean replace = current == null || storage.getKnownVersion(id) < 0;
+                FactionStorage.LoadedFaction stored;
+                try {
+                    stored = storage.loadFaction(id, replace, replace ? null : current.getTreasury());
+                } catch (SQLException e) {
+                    plugin.getLogger().log(Level.WARNING, "Could not reload faction " + id + " changed on another server", e);
+                    continue;
+                }
+                // Предметы склада создаются уже в основном потоке
+                plugin.getIoExecutor().mainThread().execute(() -> applyStoredFaction(id, current, stored != null ? storage.materialize(stored) : null, replace));
             }
-            plugin.getLogger().info("Faction '"+removedFaction.getName()+"' deleted."); return true;
-        } else { plugin.getLogger().warning("Faction ID '"+lowerId+"' not found."); return false; }
+        });
+    }
+    private void applyStoredFaction(String id, Faction current, Faction stored, boolean replace) {
+        if (stored == null) { if (current != null) applyRemoteDeletion(id); return; }
+        if (factions.get(id) != current) return; // Фракция заменена или удалена, пока шло чтение
+        Faction applied;
+        if (replace) {
+            factions.put(id, stored);
+            modifiedFactions.remove(id);
+            applied = stored;
+        } else {
+            current.applyStored(stored);
+            applied = current;
+        }
+        plugin.getTabCompletionIndex().addFaction(applied);
+        if (plugin.getNametagManager() != null) plugin.getNametagManager().refreshFaction(id);
+        if (plugin.getFactionChatFormatter() != null) plugin.getFactionChatFormatter().invalidate(id);
+        plugin.getLogger().fine("Faction " + id + " updated from the shared database.");
+    }
+    /**
+     * Догоняет изменения, пропущенные, пока сервер не получал сообщений (например, был пуст):
+     * один запрос версий по таблице factions, перечитываются только изменившиеся фракции.
+     */
+    public void catchUpWithStore() {
+        plugin.getIoExecutor().supply(SAVE_KEY, storage::scanVersions).thenAcceptAsync(stored -> {
+            Set<String> present = new HashSet<>();
+            List<String> changed = new ArrayList<>();
+            List<FactionStorage.StoredVersion> balanceOnly = new ArrayList<>();
+            for (FactionStorage.StoredVersion version : stored) {
+                String id = version.getId().toLowerCase();
+                present.add(id);
+                if (!factions.containsKey(id) || version.getVersion() > storage.getKnownVersion(id)) changed.add(id); else balanceOnly.add(version);
+            }
+            for (String id : new ArrayList<>(factions.keySet())) {
+                if (!present.contains(id) && storage.getKnownVersion(id) >= 0) applyRemoteDeletion(id); // Была записана, теперь ее нет
+            }
+            for (FactionStorage.StoredVersion version : balanceOnly) applyRemoteFaction(version);
+            if (!changed.isEmpty()) refreshFromStore(changed);
+            plugin.getLogger().info("Caught up with the shared database: " + changed.size() + " factions reloaded, " + balanceOnly.size() + " balances checked.");
+        }, plugin.getIoExecutor().mainThread()).exceptionally(error -> {
+            plugin.getLogger().log(Level.WARNING, "Could not catch up with the shared database", IoExecutor.unwrap(error));
+            return null;
+        });
     }
 
     // --- Доступ к Данным ---
@@ -173,52 +357,42 @@ public final class FactionManager { // Делаем класс final
     }
 
     // --- Управление Рангами ---
-    public void updateRankDisplayName(String factionId, int rankId, String newDisplayName) { Faction f=getFaction(factionId);if(f!=null){FactionRank r=f.getRank(rankId);if(r!=null){r.setDisplayName(newDisplayName);f.updateRank(r);plugin.getLogger().fine("Rank "+rankId+" name updated for "+factionId);}}}
+    public void updateRankDisplayName(String factionId, int rankId, String newDisplayName) { Faction f=getFaction(factionId);if(f!=null){FactionRank r=f.getRank(rankId);if(r!=null){r.setDisplayName(newDisplayName);f.updateRank(r);if(plugin.getFactionChatFormatter()!=null)plugin.getFactionChatFormatter().invalidate(factionId);plugin.getLogger().fine("Rank "+rankId+" name updated for "+factionId);}}}
     public void resetRankDisplayName(String factionId, int rankId) { updateRankDisplayName(factionId, rankId, null); }
 
     // --- Управление Балансом ---
+    // Казна хранится в копейках (FactionTreasury); double-методы - обертки для команд и Vault
     public void setFactionBalance(String factionId, double amount) { Faction f=getFaction(factionId);if(f!=null)f.setBalance(amount);}
-    public boolean depositToFaction(String factionId, double amount) { if(amount<=0)return false; Faction f=getFaction(factionId);if(f!=null){f.deposit(amount);markFactionAsModified(factionId);return true;}return false;}
-    public boolean withdrawFromFaction(String factionId, double amount) { if(amount<=0)return false; Faction f=getFaction(factionId);if(f!=null){boolean s=f.withdraw(amount);if(s)markFactionAsModified(factionId);return s;}return false;}
+    public boolean depositToFaction(String factionId, double amount) { return depositToFactionCents(factionId, FactionTreasury.toCents(amount)); }
+    public boolean withdrawFromFaction(String factionId, double amount) { return withdrawFromFactionCents(factionId, FactionTreasury.toCents(amount)); }
+    /** Атомарно зачисляет сумму в копейках. @return false, если фракции нет или сумма не положительна. */
+    public boolean depositToFactionCents(String factionId, long cents) { if(cents<=0)return false; Faction f=getFaction(factionId);if(f!=null&&f.getTreasury().deposit(cents)>=0){markFactionAsModified(factionId);return true;}return false;}
+    /** Атомарно списывает сумму в копейках, только если ее хватает. @return false, если средств недостаточно. */
+    public boolean withdrawFromFactionCents(String factionId, long cents) { if(cents<=0)return false; Faction f=getFaction(factionId);if(f!=null&&f.getTreasury().tryWithdraw(cents)>=0){markFactionAsModified(factionId);return true;}return false;}
 
     // --- Управление Модификациями ---
-    public void markFactionAsModified(String factionId) { if(factionId!=null){String lId=factionId.toLowerCase();if(factions.containsKey(lId)){if(modifiedFactions.add(lId)) plugin.getLogger().fine("Faction "+lId+" marked modified.");} else {plugin.getLogger().warning("Tried mark non-existent faction "+lId);}}}
+    public void markFactionAsModified(String factionId) { if(factionId!=null){String lId=factionId.toLowerCase();if(factions.containsKey(lId)){if(modifiedFactions.add(lId)) plugin.getLogger().fine("Faction "+lId+" marked modified."); if(plugin.getSyncManager()!=null) scheduleSaveSoon();} else {plugin.getLogger().warning("Tried mark non-existent faction "+lId);}}}
 
     // --- Вспомогательные ---
     private List<String> getDefaultLeaderPerms() { return Arrays.asList("hfactions.faction.invite","hfactions.faction.kick","hfactions.faction.promote","hfactions.faction.demote","hfactions.faction.setrank","hfactions.faction.manage_ranks","hfactions.faction.balance.view","hfactions.faction.deposit","hfactions.faction.withdraw","hfactions.faction.manage_balance","hfactions.faction.warehouse.open","hfactions.faction.warehouse.deposit","hfactions.faction.warehouse.withdraw","hfactions.territory.manage.own"); }
 
-    public synchronized  void saveFactionsSync() {
+    public void saveFactionsSync() {
         plugin.getLogger().info("Performing synchronous save of all faction data...");
         stopAutoSaveTask();
-
-        FileConfiguration factionsConfig = configManager.getFactionsConfig();
-        if (factionsConfig != null) {
-            plugin.getLogger().severe("Cannot save factions synchronously, config is null!");
-            return;
-        }
-        factionsConfig.set("factions", null);
-        ConfigurationSection factionsSection = factionsConfig.createSection("factions");
-
-        int savedCount = 0;
-        if (!factions.isEmpty()) {
-            // Итерируемся по текущим фракциям в памяти
-            for (Faction faction : factions.values()) {
-                try {
-                    // Сохраняем данные каждой фракции
-                    saveSingleFactionData(faction, factionsSection);
-                    savedCount++;
-                } catch (Exception e) {
-                    // Логируем ошибку, но продолжаем сохранять остальные
-                    plugin.getLogger().log(Level.SEVERE, "Failed to prepare data for synchronous save for faction " + faction.getId(), e);
-                }
-            }
-        }
-        try {
-            factionsConfig.save(configManager.factionsConfigFile); // Используем прямой доступ к файлу
+        // Снимок здесь, запись - через тот же ключ, что и автосохранение (после уже поставленных сохранений)
+        // Пишутся только строки, изменившиеся с последнего сохранения
+        FactionStorage.Snapshot snapshot = storage.snapshot(new ArrayList<>(factions.values()));
+        int rows = plugin.getIoExecutor().supply(SAVE_KEY, () -> storage.writeSnapshot(snapshot)).exceptionally(error -> {
+            plugin.getLogger().log(Level.SEVERE, "Faction save task failed!", IoExecutor.unwrap(error));
+            return -1;
+        }).join();
+        if (rows >= 0) {
+            publishWritten(snapshot);
             modifiedFactions.clear(); // Очищаем флаги модификации после успешного сохранения
-            plugin.getLogger().info("Synchronous save complete. Saved data for " + savedCount + " factions to factions.yml.");
-        } catch (IOException e) {
-            plugin.getLogger().log(Level.SEVERE, "CRITICAL ERROR during synchronous save of factions.yml!", e);
+            modifiedFactions.addAll(snapshot.getFailedFactionIds());
+            plugin.getLogger().info("Synchronous save complete. " + factions.size() + " factions checked, " + rows + " rows written to the database.");
+        } else {
+            plugin.getLogger().severe("CRITICAL ERROR during synchronous save of factions to the database!");
         }
     }
 } // Конец класса FactionManager
\ No newline at end of file
@@ -0,0 +1,103 @@
+package org.isyateq.hfactions.managers;
+
+import org.bukkit.entity.Player;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Обратный индекс онлайн-членов фракций: factionId -> (UUID -> Player).
+ * Поддерживается PlayerManager'ом при каждом изменении кэша playerFactions (загрузка, вступление,
+ * выход, кик, выход с сервера, удаление фракции), поэтому рассылка по фракции стоит O(членов фракции),
+ * а не O(всех игроков онлайн).
+ * <p>
+ * Виды, которые отдает индекс, неизменяемые и живые: они отражают последующие изменения состава.
+ * Изменения выполняются в основном потоке; чтение безопасно из любого потока.
+ */
+public final class FactionMemberIndex {
+
+    private final Map<String, Members> byFaction = new ConcurrentHashMap<>();
+    // Обратная сторона индекса: UUID -> фракция, под которой игрок записан
+    private final Map<UUID, String> indexedFaction = new ConcurrentHashMap<>();
+
+    /**
+     * Переносит игрока в индекс фракции factionId (null - убрать из индекса).
+     * @return true, если индекс изменился.
+     */
+    public boolean update(Player player, String factionId) {
+        UUID uuid = player.getUniqueId();
+        String newId = factionId != null ? factionId.toLowerCase() : null;
+        String oldId = newId != null ? indexedFaction.put(uuid, newId) : indexedFaction.remove(uuid);
+        if (Objects.equals(oldId, newId)) {
+            // Тот же игрок мог перезайти - обновляем ссылку на объект Player
+            if (newId != null) members(newId).players.put(uuid, player);
+            return false;
+        }
+        if (oldId != null) {
+            Members old = byFaction.get(oldId);
+            if (old != null) old.players.remove(uuid);
+        }
+        if (newId != null) members(newId).players.put(uuid, player);
+        return true;
+    }
+
+    /** Убирает игрока из индекса (выход с сервера, выход из фракции). */
+    public void remove(UUID uuid) {
+        String oldId = indexedFaction.remove(uuid);
+        if (oldId == null) return;
+        Members old = byFaction.get(oldId);
+        if (old != null) old.players.remove(uuid);
+    }
+
+    /** Убирает фракцию целиком (удаление фракции). @return UUID игроков, которые в ней были. */
+    public Set<UUID> removeFaction(String factionId) {
+        if (factionId == null) return Collections.emptySet();
+        Members removed = byFaction.remove(factionId.toLowerCase());
+        if (removed == null) return Collections.emptySet();
+        Set<UUID> uuids = new HashSet<>(removed.players.keySet());
+        for (UUID uuid : uuids) indexedFaction.remove(uuid, factionId.toLowerCase());
+        removed.players.clear(); // Виды удаленной фракции становятся пустыми, а не устаревшими
+        return uuids;
+    }
+
+    /** @return неизменяемый живой вид онлайн-членов фракции (пустой, пока никто не зашел). */
+    public Collection<Player> getOnlinePlayers(String factionId) {
+        return factionId != null ? members(factionId.toLowerCase()).playersView : Collections.emptyList();
+    }
+
+    /** @return неизменяемый живой вид UUID онлайн-членов фракции. */
+    public Set<UUID> getOnlineUuids(String factionId) {
+        return factionId != null ? members(factionId.toLowerCase()).uuidsView : Collections.emptySet();
+    }
+
+    public int getOnlineCount(String factionId) {
+        Members members = factionId != null ? byFaction.get(factionId.toLowerCase()) : null;
+        return members != null ? members.players.size() : 0;
+    }
+
+    /** @return неизменяемый снимок: factionId -> число игроков онлайн (только фракции с игроками онлайн). */
+    public Map<String, Integer> getOnlineCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        byFaction.forEach((id, members) -> {
+            int size = members.players.size();
+            if (size > 0) counts.put(id, size);
+        });
+        return Collections.unmodifiableMap(counts);
+    }
+
+    public void clear() {
+        byFaction.values().forEach(members -> members.players.clear());
+        byFaction.clear();
+        indexedFaction.clear();
+    }
+
+    private Members members(String factionId) {
+        return byFaction.computeIfAbsent(factionId, id -> new Members());
+    }
+
+    private static final class Members {
+        private final Map<UUID, Player> players = new ConcurrentHashMap<>();
+        private final Collection<Player> playersView = Collections.unmodifiableCollection(players.values());
+        private final Set<UUID> uuidsView = Collections.unmodifiableSet(players.keySet());
+    }
+}
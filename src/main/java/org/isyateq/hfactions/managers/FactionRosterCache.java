@@ -0,0 +1,154 @@
+package org.isyateq.hfactions.managers;
+
+import org.isyateq.hfactions.HFactions;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Кэш полного состава фракций (онлайн + оффлайн): factionId -> (UUID -> ID ранга).
+ * Состав фракции загружается из БД один раз постранично и асинхронно, дальше
+ * поддерживается PlayerManager'ом инкрементально (вступление, выход, кик, смена ранга).
+ * Все изменения и callback'и выполняются в основном потоке.
+ */
+public final class FactionRosterCache {
+
+    private static final int PAGE_SIZE = 500;
+
+    private final HFactions plugin;
+    private final DatabaseManager databaseManager;
+    private final Map<String, Roster> rosters = new ConcurrentHashMap<>();
+
+    public FactionRosterCache(HFactions plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * Отдает состав фракции в callback (в основном потоке). Если состав уже в кэше - сразу,
+     * иначе после загрузки из БД. При ошибке загрузки callback получает то, что успело накопиться.
+     */
+    public void getRosterAsync(String factionId, Consumer<Map<UUID, Integer>> callback) {
+        if (factionId == null) {
+            callback.accept(Collections.emptyMap());
+            return;
+        }
+        Roster roster = rosters.computeIfAbsent(factionId.toLowerCase(), id -> new Roster());
+        if (roster.loaded) {
+            callback.accept(roster.view);
+            return;
+        }
+        roster.waiters.add(callback);
+        if (!roster.loading) {
+            roster.loading = true;
+            loadPage(factionId.toLowerCase(), roster, null);
+        }
+    }
+
+    /** @return неизменяемый живой вид состава или null, если состав фракции еще не загружен. */
+    public Map<UUID, Integer> getCachedRoster(String factionId) {
+        if (factionId == null) return null;
+        Roster roster = rosters.get(factionId.toLowerCase());
+        return roster != null && roster.loaded ? roster.view : null;
+    }
+
+    /**
+     * Инкрементальное обновление: игрок перешел из oldFactionId в newFactionId с рангом rankId.
+     * null в newFactionId означает выход из фракции. Для незагруженных составов изменение
+     * тоже запоминается, чтобы загрузка из БД не перезаписала его устаревшей строкой.
+     */
+    public void updateMember(UUID uuid, String oldFactionId, String newFactionId, Integer rankId) {
+        if (uuid == null) return;
+        if (oldFactionId != null && !oldFactionId.equalsIgnoreCase(newFactionId)) {
+            Roster oldRoster = rosters.get(oldFactionId.toLowerCase());
+            if (oldRoster != null) oldRoster.remove(uuid);
+            plugin.getTabCompletionIndex().moveMember(uuid, oldFactionId, newFactionId);
+        } else if (oldFactionId == null && newFactionId != null) {
+            plugin.getTabCompletionIndex().moveMember(uuid, null, newFactionId);
+        }
+        if (newFactionId != null) {
+            Roster newRoster = rosters.get(newFactionId.toLowerCase());
+            if (newRoster != null) newRoster.put(uuid, rankId != null ? rankId : 1);
+        }
+    }
+
+    /** @return фракция, в составе которой игрок числится в кэше, или null (не найден или составы не загружены). */
+    public String findFactionOf(UUID uuid) {
+        if (uuid == null) return null;
+        for (Map.Entry<String, Roster> entry : rosters.entrySet()) {
+            if (entry.getValue().members.containsKey(uuid)) return entry.getKey();
+        }
+        return null;
+    }
+
+    /** Удаляет состав фракции из кэша (фракция удалена). */
+    public void removeFaction(String factionId) {
+        if (factionId != null) rosters.remove(factionId.toLowerCase());
+    }
+
+    /** Сбрасывает весь кэш (например, после перезагрузки фракций). */
+    public void clear() {
+        rosters.clear();
+        plugin.getTabCompletionIndex().clearMembers();
+    }
+
+    private void loadPage(String factionId, Roster roster, UUID afterUuid) {
+        databaseManager.loadFactionRosterPageAsync(factionId, afterUuid, PAGE_SIZE, (page, hasMore) -> {
+            if (rosters.get(factionId) != roster) return; // Кэш сброшен во время загрузки
+            if (page == null) {
+                plugin.getLogger().warning("Roster of faction " + factionId + " could not be fully loaded; it will be retried on next request.");
+                rosters.remove(factionId, roster);
+                roster.completeWaiters();
+                return;
+            }
+            for (DatabaseManager.RosterEntry entry : page) {
+                // Изменения, пришедшие во время загрузки, новее строк из БД
+                if (!roster.touched.contains(entry.getUuid())) {
+                    roster.members.put(entry.getUuid(), entry.getRankId());
+                }
+            }
+            if (hasMore && !page.isEmpty()) {
+                loadPage(factionId, roster, page.get(page.size() - 1).getUuid());
+                return;
+            }
+            roster.loaded = true;
+            roster.loading = false;
+            roster.touched.clear();
+            plugin.getTabCompletionIndex().setMembers(factionId, roster.members.keySet());
+            plugin.getLogger().fine("Roster of faction " + factionId + " loaded: " + roster.members.size() + " members.");
+            roster.completeWaiters();
+        });
+    }
+
+    /**
+     * Состав одной фракции.
+     */
+    private static final class Roster {
+        private final Map<UUID, Integer> members = new ConcurrentHashMap<>();
+        private final Map<UUID, Integer> view = Collections.unmodifiableMap(members);
+        // UUID, измененные во время загрузки из БД
+        private final Set<UUID> touched = new HashSet<>();
+        private final List<Consumer<Map<UUID, Integer>>> waiters = new ArrayList<>();
+        private volatile boolean loaded = false;
+        private boolean loading = false;
+
+        private void put(UUID uuid, int rankId) {
+            members.put(uuid, rankId);
+            if (!loaded) touched.add(uuid);
+        }
+
+        private void remove(UUID uuid) {
+            members.remove(uuid);
+            if (!loaded) touched.add(uuid);
+        }
+
+        private void completeWaiters() {
+            List<Consumer<Map<UUID, Integer>>> toNotify = new ArrayList<>(waiters);
+            waiters.clear();
+            for (Consumer<Map<UUID, Integer>> waiter : toNotify) {
+                waiter.accept(view);
+            }
+        }
+    }
+}
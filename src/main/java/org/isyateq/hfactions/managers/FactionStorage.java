@@ -0,0 +1,828 @@
+package org.isyateq.hfactions.managers;
+
+import org.bukkit.inventory.ItemStack;
+import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.models.Faction;
+import org.isyateq.hfactions.models.FactionRank;
+import org.isyateq.hfactions.models.FactionTreasury;
+import org.isyateq.hfactions.models.FactionType;
+import org.isyateq.hfactions.util.ItemStackCodec;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * Хранение фракций в SQLite (таблицы factions, faction_ranks, warehouse_slots в playerdata.db).
+ * Помнит, что было записано в последний раз, и при сохранении пишет только изменившиеся строки:
+ * смена баланса - одна строка factions, правка ранга - одна строка faction_ranks.
+ * Склад пишется по слотам: кодируются и сохраняются только слоты, помеченные измененными в самой фракции.
+ * Сохранение двухфазное: {@link #snapshot} в основном потоке, {@link #writeSnapshot} - в потоке ввода-вывода.
+ * <p>
+ * БД может быть общей для нескольких серверов сети. Название, префикс, ранги и т.п. пишутся с проверкой
+ * версии строки (factions.version): если другой сервер успел их изменить, запись этой фракции отклоняется
+ * и фракция перечитывается. Баланс пишется приращением (balance_cents = balance_cents + ?) и не конфликтует;
+ * каждое изменение увеличивает factions.balance_seq. Для каждой фракции помнится подтвержденный в БД баланс
+ * и приращения в пути (см. BalanceState): казна = подтвержденный баланс + приращения в пути + еще не снятые изменения.
+ * Запись, загрузка отдельной фракции и применение чужого баланса выполняются по одному (ключ сохранений фракций).
+ */
+public final class FactionStorage {
+
+    // Ключ в storage_meta: фракции из factions.yml уже перенесены в БД
+    private static final String META_YAML_IMPORTED = "factions_yaml_imported";
+
+    private final HFactions plugin;
+    private final DatabaseManager databaseManager;
+
+    // Последнее записанное в БД состояние (для вычисления изменившихся строк)
+    private final Map<String, FactionRow> persistedFactions = new HashMap<>();
+    private final Map<String, Map<Integer, RankRow>> persistedRanks = new HashMap<>();
+    // Известная версия строки factions (метаданные и ранги); читается и из основного потока
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    // Баланс фракций относительно БД; снимок (основной поток) и запись меняют его под balanceLock
+    private final Map<String, BalanceState> balances = new HashMap<>();
+    private final Object balanceLock = new Object();
+    // Загрузка, запись и удаление по одному. ReentrantLock, а не synchronized: внутри блокирующий JDBC,
+    // а монитор закрепил бы виртуальный поток ввода-вывода за потоком-носителем на все время запроса
+    private final ReentrantLock storeLock = new ReentrantLock();
+
+    public FactionStorage(HFactions plugin, DatabaseManager databaseManager) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+    }
+
+    // --- Загрузка ---
+
+    /**
+     * Загружает все фракции из БД: три запроса на весь сервер. В потоках ввода-вывода параллельно по фракциям
+     * выполняется только дешевая часть - ранги и распаковка склада до байтов предметов; битые данные одной
+     * фракции не мешают остальным. Сами ItemStack создаются по одному в вызывающем потоке (API предметов
+     * не потокобезопасно), поэтому вызывать только из основного потока. Блокировка хранилища на это время не держится.
+     * @return ID в lowercase -> фракция; null при ошибке чтения.
+     */
+    public Map<String, Faction> loadAll() {
+        long start = System.nanoTime();
+        Map<String, FactionRow> factionRows = new LinkedHashMap<>();
+        Map<String, Map<Integer, RankRow>> rankRows = new HashMap<>();
+        // byte[] в формате ItemStackCodec или String в старом формате Base64
+        Map<String, Map<Integer, Object>> slotRows = new HashMap<>();
+        Map<String, StoredVersion> storedVersions = new HashMap<>();
+        try {
+            storeLock.lock();
+            try {
+                databaseManager.getPool().read(conn -> {
+                    try (ResultSet rs = conn.prepare("SELECT id, name, type, color, prefix, balance_cents, warehouse_size, version, balance_seq FROM factions;").executeQuery()) {
+                        while (rs.next()) {
+                            String id = rs.getString("id");
+                            factionRows.put(id, FactionRow.read(rs));
+                            storedVersions.put(id, StoredVersion.read(rs));
+                        }
+                    }
+                    try (ResultSet rs = conn.prepare("SELECT faction_id, rank_id, default_name, display_name, salary, permissions FROM faction_ranks;").executeQuery()) {
+                        while (rs.next()) {
+                            rankRows.computeIfAbsent(rs.getString("faction_id"), id -> new HashMap<>())
+                                    .put(rs.getInt("rank_id"), new RankRow(rs.getString("default_name"), rs.getString("display_name"),
+                                            rs.getDouble("salary"), rs.getString("permissions")));
+                        }
+                    }
+                    try (ResultSet rs = conn.prepare("SELECT faction_id, slot, item_data FROM warehouse_slots;").executeQuery()) {
+                        while (rs.next()) {
+                            slotRows.computeIfAbsent(rs.getString("faction_id"), id -> new HashMap<>())
+                                    .put(rs.getInt("slot"), rs.getObject("item_data"));
+                        }
+                    }
+                    return null;
+                });
+            } finally {
+                storeLock.unlock();
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not load factions from database!", e);
+            return null;
+        }
+        long readNanos = System.nanoTime() - start;
+
+        // Разбор строк (ранги, распаковка склада до байтов предметов) - параллельно по фракциям
+        Map<String, CompletableFuture<LoadedFaction>> building = new LinkedHashMap<>();
+        for (Map.Entry<String, FactionRow> entry : factionRows.entrySet()) {
+            String id = entry.getKey();
+            FactionRow row = entry.getValue();
+            Map<Integer, RankRow> ranksOfFaction = rankRows.getOrDefault(id, Collections.emptyMap());
+            Map<Integer, Object> slotsOfFaction = slotRows.getOrDefault(id, Collections.emptyMap());
+            building.put(id, plugin.getIoExecutor().supply(() -> prepareFaction(id, row, ranksOfFaction, slotsOfFaction)));
+        }
+        CompletableFuture.allOf(building.values().toArray(new CompletableFuture[0])).handle((ignored, error) -> null).join();
+        long prepareNanos = System.nanoTime() - start - readNanos;
+
+        // Предметы склада - по одному в основном потоке
+        Map<String, Faction> loaded = new ConcurrentHashMap<>();
+        for (Map.Entry<String, CompletableFuture<LoadedFaction>> entry : building.entrySet()) {
+            String id = entry.getKey();
+            try {
+                loaded.put(id, materialize(entry.getValue().join()));
+            } catch (CompletionException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to load faction '" + id + "' from database", IoExecutor.unwrap(e));
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to build faction '" + id + "' from database", e);
+            }
+        }
+        long materializeNanos = System.nanoTime() - start - readNanos - prepareNanos;
+
+        storeLock.lock();
+        try {
+            persistedFactions.clear();
+            persistedRanks.clear();
+            versions.clear();
+            synchronized (balanceLock) { balances.clear(); }
+            for (String id : loaded.keySet()) {
+                persistedFactions.put(id, factionRows.get(id));
+                persistedRanks.put(id, new HashMap<>(rankRows.getOrDefault(id, Collections.emptyMap())));
+                resetStoredState(id, storedVersions.get(id));
+            }
+        } finally {
+            storeLock.unlock();
+        }
+        plugin.getLogger().info("Loaded " + loaded.size() + "/" + factionRows.size() + " factions from database (read "
+                + String.format("%.2f", readNanos / 1_000_000.0) + " ms, ranks and unpacking " + String.format("%.2f", prepareNanos / 1_000_000.0)
+                + " ms on I/O threads, items " + String.format("%.2f", materializeNanos / 1_000_000.0) + " ms on main thread, total "
+                + String.format("%.2f", (System.nanoTime() - start) / 1_000_000.0) + " ms).");
+        return loaded;
+    }
+
+    /**
+     * Перечитывает одну фракцию из БД (ее изменил другой сервер сети) и запоминает прочитанное как записанное.
+     * Если liveTreasury передана, баланс не заменяется, а сдвигается на изменения из БД с момента последнего
+     * известного состояния (локальные еще не записанные изменения сохраняются). Выполнять по ключу сохранений фракций.
+     * @param withWarehouse читать склад (нужно только для фракции, которой еще нет на сервере)
+     * @return фракция из БД (предметы склада создает {@link #materialize} в основном потоке) или null, если ее там больше нет.
+     */
+    public LoadedFaction loadFaction(String factionId, boolean withWarehouse, FactionTreasury liveTreasury) throws SQLException {
+        storeLock.lock();
+        try {
+            String id = factionId.toLowerCase();
+            FactionRow[] row = new FactionRow[1];
+            StoredVersion[] stored = new StoredVersion[1];
+            Map<Integer, RankRow> ranksOfFaction = new HashMap<>();
+            Map<Integer, Object> slotsOfFaction = new HashMap<>();
+            databaseManager.getPool().read(conn -> {
+                PreparedStatement selectFaction = conn.prepare("SELECT id, name, type, color, prefix, balance_cents, warehouse_size, version, balance_seq FROM factions WHERE id = ?;");
+                selectFaction.setString(1, id);
+                try (ResultSet rs = selectFaction.executeQuery()) {
+                    if (!rs.next()) return null;
+                    row[0] = FactionRow.read(rs);
+                    stored[0] = StoredVersion.read(rs);
+                }
+                PreparedStatement selectRanks = conn.prepare("SELECT rank_id, default_name, display_name, salary, permissions FROM faction_ranks WHERE faction_id = ?;");
+                selectRanks.setString(1, id);
+                try (ResultSet rs = selectRanks.executeQuery()) {
+                    while (rs.next()) {
+                        ranksOfFaction.put(rs.getInt("rank_id"), new RankRow(rs.getString("default_name"), rs.getString("display_name"),
+                                rs.getDouble("salary"), rs.getString("permissions")));
+                    }
+                }
+                if (!withWarehouse) return null;
+                PreparedStatement selectSlots = conn.prepare("SELECT slot, item_data FROM warehouse_slots WHERE faction_id = ?;");
+                selectSlots.setString(1, id);
+                try (ResultSet rs = selectSlots.executeQuery()) {
+                    while (rs.next()) slotsOfFaction.put(rs.getInt("slot"), rs.getObject("item_data"));
+                }
+                return null;
+            });
+            if (row[0] == null) {
+                forgetFaction(id);
+                return null;
+            }
+            LoadedFaction faction = prepareFaction(id, row[0], ranksOfFaction, slotsOfFaction);
+            persistedFactions.put(id, row[0]);
+            persistedRanks.put(id, ranksOfFaction);
+            if (liveTreasury != null) {
+                versions.put(id, stored[0].version);
+                applyBalance(id, stored[0].balanceSeq, stored[0].balanceCents, liveTreasury);
+            } else {
+                resetStoredState(id, stored[0]);
+            }
+            return faction;
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    /**
+     * Версии и балансы всех фракций одним запросом по таблице factions (без рангов и склада):
+     * по ним сервер, пропустивший сообщения синхронизации, находит изменившиеся фракции.
+     */
+    public List<StoredVersion> scanVersions() throws SQLException {
+        return databaseManager.getPool().read(conn -> {
+            List<StoredVersion> result = new ArrayList<>();
+            try (ResultSet rs = conn.prepare("SELECT id, balance_cents, version, balance_seq FROM factions;").executeQuery()) {
+                while (rs.next()) result.add(StoredVersion.read(rs));
+            }
+            return result;
+        });
+    }
+
+    /** @return последняя известная версия строки фракции или -1, если фракция не записана. */
+    public long getKnownVersion(String factionId) {
+        return versions.getOrDefault(factionId.toLowerCase(), -1L);
+    }
+
+    /**
+     * Применяет баланс фракции из БД, записанный другим сервером (сообщение синхронизации или перечитывание).
+     * Устаревшие значения (balanceSeq не новее известного) пропускаются, поэтому повторы и перестановки
+     * сообщений безопасны. Казна сдвигается на разницу, а не заменяется - локальные изменения не теряются.
+     */
+    public void applyBalance(String factionId, long balanceSeq, long balanceCents, FactionTreasury treasury) {
+        synchronized (balanceLock) {
+            BalanceState state = balances.get(factionId.toLowerCase());
+            if (state == null || balanceSeq <= state.seq) return;
+            long delta = balanceCents - state.confirmed;
+            state.confirmed = balanceCents;
+            state.seq = balanceSeq;
+            if (delta != 0) treasury.adjust(delta);
+        }
+    }
+
+    /** Забывает записанное состояние фракции, удаленной на другом сервере (сама БД не меняется). */
+    public void forgetFaction(String factionId) {
+        storeLock.lock();
+        try {
+            String id = factionId.toLowerCase();
+            persistedFactions.remove(id);
+            persistedRanks.remove(id);
+            versions.remove(id);
+            synchronized (balanceLock) { balances.remove(id); }
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    // Запоминает версии и баланс строки как подтвержденные (баланс фракции совпадает с БД)
+    private void resetStoredState(String id, StoredVersion stored) {
+        versions.put(id, stored.version);
+        synchronized (balanceLock) { balances.put(id, new BalanceState(stored.balanceCents, stored.balanceSeq)); }
+    }
+
+    // Разбирает строки одной фракции без обращения к API предметов (вызывается параллельно для разных фракций):
+    // ранги и байты предметов; сами предметы создает materialize в основном потоке
+    private LoadedFaction prepareFaction(String id, FactionRow row, Map<Integer, RankRow> ranksOfFaction, Map<Integer, Object> slotsOfFaction) {
+        Map<Integer, FactionRank> ranks = new ConcurrentHashMap<>();
+        for (Map.Entry<Integer, RankRow> rankEntry : ranksOfFaction.entrySet()) {
+            RankRow r = rankEntry.getValue();
+            ranks.put(rankEntry.getKey(), new FactionRank(rankEntry.getKey(), r.defaultName, r.displayName, r.salary, r.permissionList()));
+        }
+        Map<Integer, Object> slots = new HashMap<>();
+        for (Map.Entry<Integer, Object> slotEntry : slotsOfFaction.entrySet()) {
+            int slot = slotEntry.getKey();
+            Object stored = slotEntry.getValue();
+            if (slot < 0 || slot >= row.warehouseSize || stored == null) continue;
+            if (ItemStackCodec.isLegacyFormat(stored)) {
+                slots.put(slot, stored); // Старый формат разбирается только целиком, при создании предметов
+                continue;
+            }
+            try {
+                slots.put(slot, ItemStackCodec.unpack((byte[]) stored));
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not decode warehouse slot " + slot + " of faction " + id, e);
+            }
+        }
+        return new LoadedFaction(id, row, ranks, slots);
+    }
+
+    /**
+     * Создает фракцию из прочитанного {@link #loadAll}/{@link #loadFaction}: здесь из байтов создаются предметы склада.
+     * Только в основном потоке сервера (создание ItemStack не потокобезопасно).
+     */
+    public Faction materialize(LoadedFaction loaded) {
+        FactionRow row = loaded.row;
+        ItemStack[] warehouse = new ItemStack[row.warehouseSize];
+        List<Integer> legacySlots = new ArrayList<>();
+        for (Map.Entry<Integer, Object> slotEntry : loaded.slots.entrySet()) {
+            int slot = slotEntry.getKey();
+            try {
+                ItemStack[] decoded;
+                if (slotEntry.getValue() instanceof byte[][] unpacked) {
+                    decoded = ItemStackCodec.materialize(unpacked);
+                } else {
+                    decoded = ItemStackCodec.decodeAny(slotEntry.getValue());
+                    legacySlots.add(slot);
+                }
+                if (decoded != null && decoded.length > 0) warehouse[slot] = decoded[0];
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not decode warehouse slot " + slot + " of faction " + loaded.id, e);
+            }
+        }
+        Faction faction = new Faction(loaded.id, row.name, FactionType.fromString(row.type), row.color, row.prefix,
+                FactionTreasury.toAmount(row.balanceCents), row.warehouseSize, loaded.ranks, warehouse);
+        // Слоты в старом формате перезапишутся в новом при ближайшем сохранении
+        if (!legacySlots.isEmpty()) faction.markWarehouseSlotsDirty(legacySlots);
+        return faction;
+    }
+
+    // --- Сохранение ---
+
+    /**
+     * Записывает переданные фракции одной транзакцией, затрагивая только изменившиеся строки.
+     * Снимок и запись выполняются в вызывающем потоке (для синхронных сохранений).
+     * @return количество записанных/удаленных строк или -1 при ошибке (транзакция откатывается).
+     */
+    public int saveFactions(Collection<Faction> factions) {
+        if (factions == null || factions.isEmpty()) return 0;
+        return writeSnapshot(snapshot(factions));
+    }
+
+    /**
+     * Фаза 1 сохранения (основной поток): неизменяемый снимок фракций.
+     * Копируются только простые значения строк, а измененные слоты склада сразу кодируются в байты:
+     * API предметов (serializeAsBytes, как и deserializeBytes при загрузке) вызывается только в основном потоке.
+     * Кодируются лишь измененные слоты, флаги которых при этом сбрасываются (при неудачной записи они вернутся).
+     * Баланс снимается приращением к тому, что уже записано или пишется, - оно переходит в "приращения в пути".
+     */
+    public Snapshot snapshot(Collection<Faction> factions) {
+        Map<String, FactionRow> factionRows = new HashMap<>();
+        Map<String, Map<Integer, RankRow>> rankRows = new HashMap<>();
+        // Закодированные изменения склада; null - слот опустел
+        Map<Faction, Map<Integer, byte[]>> warehouseChanges = new HashMap<>();
+        Set<String> encodeFailed = new HashSet<>();
+        ConfigManager configManager = plugin.getConfigManager();
+        boolean compress = configManager == null || configManager.isItemCodecCompressionEnabled();
+        Map<String, Long> balanceDeltas = new HashMap<>();
+        Map<String, FactionTreasury> treasuries = new HashMap<>();
+        synchronized (balanceLock) {
+            for (Faction faction : factions) {
+                BalanceState state = balances.computeIfAbsent(faction.getId(), id -> new BalanceState(0L, 0L)); // Новая фракция
+                long delta = faction.getBalanceCents() - state.confirmed - state.inFlight;
+                state.inFlight += delta;
+                balanceDeltas.put(faction.getId(), delta);
+                treasuries.put(faction.getId(), faction.getTreasury());
+            }
+        }
+        for (Faction faction : factions) {
+            factionRows.put(faction.getId(), FactionRow.of(faction));
+            Map<Integer, RankRow> ranks = new HashMap<>();
+            for (FactionRank rank : faction.getRanks().values()) {
+                ranks.put(rank.getInternalId(), RankRow.of(rank));
+            }
+            rankRows.put(faction.getId(), ranks);
+            Map<Integer, ItemStack> changes = faction.drainWarehouseChanges();
+            if (changes.isEmpty()) continue;
+            // Ошибка кодирования одной фракции откладывает только ее (до следующего сохранения), остальные записываются
+            Map<Integer, byte[]> encoded = new HashMap<>();
+            try {
+                for (Map.Entry<Integer, ItemStack> slotEntry : changes.entrySet()) {
+                    ItemStack item = slotEntry.getValue();
+                    encoded.put(slotEntry.getKey(), item != null && !item.getType().isAir() ? ItemStackCodec.encodeItem(item, compress) : null);
+                }
+                warehouseChanges.put(faction, encoded);
+            } catch (RuntimeException e) {
+                encodeFailed.add(faction.getId());
+                faction.markWarehouseSlotsDirty(changes.keySet());
+                plugin.getLogger().log(Level.SEVERE, "Could not encode warehouse of faction " + faction.getId() + ", it will be retried on next save.", e);
+            }
+        }
+        return new Snapshot(factionRows, rankRows, warehouseChanges, balanceDeltas, treasuries, encodeFailed);
+    }
+
+    /**
+     * Фаза 2 сохранения (поток ввода-вывода): пишет снимок одной транзакцией (API предметов здесь не вызывается).
+     * Живые объекты Faction не читаются - только для возврата флагов склада при ошибке.
+     * @return количество записанных/удаленных строк или -1 при ошибке (транзакция откатывается).
+     */
+    public int writeSnapshot(Snapshot snapshot) {
+        storeLock.lock();
+        try {
+            if (snapshot == null || snapshot.isEmpty()) return 0;
+            Map<String, FactionRow> newFactionRows = snapshot.factionRows;
+            Map<String, Map<Integer, RankRow>> newRankRows = snapshot.rankRows;
+            Map<Faction, Map<Integer, byte[]>> warehouseChanges = snapshot.warehouseChanges;
+            // Фракции, склад которых не закодировался при снимке, ждут следующего сохранения целиком
+            Set<String> failed = snapshot.failedFactionIds;
+
+            // Итог записи каждой фракции (заполняется внутри транзакции, применяется после фиксации)
+            Map<String, StoredVersion> storedAfter = new HashMap<>();
+            Set<String> conflicted = new HashSet<>(); // Метаданные не записаны: фракцию изменил другой сервер
+            Set<String> rejected = new HashSet<>(); // Строки фракции нет (удалена или создана другим сервером)
+            Set<String> metadataWritten = new HashSet<>();
+            try {
+                int written = databaseManager.getPool().write(conn -> {
+                    Connection raw = conn.raw();
+                    boolean previousAutoCommit = raw.getAutoCommit();
+                    raw.setAutoCommit(false);
+                    storedAfter.clear(); conflicted.clear(); rejected.clear(); metadataWritten.clear();
+                    try {
+                        int rows = 0;
+                        PreparedStatement insertFaction = conn.prepare("INSERT INTO factions (id, name, type, color, prefix, balance, balance_cents, warehouse_size, version, balance_seq)"
+                                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, 1, 1) ON CONFLICT(id) DO NOTHING;");
+                        // Метаданные - только если версия не менялась с последнего чтения/записи этим сервером
+                        PreparedStatement updateFaction = conn.prepare("UPDATE factions SET name = ?, type = ?, color = ?, prefix = ?, warehouse_size = ?, version = version + 1 WHERE id = ? AND version = ?;");
+                        PreparedStatement addBalance = conn.prepare("UPDATE factions SET balance_cents = balance_cents + ?, balance = (balance_cents + ?) / 100.0, balance_seq = balance_seq + 1 WHERE id = ?;");
+                        PreparedStatement selectStored = conn.prepare("SELECT id, balance_cents, version, balance_seq FROM factions WHERE id = ?;");
+                        PreparedStatement upsertRank = conn.prepare("INSERT OR REPLACE INTO faction_ranks (faction_id, rank_id, default_name, display_name, salary, permissions) VALUES (?, ?, ?, ?, ?, ?);");
+                        PreparedStatement deleteRank = conn.prepare("DELETE FROM faction_ranks WHERE faction_id = ? AND rank_id = ?;");
+                        PreparedStatement upsertSlot = conn.prepare("INSERT OR REPLACE INTO warehouse_slots (faction_id, slot, item_data) VALUES (?, ?, ?);");
+                        PreparedStatement deleteSlot = conn.prepare("DELETE FROM warehouse_slots WHERE faction_id = ? AND slot = ?;");
+
+                        for (Map.Entry<String, FactionRow> entry : newFactionRows.entrySet()) {
+                            String id = entry.getKey();
+                            if (failed.contains(id)) continue; // Фракция целиком ждет следующего сохранения
+                            FactionRow row = entry.getValue();
+                            FactionRow oldRow = persistedFactions.get(id);
+                            Map<Integer, RankRow> oldRanks = persistedRanks.getOrDefault(id, Collections.emptyMap());
+                            Map<Integer, RankRow> newRanks = newRankRows.get(id);
+                            long delta = snapshot.balanceDeltas.getOrDefault(id, 0L);
+                            boolean ranksChanged = !newRanks.equals(oldRanks);
+                            boolean touched = false;
+
+                            if (oldRow == null) {
+                                insertFaction.setString(1, id);
+                                insertFaction.setString(2, row.name);
+                                insertFaction.setString(3, row.type);
+                                insertFaction.setString(4, row.color);
+                                insertFaction.setString(5, row.prefix);
+                                insertFaction.setDouble(6, FactionTreasury.toAmount(delta)); // Для чтения БД человеком
+                                insertFaction.setLong(7, delta); // Приращение новой фракции - весь ее баланс
+                                insertFaction.setInt(8, row.warehouseSize);
+                                if (insertFaction.executeUpdate() == 0) {
+                                    conflicted.add(id); rejected.add(id); // Фракцию с этим ID уже создал другой сервер
+                                    continue;
+                                }
+                                metadataWritten.add(id);
+                                touched = true;
+                                rows++;
+                            } else {
+                                if (!row.equals(oldRow) || ranksChanged) {
+                                    updateFaction.setString(1, row.name);
+                                    updateFaction.setString(2, row.type);
+                                    updateFaction.setString(3, row.color);
+                                    updateFaction.setString(4, row.prefix);
+                                    updateFaction.setInt(5, row.warehouseSize);
+                                    updateFaction.setString(6, id);
+                                    updateFaction.setLong(7, versions.getOrDefault(id, 0L));
+                                    if (updateFaction.executeUpdate() > 0) {
+                                        metadataWritten.add(id);
+                                        touched = true;
+                                        rows++;
+                                    } else {
+                                        conflicted.add(id); // Баланс ниже все равно пишется - он от версии не зависит
+                                    }
+                                }
+                                if (delta != 0) {
+                                    addBalance.setLong(1, delta);
+                                    addBalance.setLong(2, delta);
+                                    addBalance.setString(3, id);
+                                    if (addBalance.executeUpdate() > 0) {
+                                        touched = true;
+                                        rows++;
+                                    } else {
+                                        conflicted.add(id); rejected.add(id); // Фракция удалена другим сервером
+                                        continue;
+                                    }
+                                }
+                            }
+                            if (touched) {
+                                selectStored.setString(1, id);
+                                try (ResultSet rs = selectStored.executeQuery()) {
+                                    if (rs.next()) storedAfter.put(id, StoredVersion.read(rs));
+                                }
+                            }
+                            if (!metadataWritten.contains(id)) continue; // Ранги пишутся вместе с версией фракции
+
+                            for (Map.Entry<Integer, RankRow> rankEntry : newRanks.entrySet()) {
+                                RankRow r = rankEntry.getValue();
+                                if (r.equals(oldRanks.get(rankEntry.getKey()))) continue;
+                                upsertRank.setString(1, id);
+                                upsertRank.setInt(2, rankEntry.getKey());
+                                upsertRank.setString(3, r.defaultName);
+                                upsertRank.setString(4, r.displayName);
+                                upsertRank.setDouble(5, r.salary);
+                                upsertRank.setString(6, r.permissions);
+                                upsertRank.addBatch();
+                                rows++;
+                            }
+                            for (Integer rankId : oldRanks.keySet()) {
+                                if (newRanks.containsKey(rankId)) continue;
+                                deleteRank.setString(1, id);
+                                deleteRank.setInt(2, rankId);
+                                deleteRank.addBatch();
+                                rows++;
+                            }
+                        }
+
+                        // Склад - последний записавший побеждает (по слотам), кроме фракций, строки которых нет
+                        for (Map.Entry<Faction, Map<Integer, byte[]>> entry : warehouseChanges.entrySet()) {
+                            String id = entry.getKey().getId();
+                            if (rejected.contains(id)) continue;
+                            for (Map.Entry<Integer, byte[]> slotEntry : entry.getValue().entrySet()) {
+                                byte[] itemData = slotEntry.getValue();
+                                if (itemData != null) {
+                                    upsertSlot.setString(1, id);
+                                    upsertSlot.setInt(2, slotEntry.getKey());
+                                    upsertSlot.setBytes(3, itemData);
+                                    upsertSlot.addBatch();
+                                } else {
+                                    deleteSlot.setString(1, id);
+                                    deleteSlot.setInt(2, slotEntry.getKey());
+                                    deleteSlot.addBatch();
+                                }
+                                rows++;
+                            }
+                        }
+                        upsertRank.executeBatch();
+                        deleteRank.executeBatch();
+                        upsertSlot.executeBatch();
+                        deleteSlot.executeBatch();
+                        raw.commit();
+                        return rows;
+                    } catch (SQLException e) {
+                        raw.rollback();
+                        throw e;
+                    } finally {
+                        raw.setAutoCommit(previousAutoCommit);
+                    }
+                });
+                // Транзакция зафиксирована - запоминаем новое состояние
+                newFactionRows.forEach((id, row) -> { if (!failed.contains(id) && !conflicted.contains(id)) persistedFactions.put(id, row); });
+                newRankRows.forEach((id, ranks) -> { if (!failed.contains(id) && !conflicted.contains(id)) persistedRanks.put(id, ranks); });
+                synchronized (balanceLock) {
+                    for (Map.Entry<String, Long> entry : snapshot.balanceDeltas.entrySet()) {
+                        String id = entry.getKey();
+                        BalanceState state = balances.get(id);
+                        if (state == null || failed.contains(id)) continue; // Удалена во время записи / не записывалась
+                        state.inFlight -= entry.getValue();
+                        StoredVersion stored = storedAfter.get(id);
+                        if (stored == null || stored.balanceSeq <= state.seq) continue;
+                        // Подтвержденный баланс = строка БД; если между нашими записями баланс менял другой сервер,
+                        // его изменения (еще не пришедшие сообщением) применяются к казне здесь же
+                        long applied = rejected.contains(id) ? 0L : entry.getValue();
+                        long remoteDelta = stored.balanceCents - applied - state.confirmed;
+                        state.confirmed = stored.balanceCents;
+                        state.seq = stored.balanceSeq;
+                        if (remoteDelta != 0) snapshot.treasuries.get(id).adjust(remoteDelta);
+                    }
+                }
+                for (String id : metadataWritten) {
+                    StoredVersion stored = storedAfter.get(id);
+                    if (stored != null) versions.put(id, stored.version);
+                }
+                snapshot.written.addAll(storedAfter.values());
+                snapshot.conflictedFactionIds.addAll(conflicted);
+                if (!conflicted.isEmpty()) plugin.getLogger().warning("Factions " + conflicted + " were changed by another server; local changes to their settings are discarded and they will be reloaded.");
+                releaseBalanceDeltas(snapshot, failed); // Фракции, не попавшие в транзакцию
+                return written;
+            } catch (SQLException e) {
+                // Возвращаем флаги измененных слотов, чтобы они записались при следующем сохранении
+                warehouseChanges.forEach((faction, changes) -> { if (!failed.contains(faction.getId())) faction.markWarehouseSlotsDirty(changes.keySet()); });
+                releaseBalanceDeltas(snapshot, null);
+                plugin.getLogger().log(Level.SEVERE, "Could not save " + newFactionRows.size() + " factions to database!", e);
+                return -1;
+            }
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    // Приращения баланса, которые не были записаны, возвращаются из "в пути" - следующий снимок снимет их снова
+    private void releaseBalanceDeltas(Snapshot snapshot, Set<String> onlyIds) {
+        synchronized (balanceLock) {
+            for (Map.Entry<String, Long> entry : snapshot.balanceDeltas.entrySet()) {
+                if (onlyIds != null && !onlyIds.contains(entry.getKey())) continue;
+                BalanceState state = balances.get(entry.getKey());
+                if (state != null) state.inFlight -= entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * Удаляет фракцию со всеми рангами и слотами склада и убирает ее у игроков в player_data - одной транзакцией:
+     * при ошибке не остается ни игроков без фракции при живой строке factions, ни наоборот.
+     * Поток ввода-вывода (ключ сохранений фракций).
+     */
+    public boolean deleteFaction(String factionId) {
+        String id = factionId.toLowerCase();
+        // Сначала записываем очередь player_data: ее старые записи вернули бы игрокам удаленную фракцию
+        PlayerDataWriteQueue queue = databaseManager.getWriteQueue();
+        if (queue != null) queue.flushBlocking();
+        storeLock.lock();
+        try {
+            IoExecutor.IoTask<Void> delete = () -> databaseManager.getPool().write(conn -> {
+                Connection raw = conn.raw();
+                boolean previousAutoCommit = raw.getAutoCommit();
+                raw.setAutoCommit(false);
+                try {
+                    for (String sql : new String[]{"UPDATE player_data SET faction_id = NULL, rank_id = NULL, version = version + 1 WHERE faction_id = ?;",
+                            "DELETE FROM warehouse_slots WHERE faction_id = ?;", "DELETE FROM faction_ranks WHERE faction_id = ?;", "DELETE FROM factions WHERE id = ?;"}) {
+                        PreparedStatement pstmt = conn.prepare(sql);
+                        pstmt.setString(1, id);
+                        pstmt.executeUpdate();
+                    }
+                    raw.commit();
+                    return null;
+                } catch (SQLException e) {
+                    raw.rollback();
+                    throw e;
+                } finally {
+                    raw.setAutoCommit(previousAutoCommit);
+                }
+            });
+            try {
+                // Пачка очереди не пишется одновременно с удалением
+                if (queue != null) queue.writeThrough(Collections.emptyList(), delete);
+                else delete.call();
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not delete faction " + id + " from database!", e);
+                return false;
+            }
+            forgetFaction(id);
+            PlayerRecordCache cache = databaseManager.getPlayerRecordCache();
+            if (cache != null) cache.invalidateFaction(id);
+            return true;
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    // --- Импорт из factions.yml ---
+
+    /** @return true, если фракции из factions.yml уже были перенесены в БД. */
+    public boolean isYamlImported() {
+        try {
+            return databaseManager.getPool().read(conn -> {
+                PreparedStatement pstmt = conn.prepare("SELECT value FROM storage_meta WHERE key = ?;");
+                pstmt.setString(1, META_YAML_IMPORTED);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() && "true".equals(rs.getString("value"));
+                }
+            });
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not read storage meta!", e);
+            return true; // Не рискуем повторным импортом поверх данных в БД
+        }
+    }
+
+    /**
+     * Одноразовый перенос фракций, прочитанных из factions.yml, в БД.
+     * После успешного импорта factions.yml больше не читается.
+     */
+    public boolean importFromYaml(Collection<Faction> factions) {
+        storeLock.lock();
+        try {
+            for (Faction faction : factions) faction.markAllWarehouseSlotsDirty(); // Склад переносится целиком
+            if (saveFactions(factions) < 0) return false;
+            try {
+                databaseManager.getPool().write(conn -> {
+                    PreparedStatement pstmt = conn.prepare("INSERT OR REPLACE INTO storage_meta (key, value) VALUES (?, ?);");
+                    pstmt.setString(1, META_YAML_IMPORTED);
+                    pstmt.setString(2, "true");
+                    return pstmt.executeUpdate();
+                });
+                return true;
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not mark factions.yml as imported!", e);
+                return false;
+            }
+        } finally {
+            storeLock.unlock();
+        }
+    }
+
+    // --- Строки таблиц ---
+
+    /**
+     * Неизменяемый снимок фракций для записи вне основного потока.
+     */
+    public static final class Snapshot {
+        private final Map<String, FactionRow> factionRows;
+        private final Map<String, Map<Integer, RankRow>> rankRows;
+        private final Map<Faction, Map<Integer, byte[]>> warehouseChanges;
+        // Приращения баланса с прошлого снимка и казны для поправок после записи (казна потокобезопасна)
+        private final Map<String, Long> balanceDeltas;
+        private final Map<String, FactionTreasury> treasuries;
+        // Фракции, которые не удалось закодировать или записать (их нужно сохранить повторно)
+        private final Set<String> failedFactionIds = ConcurrentHashMap.newKeySet();
+        // Фракции, настройки которых изменил другой сервер (их нужно перечитать из БД)
+        private final Set<String> conflictedFactionIds = ConcurrentHashMap.newKeySet();
+        // Состояние записанных фракций сразу после записи (для сообщений синхронизации)
+        private final List<StoredVersion> written = Collections.synchronizedList(new ArrayList<>());
+
+        private Snapshot(Map<String, FactionRow> factionRows, Map<String, Map<Integer, RankRow>> rankRows, Map<Faction, Map<Integer, byte[]>> warehouseChanges,
+                         Map<String, Long> balanceDeltas, Map<String, FactionTreasury> treasuries, Set<String> encodeFailed) {
+            this.factionRows = Collections.unmodifiableMap(factionRows);
+            this.rankRows = Collections.unmodifiableMap(rankRows);
+            this.warehouseChanges = Collections.unmodifiableMap(warehouseChanges);
+            this.balanceDeltas = Collections.unmodifiableMap(balanceDeltas);
+            this.treasuries = Collections.unmodifiableMap(treasuries);
+            this.failedFactionIds.addAll(encodeFailed);
+        }
+
+        public int getFactionCount() { return factionRows.size(); }
+        public int getWarehouseSlotCount() { return warehouseChanges.values().stream().mapToInt(Map::size).sum(); }
+        public boolean isEmpty() { return factionRows.isEmpty() && warehouseChanges.isEmpty(); }
+        public Set<String> getFailedFactionIds() { return Collections.unmodifiableSet(failedFactionIds); }
+        public Set<String> getConflictedFactionIds() { return Collections.unmodifiableSet(conflictedFactionIds); }
+        public List<StoredVersion> getWritten() { synchronized (written) { return new ArrayList<>(written); } }
+    }
+
+    /**
+     * Фракция, прочитанная из БД, до создания предметов склада (см. {@link #materialize}).
+     */
+    public static final class LoadedFaction {
+        private final String id;
+        private final FactionRow row;
+        private final Map<Integer, FactionRank> ranks;
+        // Слот -> байты предметов (byte[][] от ItemStackCodec.unpack) или данные в старом формате
+        private final Map<Integer, Object> slots;
+
+        private LoadedFaction(String id, FactionRow row, Map<Integer, FactionRank> ranks, Map<Integer, Object> slots) {
+            this.id = id; this.row = row; this.ranks = ranks; this.slots = slots;
+        }
+
+        public String getId() { return id; }
+    }
+
+    /**
+     * Версии и баланс строки factions в БД.
+     */
+    public static final class StoredVersion {
+        private final String id;
+        private final long version;
+        private final long balanceSeq;
+        private final long balanceCents;
+
+        public StoredVersion(String id, long version, long balanceSeq, long balanceCents) {
+            this.id = id; this.version = version; this.balanceSeq = balanceSeq; this.balanceCents = balanceCents;
+        }
+
+        private static StoredVersion read(ResultSet rs) throws SQLException {
+            return new StoredVersion(rs.getString("id"), rs.getLong("version"), rs.getLong("balance_seq"), rs.getLong("balance_cents"));
+        }
+
+        public String getId() { return id; }
+        public long getVersion() { return version; }
+        public long getBalanceSeq() { return balanceSeq; }
+        public long getBalanceCents() { return balanceCents; }
+    }
+
+    /**
+     * Баланс фракции относительно БД: confirmed - баланс строки при balance_seq == seq,
+     * inFlight - снятые, но еще не подтвержденные записью приращения.
+     */
+    private static final class BalanceState {
+        private long confirmed;
+        private long inFlight = 0L;
+        private long seq;
+
+        private BalanceState(long confirmed, long seq) {
+            this.confirmed = confirmed;
+            this.seq = seq;
+        }
+    }
+
+    /** Строка таблицы factions. */
+    private static final class FactionRow {
+        private final String name, type, color, prefix;
+        private final long balanceCents;
+        private final int warehouseSize;
+
+        private FactionRow(String name, String type, String color, String prefix, long balanceCents, int warehouseSize) {
+            this.name = name; this.type = type; this.color = color; this.prefix = prefix; this.balanceCents = balanceCents; this.warehouseSize = warehouseSize;
+        }
+
+        private static FactionRow of(Faction f) {
+            return new FactionRow(f.getName(), f.getType().name(), f.getColor(), f.getPrefix(), f.getBalanceCents(), f.getWarehouseSize());
+        }
+
+        private static FactionRow read(ResultSet rs) throws SQLException {
+            return new FactionRow(rs.getString("name"), rs.getString("type"), rs.getString("color"), rs.getString("prefix"), rs.getLong("balance_cents"), rs.getInt("warehouse_size"));
+        }
+
+        // Баланс не сравнивается: он пишется приращениями отдельно от остальных полей
+        @Override public boolean equals(Object o) { if (this == o) return true; if (!(o instanceof FactionRow)) return false; FactionRow r = (FactionRow) o; return warehouseSize == r.warehouseSize && name.equals(r.name) && type.equals(r.type) && color.equals(r.color) && prefix.equals(r.prefix); }
+        @Override public int hashCode() { return Objects.hash(name, type, color, prefix, warehouseSize); }
+    }
+
+    /** Строка таблицы faction_ranks (права хранятся через перевод строки). */
+    private static final class RankRow {
+        private final String defaultName, displayName, permissions;
+        private final double salary;
+
+        private RankRow(String defaultName, String displayName, double salary, String permissions) {
+            this.defaultName = defaultName; this.displayName = displayName; this.salary = salary; this.permissions = permissions != null ? permissions : "";
+        }
+
+        private static RankRow of(FactionRank r) {
+            return new RankRow(r.getDefaultName(), r.getDisplayName(), r.getSalary(), String.join("\n", r.getPermissions()));
+        }
+
+        private List<String> permissionList() { return permissions.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(permissions.split("\n"))); }
+
+        @Override public boolean equals(Object o) { if (this == o) return true; if (!(o instanceof RankRow)) return false; RankRow r = (RankRow) o; return Double.compare(salary, r.salary) == 0 && defaultName.equals(r.defaultName) && Objects.equals(displayName, r.displayName) && permissions.equals(r.permissions); }
+        @Override public int hashCode() { return Objects.hash(defaultName, displayName, salary, permissions); }
+    }
+}
@@ -14,10 +14,10 @@ import org.isyateq.hfactions.gui.FactionWarehouseGUI;
 import org.isyateq.hfactions.models.Faction;
 import org.isyateq.hfactions.models.FactionRank;
 import org.isyateq.hfactions.models.PendingInvite;
+import org.isyateq.hfactions.models.PermissionRegistry;
 import org.isyateq.hfactions.util.Utils;
 
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level; // Импорт логгера
 
@@ -80,10 +80,10 @@ public class GuiManager {
         }
 
         // Проверка прав на открытие (базовое ИЛИ ранг ИЛИ админ)
-        if (!player.hasPermission("hfactions.faction.warehouse.open")) {
+        if (!player.hasPermission(PermissionRegistry.WAREHOUSE_OPEN.getNode())) {
             FactionRank rank = playerManager.getPlayerRank(player); // Получаем ранг (даже если админ, для логов)
             // Админ в режиме всегда может открыть
-            if (adminFactionId == null && (rank == null || !rank.getPermissions().contains("hfactions.faction.warehouse.open"))) {
+            if (adminFactionId == null && (rank == null || !rank.has(PermissionRegistry.WAREHOUSE_OPEN))) {
                 player.sendMessage(Utils.color("&cYou do not have permission to open the faction warehouse."));
                 return;
             }
@@ -114,8 +114,6 @@ public class GuiManager {
 
             plugin.getLogger().fine("Warehouse closed for faction " + factionId + " by " + player.getName() + ". Saving contents...");
 
-            // Получаем актуальное содержимое инвентаря
-            ItemStack[] finalContents = new ItemStack[faction.getWarehouseSize()];
             int guiSize = inventory.getSize();
             int contentSlots = guiSize - 9;
             int currentPage = FactionWarehouseGUI.getCurrentPageFromInventory(inventory);
@@ -126,35 +124,19 @@ public class GuiManager {
 
             int startIndexInFaction = (currentPage - 1) * contentSlots;
 
-            // Копируем ВСЕ текущие предметы фракции, чтобы не потерять другие страницы
-            ItemStack[] currentFactionContents = faction.getWarehouseContents().clone(); // КЛОНИРУЕМ массив!
-            System.arraycopy(currentFactionContents, 0, finalContents, 0, Math.min(currentFactionContents.length, finalContents.length));
-
-            // Теперь перезаписываем видимую страницу из закрытого GUI
-            boolean changed = false;
+            // Переносим только видимую страницу и только изменившиеся слоты - они и попадут в БД
+            int changedSlots = 0;
             for (int guiSlot = 0; guiSlot < contentSlots; guiSlot++) {
                 int indexInFaction = startIndexInFaction + guiSlot;
-                if (indexInFaction < faction.getWarehouseSize()) {
-                    ItemStack newItem = inventory.getItem(guiSlot);
-                    ItemStack oldItem = finalContents[indexInFaction]; // Предмет, который был там до открытия/изменения
-                    // Сравниваем предметы (null-safe)
-                    if (!Objects.equals(newItem, oldItem)) {
-                        finalContents[indexInFaction] = newItem; // Записываем предмет (или null)
-                        changed = true; // Отмечаем, что было изменение
-                    }
-                } else {
-                    break;
+                if (indexInFaction >= faction.getWarehouseSize()) break;
+                if (faction.setWarehouseSlot(indexInFaction, inventory.getItem(guiSlot))) { // Помечает слот и фракцию для сохранения
+                    changedSlots++;
                 }
             }
 
-            // Обновляем и сохраняем только если были изменения
-            if (changed) {
-                plugin.getLogger().fine("Warehouse contents changed for faction " + factionId + ". Updating and marking for save.");
-                faction.setWarehouseContents(finalContents);
-                factionManager.markFactionAsModified(factionId);
+            if (changedSlots > 0) {
+                plugin.getLogger().fine("Warehouse of faction " + factionId + ": " + changedSlots + " slots changed. Marked for save.");
                 // Сохранение произойдет автоматически по таймеру FactionManager
-                // factionManager.saveModifiedFactions(); // Не сохраняем здесь вручную
-                // player.sendMessage(Utils.color("&aFaction warehouse contents saved.")); // Можно убрать, т.к. автосохранение
             } else {
                 plugin.getLogger().fine("Warehouse contents were not changed for faction " + factionId + ".");
             }
@@ -198,15 +180,15 @@ public class GuiManager {
             }
 
             // Проверка прав на депозит/снятие (нужна для всех действий ниже)
-            boolean canDeposit = player.hasPermission("hfactions.faction.warehouse.deposit");
-            boolean canWithdraw = player.hasPermission("hfactions.faction.warehouse.withdraw");
+            boolean canDeposit = player.hasPermission(PermissionRegistry.WAREHOUSE_DEPOSIT.getNode());
+            boolean canWithdraw = player.hasPermission(PermissionRegistry.WAREHOUSE_WITHDRAW.getNode());
             FactionRank rank = playerManager.getPlayerRank(player);
             boolean isAdmin = adminFactionId != null; // Админ в режиме?
 
             if (!isAdmin) { // Если не админ, проверяем права ранга
                 if (rank != null) {
-                    if (!canDeposit && rank.getPermissions().contains("hfactions.faction.warehouse.deposit")) canDeposit = true;
-                    if (!canWithdraw && rank.getPermissions().contains("hfactions.faction.warehouse.withdraw")) canWithdraw = true;
+                    if (!canDeposit && rank.has(PermissionRegistry.WAREHOUSE_DEPOSIT)) canDeposit = true;
+                    if (!canWithdraw && rank.has(PermissionRegistry.WAREHOUSE_WITHDRAW)) canWithdraw = true;
                 }
             } else { // Админ в режиме может все
                 canDeposit = true;
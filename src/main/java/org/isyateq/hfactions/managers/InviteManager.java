@@ -1,6 +1,7 @@
 package org.isyateq.hfactions.managers;
 
 import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.util.Placeholders;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitTask;
@@ -35,11 +36,10 @@ public class InviteManager {
         Player invitedPlayer = Bukkit.getPlayer(invitedPlayerUUID);
         if (invitedPlayer != null && invitedPlayer.isOnline()) {
             plugin.getMessageUtil().send(invitedPlayer, "invite.success-received",
-                    MessageUtil.placeholders(
-                            "faction_name", plugin.getFactionManager().getFaction(normalizedFactionName).getName(), // Получаем оригинальное имя
+                    Placeholders.of(
                             "inviter_name", inviterName,
                             "timeout", String.valueOf(inviteTimeoutTicks / 20L)
-                    ));
+                    ).withColored("faction_name", plugin.getFactionManager().getFaction(normalizedFactionName).getName())); // Оригинальное имя, с цветами
         }
 
         // Отменяем предыдущий таймаут, если он был для этого игрока
@@ -0,0 +1,234 @@
+package org.isyateq.hfactions.managers;
+
+import org.bukkit.Bukkit;
+import org.isyateq.hfactions.HFactions;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Собственный исполнитель ввода-вывода плагина (БД, файлы) на виртуальных потоках Java 21.
+ * Не делит пул асинхронных задач Bukkit с другими плагинами.
+ * <p>
+ * Задачи с одинаковым ключом (UUID игрока, ID фракции, имя файла) выполняются строго по очереди
+ * в порядке постановки; задачи с разными ключами - параллельно, но не больше maxConcurrency одновременно.
+ * После {@link #shutdown(long)} новые задачи выполняются сразу в вызывающем потоке, поэтому
+ * синхронные сохранения в onDisable продолжают работать через тот же API.
+ */
+public final class IoExecutor {
+
+    private final HFactions plugin;
+    private final ExecutorService executor;
+    // Ограничение параллельности: у SQLite один писатель, лишние потоки только ждут блокировку
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    // Ключ -> последняя поставленная задача этого ключа (хвост цепочки)
+    private final Map<Object, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+    // Все незавершенные задачи - для детерминированного ожидания при выключении
+    private final Set<CompletableFuture<?>> outstanding = ConcurrentHashMap.newKeySet();
+    private final Executor mainThreadExecutor;
+    private volatile boolean shutdown = false;
+
+    // --- Счетчики ---
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong submittedTotal = new AtomicLong();
+    private final AtomicLong completedTotal = new AtomicLong();
+    private final AtomicLong failedTotal = new AtomicLong();
+    private final AtomicLong maxTaskNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public IoExecutor(HFactions plugin, int maxConcurrency) {
+        this.plugin = plugin;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.permits = new Semaphore(this.maxConcurrency, true);
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("HFactions-IO-", 0).factory());
+        this.mainThreadExecutor = task -> {
+            if (Bukkit.isPrimaryThread()) {
+                task.run();
+            } else if (plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, task);
+            } else {
+                plugin.getLogger().fine("Dropped main thread callback of an I/O task: plugin is disabled.");
+            }
+        };
+    }
+
+    /** Задача ввода-вывода, которая может бросить проверяемое исключение (SQLException, IOException). */
+    @FunctionalInterface
+    public interface IoTask<T> {
+        T call() throws Exception;
+    }
+
+    /** Задача без результата. */
+    @FunctionalInterface
+    public interface IoAction {
+        void run() throws Exception;
+    }
+
+    /** Выполняет задачу без требований к порядку. */
+    public <T> CompletableFuture<T> supply(IoTask<T> task) {
+        return supply(null, task);
+    }
+
+    /**
+     * Выполняет задачу после всех ранее поставленных задач с тем же ключом.
+     * @param key ключ упорядочивания (null - без упорядочивания).
+     */
+    public <T> CompletableFuture<T> supply(Object key, IoTask<T> task) {
+        submittedTotal.incrementAndGet();
+        if (shutdown) {
+            // Пул остановлен: выполняем сразу, но после незавершенной цепочки этого ключа
+            CompletableFuture<?> previous = key != null ? tails.get(key) : null;
+            if (previous != null) previous.handle((ignored, error) -> null).join();
+            return runInline(task);
+        }
+        CompletableFuture<T> future;
+        if (key == null) {
+            long queuedAt = System.nanoTime();
+            future = CompletableFuture.supplyAsync(() -> execute(task, queuedAt), executor);
+        } else {
+            CompletableFuture<T>[] result = newResultHolder();
+            tails.compute(key, (k, previous) -> {
+                long queuedAt = System.nanoTime();
+                CompletableFuture<?> after = previous != null ? previous : CompletableFuture.completedFuture(null);
+                // Ошибка предыдущей задачи не прерывает цепочку ключа
+                result[0] = after.handle((ignored, error) -> null)
+                        .thenApplyAsync(ignored -> execute(task, queuedAt), executor);
+                return result[0];
+            });
+            future = result[0];
+            // Когда хвост выполнен и за ним ничего не поставили - убираем ключ, чтобы карта не росла
+            future.whenComplete((value, error) -> tails.remove(key, future));
+        }
+        outstanding.add(future);
+        future.whenComplete((value, error) -> outstanding.remove(future));
+        return future;
+    }
+
+    /** Выполняет действие без требований к порядку. */
+    public CompletableFuture<Void> run(IoAction action) {
+        return run(null, action);
+    }
+
+    /** Выполняет действие после всех ранее поставленных задач с тем же ключом. */
+    public CompletableFuture<Void> run(Object key, IoAction action) {
+        return supply(key, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Исполнитель для продолжений в основном потоке сервера:
+     * {@code io.supply(...).thenAcceptAsync(result -> ..., io.mainThread())}.
+     * После выключения плагина продолжения отбрасываются.
+     */
+    public Executor mainThread() {
+        return mainThreadExecutor;
+    }
+
+    /**
+     * Прекращает прием задач в пул и дожидается выполнения уже поставленных.
+     * Последующие вызовы supply/run выполняются в вызывающем потоке.
+     * @return true, если все задачи завершились за отведенное время.
+     */
+    public boolean shutdown(long timeoutMillis) {
+        if (shutdown) return true;
+        shutdown = true;
+        long start = System.nanoTime();
+        int pendingAtShutdown = outstanding.size();
+        boolean drained;
+        try {
+            // Сначала ждем цепочки ключей целиком: их следующие звенья еще должны попасть в пул
+            CompletableFuture.allOf(outstanding.toArray(new CompletableFuture[0]))
+                    .handle((ignored, error) -> null)
+                    .get(Math.max(0L, timeoutMillis), TimeUnit.MILLISECONDS);
+            executor.shutdown();
+            drained = executor.awaitTermination(Math.max(0L, timeoutMillis - (System.nanoTime() - start) / 1_000_000L), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        } catch (Exception e) { // TimeoutException, ExecutionException
+            drained = false;
+        }
+        if (!drained) {
+            plugin.getLogger().severe("I/O executor did not finish " + outstanding.size() + " task(s) within " + timeoutMillis + " ms!");
+            executor.shutdownNow();
+        }
+        tails.clear();
+        outstanding.clear();
+        plugin.getLogger().info("I/O executor stopped in " + String.format("%.2f", (System.nanoTime() - start) / 1_000_000.0) + " ms ("
+                + pendingAtShutdown + " pending at shutdown). Tasks: " + completedTotal.get() + " completed, " + failedTotal.get() + " failed, max task "
+                + String.format("%.2f", getMaxTaskMillis()) + " ms, max wait " + String.format("%.2f", getMaxWaitMillis()) + " ms.");
+        return drained;
+    }
+
+    public boolean isShutdown() { return shutdown; }
+
+    private <T> T execute(IoTask<T> task, long queuedAt) {
+        boolean acquired = false;
+        inFlight.incrementAndGet();
+        try {
+            permits.acquire();
+            acquired = true;
+            long started = System.nanoTime();
+            maxWaitNanos.accumulateAndGet(started - queuedAt, Math::max);
+            T value = task.call();
+            maxTaskNanos.accumulateAndGet(System.nanoTime() - started, Math::max);
+            completedTotal.incrementAndGet();
+            return value;
+        } catch (Exception e) {
+            failedTotal.incrementAndGet();
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            plugin.getLogger().log(Level.FINE, "I/O task failed", e);
+            throw e instanceof CompletionException ce ? ce : new CompletionException(e);
+        } finally {
+            if (acquired) permits.release();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private <T> CompletableFuture<T> runInline(IoTask<T> task) {
+        try {
+            return CompletableFuture.completedFuture(execute(task, System.nanoTime()));
+        } catch (CompletionException e) {
+            return CompletableFuture.failedFuture(e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<T>[] newResultHolder() {
+        return (CompletableFuture<T>[]) new CompletableFuture[1];
+    }
+
+    /** Достает исходную причину из CompletionException/ExecutionException. */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof java.util.concurrent.ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    // --- Метрики ---
+    public int getInFlight() { return inFlight.get(); }
+    public int getPending() { return outstanding.size(); }
+    public int getOrderedKeys() { return tails.size(); }
+    public int getMaxConcurrency() { return maxConcurrency; }
+    public long getSubmittedTotal() { return submittedTotal.get(); }
+    public long getCompletedTotal() { return completedTotal.get(); }
+    public long getFailedTotal() { return failedTotal.get(); }
+    public double getMaxTaskMillis() { return maxTaskNanos.get() / 1_000_000.0; }
+    public double getMaxWaitMillis() { return maxWaitNanos.get() / 1_000_000.0; }
+}
@@ -0,0 +1,224 @@
+package org.isyateq.hfactions.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.models.PlayerSession;
+import org.isyateq.hfactions.util.LocaleBundle;
+import org.isyateq.hfactions.util.MessageTemplate;
+import org.isyateq.hfactions.util.Placeholders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Языки сообщений: все файлы lang_&lt;язык&gt;.yml из папки плагина загружаются при старте и /hf reload
+ * и разбираются в неизменяемые наборы шаблонов. Цепочка запасных строк (файл языка -> его версия
+ * из плагина -> язык сервера по умолчанию) сводится при загрузке, поэтому при отправке сообщения
+ * повторных поисков нет.
+ * <p>
+ * Язык игрока определяется по настройкам клиента и хранится в его сессии: сообщение игроку -
+ * одно обращение к сессии и одно к карте набора. Консоль и игроки без сессии получают
+ * язык general.language.
+ */
+public final class LocaleManager {
+
+    private static final String FILE_PREFIX = "lang_";
+    private static final String FILE_SUFFIX = ".yml";
+    // Языки, файлы которых поставляются с плагином
+    private static final String[] BUNDLED_LANGUAGES = { "ru", "en" };
+    // Общие подстановки файла: значения берутся из того же файла и подставляются при разборе
+    private static final String[] CONSTANTS = { "prefix", "highlight", "success", "error" };
+
+    private final HFactions plugin;
+    // Все языки; при перезагрузке заменяется целиком одной записью
+    private volatile Catalog catalog = Catalog.EMPTY;
+
+    public LocaleManager(HFactions plugin) {
+        this.plugin = plugin;
+        reload();
+    }
+
+    /** Загружает все языки и заново привязывает игроков онлайн. Основной поток. */
+    public void reload() {
+        ConfigManager configManager = plugin.getConfigManager();
+        String defaultLanguage = normalize(configManager.getLanguage());
+        Map<String, Map<String, String>> raw = loadRawBundles();
+        if (!raw.containsKey(defaultLanguage)) {
+            plugin.getLogger().warning("No " + FILE_PREFIX + defaultLanguage + FILE_SUFFIX + " found for general.language '" + defaultLanguage + "'. Missing messages will not fall back to another language.");
+        }
+
+        Map<String, String> defaults = raw.getOrDefault(defaultLanguage, Collections.emptyMap());
+        Map<String, LocaleBundle> bundles = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : raw.entrySet()) {
+            Map<String, String> merged = new HashMap<>(defaults);
+            merged.putAll(entry.getValue()); // Свои строки поверх строк языка по умолчанию
+            bundles.put(entry.getKey(), compile(entry.getKey(), merged));
+        }
+        LocaleBundle defaultBundle = bundles.computeIfAbsent(defaultLanguage, language -> compile(language, defaults));
+        catalog = new Catalog(bundles, defaultBundle, configManager.isPerPlayerLanguage());
+
+        for (Player player : Bukkit.getOnlinePlayers()) bind(player, player.locale());
+        plugin.getLogger().info("Loaded " + bundles.size() + " languages " + bundles.keySet() + ", default: " + defaultLanguage + ".");
+    }
+
+    // --- Язык игрока ---
+
+    /** Привязывает к сессии игрока язык его клиента (вход, смена языка в настройках клиента). */
+    public void bind(Player player, Locale clientLocale) {
+        PlayerManager playerManager = plugin.getPlayerManager();
+        PlayerSession session = playerManager != null ? playerManager.getSession(player) : null;
+        if (session != null) session.setLocale(resolve(clientLocale));
+    }
+
+    /** @return набор для языка клиента: язык_страна, затем язык, затем язык сервера по умолчанию. */
+    public LocaleBundle resolve(Locale clientLocale) {
+        Catalog current = catalog;
+        if (!current.perPlayer || clientLocale == null) return current.defaultBundle;
+        String language = clientLocale.getLanguage().toLowerCase(Locale.ROOT);
+        String country = clientLocale.getCountry().toLowerCase(Locale.ROOT);
+        LocaleBundle bundle = country.isEmpty() ? null : current.bundles.get(language + "_" + country);
+        if (bundle == null) bundle = current.bundles.get(language);
+        return bundle != null ? bundle : current.defaultBundle;
+    }
+
+    /** @return набор получателя: из сессии игрока или язык сервера по умолчанию. */
+    public LocaleBundle getBundle(CommandSender sender) {
+        if (sender instanceof Player player) {
+            PlayerManager playerManager = plugin.getPlayerManager();
+            PlayerSession session = playerManager != null ? playerManager.getSession(player) : null;
+            LocaleBundle bundle = session != null ? session.getLocale() : null;
+            if (bundle != null) return bundle;
+        }
+        return catalog.defaultBundle;
+    }
+
+    // --- Сообщения ---
+
+    /** @return сообщение key на языке получателя. */
+    public String get(CommandSender to, String key) {
+        return template(to, key).render();
+    }
+
+    /**
+     * Сообщение на языке получателя с подстановками.
+     * @param placeholderPairs пары "{name}", значение
+     */
+    public String get(CommandSender to, String key, String firstKey, Object firstValue, Object... placeholderPairs) {
+        return get(to, key, Placeholders.of(firstKey, firstValue).withAll(placeholderPairs));
+    }
+
+    public String get(CommandSender to, String key, Placeholders context) {
+        return template(to, key).render(context);
+    }
+
+    public void send(CommandSender to, String key) {
+        to.sendMessage(get(to, key));
+    }
+
+    public void send(CommandSender to, String key, String firstKey, Object firstValue, Object... placeholderPairs) {
+        to.sendMessage(get(to, key, firstKey, firstValue, placeholderPairs));
+    }
+
+    private MessageTemplate template(CommandSender to, String key) {
+        MessageTemplate template = getBundle(to).get(key);
+        if (template != null) return template;
+        // Ключа нет ни в одном языке цепочки - сообщаем один раз до перезагрузки
+        return catalog.missing.computeIfAbsent(key, missingKey -> {
+            plugin.getLogger().warning("Missing language key '" + missingKey + "' in " + FILE_PREFIX + "*" + FILE_SUFFIX);
+            return MessageTemplate.compile("&cMissing message: " + missingKey);
+        });
+    }
+
+    // --- Загрузка ---
+
+    // Язык -> ключ -> строка: строки из плагина, поверх них файл из папки плагина (правки администратора)
+    private Map<String, Map<String, String>> loadRawBundles() {
+        File folder = plugin.getDataFolder();
+        for (String language : BUNDLED_LANGUAGES) {
+            String fileName = FILE_PREFIX + language + FILE_SUFFIX;
+            if (new File(folder, fileName).exists()) continue;
+            try { plugin.saveResource(fileName, false); }
+            catch (IllegalArgumentException e) { plugin.getLogger().warning("Bundled language file " + fileName + " not found in the plugin jar."); }
+        }
+
+        Map<String, Map<String, String>> raw = new HashMap<>();
+        File[] files = folder.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) return raw;
+        for (File file : files) {
+            String name = file.getName();
+            String language = normalize(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+            if (language.isEmpty()) continue;
+            Map<String, String> strings = new HashMap<>();
+            readStrings(loadResource(name), strings); // Новые ключи из обновления плагина
+            readStrings(YamlConfiguration.loadConfiguration(file), strings);
+            raw.put(language, strings);
+        }
+        return raw;
+    }
+
+    private YamlConfiguration loadResource(String name) {
+        try (InputStream stream = plugin.getResource(name)) {
+            if (stream == null) return null;
+            try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+                return YamlConfiguration.loadConfiguration(reader);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not read bundled language file " + name, e);
+            return null;
+        }
+    }
+
+    private static void readStrings(ConfigurationSection section, Map<String, String> out) {
+        if (section == null) return;
+        for (String key : section.getKeys(true)) {
+            if (section.isString(key)) out.put(key, section.getString(key));
+        }
+    }
+
+    private static LocaleBundle compile(String language, Map<String, String> strings) {
+        Map<String, MessageTemplate> messages = new HashMap<>(strings.size() * 2);
+        for (Map.Entry<String, String> entry : strings.entrySet()) {
+            String text = entry.getValue();
+            for (String constant : CONSTANTS) {
+                String value = strings.get(constant);
+                if (value != null && !constant.equals(entry.getKey())) text = text.replace("{" + constant + "}", value);
+            }
+            messages.put(entry.getKey(), MessageTemplate.compile(text));
+        }
+        return new LocaleBundle(language, messages);
+    }
+
+    private static String normalize(String language) {
+        return language != null ? language.trim().toLowerCase(Locale.ROOT).replace('-', '_') : "";
+    }
+
+    /**
+     * Неизменяемый набор языков одной загрузки.
+     */
+    private static final class Catalog {
+        private static final Catalog EMPTY = new Catalog(Collections.emptyMap(), new LocaleBundle("", Collections.emptyMap()), false);
+
+        private final Map<String, LocaleBundle> bundles;
+        private final LocaleBundle defaultBundle;
+        private final boolean perPlayer;
+        // Ключ, которого нет ни в одном языке -> заглушка
+        private final Map<String, MessageTemplate> missing = new ConcurrentHashMap<>();
+
+        private Catalog(Map<String, LocaleBundle> bundles, LocaleBundle defaultBundle, boolean perPlayer) {
+            this.bundles = Collections.unmodifiableMap(bundles);
+            this.defaultBundle = defaultBundle;
+            this.perPlayer = perPlayer;
+        }
+    }
+}
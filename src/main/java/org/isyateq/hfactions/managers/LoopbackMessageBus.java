@@ -0,0 +1,64 @@
+package org.isyateq.hfactions.managers;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Канал сообщений внутри одного процесса: сообщение получают все остальные шины с тем же именем канала.
+ * Заменяет прокси при проверке синхронизации (несколько SyncManager в одной JVM); на одиночном сервере
+ * сообщения просто некому доставлять.
+ */
+public final class LoopbackMessageBus implements MessageBus {
+
+    // Канал -> подключенные шины этого процесса
+    private static final Map<String, Set<LoopbackMessageBus>> CHANNELS = new ConcurrentHashMap<>();
+
+    private final String channel;
+    private final Executor deliveryExecutor;
+    private volatile Consumer<byte[]> receiver = null;
+
+    /** @param deliveryExecutor в каком потоке получатель обрабатывает сообщения (основной поток сервера) */
+    public LoopbackMessageBus(String channel, Executor deliveryExecutor) {
+        this.channel = channel;
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    @Override
+    public String getName() { return "loopback:" + channel; }
+
+    @Override
+    public int getMaxMessageSize() { return Integer.MAX_VALUE; }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        CHANNELS.computeIfAbsent(channel, key -> ConcurrentHashMap.newKeySet()).add(this);
+    }
+
+    @Override
+    public boolean publish(byte[] message) {
+        Set<LoopbackMessageBus> peers = CHANNELS.get(channel);
+        if (peers == null) return true;
+        for (LoopbackMessageBus peer : peers) {
+            if (peer == this) continue; // Свои сообщения не получаем, как и через прокси
+            byte[] copy = message.clone();
+            peer.deliveryExecutor.execute(() -> {
+                Consumer<byte[]> target = peer.receiver;
+                if (target != null) target.accept(copy);
+            });
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        receiver = null;
+        CHANNELS.computeIfPresent(channel, (key, peers) -> {
+            peers.remove(this);
+            return peers.isEmpty() ? null : peers;
+        });
+    }
+}
@@ -0,0 +1,29 @@
+package org.isyateq.hfactions.managers;
+
+import java.util.function.Consumer;
+
+/**
+ * Канал сообщений синхронизации между серверами сети (см. SyncManager).
+ * Доставка - не более одного раза и без хранения: сервер, пропустивший сообщения,
+ * догоняет изменения по версиям в общей БД, поэтому реализации ничего не повторяют.
+ */
+public interface MessageBus {
+
+    /** @return название канала для логов. */
+    String getName();
+
+    /** Начинает прием сообщений; receiver вызывается в основном потоке сервера. */
+    void start(Consumer<byte[]> receiver);
+
+    /** @return наибольший размер сообщения в байтах, который канал может передать. */
+    int getMaxMessageSize();
+
+    /**
+     * Отправляет сообщение всем остальным серверам сети.
+     * @return false, если сообщение не отправлено (сейчас некому передать или оно больше getMaxMessageSize()).
+     */
+    boolean publish(byte[] message);
+
+    /** Прекращает прием и отправку. */
+    void close();
+}
@@ -0,0 +1,187 @@
+package org.isyateq.hfactions.managers;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.format.TextColor;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scoreboard.Scoreboard;
+import org.bukkit.scoreboard.Team;
+import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.models.Faction;
+
+import java.util.*;
+
+/**
+ * Префиксы фракций в табе и над головой: одна команда (scoreboard team) на фракцию на общем
+ * (главном) скорборде сервера. Команда хранит цвет и префикс фракции, поэтому смена фракции игрока -
+ * это только перенос его записи между командами.
+ * <p>
+ * Изменения копятся и применяются раз в тик: несколько изменений одного игрока за тик сливаются в одно.
+ * Все методы вызываются в основном потоке.
+ */
+public final class NametagManager {
+
+    // Префикс имен команд плагина на главном скорборде
+    private static final String TEAM_PREFIX = "hf_";
+    private static final LegacyComponentSerializer LEGACY = LegacyComponentSerializer.legacyAmpersand();
+
+    private final HFactions plugin;
+    private final boolean enabled;
+    private Scoreboard scoreboard;
+
+    // UUID -> фракция, в команде которой игрок сейчас (после последнего применения)
+    private final Map<UUID, String> appliedFaction = new HashMap<>();
+    // UUID -> ник, под которым игрок записан в команде (нужен, чтобы убрать вышедшего)
+    private final Map<UUID, String> entryNames = new HashMap<>();
+    // Ждут применения: UUID -> новая фракция (NO_FACTION - убрать из команд)
+    private final Map<UUID, String> pendingMoves = new LinkedHashMap<>();
+    // Фракции, у которых нужно обновить префикс/цвет команды
+    private final Set<String> pendingStyles = new HashSet<>();
+    // Команды, которые этот менеджер создал или занял под фракцию: снимаются только они,
+    // чужие команды с похожими именами (другие плагины, ручные) не трогаем
+    private final Set<String> ownedTeams = new HashSet<>();
+    private boolean flushScheduled = false;
+
+    private static final String NO_FACTION = "";
+
+    public NametagManager(HFactions plugin) {
+        this.plugin = plugin;
+        this.enabled = plugin.getConfigManager().isNametagsEnabled();
+        if (!enabled) {
+            plugin.getLogger().info("Faction nametags disabled in config.");
+            return;
+        }
+        this.scoreboard = Bukkit.getScoreboardManager().getMainScoreboard();
+    }
+
+    // --- Изменения состава ---
+
+    /** Игрок перешел во фракцию factionId (null - вышел из фракции или с сервера). */
+    public void setFaction(Player player, String factionId) {
+        if (!enabled) return;
+        UUID uuid = player.getUniqueId();
+        entryNames.putIfAbsent(uuid, player.getName());
+        String target = factionId != null ? factionId.toLowerCase() : NO_FACTION;
+        if (target.equals(appliedFaction.getOrDefault(uuid, NO_FACTION))) pendingMoves.remove(uuid); // Вернулся к примененному
+        else pendingMoves.put(uuid, target);
+        scheduleFlush();
+    }
+
+    /** Игрок вышел с сервера: запись убирается из команды (главный скорборд не должен копить ники). */
+    public void removePlayer(UUID uuid) {
+        if (!enabled || (!appliedFaction.containsKey(uuid) && !pendingMoves.containsKey(uuid))) return;
+        pendingMoves.put(uuid, NO_FACTION);
+        scheduleFlush();
+    }
+
+    // --- Фракции ---
+
+    /** Префикс или цвет фракции изменились (или фракции перезагружены). */
+    public void refreshFaction(String factionId) {
+        if (!enabled || factionId == null) return;
+        pendingStyles.add(factionId.toLowerCase());
+        scheduleFlush();
+    }
+
+    public void refreshAll(Collection<Faction> factions) {
+        if (!enabled) return;
+        for (Faction faction : factions) pendingStyles.add(faction.getId().toLowerCase());
+        // Команды удаленных при перезагрузке фракций исчезнут вместе с записями
+        for (String factionId : new HashSet<>(appliedFaction.values())) {
+            if (plugin.getFactionManager().getFaction(factionId) == null) removeFaction(factionId);
+        }
+        scheduleFlush();
+    }
+
+    /** Фракция удалена: команда снимается сразу вместе со всеми записями. */
+    public void removeFaction(String factionId) {
+        if (!enabled || factionId == null) return;
+        String lowerId = factionId.toLowerCase();
+        String name = teamName(lowerId);
+        if (ownedTeams.remove(name)) {
+            Team team = scoreboard.getTeam(name);
+            if (team != null) team.unregister();
+        }
+        appliedFaction.values().removeIf(lowerId::equals);
+        pendingMoves.values().removeIf(lowerId::equals);
+        pendingStyles.remove(lowerId);
+    }
+
+    /** Выключение плагина: снимаем все свои команды с главного скорборда. */
+    public void shutdown() {
+        if (!enabled) return;
+        pendingMoves.clear();
+        pendingStyles.clear();
+        appliedFaction.clear();
+        entryNames.clear();
+        unregisterTeams();
+    }
+
+    // --- Применение ---
+
+    private void scheduleFlush() {
+        if (flushScheduled) return;
+        flushScheduled = true;
+        Bukkit.getScheduler().runTask(plugin, this::flush);
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        for (String factionId : pendingStyles) {
+            Faction faction = plugin.getFactionManager().getFaction(factionId);
+            if (faction != null) applyStyle(getOrCreateTeam(faction), faction);
+        }
+        pendingStyles.clear();
+
+        for (Map.Entry<UUID, String> move : pendingMoves.entrySet()) {
+            UUID uuid = move.getKey();
+            String entry = entryNames.get(uuid);
+            if (entry == null) continue;
+            if (move.getValue().equals(NO_FACTION)) {
+                Team current = scoreboard.getEntryTeam(entry);
+                if (current != null && ownedTeams.contains(current.getName())) current.removeEntry(entry);
+                appliedFaction.remove(uuid);
+                if (Bukkit.getPlayer(uuid) == null) entryNames.remove(uuid); // Вышел - ник больше не нужен
+                continue;
+            }
+            Faction faction = plugin.getFactionManager().getFaction(move.getValue());
+            if (faction == null) continue; // Фракцию удалили до применения
+            getOrCreateTeam(faction).addEntry(entry); // Запись сама уходит из прежней команды скорборда
+            appliedFaction.put(uuid, move.getValue());
+        }
+        pendingMoves.clear();
+    }
+
+    private Team getOrCreateTeam(Faction faction) {
+        String name = teamName(faction.getId());
+        Team team = scoreboard.getTeam(name);
+        if (team == null) {
+            team = scoreboard.registerNewTeam(name);
+            applyStyle(team, faction);
+        }
+        // Команда с тем же именем могла остаться с прошлого запуска (главный скорборд сохраняется с миром) - занимаем ее
+        ownedTeams.add(name);
+        return team;
+    }
+
+    private void applyStyle(Team team, Faction faction) {
+        String prefix = faction.getPrefix();
+        team.prefix(prefix != null && !prefix.isEmpty() ? LEGACY.deserialize(prefix + " ") : Component.empty());
+        TextColor color = faction.getColor() != null ? TextColor.fromHexString(faction.getColor()) : null;
+        team.color(color != null ? NamedTextColor.nearestTo(color) : NamedTextColor.WHITE); // Цвет ника - только именованный
+    }
+
+    private void unregisterTeams() {
+        for (String name : ownedTeams) {
+            Team team = scoreboard.getTeam(name);
+            if (team != null) team.unregister();
+        }
+        ownedTeams.clear();
+    }
+
+    private static String teamName(String factionId) {
+        return TEAM_PREFIX + factionId.toLowerCase();
+    }
+}
@@ -0,0 +1,321 @@
+package org.isyateq.hfactions.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.isyateq.hfactions.HFactions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Очередь отложенной записи (write-behind) для таблицы player_data.
+ * Изменения копятся в памяти и схлопываются по UUID (в БД уходит только последнее состояние игрока),
+ * затем одним пакетом в одной транзакции записываются единственным писателем:
+ * по таймеру или досрочно, когда накопилось batch_size записей.
+ */
+public final class PlayerDataWriteQueue {
+
+    private final HFactions plugin;
+    private final DatabaseManager databaseManager;
+
+    // Ожидающие записи: UUID -> последнее состояние (схлопывание повторных сохранений)
+    private final Map<UUID, PendingWrite> pending = new ConcurrentHashMap<>();
+    // Записи, которые сейчас пишутся в БД (видны getPending до коммита транзакции)
+    private final Map<UUID, PendingWrite> inFlight = new ConcurrentHashMap<>();
+    // Гарантирует единственного писателя (таймер, досрочный сброс и drainSync не пересекаются)
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Ключ упорядочивания сбросов в IoExecutor (сбросы не обгоняют друг друга)
+    private static final String FLUSH_KEY = "player_data_queue";
+    // Поставлен ли уже сброс в исполнитель ввода-вывода
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // Очередь переполнена (предупреждение пишется один раз за перегрузку)
+    private final AtomicBoolean overloaded = new AtomicBoolean(false);
+    // После неудачной записи досрочные сбросы не ставятся до этого момента (повторяет таймер)
+    private volatile long retryAfterNanos = 0L;
+
+    private final long flushIntervalTicks;
+    private final int batchSize;
+    private final int maxPending;
+    private BukkitTask flushTask = null;
+    private volatile boolean shuttingDown = false;
+
+    // --- Счетчики ---
+    private final AtomicLong enqueuedTotal = new AtomicLong();
+    private final AtomicLong coalescedTotal = new AtomicLong();
+    private final AtomicLong writtenTotal = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong backpressureFlushes = new AtomicLong();
+    private final AtomicLong shedWrites = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    public PlayerDataWriteQueue(HFactions plugin, DatabaseManager databaseManager, long flushIntervalTicks, int batchSize, int maxPending) {
+        this.plugin = plugin;
+        this.databaseManager = databaseManager;
+        this.flushIntervalTicks = Math.max(1L, flushIntervalTicks);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPending = Math.max(this.batchSize, maxPending);
+    }
+
+    /** Запускает периодический сброс очереди. */
+    public void start() {
+        stop();
+        shuttingDown = false;
+        // Таймер только ставит сброс в исполнитель ввода-вывода плагина - сама запись идет не в пуле Bukkit
+        flushTask = Bukkit.getScheduler().runTaskTimer(plugin, this::scheduleFlush, flushIntervalTicks, flushIntervalTicks);
+        plugin.getLogger().info("Player data write queue started (every " + flushIntervalTicks + " ticks, batch " + batchSize + ", max pending " + maxPending + ").");
+    }
+
+    /** Останавливает периодический сброс (без записи оставшихся данных). */
+    public void stop() {
+        if (flushTask != null) {
+            try { flushTask.cancel(); } catch (IllegalStateException ignored) {}
+            flushTask = null;
+        }
+    }
+
+    /**
+     * Ставит состояние игрока в очередь на запись. Повторные вызовы для того же UUID
+     * до сброса заменяют предыдущее значение.
+     */
+    public void enqueue(UUID uuid, String factionId, Integer rankId) {
+        enqueue(uuid, factionId, rankId, true);
+    }
+
+    /**
+     * @param changed меняет ли запись фракцию/ранг (false - повторное сохранение того же состояния, например при выходе).
+     *                Схлопнутая запись считается изменением, если изменением была хотя бы одна из слитых.
+     */
+    public void enqueue(UUID uuid, String factionId, Integer rankId, boolean changed) {
+        if (uuid == null) return;
+        enqueuedTotal.incrementAndGet();
+        if (!changed && !shuttingDown && pending.size() >= maxPending && !pending.containsKey(uuid)) {
+            // Очередь переполнена: повторное сохранение того же состояния не нужно - оно уже в БД
+            // (или в пишущейся пачке, которая при неудаче вернется в очередь)
+            shedWrites.incrementAndGet();
+            onOverload();
+            return;
+        }
+        PendingWrite[] replaced = new PendingWrite[1];
+        pending.compute(uuid, (id, previous) -> {
+            replaced[0] = previous;
+            boolean merged = changed || (previous != null && previous.isChanged());
+            return new PendingWrite(uuid, factionId, rankId, merged);
+        });
+        if (replaced[0] != null) {
+            coalescedTotal.incrementAndGet();
+        }
+
+        int depth = pending.size();
+        if (shuttingDown) {
+            return; // Все будет записано в drainSync()
+        }
+        if (depth >= maxPending) {
+            onOverload();
+        } else if (depth >= batchSize && System.nanoTime() - retryAfterNanos >= 0 && flushScheduled.compareAndSet(false, true)) {
+            plugin.getIoExecutor().run(FLUSH_KEY, () -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    // Обратное давление без блокировки вызывающего (обычно основного) потока: досрочный сброс ставится
+    // в поток ввода-вывода, изменения продолжают схлопываться по UUID, повторные сохранения отбрасываются
+    private void onOverload() {
+        if (overloaded.compareAndSet(false, true)) {
+            plugin.getLogger().warning("Player data write queue is full (" + pending.size() + " pending). Unchanged saves are skipped until it drains.");
+        }
+        if (System.nanoTime() - retryAfterNanos < 0) return; // БД только что отказала - ждем таймер
+        if (flushScheduled.compareAndSet(false, true)) {
+            backpressureFlushes.incrementAndGet();
+            plugin.getIoExecutor().run(FLUSH_KEY, () -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    // Плановый сброс; пропускается, если предыдущий еще не завершен
+    private void scheduleFlush() {
+        if (pending.isEmpty() || !flushScheduled.compareAndSet(false, true)) return;
+        plugin.getIoExecutor().run(FLUSH_KEY, () -> {
+            flushScheduled.set(false);
+            flush();
+        });
+    }
+
+    /**
+     * Возвращает еще не записанное состояние игрока (для чтения своих же записей до сброса).
+     * @return ожидающая запись или null, если для UUID ничего не ждет записи.
+     */
+    public PendingWrite getPending(UUID uuid) {
+        if (uuid == null) return null;
+        PendingWrite write = pending.get(uuid);
+        return write != null ? write : inFlight.get(uuid);
+    }
+
+    /**
+     * Записывает все накопленные изменения одной транзакцией.
+     * Если сброс уже выполняется в другом потоке, вызов ничего не делает.
+     */
+    public void flush() {
+        if (!flushLock.tryLock()) return;
+        try {
+            flushLocked();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Дожидается текущего сброса (если он идет) и записывает все накопленное в вызывающем потоке.
+     * Нужен перед прямыми массовыми операциями с таблицей, чтобы очередь не перезаписала их результат.
+     * Только из потоков ввода-вывода: основной поток не должен ждать записи.
+     */
+    public void flushBlocking() {
+        flushLock.lock();
+        try {
+            flushLocked();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Убирает ожидающую запись игрока (например, если его состояние только что записано напрямую).
+     */
+    public void discardPending(UUID uuid) {
+        if (uuid != null) pending.remove(uuid);
+    }
+
+    /**
+     * Прямая запись игроков в обход очереди: дожидается текущего сброса, убирает их ожидающие записи
+     * и выполняет write под той же блокировкой, так что пачка, уже снятая с очереди, не перезапишет результат.
+     * @return результат write.
+     */
+    public <T> T writeThrough(Collection<UUID> uuids, IoExecutor.IoTask<T> write) throws Exception {
+        flushLock.lock();
+        try {
+            for (UUID uuid : uuids) discardPending(uuid);
+            return write.call();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Синхронно дожидается текущего сброса и записывает все оставшееся. Используется в onDisable.
+     */
+    public void drainSync() {
+        shuttingDown = true;
+        stop();
+        flushLock.lock();
+        try {
+            // Несколько проходов на случай, если во время записи что-то добавилось
+            int passes = 0;
+            while (!pending.isEmpty() && passes++ < 5) {
+                if (!flushLocked()) break;
+            }
+            if (!pending.isEmpty()) {
+                plugin.getLogger().severe("Player data write queue still has " + pending.size() + " unsaved entries after shutdown drain!");
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /** @return true, если запись прошла успешно (или нечего было писать). */
+    private boolean flushLocked() {
+        if (pending.isEmpty()) return true;
+
+        // Снимок: забираем записи, не теряя тех, что были обновлены во время снятия снимка
+        List<PendingWrite> batch = new ArrayList<>(pending.size());
+        for (PendingWrite write : pending.values()) {
+            inFlight.put(write.getUuid(), write);
+            if (pending.remove(write.getUuid(), write)) {
+                batch.add(write);
+            } else {
+                inFlight.remove(write.getUuid(), write);
+            }
+        }
+        if (batch.isEmpty()) return true;
+
+        long start = System.nanoTime();
+        boolean success = databaseManager.savePlayerDataBatch(batch);
+        long elapsed = System.nanoTime() - start;
+
+        lastFlushNanos.set(elapsed);
+        maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+        flushCount.incrementAndGet();
+
+        if (success) {
+            writtenTotal.addAndGet(batch.size());
+            retryAfterNanos = 0L;
+            if (pending.size() < maxPending && overloaded.compareAndSet(true, false)) {
+                plugin.getLogger().info("Player data write queue drained (" + pending.size() + " pending, " + shedWrites.get() + " unchanged saves skipped so far).");
+            }
+            plugin.getLogger().fine("Flushed " + batch.size() + " player data entries in " + (elapsed / 1_000_000.0) + " ms.");
+        } else {
+            failedFlushes.incrementAndGet();
+            // Возвращаем в очередь, но не затираем более свежие данные
+            for (PendingWrite write : batch) {
+                pending.merge(write.getUuid(), write, (newer, failed) -> failed.isChanged() && !newer.isChanged()
+                        ? new PendingWrite(newer.getUuid(), newer.getFactionId(), newer.getRankId(), true) : newer);
+            }
+            retryAfterNanos = System.nanoTime() + flushIntervalTicks * 50_000_000L;
+            plugin.getLogger().warning("Failed to flush " + batch.size() + " player data entries. They will be retried.");
+        }
+        for (PendingWrite write : batch) {
+            inFlight.remove(write.getUuid(), write);
+        }
+        return success;
+    }
+
+    // --- Метрики ---
+    public int getQueueDepth() { return pending.size(); }
+    public long getEnqueuedTotal() { return enqueuedTotal.get(); }
+    public long getCoalescedTotal() { return coalescedTotal.get(); }
+    public long getWrittenTotal() { return writtenTotal.get(); }
+    public long getFlushCount() { return flushCount.get(); }
+    public long getFailedFlushes() { return failedFlushes.get(); }
+    public long getBackpressureFlushes() { return backpressureFlushes.get(); }
+    public long getShedWrites() { return shedWrites.get(); }
+    public double getLastFlushMillis() { return lastFlushNanos.get() / 1_000_000.0; }
+    public double getMaxFlushMillis() { return maxFlushNanos.get() / 1_000_000.0; }
+
+    /**
+     * Неизменяемое состояние игрока, ожидающее записи в БД.
+     */
+    public static final class PendingWrite {
+        private final UUID uuid;
+        private final String factionId;
+        private final Integer rankId;
+        // Меняет ли запись фракцию/ранг: только такие записи рассылаются другим серверам после фиксации
+        private final boolean changed;
+
+        public PendingWrite(UUID uuid, String factionId, Integer rankId) {
+            this(uuid, factionId, rankId, true);
+        }
+
+        public PendingWrite(UUID uuid, String factionId, Integer rankId, boolean changed) {
+            this.uuid = uuid;
+            this.factionId = factionId;
+            this.rankId = rankId;
+            this.changed = changed;
+        }
+
+        public UUID getUuid() { return uuid; }
+        public String getFactionId() { return factionId; }
+        public Integer getRankId() { return rankId; }
+        public boolean isChanged() { return changed; }
+    }
+}
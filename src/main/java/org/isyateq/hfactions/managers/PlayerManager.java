@@ -7,10 +7,16 @@ import org.isyateq.hfactions.HFactions;
 import org.isyateq.hfactions.models.Faction;
 import org.isyateq.hfactions.models.FactionRank;
 import org.isyateq.hfactions.models.PendingInvite;
+import org.isyateq.hfactions.models.PlayerRecord;
+import org.isyateq.hfactions.models.PlayerSession;
 import org.isyateq.hfactions.util.Utils;
 
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
 public class PlayerManager {
 
@@ -19,64 +25,105 @@ public class PlayerManager {
     private final FactionManager factionManager;
     private final ConfigManager configManager;
 
-    // Кэш данных игроков онлайн
-    private final Map<UUID, String> playerFactions = new ConcurrentHashMap<>();
-    private final Map<UUID, Integer> playerRanks = new ConcurrentHashMap<>();
-    private final Set<UUID> playersInFactionChat = ConcurrentHashMap.newKeySet();
-    private final Map<UUID, PendingInvite> pendingInvites = new ConcurrentHashMap<>();
-    private final Map<UUID, String> adminsInFactionMode = new ConcurrentHashMap<>();
+    // Сессии игроков онлайн: все состояние игрока в одном объекте, открывается при входе и закрывается при выходе
+    private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+    // Обратный индекс онлайн-членов фракций; меняется только вместе с фракцией сессии (см. cacheFaction/uncacheFaction)
+    private final FactionMemberIndex memberIndex = new FactionMemberIndex();
+    // Полный состав фракций (включая оффлайн), обновляется инкрементально
+    private final FactionRosterCache rosterCache;
+    // Данные, загруженные при AsyncPlayerPreLoginEvent и ждущие входа игрока
+    private final Map<UUID, StagedPlayerData> stagedData = new ConcurrentHashMap<>();
 
     public PlayerManager(HFactions plugin) {
         this.plugin = plugin;
         this.databaseManager = plugin.getDatabaseManager();
         this.factionManager = plugin.getFactionManager();
         this.configManager = plugin.getConfigManager();
+        this.rosterCache = new FactionRosterCache(plugin, databaseManager);
     }
 
     // --- Методы для загрузки/сохранения данных ---
 
+    /**
+     * Загружает данные игрока до входа (вызывается из AsyncPlayerPreLoginEvent, НЕ в основном потоке).
+     * Данные живут в промежуточном кэше, пока игрок не зайдет, или до истечения срока (вход не удался).
+     */
+    public void prefetchPlayerData(UUID uuid) {
+        PlayerDataWriteQueue.PendingWrite row;
+        try {
+            row = databaseManager.loadPlayerDataBlocking(uuid);
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not prefetch player data for " + uuid + ", it will be loaded on join.", e);
+            return;
+        }
+        StagedPlayerData staged = new StagedPlayerData(row != null ? row.getFactionId() : null, row != null ? row.getRankId() : null);
+        stagedData.put(uuid, staged);
+        // Если вход не состоится - запись удалится сама. Удаление из конкурентной карты - в основном потоке,
+        // общий асинхронный пул Bukkit плагин не использует
+        long ttlTicks = configManager.getPrefetchTtlSeconds() * 20L;
+        Bukkit.getScheduler().runTaskLater(plugin, () -> {
+            if (stagedData.remove(uuid, staged)) plugin.getLogger().fine("Discarded expired prefetched data for " + uuid);
+        }, ttlTicks);
+    }
+
     public void loadPlayerData(Player player) {
         UUID uuid = player.getUniqueId();
+        openSession(player);
+        StagedPlayerData staged = stagedData.remove(uuid);
+        if (staged != null && !staged.isExpired(configManager.getPrefetchTtlSeconds())) {
+            // Данные уже загружены при входе - применяем сразу, без обращения к БД
+            PlayerDataWriteQueue.PendingWrite pendingWrite = databaseManager.getPendingWrite(uuid); // Запись после prefetch новее
+            if (pendingWrite != null) applyLoadedData(player, pendingWrite.getFactionId(), pendingWrite.getRankId());
+            else applyLoadedData(player, staged.factionId, staged.rankId);
+            return;
+        }
         plugin.getLogger().fine("Loading data for player " + player.getName() + " (" + uuid + ")");
-        databaseManager.loadPlayerDataAsync(uuid, (factionId, rankId) -> {
-            plugin.getLogger().fine("Data received for " + player.getName() + ": faction=" + factionId + ", rank=" + rankId);
-
-            // Проверяем, существует ли еще фракция
-            Faction currentFaction = null;
-            if (factionId != null) {
-                currentFaction = factionManager.getFaction(factionId);
-                if (currentFaction == null) {
-                    plugin.getLogger().warning("Player " + player.getName() + " was in faction " + factionId + ", but it no longer exists. Clearing data.");
-                    // Очищаем невалидные данные в БД асинхронно
-                    databaseManager.savePlayerDataAsync(uuid, null, null);
-                    factionId = null; // Сбрасываем для кэша
-                    rankId = null;
-                }
+        databaseManager.loadPlayerDataAsync(uuid, (factionId, rankId) -> applyLoadedData(player, factionId, rankId));
+    }
+
+    // Применяет загруженные данные к кэшу (основной поток)
+    private void applyLoadedData(Player player, String factionId, Integer rankId) {
+        UUID uuid = player.getUniqueId();
+        PlayerSession session = sessions.get(uuid);
+        if (session == null || !player.isOnline()) return; // Игрок вышел, пока шла загрузка
+        plugin.getLogger().fine("Data received for " + player.getName() + ": faction=" + factionId + ", rank=" + rankId);
+
+        // Проверяем, существует ли еще фракция
+        Faction currentFaction = null;
+        if (factionId != null) {
+            currentFaction = factionManager.getFaction(factionId);
+            if (currentFaction == null) {
+                plugin.getLogger().warning("Player " + player.getName() + " was in faction " + factionId + ", but it no longer exists. Clearing data.");
+                // Очищаем невалидные данные в БД асинхронно
+                databaseManager.savePlayerDataAsync(uuid, null, null);
+                factionId = null; // Сбрасываем для кэша
+                rankId = null;
             }
+        }
 
-            // Обновляем кэш
-            if (factionId != null && currentFaction != null) { // Убедимся, что фракция существует
-                playerFactions.put(uuid, factionId);
-                // Проверяем валидность ранга
-                if (rankId != null && currentFaction.getRank(rankId) != null) {
-                    playerRanks.put(uuid, rankId);
-                } else {
-                    // Если ранг невалиден или null, ставим ранг 1
-                    int defaultRank = 1;
-                    playerRanks.put(uuid, defaultRank);
-                    plugin.getLogger().warning("Player " + player.getName() + " had invalid rank ID " + rankId + " for faction " + factionId + ". Resetting to rank " + defaultRank + ".");
-                    // Обновляем ранг в БД
-                    databaseManager.savePlayerDataAsync(uuid, factionId, defaultRank);
-                }
+        // Обновляем кэш
+        if (factionId != null && currentFaction != null) { // Убедимся, что фракция существует
+            cacheFaction(player, factionId);
+            // Проверяем валидность ранга
+            if (rankId != null && currentFaction.getRank(rankId) != null) {
+                session.setRankId(rankId);
             } else {
-                // Игрок не состоит во фракции
-                playerFactions.remove(uuid);
-                playerRanks.remove(uuid);
+                // Если ранг невалиден или null, ставим ранг 1
+                int defaultRank = 1;
+                session.setRankId(defaultRank);
+                plugin.getLogger().warning("Player " + player.getName() + " had invalid rank ID " + rankId + " for faction " + factionId + ". Resetting to rank " + defaultRank + ".");
+                // Обновляем ранг в БД
+                databaseManager.savePlayerDataAsync(uuid, factionId, defaultRank);
+                rosterCache.updateMember(uuid, factionId, factionId, defaultRank);
             }
-            // Обновляем отображение (префикс и т.д.)
-            updatePlayerDisplay(player);
-            // TODO: Применить права LuckPerms?
-        });
+        } else {
+            // Игрок не состоит во фракции
+            uncacheFaction(uuid);
+            session.setRankId(null);
+        }
+        // Обновляем отображение (префикс и т.д.)
+        updatePlayerDisplay(player);
+        // TODO: Применить права LuckPerms?
     }
 
     public void savePlayerData(Player player) {
@@ -84,40 +131,54 @@ public class PlayerManager {
     }
 
     public void savePlayerData(UUID uuid) {
-        String factionId = playerFactions.get(uuid);
-        Integer rankId = playerRanks.get(uuid);
+        PlayerSession session = sessions.get(uuid);
+        if (session == null) return; // Сессия уже закрыта - сохранять нечего
+        String factionId = session.getFactionId();
+        Integer rankId = session.getRankId();
         plugin.getLogger().fine("Queueing save data for player " + uuid + ": faction=" + factionId + ", rank=" + rankId);
-        databaseManager.savePlayerDataAsync(uuid, factionId, rankId);
+        // Повторное сохранение состояния сессии: изменения уже записаны и разосланы при самом изменении
+        databaseManager.savePlayerDataAsync(uuid, factionId, rankId, false);
     }
 
+    // Загрузка всех онлайн игроков одним пакетным запросом (включение плагина / перезагрузка)
     public void loadDataForOnlinePlayers() {
-        plugin.getLogger().info("Loading data for " + Bukkit.getOnlinePlayers().size() + " online players...");
+        List<UUID> uuids = new ArrayList<>();
         for (Player player : Bukkit.getOnlinePlayers()) {
-            loadPlayerData(player);
+            openSession(player);
+            uuids.add(player.getUniqueId());
         }
+        if (uuids.isEmpty()) return;
+        plugin.getLogger().info("Loading data for " + uuids.size() + " online players...");
+        databaseManager.loadPlayerDataBulkAsync(uuids, loaded -> {
+            if (loaded == null) { // Пакетная загрузка не удалась - пробуем по одному
+                for (Player player : Bukkit.getOnlinePlayers()) loadPlayerData(player);
+                return;
+            }
+            for (UUID uuid : uuids) {
+                Player player = Bukkit.getPlayer(uuid);
+                if (player == null) continue;
+                PlayerDataWriteQueue.PendingWrite row = loaded.get(uuid);
+                applyLoadedData(player, row != null ? row.getFactionId() : null, row != null ? row.getRankId() : null);
+            }
+            plugin.getLogger().info("Loaded data for " + uuids.size() + " online players.");
+        });
     }
 
     public void saveDataForOnlinePlayers() {
-        plugin.getLogger().info("Saving data for " + Bukkit.getOnlinePlayers().size() + " online players...");
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            UUID uuid = player.getUniqueId();
-            String factionId = playerFactions.get(uuid);
-            Integer rankId = playerRanks.get(uuid);
-            // Используем СИНХРОННОЕ сохранение при выключении
-            databaseManager.savePlayerDataSync(uuid, factionId, rankId);
-        }
-        plugin.getLogger().info("Finished saving data for online players.");
+        saveDataForOnlinePlayersSynchronously();
     }
 
     public void clearPlayerData(Player player) {
         UUID uuid = player.getUniqueId();
         plugin.getLogger().fine("Clearing cached data for player " + player.getName() + " (" + uuid + ")");
-        playerFactions.remove(uuid);
-        playerRanks.remove(uuid);
-        playersInFactionChat.remove(uuid);
-        pendingInvites.remove(uuid);
-        if (adminsInFactionMode.containsKey(uuid)) {
-            exitAdminMode(player, true); // Тихий выход
+        stagedData.remove(uuid);
+        uncacheFaction(uuid);
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            session.clearFactionState();
+            if (session.isAdminMode()) {
+                exitAdminMode(player, true); // Тихий выход
+            }
         }
         // TODO: Сбросить права LuckPerms?
         // Обновляем отображение, чтобы убрать префикс
@@ -132,7 +193,8 @@ public class PlayerManager {
         plugin.getLogger().info("Validating faction data for online players after reload...");
         for (Player player : Bukkit.getOnlinePlayers()) {
             UUID uuid = player.getUniqueId();
-            String factionId = playerFactions.get(uuid);
+            PlayerSession session = sessions.get(uuid);
+            String factionId = session != null ? session.getFactionId() : null;
             if (factionId == null) continue; // Игрок не во фракции
 
             Faction faction = factionManager.getFaction(factionId);
@@ -144,12 +206,13 @@ public class PlayerManager {
                 player.sendMessage(ChatColor.RED + "Your faction no longer exists and you have been removed from it.");
             } else {
                 // Фракция существует, проверяем ранг
-                Integer rankId = playerRanks.get(uuid);
+                Integer rankId = session.getRankId();
                 if (rankId == null || faction.getRank(rankId) == null) {
                     plugin.getLogger().warning("Player " + player.getName() + "'s rank " + rankId + " in faction " + factionId + " is no longer valid after reload. Resetting to rank 1.");
                     int defaultRank = 1;
-                    playerRanks.put(uuid, defaultRank); // Обновляем кэш
+                    session.setRankId(defaultRank); // Обновляем кэш
                     databaseManager.savePlayerDataAsync(uuid, factionId, defaultRank); // Обновляем БД
+                    rosterCache.updateMember(uuid, factionId, factionId, defaultRank);
                     updatePlayerDisplay(player); // Обновляем дисплей
                     player.sendMessage(ChatColor.YELLOW + "Your rank in the faction was reset due to configuration changes.");
                 }
@@ -181,9 +244,10 @@ public class PlayerManager {
             return false;
         }
 
-        playerFactions.put(uuid, factionId);
-        playerRanks.put(uuid, initialRankId);
+        cacheFaction(player, factionId);
+        setCachedRank(uuid, initialRankId);
         databaseManager.savePlayerDataAsync(uuid, factionId, initialRankId);
+        rosterCache.updateMember(uuid, null, factionId, initialRankId);
 
         player.sendMessage(Utils.color("&aYou have joined the " + faction.getName() + "&a faction!"));
         broadcastToFaction(factionId, Utils.color("&e" + player.getName() + " has joined the faction."));
@@ -206,6 +270,7 @@ public class PlayerManager {
         String factionName = faction != null ? faction.getName() : factionId;
 
         databaseManager.savePlayerDataAsync(uuid, null, null); // Очищаем в БД
+        rosterCache.updateMember(uuid, factionId, null, null);
 
         String playerName = player.getName(); // Сохраняем имя перед очисткой кэша
 
@@ -242,6 +307,7 @@ public class PlayerManager {
         String kickerName = kicker.getName();
 
         databaseManager.savePlayerDataAsync(targetUuid, null, null); // Очищаем в БД
+        rosterCache.updateMember(targetUuid, targetFactionId, null, null);
 
         target.sendMessage(Utils.color("&cYou have been kicked from the " + factionName + "&c faction by " + kickerName + "."));
         kicker.sendMessage(Utils.color("&aYou have kicked " + targetName + " from the faction."));
@@ -250,6 +316,7 @@ public class PlayerManager {
         }
 
         clearPlayerData(target); // Очищаем кэш и обновляем дисплей цели
+        audit(AuditLog.Action.KICK, targetFactionId, kicker, targetUuid, targetName, null);
 
         // TODO: Забрать права LuckPerms у цели?
         return true;
@@ -286,13 +353,15 @@ public class PlayerManager {
             return false;
         }
 
-        playerRanks.put(targetUuid, nextRankId);
+        setCachedRank(targetUuid, nextRankId);
         databaseManager.savePlayerDataAsync(targetUuid, factionId, nextRankId);
+        rosterCache.updateMember(targetUuid, factionId, factionId, nextRankId);
 
         String rankName = nextRank.getDisplayName() != null ? nextRank.getDisplayName() : nextRank.getDefaultName();
         target.sendMessage(Utils.color("&aYou have been promoted to " + rankName + "&a by " + promoter.getName() + "!"));
         promoter.sendMessage(Utils.color("&aYou have promoted " + target.getName() + " to " + rankName + "."));
         broadcastToFaction(factionId, Utils.color("&e" + target.getName() + " was promoted to " + rankName + " by " + promoter.getName() + "."));
+        audit(AuditLog.Action.PROMOTE, factionId, promoter, targetUuid, target.getName(), currentRankId + " -> " + nextRankId);
 
         updatePlayerDisplay(target);
         // TODO: Обновить права LuckPerms?
@@ -336,13 +405,15 @@ public class PlayerManager {
         }
 
 
-        playerRanks.put(targetUuid, newRankId);
+        setCachedRank(targetUuid, newRankId);
         databaseManager.savePlayerDataAsync(targetUuid, factionId, newRankId);
+        rosterCache.updateMember(targetUuid, factionId, factionId, newRankId);
 
         String rankName = newRank.getDisplayName() != null ? newRank.getDisplayName() : newRank.getDefaultName();
         target.sendMessage(Utils.color("&cYou have been demoted to " + rankName + "&c by " + demoter.getName() + "."));
         demoter.sendMessage(Utils.color("&aYou have demoted " + target.getName() + " to " + rankName + "."));
         broadcastToFaction(factionId, Utils.color("&e" + target.getName() + " was demoted to " + rankName + " by " + demoter.getName() + "."));
+        audit(AuditLog.Action.DEMOTE, factionId, demoter, targetUuid, target.getName(), currentRankId + " -> " + newRankId);
 
         updatePlayerDisplay(target);
         // TODO: Обновить права LuckPerms?
@@ -383,29 +454,170 @@ public class PlayerManager {
         }
 
 
-        playerRanks.put(targetUuid, rankId);
+        setCachedRank(targetUuid, rankId);
         databaseManager.savePlayerDataAsync(targetUuid, factionId, rankId);
+        rosterCache.updateMember(targetUuid, factionId, factionId, rankId);
 
         String rankName = newRank.getDisplayName() != null ? newRank.getDisplayName() : newRank.getDefaultName();
         target.sendMessage(Utils.color("&eYour rank has been set to " + rankName + "&e by " + setter.getName() + "."));
         setter.sendMessage(Utils.color("&aYou have set " + target.getName() + "'s rank to " + rankName + "."));
         broadcastToFaction(factionId, Utils.color("&e" + target.getName() + "'s rank was set to " + rankName + " by " + setter.getName() + "."));
+        audit(AuditLog.Action.SET_RANK, factionId, setter, targetUuid, target.getName(), String.valueOf(rankId));
 
         updatePlayerDisplay(target);
         // TODO: Обновить права LuckPerms?
         return true;
     }
 
+    // --- Управление оффлайн игроками ---
+    // Запись в БД - условная (см. DatabaseManager#updatePlayerDataIfUnchanged): если данные игрока
+    // изменились после чтения record, изменение не применяется и управляющий получает просьбу повторить.
+
+    public void kickOfflinePlayer(Player kicker, PlayerRecord target, String targetName) {
+        String factionId = target.getFactionId();
+        if (factionId == null) {
+            kicker.sendMessage(Utils.color("&c" + targetName + " is not in any faction."));
+            return;
+        }
+        if (!canManage(kicker, factionId)) {
+            kicker.sendMessage(Utils.color("&cYou cannot kick members of this faction."));
+            return;
+        }
+        Faction faction = factionManager.getFaction(factionId);
+        String factionName = faction != null ? faction.getName() : factionId;
+        commitOfflineChange(kicker, target, targetName, null, null, () -> {
+            kicker.sendMessage(Utils.color("&aYou have kicked " + targetName + " from the faction."));
+            if (faction != null) {
+                broadcastToFaction(factionId, Utils.color("&e" + targetName + " was kicked from the faction by " + kicker.getName() + "."));
+            }
+            Player online = Bukkit.getPlayer(target.getUuid());
+            if (online != null) online.sendMessage(Utils.color("&cYou have been kicked from the " + factionName + "&c faction by " + kicker.getName() + "."));
+            audit(AuditLog.Action.KICK, factionId, kicker, target.getUuid(), targetName, "offline");
+        });
+    }
+
+    public void promoteOfflinePlayer(Player promoter, PlayerRecord target, String targetName) {
+        Faction faction = getManageableFaction(promoter, target, targetName, "promote");
+        if (faction == null) return;
+        int currentRankId = target.getRankId();
+        FactionRank leaderRank = faction.getLeaderRank();
+        if (leaderRank != null && currentRankId >= leaderRank.getInternalId()) {
+            promoter.sendMessage(Utils.color("&cYou cannot promote the faction leader or someone at the highest rank."));
+            return;
+        }
+        int nextRankId = currentRankId + 1;
+        FactionRank nextRank = faction.getRank(nextRankId);
+        if (nextRank == null) {
+            promoter.sendMessage(Utils.color("&cThe next rank (" + nextRankId + ") does not exist in this faction."));
+            return;
+        }
+        String rankName = nextRank.getDisplayName() != null ? nextRank.getDisplayName() : nextRank.getDefaultName();
+        commitOfflineChange(promoter, target, targetName, faction.getId(), nextRankId, () -> {
+            promoter.sendMessage(Utils.color("&aYou have promoted " + targetName + " to " + rankName + "."));
+            broadcastToFaction(faction.getId(), Utils.color("&e" + targetName + " was promoted to " + rankName + " by " + promoter.getName() + "."));
+            audit(AuditLog.Action.PROMOTE, faction.getId(), promoter, target.getUuid(), targetName, currentRankId + " -> " + nextRankId + " (offline)");
+        });
+    }
+
+    public void demoteOfflinePlayer(Player demoter, PlayerRecord target, String targetName) {
+        Faction faction = getManageableFaction(demoter, target, targetName, "demote");
+        if (faction == null) return;
+        int currentRankId = target.getRankId();
+        if (currentRankId <= 1) {
+            demoter.sendMessage(Utils.color("&cYou cannot demote someone who is already at the lowest rank."));
+            return;
+        }
+        int newRankId = currentRankId - 1;
+        FactionRank newRank = faction.getRank(newRankId);
+        if (newRank == null) {
+            plugin.getLogger().severe("Error demoting: Rank " + newRankId + " not found in faction " + faction.getId());
+            demoter.sendMessage(Utils.color("&cInternal error during demotion. Please contact an admin."));
+            return;
+        }
+        String rankName = newRank.getDisplayName() != null ? newRank.getDisplayName() : newRank.getDefaultName();
+        commitOfflineChange(demoter, target, targetName, faction.getId(), newRankId, () -> {
+            demoter.sendMessage(Utils.color("&aYou have demoted " + targetName + " to " + rankName + "."));
+            broadcastToFaction(faction.getId(), Utils.color("&e" + targetName + " was demoted to " + rankName + " by " + demoter.getName() + "."));
+            audit(AuditLog.Action.DEMOTE, faction.getId(), demoter, target.getUuid(), targetName, currentRankId + " -> " + newRankId + " (offline)");
+        });
+    }
+
+    public void setOfflinePlayerRank(Player setter, PlayerRecord target, String targetName, int rankId) {
+        Faction faction = getManageableFaction(setter, target, targetName, "set rank for");
+        if (faction == null) return;
+        FactionRank newRank = faction.getRank(rankId);
+        if (newRank == null) {
+            setter.sendMessage(Utils.color("&cRank ID " + rankId + " does not exist in this faction."));
+            return;
+        }
+        String rankName = newRank.getDisplayName() != null ? newRank.getDisplayName() : newRank.getDefaultName();
+        commitOfflineChange(setter, target, targetName, faction.getId(), rankId, () -> {
+            setter.sendMessage(Utils.color("&aYou have set " + targetName + "'s rank to " + rankName + "."));
+            broadcastToFaction(faction.getId(), Utils.color("&e" + targetName + "'s rank was set to " + rankName + " by " + setter.getName() + "."));
+            audit(AuditLog.Action.SET_RANK, faction.getId(), setter, target.getUuid(), targetName, rankId + " (offline)");
+        });
+    }
+
+    // Общие проверки для изменения ранга: цель во фракции с валидным рангом, управляющий может ею управлять
+    private Faction getManageableFaction(Player manager, PlayerRecord target, String targetName, String action) {
+        if (target.getFactionId() == null || target.getRankId() == null) {
+            manager.sendMessage(Utils.color("&c" + targetName + " is not in a faction or has an invalid rank."));
+            return null;
+        }
+        if (!canManage(manager, target.getFactionId())) {
+            manager.sendMessage(Utils.color("&cYou cannot " + action + " members of this faction."));
+            return null;
+        }
+        return factionManager.getFaction(target.getFactionId());
+    }
+
+    /**
+     * Условно записывает новое состояние оффлайн игрока и в основном потоке обновляет состав фракции.
+     * Если игрок успел зайти, пока шла запись, его сессия приводится к записанному состоянию.
+     */
+    private void commitOfflineChange(Player manager, PlayerRecord expected, String targetName, String factionId, Integer rankId, Runnable onCommitted) {
+        UUID uuid = expected.getUuid();
+        databaseManager.updatePlayerDataIfUnchanged(expected, factionId, rankId).whenCompleteAsync((updated, error) -> {
+            if (error != null) {
+                plugin.getLogger().log(Level.SEVERE, "Could not update offline player " + uuid, IoExecutor.unwrap(error));
+                if (manager.isOnline()) manager.sendMessage(Utils.color("&cCould not update " + targetName + ". Please try again later."));
+                return;
+            }
+            if (!updated) {
+                if (manager.isOnline()) manager.sendMessage(Utils.color("&c" + targetName + "'s faction data changed in the meantime. Please try again."));
+                return;
+            }
+            rosterCache.updateMember(uuid, expected.getFactionId(), factionId, rankId);
+            stagedData.remove(uuid); // Загружено при входе до записи - устарело
+            Player online = Bukkit.getPlayer(uuid);
+            if (online != null && sessions.containsKey(uuid)) {
+                // Игрок зашел во время записи: его сессия могла получить старые данные
+                if (factionId == null) clearPlayerData(online);
+                else applyLoadedData(online, factionId, rankId);
+            }
+            if (manager.isOnline()) onCommitted.run();
+        }, plugin.getIoExecutor().mainThread());
+    }
+
+    // Действие с участником - в журнал действий
+    private void audit(AuditLog.Action action, String factionId, Player actor, UUID targetUuid, String targetName, String details) {
+        AuditLog auditLog = plugin.getAuditLog();
+        if (auditLog != null) auditLog.record(action, factionId, actor, targetUuid, targetName, details);
+    }
+
     /**
      * Проверяет, может ли управляющий игрок (manager) управлять целевым игроком (target).
      * Учитывает принадлежность к одной фракции и админский режим.
      */
     private boolean canManagePlayer(Player manager, Player target) {
-        String targetFactionId = getPlayerFactionId(target);
+        return canManage(manager, getPlayerFactionId(target));
+    }
+
+    private boolean canManage(Player manager, String targetFactionId) {
         if (targetFactionId == null) return false; // Нельзя управлять тем, кто не во фракции
 
         String managerFactionId = getPlayerFactionId(manager);
-        String adminModeFaction = adminsInFactionMode.get(manager.getUniqueId());
+        String adminModeFaction = getAdminModeFactionId(manager);
 
         return targetFactionId.equals(managerFactionId) || targetFactionId.equals(adminModeFaction);
     }
@@ -413,20 +625,30 @@ public class PlayerManager {
 
     // --- Геттеры и проверки ---
 
+    /** @return сессия игрока онлайн или null, если игрок не на сервере. Обработчикам событий - один раз на событие. */
+    public PlayerSession getSession(Player player) {
+        return sessions.get(player.getUniqueId());
+    }
+    public PlayerSession getSession(UUID uuid) {
+        return uuid != null ? sessions.get(uuid) : null;
+    }
+
     public boolean isInFaction(Player player) {
-        return playerFactions.containsKey(player.getUniqueId());
+        return isInFaction(player.getUniqueId());
     }
     public boolean isInFaction(UUID uuid) {
-        return playerFactions.containsKey(uuid);
+        PlayerSession session = getSession(uuid);
+        return session != null && session.isInFaction();
     }
 
 
     public String getPlayerFactionId(Player player) {
-        return playerFactions.get(player.getUniqueId());
+        return getPlayerFactionId(player.getUniqueId());
     }
 
     public String getPlayerFactionId(UUID uuid) {
-        return playerFactions.get(uuid);
+        PlayerSession session = getSession(uuid);
+        return session != null ? session.getFactionId() : null;
     }
 
     public Faction getPlayerFaction(Player player) {
@@ -439,26 +661,23 @@ public class PlayerManager {
     }
 
     public Integer getPlayerRankId(Player player) {
-        return playerRanks.get(player.getUniqueId());
+        return getPlayerRankId(player.getUniqueId());
     }
     public Integer getPlayerRankId(UUID uuid) {
-        return playerRanks.get(uuid);
+        PlayerSession session = getSession(uuid);
+        return session != null ? session.getRankId() : null;
     }
 
     public FactionRank getPlayerRank(Player player) {
-        String factionId = getPlayerFactionId(player);
-        Integer rankId = getPlayerRankId(player);
-        if (factionId != null && rankId != null) {
-            Faction faction = factionManager.getFaction(factionId);
-            if (faction != null) {
-                return faction.getRank(rankId);
-            }
-        }
-        return null;
+        return getPlayerRank(getSession(player));
     }
     public FactionRank getPlayerRank(UUID uuid) {
-        String factionId = getPlayerFactionId(uuid);
-        Integer rankId = getPlayerRankId(uuid);
+        return getPlayerRank(getSession(uuid));
+    }
+    public FactionRank getPlayerRank(PlayerSession session) {
+        if (session == null) return null;
+        String factionId = session.getFactionId();
+        Integer rankId = session.getRankId();
         if (factionId != null && rankId != null) {
             Faction faction = factionManager.getFaction(factionId);
             if (faction != null) {
@@ -468,60 +687,82 @@ public class PlayerManager {
         return null;
     }
 
+    /** @return изменяемая копия списка онлайн-членов фракции (O(членов фракции)). */
     public List<Player> getOnlineFactionMembers(String factionId) {
-        List<Player> members = new ArrayList<>();
-        if (factionId == null) return members;
-        String factionIdLower = factionId.toLowerCase();
-        for (Player player : Bukkit.getOnlinePlayers()) {
-            if (factionIdLower.equals(getPlayerFactionId(player))) {
-                members.add(player);
-            }
-        }
-        return members;
+        return new ArrayList<>(memberIndex.getOnlinePlayers(factionId));
+    }
+
+    /** @return неизменяемый живой вид онлайн-членов фракции, без копирования. Не изменяйте состав во время обхода. */
+    public Collection<Player> getOnlineFactionMembersView(String factionId) {
+        return memberIndex.getOnlinePlayers(factionId);
+    }
+
+    /** @return неизменяемый живой вид UUID онлайн-членов фракции. */
+    public Set<UUID> getOnlineFactionMemberUuids(String factionId) {
+        return memberIndex.getOnlineUuids(factionId);
     }
 
+    public int getOnlineMemberCount(String factionId) {
+        return memberIndex.getOnlineCount(factionId);
+    }
+
+    /** @return снимок: ID фракции -> число членов онлайн. */
+    public Map<String, Integer> getOnlineMemberCounts() {
+        return memberIndex.getOnlineCounts();
+    }
+
+    /**
+     * Возвращает UUID всех членов фракции, включая оффлайн, если состав уже в кэше.
+     * Если состав еще не загружен - возвращает онлайн членов и запускает асинхронную загрузку;
+     * для гарантированно полного состава используйте {@link #getFactionRosterAsync}.
+     */
     public List<UUID> getAllFactionMemberUUIDs(String factionId) {
-        // TODO: Этот метод потребует запроса к БД, чтобы получить ВСЕХ членов, включая оффлайн.
-        // Пока возвращает только онлайн.
         List<UUID> members = new ArrayList<>();
         if (factionId == null) return members;
-        String factionIdLower = factionId.toLowerCase();
-        for (UUID uuid : playerFactions.keySet()) { // Итерируем по кэшу онлайн игроков
-            if (factionIdLower.equals(playerFactions.get(uuid))) {
-                members.add(uuid);
-            }
+        Map<UUID, Integer> roster = rosterCache.getCachedRoster(factionId);
+        if (roster != null) {
+            members.addAll(roster.keySet());
+            return members;
         }
+        rosterCache.getRosterAsync(factionId, loaded -> {}); // Прогреваем кэш
+        members.addAll(memberIndex.getOnlineUuids(factionId)); // Пока что - только онлайн
         return members;
-        // Для получения оффлайн нужен будет отдельный метод в DatabaseManager
-        // List<UUID> allMembers = databaseManager.getFactionMemberUUIDs(factionId);
-        // return allMembers;
+    }
+
+    /**
+     * Отдает полный состав фракции (UUID -> ID ранга, включая оффлайн) в callback в основном потоке.
+     * Карта неизменяемая и живая - не храните ее дольше обработки.
+     */
+    public void getFactionRosterAsync(String factionId, Consumer<Map<UUID, Integer>> callback) {
+        rosterCache.getRosterAsync(factionId, callback);
     }
 
 
     // --- Фракционный чат ---
 
     public boolean isInFactionChat(Player player) {
-        return playersInFactionChat.contains(player.getUniqueId());
+        PlayerSession session = getSession(player);
+        return session != null && session.isFactionChat();
     }
 
     public void toggleFactionChat(Player player) {
-        UUID uuid = player.getUniqueId();
-        if (!isInFaction(player)) {
+        PlayerSession session = getSession(player);
+        if (session == null || !session.isInFaction()) {
             player.sendMessage(Utils.color("&cYou must be in a faction to use faction chat."));
             return;
         }
-        if (playersInFactionChat.contains(uuid)) {
-            playersInFactionChat.remove(uuid);
+        if (session.isFactionChat()) {
+            session.setFactionChat(false);
             player.sendMessage(Utils.color("&eFaction chat disabled."));
         } else {
-            playersInFactionChat.add(uuid);
+            session.setFactionChat(true);
             player.sendMessage(Utils.color("&aFaction chat enabled."));
         }
     }
 
     public void broadcastToFaction(String factionId, String message) {
         if (factionId == null || message == null) return;
-        List<Player> members = getOnlineFactionMembers(factionId);
+        Collection<Player> members = memberIndex.getOnlinePlayers(factionId);
         plugin.getLogger().fine("Broadcasting to faction " + factionId + " (" + members.size() + " members): " + message);
         message = Utils.color(message); // Применяем цвета один раз
         for (Player member : members) {
@@ -532,17 +773,18 @@ public class PlayerManager {
     // --- Приглашения ---
 
     public void addInvite(Player target, PendingInvite invite) {
-        removeInvite(target); // Удаляем старое
-        pendingInvites.put(target.getUniqueId(), invite);
+        PlayerSession session = getSession(target);
+        if (session == null) return; // Игрок уже вышел
+        session.setPendingInvite(invite); // Заменяет старое
 
         long expireTicks = configManager.getConfig().getLong("faction.invite_expire_seconds", 60) * 20L;
         if (expireTicks <= 0) expireTicks = 60 * 20L; // Минимум 60 секунд
 
         Bukkit.getScheduler().runTaskLater(plugin, () -> {
-            PendingInvite currentInvite = pendingInvites.get(target.getUniqueId());
-            // Удаляем только если это то же самое приглашение
+            PendingInvite currentInvite = session.getPendingInvite();
+            // Удаляем только если это то же самое приглашение (сессия закрыта при выходе - ее уже никто не читает)
             if (currentInvite != null && currentInvite.equals(invite)) { // Используем equals, если он переопределен в PendingInvite
-                pendingInvites.remove(target.getUniqueId());
+                session.setPendingInvite(null);
                 if (target.isOnline()) { // Сообщаем только если игрок онлайн
                     target.sendMessage(Utils.color("&cThe faction invite from " + invite.getInviterName() + " has expired."));
                     // Закрыть GUI, если открыто
@@ -555,27 +797,32 @@ public class PlayerManager {
     }
 
     public PendingInvite getInvite(Player target) {
-        return pendingInvites.get(target.getUniqueId());
+        PlayerSession session = getSession(target);
+        return session != null ? session.getPendingInvite() : null;
     }
 
     public void removeInvite(Player target) {
-        pendingInvites.remove(target.getUniqueId());
+        PlayerSession session = getSession(target);
+        if (session != null) session.setPendingInvite(null);
     }
 
     // --- Админский режим ---
 
     public boolean isAdminInMode(Player admin) {
-        return adminsInFactionMode.containsKey(admin.getUniqueId());
+        PlayerSession session = getSession(admin);
+        return session != null && session.isAdminMode();
     }
 
     public String getAdminModeFactionId(Player admin) {
-        return adminsInFactionMode.get(admin.getUniqueId());
+        PlayerSession session = getSession(admin);
+        return session != null ? session.getAdminModeFactionId() : null;
     }
 
     public boolean enterAdminMode(Player admin, Faction faction) {
-        UUID adminUuid = admin.getUniqueId();
-        if (isAdminInMode(admin)) {
-            admin.sendMessage(Utils.color("&cYou are already in admin mode for faction " + adminsInFactionMode.get(adminUuid) + "."));
+        PlayerSession session = getSession(admin);
+        if (session == null) return false;
+        if (session.isAdminMode()) {
+            admin.sendMessage(Utils.color("&cYou are already in admin mode for faction " + session.getAdminModeFactionId() + "."));
             return false;
         }
 
@@ -596,7 +843,8 @@ public class PlayerManager {
             return false;
         }
 
-        adminsInFactionMode.put(adminUuid, faction.getId());
+        session.setAdminModeFactionId(faction.getId());
+        audit(AuditLog.Action.ADMIN_MODE, faction.getId(), admin, null, null, "enter");
         admin.sendMessage(Utils.color("&aYou have entered admin mode for faction: " + faction.getName()));
         admin.sendMessage(Utils.color("&eYou now have leader permissions for this faction's commands."));
         updatePlayerDisplay(admin); // Обновить отображение
@@ -604,13 +852,13 @@ public class PlayerManager {
     }
 
     public boolean exitAdminMode(Player admin, boolean silent) {
-        UUID adminUuid = admin.getUniqueId();
-        if (!isAdminInMode(admin)) {
+        PlayerSession session = getSession(admin);
+        if (session == null || !session.isAdminMode()) {
             if (!silent) admin.sendMessage(Utils.color("&cYou are not in admin mode."));
             return false;
         }
 
-        String factionId = adminsInFactionMode.get(adminUuid);
+        String factionId = session.getAdminModeFactionId();
 
         // Забираем права через LuckPerms
         boolean success = plugin.getLuckPermsIntegration().setAdminMode(admin, false);
@@ -619,17 +867,99 @@ public class PlayerManager {
             // Продолжаем выход из режима в любом случае
         }
 
-        adminsInFactionMode.remove(adminUuid);
+        session.setAdminModeFactionId(null);
+        audit(AuditLog.Action.ADMIN_MODE, factionId, admin, null, null, "exit");
         if (!silent) admin.sendMessage(Utils.color("&aYou have exited admin mode for faction: " + factionId));
         updatePlayerDisplay(admin); // Обновить отображение
         return true;
     }
 
+    // --- Жизненный цикл сессии ---
+
+    /** Открывает сессию игрока (вход, включение плагина). Повторный вызов возвращает существующую. */
+    public PlayerSession openSession(Player player) {
+        plugin.getTabCompletionIndex().playerOnline(player.getUniqueId(), player.getName());
+        PlayerSession session = sessions.computeIfAbsent(player.getUniqueId(), PlayerSession::new);
+        // Язык клиента может прийти позже входа - тогда его обновит PlayerLocaleChangeEvent
+        if (plugin.getLocaleManager() != null) session.setLocale(plugin.getLocaleManager().resolve(player.locale()));
+        return session;
+    }
+
+    /**
+     * Закрывает сессию при выходе: вместе с ней исчезает все состояние игрока (чат, приглашение, кулдауны).
+     * Вызывается последним, после сохранения данных и обработки наручников.
+     */
+    public void closeSession(UUID uuid) {
+        PlayerSession session = sessions.remove(uuid);
+        memberIndex.remove(uuid);
+        plugin.getTabCompletionIndex().playerOffline(uuid);
+        if (plugin.getNametagManager() != null) plugin.getNametagManager().removePlayer(uuid);
+        if (session == null) return;
+        long now = System.currentTimeMillis();
+        // Запись оффлайн игрока в кэш не кладем: собранная из памяти, она без версии строки и устаревает
+        // при сбросе очереди. Первая команда над игроком прочитает БД (с учетом очереди) и версию строки.
+        PlayerRecordCache recordCache = databaseManager.getPlayerRecordCache();
+        if (recordCache != null) recordCache.invalidate(uuid);
+        databaseManager.saveLastSeenAsync(uuid, now);
+        plugin.getLogger().fine("Closed session of " + uuid + " after " + (now - session.getOpenedAtMillis()) / 1000L + " s.");
+    }
+
+    public int getSessionCount() { return sessions.size(); }
+
+    /**
+     * Запись игрока независимо от того, онлайн ли он: для онлайн - из сессии,
+     * для оффлайн - из кэша записей (при промахе - асинхронно из БД).
+     */
+    public CompletableFuture<PlayerRecord> getPlayerRecordAsync(UUID uuid) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            return CompletableFuture.completedFuture(new PlayerRecord(uuid, session.getFactionId(), session.getRankId(), System.currentTimeMillis()));
+        }
+        return databaseManager.getPlayerRecord(uuid);
+    }
+
+    // Все изменения фракции сессии проходят здесь, чтобы обратный индекс не расходился с кэшем
+    private void cacheFaction(Player player, String factionId) {
+        PlayerSession session = sessions.get(player.getUniqueId());
+        if (session == null) return; // Игрок уже вышел
+        session.setFactionId(factionId);
+        memberIndex.update(player, factionId);
+        NametagManager nametags = plugin.getNametagManager();
+        if (nametags != null) nametags.setFaction(player, factionId); // Только перенос записи между командами
+    }
+
+    private void cacheFaction(UUID uuid, String factionId) {
+        Player player = Bukkit.getPlayer(uuid);
+        if (player != null) cacheFaction(player, factionId);
+    }
+
+    private void uncacheFaction(UUID uuid) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) session.setFactionId(null);
+        memberIndex.remove(uuid);
+        NametagManager nametags = plugin.getNametagManager();
+        Player player = nametags != null ? Bukkit.getPlayer(uuid) : null;
+        if (player != null) nametags.setFaction(player, null);
+    }
+
+    private void setCachedRank(UUID uuid, Integer rankId) {
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) session.setRankId(rankId);
+    }
+
     // --- Вспомогательные методы ---
 
+    private String getPlayerNameSafe(UUID uuid) {
+        Player online = Bukkit.getPlayer(uuid);
+        if (online != null) return online.getName();
+        String name = Bukkit.getOfflinePlayer(uuid).getName();
+        return name != null ? name : uuid.toString();
+    }
+
     private void updatePlayerDisplay(Player player) {
-        // ЗАГЛУШКА - Реализация зависит от вашего плагина чата/таба и PlaceholderAPI
-        plugin.getLogger().fine("Placeholder: updatePlayerDisplay called for " + player.getName());
+        // Префикс в табе и над головой дает команда фракции (NametagManager), она меняется вместе с фракцией
+        // игрока в cacheFaction/uncacheFaction. Здесь - только то, что зависит от ранга (плагины чата/таба)
+        plugin.getLogger().fine("updatePlayerDisplay called for " + player.getName());
         // Пример: если вы используете PlaceholderAPI и создали свои плейсхолдеры:
         // if (Bukkit.getPluginManager().isPluginEnabled("PlaceholderAPI")) {
         //    PlaceholderAPI.setPlaceholders(player, "%" + plugin.getName().toLowerCase() + "_faction_prefix%");
@@ -638,65 +968,103 @@ public class PlayerManager {
     }
 
 
+    /**
+     * Фракцию или ранг игрока изменил другой сервер сети (запись уже в БД).
+     * Обновляются кэши записей и составов, данные, загруженные при входе, и сессия, если игрок здесь онлайн
+     * (например, только что перешел с того сервера). В БД ничего не пишется. Основной поток.
+     */
+    public void applyRemotePlayerChange(UUID uuid, String factionId, Integer rankId) {
+        String newFactionId = factionId != null ? factionId.toLowerCase() : null;
+        PlayerSession session = sessions.get(uuid);
+        PlayerRecordCache recordCache = databaseManager.getPlayerRecordCache();
+        PlayerRecord cached = recordCache != null ? recordCache.getIfPresent(uuid) : null;
+        // Прежняя фракция: из сессии, кэша записей или кэша составов
+        String oldFactionId = session != null ? session.getFactionId() : null;
+        if (oldFactionId == null && cached != null) oldFactionId = cached.getFactionId();
+        if (oldFactionId == null) oldFactionId = rosterCache.findFactionOf(uuid);
+        if (recordCache != null) recordCache.invalidate(uuid);
+        rosterCache.updateMember(uuid, oldFactionId, newFactionId, rankId);
+        stagedData.computeIfPresent(uuid, (id, staged) -> new StagedPlayerData(newFactionId, rankId));
+
+        Player player = Bukkit.getPlayer(uuid);
+        if (player == null || session == null) return;
+        if (newFactionId != null && factionManager.getFaction(newFactionId) == null) {
+            // Фракция создана там и еще не дошла сюда - не сбрасываем игрока; сессия обновится при следующем входе
+            plugin.getLogger().fine("Remote change for " + player.getName() + " refers to faction " + newFactionId + " not loaded yet.");
+            return;
+        }
+        applyLoadedData(player, newFactionId, rankId);
+    }
+
+    /** Сбрасывает кэши оффлайн данных (составы фракций, записи игроков): сервер мог пропустить изменения других серверов. */
+    public void invalidateOfflineCaches() {
+        rosterCache.clear();
+        PlayerRecordCache recordCache = databaseManager.getPlayerRecordCache();
+        if (recordCache != null) recordCache.invalidateAll();
+    }
+
     /**
      * Очищает данные о фракции для всех игроков (онлайн и оффлайн), принадлежащих к указанной фракции.
-     * Вызывается при удалении фракции. Использует СИНХРОННЫЕ операции с БД.
-     * @param factionId ID удаляемой фракции.
+     * Вызывается после удаления фракции: player_data уже очищена в той же транзакции, что и строки фракции
+     * (этим сервером или другим сервером сети).
+     * @param factionId ID удаленной фракции.
      */
     public void clearFactionDataFor(String factionId) {
         if (factionId == null) return;
         String factionIdLower = factionId.toLowerCase();
         plugin.getLogger().info("Clearing player data for deleted faction: " + factionIdLower);
 
-        // 1. Очистка кэша онлайн игроков
-        List<UUID> onlinePlayersToClear = new ArrayList<>();
-        for (Map.Entry<UUID, String> entry : playerFactions.entrySet()) {
-            if (factionIdLower.equalsIgnoreCase(entry.getValue())) {
-                onlinePlayersToClear.add(entry.getKey());
-            }
-        }
+        // 1. Очистка кэша онлайн игроков (состав берем из индекса, без обхода всех игроков)
+        Set<UUID> onlinePlayersToClear = memberIndex.removeFaction(factionIdLower);
 
         plugin.getLogger().info("Clearing cache for " + onlinePlayersToClear.size() + " online players of faction " + factionIdLower);
         for (UUID uuid : onlinePlayersToClear) {
             Player onlinePlayer = Bukkit.getPlayer(uuid); // Получаем игрока
-            playerFactions.remove(uuid);
-            playerRanks.remove(uuid);
-            playersInFactionChat.remove(uuid);
+            uncacheFaction(uuid);
+            PlayerSession session = sessions.get(uuid);
+            if (session != null) session.clearFactionState();
             if (onlinePlayer != null) { // Проверяем, что игрок все еще онлайн
                 onlinePlayer.sendMessage(ChatColor.RED + "The faction you were in has been disbanded!");
                 updatePlayerDisplay(onlinePlayer); // Обновляем дисплей
             }
         }
 
-        // 2. Очистка данных в БД (СИНХРОННО, так как вызывается из админ команды)
-        databaseManager.clearFactionDataSync(factionIdLower);
+        // Загруженные при входе данные тоже устарели
+        stagedData.values().removeIf(staged -> factionIdLower.equalsIgnoreCase(staged.factionId));
+
+        // 2. Записи оффлайн игроков, прочитанные до удаления, устарели
+        if (databaseManager.getPlayerRecordCache() != null) databaseManager.getPlayerRecordCache().invalidateFaction(factionIdLower);
+        rosterCache.removeFaction(factionIdLower);
     }
 
-    public void saveDataForOnlinePlayersSynchronously() { // ***** РЕАЛИЗАЦИЯ МЕТОДА *****
+    public void saveDataForOnlinePlayersSynchronously() {
         // Получаем коллекцию онлайн игроков в начале, чтобы избежать проблем, если кто-то выйдет во время сохранения
         Collection<? extends Player> onlinePlayers = Bukkit.getOnlinePlayers();
-        int count = onlinePlayers.size();
-        if (count > 0) {
-            plugin.getLogger().info("Saving data synchronously for " + count + " online players...");
-            for (Player player : onlinePlayers) {
-                if (player != null) { // Дополнительная проверка
-                    savePlayerDataSynchronously(player.getUniqueId()); // Вызываем синхронный метод сохранения для каждого
-                }
-            }
-            plugin.getLogger().info("Synchronous save for online players complete.");
-        } else {
+        if (onlinePlayers.isEmpty()) {
             plugin.getLogger().info("No online players to save data for during shutdown.");
+            return;
+        }
+        List<PlayerDataWriteQueue.PendingWrite> writes = new ArrayList<>(onlinePlayers.size());
+        for (Player player : onlinePlayers) {
+            PlayerSession session = sessions.get(player.getUniqueId());
+            if (session == null) continue;
+            writes.add(new PlayerDataWriteQueue.PendingWrite(session.getUuid(), session.getFactionId(), session.getRankId(), false));
+        }
+        // Одна транзакция на всех вместо запроса на каждого игрока
+        if (!databaseManager.savePlayerDataBulkSync(writes)) {
+            plugin.getLogger().severe("Bulk save of " + writes.size() + " online players failed!");
         }
     }
 
     public void validatePlayerDataAfterReload() { // ***** РЕАЛИЗАЦИЯ МЕТОДА *****
         plugin.getLogger().info("Validating cached player data after configuration reload...");
         List<UUID> toUpdateDb = new ArrayList<>(); // List of player UUIDs needing database update
-        Set<UUID> onlinePlayerUUIDs = new HashSet<>(playerFactions.keySet());
+        List<PlayerSession> onlineSessions = new ArrayList<>(sessions.values());
 
-        for (UUID uuid : onlinePlayerUUIDs) {
-            String cachedFactionId = playerFactions.get(uuid); // Get ID from cache
-            Integer cachedRankId = playerRanks.get(uuid);     // Get Rank ID from cache
+        for (PlayerSession session : onlineSessions) {
+            UUID uuid = session.getUuid();
+            String cachedFactionId = session.getFactionId(); // Get ID from cache
+            Integer cachedRankId = session.getRankId();     // Get Rank ID from cache
 
             // These flags track if changes were needed
             boolean needsDbUpdate = false;
@@ -742,7 +1110,9 @@ public class PlayerManager {
 
             // If cache needs updating, do it now
             if (needsCacheUpdate) {
-                updateCache(uuid, finalValidFactionId, finalValidRankId);
+                if (finalValidFactionId != null) { cacheFaction(uuid, finalValidFactionId); session.setRankId(finalValidRankId); }
+                else { uncacheFaction(uuid); session.clearFactionState(); }
+                rosterCache.updateMember(uuid, cachedFactionId, finalValidFactionId, finalValidRankId);
             }
 
             // If the database needs an update (either clearing or rank reset)
@@ -753,7 +1123,7 @@ public class PlayerManager {
                     Player onlinePlayer = Bukkit.getPlayer(uuid);
                     if (onlinePlayer != null && onlinePlayer.isOnline()) {
                         plugin.getLogger().fine("Updating permissions and display for " + onlinePlayer.getName() + " after data validation.");
-                        updatePlayerPermissions(onlinePlayer); // Update LuckPerms groups/permissions
+                        // TODO: Обновить права LuckPerms?
                         updatePlayerDisplay(onlinePlayer); // Trigger display update (PAPI etc.)
                         onlinePlayer.sendMessage(ChatColor.YELLOW + "Your faction data or rank may have been updated due to configuration changes.");
                     }
@@ -761,15 +1131,35 @@ public class PlayerManager {
             }
         } // End for loop iterating through players
 
-        // Asynchronously update the database for all players marked for update
+        // Update the database for all players marked for update in one transaction
         if (!toUpdateDb.isEmpty()) {
-            plugin.getLogger().info("Scheduling database updates for " + toUpdateDb.size() + " players after reload validation.");
+            plugin.getLogger().info("Saving database updates for " + toUpdateDb.size() + " players after reload validation.");
+            List<PlayerDataWriteQueue.PendingWrite> writes = new ArrayList<>(toUpdateDb.size());
             for (UUID uuidToUpdate : toUpdateDb) {
                 // Save the *current* state from the cache (which might have been corrected)
-                savePlayerData(uuidToUpdate); // Uses the asynchronous save method
+                writes.add(new PlayerDataWriteQueue.PendingWrite(uuidToUpdate, getPlayerFactionId(uuidToUpdate), getPlayerRankId(uuidToUpdate)));
             }
+            databaseManager.savePlayerDataBulk(writes);
         } else {
             plugin.getLogger().info("Player data validation complete. No cached data inconsistencies found requiring database updates.");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Данные игрока, загруженные до входа на сервер.
+     */
+    private static final class StagedPlayerData {
+        private final String factionId;
+        private final Integer rankId;
+        private final long stagedAtMillis = System.currentTimeMillis();
+
+        private StagedPlayerData(String factionId, Integer rankId) {
+            this.factionId = factionId;
+            this.rankId = rankId;
+        }
+
+        private boolean isExpired(long ttlSeconds) {
+            return System.currentTimeMillis() - stagedAtMillis > ttlSeconds * 1000L;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.isyateq.hfactions.managers;
+
+import org.isyateq.hfactions.models.PlayerRecord;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Кэш записей оффлайн игроков поверх player_data: ограничен по размеру (LRU) и по времени жизни записи.
+ * <p>
+ * Одновременные запросы одного UUID получают одно и то же future - в БД уходит один запрос.
+ * Любая запись игрока в БД вызывает {@link #invalidate(UUID)}; загрузка, начатая до инвалидации,
+ * свой результат в кэш уже не кладет, чтобы не вернуть устаревшие данные.
+ */
+public final class PlayerRecordCache {
+
+    private final int maxSize;
+    private final long expireNanos;
+    private final Function<UUID, CompletableFuture<PlayerRecord>> loader;
+
+    // Порядок доступа: первым вытесняется давно не использованный. Доступ - под блокировкой самой карты
+    private final LinkedHashMap<UUID, Entry> entries;
+    // Идущие загрузки: UUID -> общее future
+    private final Map<UUID, CompletableFuture<PlayerRecord>> loading = new ConcurrentHashMap<>();
+
+    // --- Счетчики ---
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PlayerRecordCache(int maxSize, long expireSeconds, Function<UUID, CompletableFuture<PlayerRecord>> loader) {
+        this.maxSize = Math.max(1, maxSize);
+        this.expireNanos = Math.max(1L, expireSeconds) * 1_000_000_000L;
+        this.loader = loader;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                if (size() <= PlayerRecordCache.this.maxSize) return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /** @return запись из кэша, если она есть и не устарела (без обращения к БД), иначе null. */
+    public PlayerRecord getIfPresent(UUID uuid) {
+        synchronized (entries) {
+            Entry entry = entries.get(uuid);
+            if (entry == null) return null;
+            if (System.nanoTime() - entry.storedAtNanos > expireNanos) {
+                entries.remove(uuid);
+                return null;
+            }
+            return entry.record;
+        }
+    }
+
+    /**
+     * Отдает запись игрока: из кэша сразу или после загрузки из БД.
+     * Все одновременные запросы одного UUID ждут одну загрузку.
+     */
+    public CompletableFuture<PlayerRecord> get(UUID uuid) {
+        PlayerRecord cached = getIfPresent(uuid);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+        misses.incrementAndGet();
+        CompletableFuture<PlayerRecord>[] created = newHolder();
+        CompletableFuture<PlayerRecord> shared = loading.computeIfAbsent(uuid, id -> created[0] = new CompletableFuture<>());
+        if (created[0] == null) return shared; // Загрузку уже запустил другой запрос
+
+        loader.apply(uuid).whenComplete((record, error) -> {
+            // Если за время загрузки запись инвалидировали - future уже не в loading, в кэш не кладем
+            if (loading.remove(uuid, shared) && error == null && record != null) put(record);
+            if (error != null) shared.completeExceptionally(error);
+            else shared.complete(record);
+        });
+        return shared;
+    }
+
+    // Кладет запись, прочитанную из БД загрузчиком
+    private void put(PlayerRecord record) {
+        if (record == null) return;
+        synchronized (entries) {
+            entries.put(record.getUuid(), new Entry(record, System.nanoTime()));
+        }
+    }
+
+    /** Сбрасывает запись игрока (после записи в БД). Идущая загрузка не попадет в кэш. */
+    public void invalidate(UUID uuid) {
+        loading.remove(uuid);
+        synchronized (entries) {
+            entries.remove(uuid);
+        }
+    }
+
+    /** Сбрасывает записи всех членов фракции (удаление фракции). */
+    public void invalidateFaction(String factionId) {
+        if (factionId == null) return;
+        loading.clear(); // Загрузки могли прочитать еще не очищенные строки
+        synchronized (entries) {
+            entries.values().removeIf(entry -> factionId.equalsIgnoreCase(entry.record.getFactionId()));
+        }
+    }
+
+    public void invalidateAll() {
+        loading.clear();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    // --- Метрики ---
+    public int size() { synchronized (entries) { return entries.size(); } }
+    public int getMaxSize() { return maxSize; }
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+
+    @SuppressWarnings("unchecked")
+    private static CompletableFuture<PlayerRecord>[] newHolder() {
+        return (CompletableFuture<PlayerRecord>[]) new CompletableFuture[1];
+    }
+
+    private static final class Entry {
+        private final PlayerRecord record;
+        private final long storedAtNanos;
+
+        private Entry(PlayerRecord record, long storedAtNanos) {
+            this.record = record;
+            this.storedAtNanos = storedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package org.isyateq.hfactions.managers;
+
+import org.isyateq.hfactions.HFactions;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * Долгоживущие соединения с SQLite: одно соединение-писатель (под блокировкой)
+ * и небольшой пул соединений только для чтения. База открывается в режиме WAL,
+ * поэтому чтения не ждут писателя. Каждое соединение держит свой кэш PreparedStatement.
+ * <p>
+ * Соединения и выданные ими PreparedStatement закрывать НЕЛЬЗЯ - ими владеет пул.
+ */
+public final class SqliteConnectionPool {
+
+    private final HFactions plugin;
+    private final String jdbcUrl;
+    private final int readConnections;
+    private final long mmapSizeBytes;
+    private final int busyTimeoutMs;
+    private final int cacheSizeKb;
+
+    // Писатель один: SQLite все равно допускает только одну пишущую транзакцию
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private PooledConnection writer = null;
+    private BlockingQueue<PooledConnection> readers = null;
+    private final List<PooledConnection> allReaders = new ArrayList<>();
+    private volatile boolean closed = false;
+
+    public SqliteConnectionPool(HFactions plugin, String jdbcUrl, int readConnections, long mmapSizeBytes, int busyTimeoutMs, int cacheSizeKb) {
+        this.plugin = plugin;
+        this.jdbcUrl = jdbcUrl;
+        this.readConnections = Math.max(0, readConnections);
+        this.mmapSizeBytes = Math.max(0L, mmapSizeBytes);
+        this.busyTimeoutMs = Math.max(0, busyTimeoutMs);
+        this.cacheSizeKb = Math.max(0, cacheSizeKb);
+    }
+
+    /** Открывает писателя и пул читателей. Писатель открывается первым, чтобы включить WAL. */
+    public void open() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            plugin.getLogger().log(Level.SEVERE, "SQLite JDBC Driver not found!", e);
+            throw new SQLException("SQLite JDBC Driver not found!", e);
+        }
+        closed = false;
+        writerLock.lock();
+        try {
+            writer = openConnection(false);
+        } finally {
+            writerLock.unlock();
+        }
+        readers = new ArrayBlockingQueue<>(Math.max(1, readConnections));
+        for (int i = 0; i < readConnections; i++) {
+            PooledConnection reader = openConnection(true);
+            allReaders.add(reader);
+            readers.offer(reader);
+        }
+        plugin.getLogger().info("SQLite connection pool opened (WAL, 1 writer, " + readConnections + " readers).");
+    }
+
+    /**
+     * Выполняет работу на соединении-писателе. Вызовы сериализуются,
+     * поэтому внутри можно открывать собственную транзакцию.
+     */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        if (closed) throw new SQLException("SQLite connection pool is closed.");
+        writerLock.lock();
+        try {
+            if (writer == null || writer.isBroken()) {
+                if (writer != null) writer.close();
+                writer = openConnection(false);
+            }
+            return work.execute(writer);
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Выполняет работу на соединении только для чтения из пула.
+     * Если читателей нет или все заняты дольше busy_timeout - используется писатель.
+     */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        if (closed) throw new SQLException("SQLite connection pool is closed.");
+        if (readConnections == 0 || readers == null) return write(work);
+
+        PooledConnection reader;
+        try {
+            reader = readers.poll(busyTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection.", e);
+        }
+        if (reader == null) return write(work);
+
+        try {
+            if (reader.isBroken()) {
+                reader = replaceReader(reader);
+            }
+            return work.execute(reader);
+        } finally {
+            if (!closed) readers.offer(reader); else reader.close();
+        }
+    }
+
+    /** Закрывает все соединения вместе с закэшированными запросами. */
+    public void close() {
+        closed = true;
+        writerLock.lock();
+        try {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        synchronized (allReaders) {
+            for (PooledConnection reader : allReaders) {
+                reader.close();
+            }
+            allReaders.clear();
+        }
+        if (readers != null) readers.clear();
+        plugin.getLogger().info("SQLite connection pool closed.");
+    }
+
+    private PooledConnection replaceReader(PooledConnection broken) throws SQLException {
+        broken.close();
+        PooledConnection fresh = openConnection(true);
+        synchronized (allReaders) {
+            allReaders.remove(broken);
+            allReaders.add(fresh);
+        }
+        return fresh;
+    }
+
+    private PooledConnection openConnection(boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(jdbcUrl);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + busyTimeoutMs + ";");
+            if (!readOnly) {
+                // journal_mode хранится в самом файле БД, достаточно выставить его писателем
+                stmt.execute("PRAGMA journal_mode = WAL;");
+            }
+            stmt.execute("PRAGMA synchronous = NORMAL;");
+            stmt.execute("PRAGMA temp_store = MEMORY;");
+            stmt.execute("PRAGMA mmap_size = " + mmapSizeBytes + ";");
+            if (cacheSizeKb > 0) {
+                stmt.execute("PRAGMA cache_size = -" + cacheSizeKb + ";"); // Отрицательное значение - в KiB
+            }
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only = ON;");
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return new PooledConnection(plugin, connection);
+    }
+
+    /** Работа с соединением из пула. */
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T execute(PooledConnection connection) throws SQLException;
+    }
+
+    /**
+     * Соединение из пула с кэшем подготовленных запросов.
+     * Используется только одним потоком за раз (пул выдает его эксклюзивно).
+     */
+    public static final class PooledConnection {
+        private final HFactions plugin;
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statementCache = new HashMap<>();
+
+        private PooledConnection(HFactions plugin, Connection connection) {
+            this.plugin = plugin;
+            this.connection = connection;
+        }
+
+        /**
+         * Возвращает закэшированный PreparedStatement для sql (с очищенными параметрами).
+         * Закрывать его не нужно - закрыть нужно только полученный ResultSet.
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statementCache.get(sql);
+            if (stmt == null || stmt.isClosed()) {
+                stmt = connection.prepareStatement(sql);
+                statementCache.put(sql, stmt);
+            } else {
+                stmt.clearParameters();
+                stmt.clearBatch();
+            }
+            return stmt;
+        }
+
+        /** Сырое соединение - для транзакций и разовых Statement. Не закрывать! */
+        public Connection raw() { return connection; }
+
+        private boolean isBroken() {
+            try {
+                return connection.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        }
+
+        private void close() {
+            for (PreparedStatement stmt : statementCache.values()) {
+                try { stmt.close(); } catch (SQLException ignored) {}
+            }
+            statementCache.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.WARNING, "Error closing SQLite connection!", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.isyateq.hfactions.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.isyateq.hfactions.HFactions;
+
+import org.isyateq.hfactions.managers.SyncMessageCodec.Change;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Синхронизация фракций между серверами сети с общей БД.
+ * <p>
+ * После каждой зафиксированной записи (фракция - FactionManager, игрок - DatabaseManager) изменение
+ * ставится в очередь отправки; повторные изменения одной фракции или игрока до отправки схлопываются.
+ * Раз в sync.flush_interval_ticks очередь уходит через MessageBus одним сообщением. Сообщение несет
+ * только ключи и версии (для игрока - фракцию и ранг), получатель обновляет у себя только затронутые
+ * записи кэшей: баланс сдвигается на месте, фракция с новой версией перечитывается из БД одной строкой.
+ * <p>
+ * Пропущенные сообщения (сервер был пуст или перезапускался) догоняются при входе первого игрока:
+ * один запрос версий по factions и сброс кэшей оффлайн данных.
+ * <p>
+ * Формат сообщений - SyncMessageCodec.
+ */
+public final class SyncManager {
+
+    private final HFactions plugin;
+    private final MessageBus bus;
+    private final String serverId;
+    private final long flushIntervalTicks;
+    private final int maxChangesPerMessage;
+
+    // Ожидающие отправки изменения: ключ фракции/игрока -> последнее изменение (пишут потоки ввода-вывода)
+    private final Map<String, Change> outgoing = new ConcurrentHashMap<>();
+    private BukkitTask flushTask = null;
+
+    // --- Счетчики ---
+    private final AtomicLong publishedChanges = new AtomicLong();
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong deferredSends = new AtomicLong();
+    private final AtomicLong splitMessages = new AtomicLong();
+    private final AtomicLong droppedChanges = new AtomicLong();
+    private final AtomicLong receivedMessages = new AtomicLong();
+    private final AtomicLong receivedChanges = new AtomicLong();
+    private final AtomicLong malformedMessages = new AtomicLong();
+
+    public SyncManager(HFactions plugin, MessageBus bus) {
+        this.plugin = plugin;
+        this.bus = bus;
+        ConfigManager configManager = plugin.getConfigManager();
+        String configuredId = configManager.getSyncServerId();
+        this.serverId = configuredId.isEmpty() ? UUID.randomUUID().toString() : configuredId;
+        this.flushIntervalTicks = configManager.getSyncFlushIntervalTicks();
+        this.maxChangesPerMessage = Math.min(SyncMessageCodec.MAX_CHANGES, configManager.getSyncMaxChangesPerMessage());
+    }
+
+    /** Начинает прием и периодическую отправку. Основной поток. */
+    public void start() {
+        bus.start(this::receive);
+        flushTask = Bukkit.getScheduler().runTaskTimer(plugin, this::flush, flushIntervalTicks, flushIntervalTicks);
+        plugin.getLogger().info("Cross-server sync started (bus " + bus.getName() + ", server id " + serverId + ", every " + flushIntervalTicks + " ticks).");
+    }
+
+    /** Отправляет то, что осталось в очереди, и закрывает канал (onDisable, после записи данных). */
+    public void close() {
+        if (flushTask != null) {
+            try { flushTask.cancel(); } catch (IllegalStateException ignored) {}
+            flushTask = null;
+        }
+        flush();
+        if (!outgoing.isEmpty()) plugin.getLogger().warning(outgoing.size() + " sync changes were not sent before shutdown; other servers will pick them up from the database.");
+        bus.close();
+        plugin.getLogger().info("Cross-server sync stopped. Sent " + sentMessages.get() + " messages (" + publishedChanges.get() + " changes), received "
+                + receivedMessages.get() + " messages (" + receivedChanges.get() + " changes).");
+    }
+
+    // --- Отправка (любой поток, после фиксации записи) ---
+
+    /** Фракция записана: версии и баланс ее строки сразу после записи. */
+    public void publishFaction(FactionStorage.StoredVersion stored) {
+        String id = stored.getId().toLowerCase();
+        enqueue(Change.faction(id, stored.getVersion(), stored.getBalanceSeq(), stored.getBalanceCents()));
+    }
+
+    /** Фракция удалена вместе с данными ее игроков. */
+    public void publishFactionDeleted(String factionId) {
+        String id = factionId.toLowerCase();
+        enqueue(Change.factionDeleted(id));
+    }
+
+    /** Записаны фракция и ранг игрока (null - не во фракции). */
+    public void publishPlayer(UUID uuid, String factionId, Integer rankId) {
+        enqueue(Change.player(uuid, factionId != null ? factionId.toLowerCase() : null, rankId));
+    }
+
+    private void enqueue(Change change) {
+        publishedChanges.incrementAndGet();
+        outgoing.merge(change.getKey(), change, Change::merge);
+    }
+
+    // Основной поток: забирает очередь и отправляет ее сообщениями по maxChangesPerMessage изменений
+    private void flush() {
+        if (outgoing.isEmpty()) return;
+        List<Change> changes = new ArrayList<>(outgoing.size());
+        for (String key : outgoing.keySet()) {
+            Change change = outgoing.remove(key);
+            if (change != null) changes.add(change);
+        }
+        // Фракции раньше игроков: вступление в новую фракцию должно прийти после самой фракции
+        changes.sort(Comparator.comparingInt(change -> change.getType() == SyncMessageCodec.TYPE_PLAYER ? 1 : 0));
+        Deque<List<Change>> parts = new ArrayDeque<>();
+        for (int from = 0; from < changes.size(); from += maxChangesPerMessage) {
+            parts.addLast(changes.subList(from, Math.min(changes.size(), from + maxChangesPerMessage)));
+        }
+        while (!parts.isEmpty()) {
+            List<Change> part = parts.pollFirst();
+            byte[] message;
+            try {
+                message = SyncMessageCodec.encode(serverId, part);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not encode sync message", e);
+                continue;
+            }
+            if (message.length > bus.getMaxMessageSize()) {
+                if (part.size() > 1) {
+                    // Не помещается в канал - делим пополам (порядок частей сохраняется)
+                    int half = part.size() / 2;
+                    parts.addFirst(part.subList(half, part.size()));
+                    parts.addFirst(part.subList(0, half));
+                    splitMessages.incrementAndGet();
+                } else {
+                    // Одно изменение больше канала: повтор не поможет, другие серверы догонят его по версиям в БД
+                    droppedChanges.incrementAndGet();
+                    plugin.getLogger().warning("Sync change " + part.get(0).getKey() + " (" + message.length + " bytes) does not fit into " + bus.getName() + " and was not sent.");
+                }
+                continue;
+            }
+            if (!bus.publish(message)) {
+                // Отправить сейчас нельзя - возвращаем в очередь, не затирая более новые изменения
+                deferredSends.incrementAndGet();
+                requeue(part);
+                for (List<Change> rest : parts) requeue(rest);
+                return;
+            }
+            sentMessages.incrementAndGet();
+        }
+    }
+
+    // Неотправленное возвращается в очередь; изменение, поставленное за это время, новее и остается главным
+    private void requeue(List<Change> changes) {
+        for (Change change : changes) outgoing.merge(change.getKey(), change, (queued, failed) -> Change.merge(failed, queued));
+    }
+
+    // --- Прием (основной поток) ---
+
+    private void receive(byte[] message) {
+        FactionManager factionManager = plugin.getFactionManager();
+        PlayerManager playerManager = plugin.getPlayerManager();
+        if (factionManager == null || playerManager == null) return;
+        SyncMessageCodec.Message decoded;
+        try {
+            decoded = SyncMessageCodec.decode(message);
+        } catch (SyncMessageCodec.UnsupportedProtocolException e) {
+            malformedMessages.incrementAndGet();
+            plugin.getLogger().warning("Ignored sync message of protocol " + e.getProtocol() + " (this server speaks " + SyncMessageCodec.PROTOCOL_VERSION + "). Update HFactions on all servers.");
+            return;
+        } catch (IOException e) {
+            // Сообщение разбирается целиком до применения: битое не применяется даже частично
+            malformedMessages.incrementAndGet();
+            plugin.getLogger().log(Level.WARNING, "Could not read sync message from another server", e);
+            return;
+        }
+        if (serverId.equals(decoded.getOrigin())) return; // Свое сообщение
+        receivedMessages.incrementAndGet();
+        for (Change change : decoded.getChanges()) {
+            switch (change.getType()) {
+                case SyncMessageCodec.TYPE_FACTION:
+                    factionManager.applyRemoteFaction(new FactionStorage.StoredVersion(change.getFactionId(), change.getVersion(), change.getBalanceSeq(), change.getBalanceCents()));
+                    break;
+                case SyncMessageCodec.TYPE_FACTION_DELETED:
+                    factionManager.applyRemoteDeletion(change.getFactionId());
+                    break;
+                case SyncMessageCodec.TYPE_PLAYER:
+                    playerManager.applyRemotePlayerChange(change.getUuid(), change.getPlayerFactionId(), change.getRankId());
+                    break;
+                default:
+                    break;
+            }
+            receivedChanges.incrementAndGet();
+        }
+    }
+
+    /**
+     * Догоняет изменения, пропущенные, пока сообщения не приходили (вызывается при входе первого игрока:
+     * канал прокси без игроков не работает). Основной поток.
+     */
+    public void catchUp() {
+        plugin.getFactionManager().catchUpWithStore();
+        plugin.getPlayerManager().invalidateOfflineCaches();
+    }
+
+    // --- Метрики ---
+    public String getServerId() { return serverId; }
+    public String getBusName() { return bus.getName(); }
+    public int getQueueDepth() { return outgoing.size(); }
+    public long getPublishedChanges() { return publishedChanges.get(); }
+    public long getSentMessages() { return sentMessages.get(); }
+    public long getDeferredSends() { return deferredSends.get(); }
+    public long getSplitMessages() { return splitMessages.get(); }
+    public long getDroppedChanges() { return droppedChanges.get(); }
+    public long getReceivedMessages() { return receivedMessages.get(); }
+    public long getReceivedChanges() { return receivedChanges.get(); }
+    public long getMalformedMessages() { return malformedMessages.get(); }
+}
@@ -0,0 +1,183 @@
+package org.isyateq.hfactions.managers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Двоичный формат сообщений синхронизации (см. SyncManager), без зависимостей от API сервера.
+ * <p>
+ * Сообщение: [версия протокола][UTF id сервера-отправителя][short число изменений] + изменения.
+ * Изменение: [тип] + поля типа - фракция (UTF id, long версия, long balance_seq, long баланс в копейках),
+ * удаление фракции (UTF id), игрок (UUID двумя long, фракция и ранг с флагом наличия).
+ */
+final class SyncMessageCodec {
+
+    static final byte PROTOCOL_VERSION = 1;
+    static final byte TYPE_FACTION = 1;
+    static final byte TYPE_FACTION_DELETED = 2;
+    static final byte TYPE_PLAYER = 3;
+
+    // Число изменений передается как unsigned short
+    static final int MAX_CHANGES = 0xFFFF;
+
+    private SyncMessageCodec() {}
+
+    static byte[] encode(String serverId, List<Change> changes) throws IOException {
+        if (changes.size() > MAX_CHANGES) throw new IOException("Too many changes in one sync message: " + changes.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + changes.size() * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PROTOCOL_VERSION);
+        out.writeUTF(serverId);
+        out.writeShort(changes.size());
+        for (Change change : changes) {
+            out.writeByte(change.type);
+            switch (change.type) {
+                case TYPE_FACTION:
+                    out.writeUTF(change.factionId);
+                    out.writeLong(change.version);
+                    out.writeLong(change.balanceSeq);
+                    out.writeLong(change.balanceCents);
+                    break;
+                case TYPE_FACTION_DELETED:
+                    out.writeUTF(change.factionId);
+                    break;
+                case TYPE_PLAYER:
+                    out.writeLong(change.uuid.getMostSignificantBits());
+                    out.writeLong(change.uuid.getLeastSignificantBits());
+                    out.writeBoolean(change.playerFactionId != null);
+                    if (change.playerFactionId != null) out.writeUTF(change.playerFactionId);
+                    out.writeBoolean(change.rankId != null);
+                    if (change.rankId != null) out.writeInt(change.rankId);
+                    break;
+                default:
+                    throw new IOException("Unknown change type " + change.type);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Читает сообщение целиком: битое сообщение не применяется даже частично.
+     * @throws UnsupportedProtocolException сообщение другой версии протокола
+     * @throws IOException данные обрезаны или повреждены
+     */
+    static Message decode(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            byte protocol = in.readByte();
+            if (protocol != PROTOCOL_VERSION) throw new UnsupportedProtocolException(protocol);
+            String origin = in.readUTF();
+            int count = in.readUnsignedShort();
+            List<Change> changes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte type = in.readByte();
+                switch (type) {
+                    case TYPE_FACTION: {
+                        String factionId = in.readUTF();
+                        long version = in.readLong();
+                        long balanceSeq = in.readLong();
+                        long balanceCents = in.readLong();
+                        changes.add(Change.faction(factionId, version, balanceSeq, balanceCents));
+                        break;
+                    }
+                    case TYPE_FACTION_DELETED:
+                        changes.add(Change.factionDeleted(in.readUTF()));
+                        break;
+                    case TYPE_PLAYER: {
+                        UUID uuid = new UUID(in.readLong(), in.readLong());
+                        String factionId = in.readBoolean() ? in.readUTF() : null;
+                        Integer rankId = in.readBoolean() ? in.readInt() : null;
+                        changes.add(Change.player(uuid, factionId, rankId));
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown change type " + type);
+                }
+            }
+            if (in.available() > 0) throw new IOException(in.available() + " unexpected trailing bytes");
+            return new Message(origin, changes);
+        }
+    }
+
+    /** Прочитанное сообщение: отправитель и изменения в порядке отправки. */
+    static final class Message {
+        private final String origin;
+        private final List<Change> changes;
+
+        private Message(String origin, List<Change> changes) {
+            this.origin = origin;
+            this.changes = Collections.unmodifiableList(changes);
+        }
+
+        String getOrigin() { return origin; }
+        List<Change> getChanges() { return changes; }
+    }
+
+    /** Сообщение сервера с другой версией протокола. */
+    static final class UnsupportedProtocolException extends IOException {
+        private final byte protocol;
+
+        private UnsupportedProtocolException(byte protocol) {
+            super("Unsupported sync protocol " + protocol);
+            this.protocol = protocol;
+        }
+
+        byte getProtocol() { return protocol; }
+    }
+
+    /**
+     * Одно изменение. key - ключ схлопывания в очереди отправки ("f:" + id фракции или "p:" + UUID игрока).
+     */
+    static final class Change {
+        private final byte type;
+        private final String key;
+        private final String factionId;
+        private final long version, balanceSeq, balanceCents;
+        private final UUID uuid;
+        private final String playerFactionId;
+        private final Integer rankId;
+
+        private Change(byte type, String key, String factionId, long version, long balanceSeq, long balanceCents, UUID uuid, String playerFactionId, Integer rankId) {
+            this.type = type; this.key = key; this.factionId = factionId; this.version = version; this.balanceSeq = balanceSeq; this.balanceCents = balanceCents;
+            this.uuid = uuid; this.playerFactionId = playerFactionId; this.rankId = rankId;
+        }
+
+        /** Фракция записана: версии и баланс ее строки сразу после записи. */
+        static Change faction(String factionId, long version, long balanceSeq, long balanceCents) {
+            return new Change(TYPE_FACTION, "f:" + factionId, factionId, version, balanceSeq, balanceCents, null, null, null);
+        }
+
+        static Change factionDeleted(String factionId) {
+            return new Change(TYPE_FACTION_DELETED, "f:" + factionId, factionId, 0L, 0L, 0L, null, null, null);
+        }
+
+        /** Фракция и ранг игрока (null - не во фракции). */
+        static Change player(UUID uuid, String factionId, Integer rankId) {
+            return new Change(TYPE_PLAYER, "p:" + uuid, null, 0L, 0L, 0L, uuid, factionId, rankId);
+        }
+
+        // Две записи фракции: берется самая новая версия и самый новый баланс (записи могли завершиться не по порядку)
+        static Change merge(Change older, Change newer) {
+            if (older.type != TYPE_FACTION || newer.type != TYPE_FACTION) return newer;
+            boolean newerBalance = newer.balanceSeq >= older.balanceSeq;
+            return new Change(TYPE_FACTION, newer.key, newer.factionId, Math.max(older.version, newer.version),
+                    newerBalance ? newer.balanceSeq : older.balanceSeq, newerBalance ? newer.balanceCents : older.balanceCents, null, null, null);
+        }
+
+        byte getType() { return type; }
+        String getKey() { return key; }
+        String getFactionId() { return factionId; }
+        long getVersion() { return version; }
+        long getBalanceSeq() { return balanceSeq; }
+        long getBalanceCents() { return balanceCents; }
+        UUID getUuid() { return uuid; }
+        String getPlayerFactionId() { return playerFactionId; }
+        Integer getRankId() { return rankId; }
+    }
+}
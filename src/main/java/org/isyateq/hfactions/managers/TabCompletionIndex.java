@@ -0,0 +1,193 @@
+package org.isyateq.hfactions.managers;
+
+import org.bukkit.Bukkit;
+import org.isyateq.hfactions.models.Faction;
+import org.isyateq.hfactions.models.PermissionRegistry;
+import org.isyateq.hfactions.models.PlayerSession;
+import org.isyateq.hfactions.util.PrefixTrie;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Индекс автодополнения /hf: префиксные деревья ID фракций, территорий, ников онлайн и участников
+ * фракций, плюс ID рангов каждой фракции.
+ * <p>
+ * Индекс не перестраивается при вводе: его инкрементально обновляют владельцы данных -
+ * FactionManager (загрузка, создание, удаление фракций), DynmapManager (территории),
+ * PlayerManager (вход/выход) и FactionRosterCache (состав фракций).
+ * Маска доступных отправителю подкоманд тоже кэшируется (см. {@link #getCapabilityMask}).
+ */
+public final class TabCompletionIndex {
+
+    /** Больше вариантов клиент все равно не покажет удобно. */
+    public static final int MAX_RESULTS = 64;
+    // Права LuckPerms могут поменяться без событий фракции - маска живет не дольше этого
+    private static final long CAPABILITY_TTL_NANOS = 10_000_000_000L;
+
+    private final PrefixTrie factionIds = new PrefixTrie();
+    private final PrefixTrie territories = new PrefixTrie();
+    private final PrefixTrie onlineNames = new PrefixTrie();
+    private final Map<UUID, String> onlineByUuid = new ConcurrentHashMap<>();
+    // factionId -> ID рангов по возрастанию (строками, готовыми к выдаче)
+    private final Map<String, String[]> rankIds = new ConcurrentHashMap<>();
+    // factionId -> ники участников (онлайн и оффлайн); есть только для фракций с загруженным составом
+    private final Map<String, PrefixTrie> members = new ConcurrentHashMap<>();
+    private final Map<UUID, Capabilities> capabilities = new ConcurrentHashMap<>();
+
+    // --- Фракции ---
+
+    /** Полная перестройка после загрузки фракций. Составы участников сбрасываются вместе с кэшем составов. */
+    public void rebuildFactions(Collection<Faction> factions) {
+        factionIds.clear();
+        rankIds.clear();
+        for (Faction faction : factions) addFaction(faction);
+    }
+
+    public void addFaction(Faction faction) {
+        factionIds.add(faction.getId());
+        rankIds.put(faction.getId().toLowerCase(), faction.getRanks().keySet().stream()
+                .sorted().map(String::valueOf).toArray(String[]::new));
+    }
+
+    public void removeFaction(String factionId) {
+        if (factionId == null) return;
+        factionIds.remove(factionId);
+        rankIds.remove(factionId.toLowerCase());
+        members.remove(factionId.toLowerCase());
+    }
+
+    public int completeFactionIds(String prefix, List<String> out) {
+        return factionIds.collect(prefix, out, MAX_RESULTS);
+    }
+
+    public int completeRankIds(String factionId, String prefix, List<String> out) {
+        String[] ids = factionId != null ? rankIds.get(factionId.toLowerCase()) : null;
+        if (ids == null) return 0;
+        int added = 0;
+        for (String id : ids) {
+            if (id.startsWith(prefix)) { out.add(id); added++; }
+        }
+        return added;
+    }
+
+    // --- Территории ---
+
+    public void addTerritory(String zoneName) { territories.add(zoneName); }
+    public void removeTerritory(String zoneName) { territories.remove(zoneName); }
+    public void clearTerritories() { territories.clear(); }
+
+    public int completeTerritories(String prefix, List<String> out) {
+        return territories.collect(prefix, out, MAX_RESULTS);
+    }
+
+    // --- Игроки онлайн ---
+
+    public void playerOnline(UUID uuid, String name) {
+        String previous = onlineByUuid.put(uuid, name);
+        if (previous != null && !previous.equals(name)) onlineNames.remove(previous);
+        onlineNames.add(name);
+    }
+
+    public void playerOffline(UUID uuid) {
+        String name = onlineByUuid.remove(uuid);
+        if (name != null) onlineNames.remove(name);
+        capabilities.remove(uuid);
+    }
+
+    public int completeOnlineNames(String prefix, List<String> out) {
+        return onlineNames.collect(prefix, out, MAX_RESULTS);
+    }
+
+    // --- Участники фракций ---
+
+    /** Состав фракции загружен целиком (FactionRosterCache). */
+    public void setMembers(String factionId, Collection<UUID> uuids) {
+        PrefixTrie trie = new PrefixTrie();
+        for (UUID uuid : uuids) {
+            String name = nameOf(uuid);
+            if (name != null) trie.add(name);
+        }
+        members.put(factionId.toLowerCase(), trie);
+    }
+
+    /** Инкрементальное изменение состава; для фракций без загруженного состава ничего не делает. */
+    public void moveMember(UUID uuid, String oldFactionId, String newFactionId) {
+        if (Objects.equals(oldFactionId, newFactionId)) return;
+        String name = null;
+        if (oldFactionId != null) {
+            PrefixTrie oldTrie = members.get(oldFactionId.toLowerCase());
+            if (oldTrie != null && (name = nameOf(uuid)) != null) oldTrie.remove(name);
+        }
+        if (newFactionId != null) {
+            PrefixTrie newTrie = members.get(newFactionId.toLowerCase());
+            if (newTrie != null && (name != null || (name = nameOf(uuid)) != null)) newTrie.add(name);
+        }
+    }
+
+    public void clearMembers() { members.clear(); }
+
+    /** @return true, если состав фракции есть в индексе (иначе out не трогается). */
+    public boolean completeMembers(String factionId, String prefix, List<String> out) {
+        PrefixTrie trie = factionId != null ? members.get(factionId.toLowerCase()) : null;
+        if (trie == null) return false;
+        trie.collect(prefix, out, MAX_RESULTS);
+        return true;
+    }
+
+    // --- Маска возможностей отправителя ---
+
+    /**
+     * Маска подкоманд, доступных игроку, из кэша. Пересчитывается через compute, если у игрока
+     * сменились фракция, ранг или админский режим, изменился реестр прав рангов или маска устарела.
+     */
+    public long getCapabilityMask(PlayerSession session, LongSupplier compute) {
+        Capabilities cached = capabilities.get(session.getUuid());
+        if (cached != null && cached.isValidFor(session)) return cached.mask;
+        Capabilities fresh = new Capabilities(compute.getAsLong(), session);
+        capabilities.put(session.getUuid(), fresh);
+        return fresh.mask;
+    }
+
+    public void clear() {
+        factionIds.clear();
+        territories.clear();
+        onlineNames.clear();
+        onlineByUuid.clear();
+        rankIds.clear();
+        members.clear();
+        capabilities.clear();
+    }
+
+    private String nameOf(UUID uuid) {
+        String online = onlineByUuid.get(uuid);
+        return online != null ? online : Bukkit.getOfflinePlayer(uuid).getName(); // Кэш сервера, без запроса к Mojang
+    }
+
+    private static final class Capabilities {
+        private final long mask;
+        private final String factionId;
+        private final Integer rankId;
+        private final String adminModeFactionId;
+        private final int permissionGeneration;
+        private final long computedAtNanos;
+
+        private Capabilities(long mask, PlayerSession session) {
+            this.mask = mask;
+            this.factionId = session.getFactionId();
+            this.rankId = session.getRankId();
+            this.adminModeFactionId = session.getAdminModeFactionId();
+            this.permissionGeneration = PermissionRegistry.generation();
+            this.computedAtNanos = System.nanoTime();
+        }
+
+        private boolean isValidFor(PlayerSession session) {
+            return System.nanoTime() - computedAtNanos < CAPABILITY_TTL_NANOS
+                    && permissionGeneration == PermissionRegistry.generation()
+                    && Objects.equals(factionId, session.getFactionId())
+                    && Objects.equals(rankId, session.getRankId())
+                    && Objects.equals(adminModeFactionId, session.getAdminModeFactionId());
+        }
+    }
+}
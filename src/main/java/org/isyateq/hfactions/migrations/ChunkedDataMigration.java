@@ -0,0 +1,26 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Миграция данных, которая может затронуть много строк.
+ * Выполняется в фоне порциями, каждая порция - отдельная транзакция, между порциями - пауза,
+ * чтобы не держать соединение-писатель и не мешать работающему серверу.
+ * <p>
+ * applyChunk должен быть идемпотентным: после перезапуска сервера миграция продолжается с начала
+ * и обрабатывает только еще не перенесенные строки.
+ */
+public abstract class ChunkedDataMigration extends Migration {
+
+    protected ChunkedDataMigration(int version, String description) {
+        super(version, description);
+    }
+
+    /**
+     * Обрабатывает очередную порцию.
+     * @param chunkSize максимальное число строк за одну порцию.
+     * @return число обработанных строк; 0 - миграция завершена.
+     */
+    public abstract int applyChunk(Connection connection, int chunkSize) throws SQLException;
+}
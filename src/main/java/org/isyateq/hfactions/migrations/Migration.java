@@ -0,0 +1,24 @@
+package org.isyateq.hfactions.migrations;
+
+/**
+ * Миграция схемы БД с номером версии. Миграции применяются строго по возрастанию версии,
+ * примененные записываются в таблицу schema_version.
+ * <p>
+ * Номера версий не меняются после релиза - новая правка схемы всегда получает новый номер.
+ */
+public abstract class Migration {
+
+    private final int version;
+    private final String description;
+
+    protected Migration(int version, String description) {
+        if (version < 1) throw new IllegalArgumentException("Migration version must be >= 1");
+        this.version = version;
+        this.description = description;
+    }
+
+    public final int getVersion() { return version; }
+    public final String getDescription() { return description; }
+
+    @Override public String toString() { return "V" + version + " (" + description + ")"; }
+}
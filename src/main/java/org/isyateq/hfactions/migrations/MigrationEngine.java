@@ -0,0 +1,211 @@
+package org.isyateq.hfactions.migrations;
+
+import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.managers.SqliteConnectionPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Применяет миграции схемы по порядку версий и записывает их в schema_version.
+ * <p>
+ * Миграции схемы выполняются сразу при запуске (каждая в своей транзакции), все по порядку версий.
+ * Порционные миграции данных затем продолжаются в фоне, тоже по порядку версий, чтобы запуск сервера
+ * не ждал обработки больших таблиц. Поэтому миграция схемы не должна зависеть от результата миграции данных.
+ */
+public final class MigrationEngine {
+
+    private final HFactions plugin;
+    private final SqliteConnectionPool pool;
+    private final List<Migration> migrations;
+    private final int chunkSize;
+    private final long chunkPauseMillis;
+
+    public MigrationEngine(HFactions plugin, SqliteConnectionPool pool, List<Migration> migrations, int chunkSize, long chunkPauseMillis) {
+        this.plugin = plugin;
+        this.pool = pool;
+        this.migrations = new ArrayList<>(migrations);
+        this.migrations.sort(Comparator.comparingInt(Migration::getVersion));
+        this.chunkSize = Math.max(1, chunkSize);
+        this.chunkPauseMillis = Math.max(0L, chunkPauseMillis);
+        validateVersions();
+    }
+
+    /**
+     * Применяет все еще не примененные миграции.
+     * @return число миграций, примененных синхронно.
+     * @throws SQLException если миграция схемы не удалась (ее транзакция откатывается).
+     */
+    public int migrate() throws SQLException {
+        createVersionTable();
+        Set<Integer> applied = loadAppliedVersions();
+        int latestKnown = migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).getVersion();
+        int latestApplied = applied.stream().mapToInt(Integer::intValue).max().orElse(0);
+        if (latestApplied > latestKnown) {
+            plugin.getLogger().warning("Database schema version " + latestApplied + " is newer than this plugin version supports (" + latestKnown + "). Was the plugin downgraded?");
+        }
+
+        List<Migration> pending = new ArrayList<>();
+        for (Migration migration : migrations) {
+            if (!applied.contains(migration.getVersion())) pending.add(migration);
+        }
+        if (pending.isEmpty()) {
+            plugin.getLogger().info("Database schema is up to date (version " + latestApplied + ").");
+            return 0;
+        }
+
+        // Структура - сразу и целиком: код плагина рассчитывает на нее с первого запроса
+        int appliedNow = 0;
+        List<Migration> background = new ArrayList<>();
+        for (Migration migration : pending) {
+            if (migration instanceof ChunkedDataMigration) {
+                background.add(migration);
+                continue;
+            }
+            applySchemaMigration((SchemaMigration) migration);
+            appliedNow++;
+        }
+        if (!background.isEmpty()) {
+            plugin.getLogger().info("Continuing " + background.size() + " data migration(s) in the background, starting with " + background.get(0) + ".");
+            plugin.getIoExecutor().run("migrations", () -> runInBackground(background));
+        }
+        return appliedNow;
+    }
+
+    private void runInBackground(List<Migration> background) {
+        for (Migration migration : background) {
+            try {
+                if (!applyDataMigration((ChunkedDataMigration) migration)) return; // Плагин выключается - продолжим при следующем запуске
+            } catch (SQLException e) {
+                if (!plugin.isEnabled()) {
+                    plugin.getLogger().info("Database migration " + migration + " interrupted by shutdown; it will continue on next start.");
+                    return;
+                }
+                plugin.getLogger().log(Level.SEVERE, "Database migration " + migration + " failed! Remaining migrations will be retried on next start.", e);
+                return;
+            }
+        }
+    }
+
+    private void applySchemaMigration(SchemaMigration migration) throws SQLException {
+        long start = System.currentTimeMillis();
+        pool.write(conn -> {
+            inTransaction(conn.raw(), () -> {
+                migration.apply(conn.raw());
+                recordApplied(conn.raw(), migration, System.currentTimeMillis() - start);
+            });
+            return null;
+        });
+        plugin.getLogger().info("Applied database migration " + migration + " in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /** @return false, если миграция прервана выключением плагина. */
+    private boolean applyDataMigration(ChunkedDataMigration migration) throws SQLException {
+        long start = System.currentTimeMillis();
+        long totalRows = 0;
+        while (true) {
+            if (!plugin.isEnabled()) {
+                plugin.getLogger().info("Database migration " + migration + " paused after " + totalRows + " rows (plugin disabled).");
+                return false;
+            }
+            int rows = pool.write(conn -> {
+                int[] processed = new int[1];
+                inTransaction(conn.raw(), () -> processed[0] = migration.applyChunk(conn.raw(), chunkSize));
+                return processed[0];
+            });
+            if (rows <= 0) break;
+            totalRows += rows;
+            if (chunkPauseMillis > 0) {
+                try {
+                    Thread.sleep(chunkPauseMillis); // Даем писателю обслужить остальные запросы
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        pool.write(conn -> {
+            inTransaction(conn.raw(), () -> recordApplied(conn.raw(), migration, elapsed));
+            return null;
+        });
+        plugin.getLogger().info("Applied database migration " + migration + ": " + totalRows + " rows in " + elapsed + " ms.");
+        return true;
+    }
+
+    // --- schema_version ---
+
+    private void createVersionTable() throws SQLException {
+        pool.write(conn -> {
+            try (Statement stmt = conn.raw().createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                        " version INTEGER PRIMARY KEY NOT NULL," +
+                        " description TEXT," +
+                        " applied_at INTEGER NOT NULL," +
+                        " duration_ms INTEGER NOT NULL" +
+                        ");");
+            }
+            return null;
+        });
+    }
+
+    private Set<Integer> loadAppliedVersions() throws SQLException {
+        return pool.write(conn -> {
+            Set<Integer> versions = new HashSet<>();
+            try (Statement stmt = conn.raw().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT version FROM schema_version;")) {
+                while (rs.next()) versions.add(rs.getInt("version"));
+            }
+            return versions;
+        });
+    }
+
+    private void recordApplied(Connection connection, Migration migration, long durationMs) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("INSERT INTO schema_version (version, description, applied_at, duration_ms) VALUES (?, ?, ?, ?);")) {
+            pstmt.setInt(1, migration.getVersion());
+            pstmt.setString(2, migration.getDescription());
+            pstmt.setLong(3, System.currentTimeMillis());
+            pstmt.setLong(4, durationMs);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // --- Вспомогательные ---
+
+    @FunctionalInterface
+    private interface SqlAction {
+        void run() throws SQLException;
+    }
+
+    private static void inTransaction(Connection connection, SqlAction action) throws SQLException {
+        boolean previousAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            action.run();
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(previousAutoCommit);
+        }
+    }
+
+    private void validateVersions() {
+        Set<Integer> seen = new HashSet<>();
+        for (Migration migration : migrations) {
+            if (!seen.add(migration.getVersion())) {
+                throw new IllegalStateException("Duplicate database migration version " + migration.getVersion());
+            }
+        }
+    }
+}
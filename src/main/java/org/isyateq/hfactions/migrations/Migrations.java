@@ -0,0 +1,24 @@
+package org.isyateq.hfactions.migrations;
+
+import java.util.List;
+
+/**
+ * Реестр всех миграций БД. Новая миграция добавляется в конец списка со следующим номером версии.
+ */
+public final class Migrations {
+
+    private Migrations() {}
+
+    public static List<Migration> all() {
+        return List.of(
+                new V1_BaselineSchema(),
+                new V2_PlayerDataFactionIndex(),
+                new V3_LowercaseFactionIds(),
+                new V4_FactionBalanceCents(),
+                new V5_PlayerDataLastSeen(),
+                new V6_PlayerDataVersion(),
+                new V7_AuditLog(),
+                new V8_FactionVersion()
+        );
+    }
+}
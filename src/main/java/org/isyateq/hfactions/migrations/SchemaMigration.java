@@ -0,0 +1,18 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Быстрая миграция структуры (таблицы, столбцы, индексы).
+ * Выполняется целиком в одной транзакции при запуске, до того как плагин начнет работать с БД.
+ */
+public abstract class SchemaMigration extends Migration {
+
+    protected SchemaMigration(int version, String description) {
+        super(version, description);
+    }
+
+    /** Применяет миграцию. Транзакцию открывает и фиксирует MigrationEngine. */
+    public abstract void apply(Connection connection) throws SQLException;
+}
@@ -0,0 +1,56 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Исходная схема: данные игроков, фракции, ранги, склад и служебные метки.
+ * IF NOT EXISTS - базы, созданные до появления миграций, принимаются как есть.
+ */
+final class V1_BaselineSchema extends SchemaMigration {
+
+    V1_BaselineSchema() {
+        super(1, "baseline schema");
+    }
+
+    @Override
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS player_data (" +
+                    " uuid TEXT PRIMARY KEY NOT NULL," +
+                    " faction_id TEXT," +
+                    " rank_id INTEGER" +
+                    ");");
+            // Фракции, ранги и склад (построчно, чтобы сохранять только изменившееся)
+            stmt.execute("CREATE TABLE IF NOT EXISTS factions (" +
+                    " id TEXT PRIMARY KEY NOT NULL," +
+                    " name TEXT NOT NULL," +
+                    " type TEXT NOT NULL," +
+                    " color TEXT NOT NULL," +
+                    " prefix TEXT NOT NULL," +
+                    " balance REAL NOT NULL DEFAULT 0," +
+                    " warehouse_size INTEGER NOT NULL" +
+                    ");");
+            stmt.execute("CREATE TABLE IF NOT EXISTS faction_ranks (" +
+                    " faction_id TEXT NOT NULL," +
+                    " rank_id INTEGER NOT NULL," +
+                    " default_name TEXT NOT NULL," +
+                    " display_name TEXT," +
+                    " salary REAL NOT NULL DEFAULT 0," +
+                    " permissions TEXT NOT NULL DEFAULT ''," +
+                    " PRIMARY KEY (faction_id, rank_id)" +
+                    ");");
+            stmt.execute("CREATE TABLE IF NOT EXISTS warehouse_slots (" +
+                    " faction_id TEXT NOT NULL," +
+                    " slot INTEGER NOT NULL," +
+                    " item_data BLOB NOT NULL," +
+                    " PRIMARY KEY (faction_id, slot)" +
+                    ");");
+            stmt.execute("CREATE TABLE IF NOT EXISTS storage_meta (" +
+                    " key TEXT PRIMARY KEY NOT NULL," +
+                    " value TEXT" +
+                    ");");
+        }
+    }
+}
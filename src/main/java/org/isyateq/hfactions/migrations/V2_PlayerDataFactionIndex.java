@@ -0,0 +1,23 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Покрывающий индекс для выборки состава фракции: поиск по faction_id,
+ * постраничный обход по uuid, rank_id без обращения к таблице.
+ */
+final class V2_PlayerDataFactionIndex extends SchemaMigration {
+
+    V2_PlayerDataFactionIndex() {
+        super(2, "covering index on player_data(faction_id, uuid, rank_id)");
+    }
+
+    @Override
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_player_data_faction ON player_data (faction_id, uuid, rank_id);");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Приводит faction_id в player_data к нижнему регистру. ID фракций в плагине всегда в нижнем регистре,
+ * а старые версии могли записать ID как есть - такие игроки не попадали в выборку состава по индексу.
+ */
+final class V3_LowercaseFactionIds extends ChunkedDataMigration {
+
+    V3_LowercaseFactionIds() {
+        super(3, "lowercase faction ids in player_data");
+    }
+
+    @Override
+    public int applyChunk(Connection connection, int chunkSize) throws SQLException {
+        String sql = "UPDATE player_data SET faction_id = lower(faction_id) WHERE rowid IN (" +
+                "SELECT rowid FROM player_data WHERE faction_id IS NOT NULL AND faction_id <> lower(faction_id) LIMIT ?);";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, chunkSize);
+            return pstmt.executeUpdate();
+        }
+    }
+}
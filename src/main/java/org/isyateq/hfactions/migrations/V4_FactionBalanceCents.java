@@ -0,0 +1,25 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Казна фракции в целых копейках: столбец balance_cents заполняется из старого balance (REAL).
+ * balance продолжает записываться для наглядности, но читается только balance_cents.
+ */
+final class V4_FactionBalanceCents extends SchemaMigration {
+
+    V4_FactionBalanceCents() {
+        super(4, "factions.balance_cents (fixed-point treasury)");
+    }
+
+    @Override
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE factions ADD COLUMN balance_cents INTEGER NOT NULL DEFAULT 0;");
+            // Таблица фракций маленькая - переносим одним запросом
+            stmt.execute("UPDATE factions SET balance_cents = CAST(round(balance * 100) AS INTEGER);");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Время последнего выхода игрока (для записей оффлайн игроков). Старые строки остаются с NULL - "неизвестно".
+ */
+final class V5_PlayerDataLastSeen extends SchemaMigration {
+
+    V5_PlayerDataLastSeen() {
+        super(5, "player_data.last_seen");
+    }
+
+    @Override
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE player_data ADD COLUMN last_seen INTEGER;");
+        }
+    }
+}
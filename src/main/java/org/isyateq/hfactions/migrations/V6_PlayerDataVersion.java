@@ -0,0 +1,23 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Номер версии строки player_data: растет при каждой записи фракции/ранга.
+ * Изменения оффлайн игроков проверяют его (оптимистичная блокировка), чтобы не затереть чужую запись.
+ */
+final class V6_PlayerDataVersion extends SchemaMigration {
+
+    V6_PlayerDataVersion() {
+        super(6, "player_data.version (optimistic locking)");
+    }
+
+    @Override
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE player_data ADD COLUMN version INTEGER NOT NULL DEFAULT 0;");
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Журнал действий (фракционный чат, штрафы, действия с участниками и админские команды).
+ * Индексы под выборки /hf logs: по времени, по фракции и по игроку (автор или цель), новые записи первыми.
+ */
+final class V7_AuditLog extends SchemaMigration {
+
+    V7_AuditLog() {
+        super(7, "audit_log table");
+    }
+
+    @Override
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS audit_log ("
+                    + "id INTEGER PRIMARY KEY, "
+                    + "time INTEGER NOT NULL, "
+                    + "action TEXT NOT NULL, "
+                    + "faction_id TEXT, "
+                    + "actor_uuid TEXT, "
+                    + "actor_name TEXT, "
+                    + "target_uuid TEXT, "
+                    + "target_name TEXT, "
+                    + "details TEXT);");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_audit_log_time ON audit_log (time);");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_audit_log_faction ON audit_log (faction_id, time);");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_audit_log_actor ON audit_log (actor_uuid, time);");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_audit_log_target ON audit_log (target_uuid, time);");
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.isyateq.hfactions.migrations;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Версии строки factions для синхронизации нескольких серверов:
+ * version растет при изменении названия, префикса, рангов и т.п. (оптимистичная блокировка),
+ * balance_seq - при каждом изменении баланса (баланс меняется приращениями и не конфликтует).
+ */
+final class V8_FactionVersion extends SchemaMigration {
+
+    V8_FactionVersion() {
+        super(8, "factions.version and factions.balance_seq (cross-server sync)");
+    }
+
+    @Override
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE factions ADD COLUMN version INTEGER NOT NULL DEFAULT 0;");
+            stmt.execute("ALTER TABLE factions ADD COLUMN balance_seq INTEGER NOT NULL DEFAULT 0;");
+        }
+    }
+}
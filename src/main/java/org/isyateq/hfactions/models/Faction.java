@@ -15,39 +15,99 @@ public final class Faction {
     private FactionType type;
     private String color;
     private String prefix;
-    private volatile double balance;
+    // Казна в копейках, изменяется атомарно (CAS)
+    private final FactionTreasury treasury;
     private int warehouseSize;
     private ItemStack[] warehouseContents;
+    // Слоты склада, измененные с последнего сохранения (сохраняются только они). Под замком warehouseLock
+    private final BitSet dirtyWarehouseSlots = new BitSet();
+    private final Object warehouseLock = new Object();
 
     // Два конструктора (новый и для загрузки) из финальной версии
 
     public Faction(String id, String name, FactionType type, String color, String prefix, double initialBalance, int warehouseSize, Map<Integer, FactionRank> initialRanks) {
-        this.id = Objects.requireNonNull(id).toLowerCase(); this.name = Objects.requireNonNull(name); this.type = Objects.requireNonNull(type); this.color = Objects.requireNonNull(color); this.prefix = Objects.requireNonNull(prefix); this.balance = Math.max(0.0, initialBalance);
+        this.id = Objects.requireNonNull(id).toLowerCase(); this.name = Objects.requireNonNull(name); this.type = Objects.requireNonNull(type); this.color = Objects.requireNonNull(color); this.prefix = Objects.requireNonNull(prefix); this.treasury = new FactionTreasury(FactionTreasury.toCents(initialBalance));
         if (warehouseSize < 9) throw new IllegalArgumentException("WH size < 9"); this.warehouseSize = warehouseSize; this.warehouseContents = new ItemStack[this.warehouseSize]; Objects.requireNonNull(initialRanks); this.ranks.putAll(initialRanks);
         if (!this.ranks.containsKey(1)) { this.ranks.put(1, new FactionRank(1, "Default Rank 1", "Default Rank 1", 0.0, new ArrayList<>())); logWarning("Faction " + id + " created missing rank 1."); }
     }
     public Faction(String id, String name, FactionType type, String color, String prefix, double balance, int warehouseSize, Map<Integer, FactionRank> loadedRanks, ItemStack[] loadedWarehouse) {
-        this.id = Objects.requireNonNull(id); this.name = Objects.requireNonNull(name); this.type = Objects.requireNonNull(type); this.color = Objects.requireNonNull(color); this.prefix = Objects.requireNonNull(prefix); this.balance = Math.max(0.0, balance);
+        this.id = Objects.requireNonNull(id); this.name = Objects.requireNonNull(name); this.type = Objects.requireNonNull(type); this.color = Objects.requireNonNull(color); this.prefix = Objects.requireNonNull(prefix); this.treasury = new FactionTreasury(FactionTreasury.toCents(balance));
         if (warehouseSize < 9) throw new IllegalArgumentException("Loaded WH size < 9"); this.warehouseSize = warehouseSize; Objects.requireNonNull(loadedRanks); this.ranks.putAll(loadedRanks);
         if (!this.ranks.containsKey(1)) { this.ranks.put(1, new FactionRank(1, "Loaded Rank 1", "Loaded Rank 1", 0.0, new ArrayList<>())); logWarning("Faction " + id + " loaded missing rank 1."); }
         if (loadedWarehouse != null && loadedWarehouse.length == this.warehouseSize) { this.warehouseContents = loadedWarehouse; } else { this.warehouseContents = new ItemStack[this.warehouseSize]; if (loadedWarehouse != null) logWarning("WH size mismatch loaded " + id); }
     }
 
     // Геттеры
-    public String getId() { return id; } public String getName() { return name; } public FactionType getType() { return type; } public String getColor() { return color; } public String getPrefix() { return prefix; } public double getBalance() { return balance; } public int getWarehouseSize() { return warehouseSize; } public ItemStack[] getWarehouseContents() { return this.warehouseContents != null ? this.warehouseContents.clone() : new ItemStack[this.warehouseSize]; } public FactionRank getRank(int rankId) { return ranks.get(rankId); } public Map<Integer, FactionRank> getRanks() { return Collections.unmodifiableMap(ranks); } public FactionRank getLeaderRank() { FactionRank lr = ranks.get(11); return (lr!=null)?lr:ranks.values().stream().max(Comparator.comparingInt(FactionRank::getInternalId)).orElse(null); }
+    public String getId() { return id; } public String getName() { return name; } public FactionType getType() { return type; } public String getColor() { return color; } public String getPrefix() { return prefix; } public double getBalance() { return treasury.getAmount(); } public long getBalanceCents() { return treasury.getCents(); } public FactionTreasury getTreasury() { return treasury; } public int getWarehouseSize() { return warehouseSize; } public ItemStack[] getWarehouseContents() { synchronized (warehouseLock) { return this.warehouseContents != null ? this.warehouseContents.clone() : new ItemStack[this.warehouseSize]; } } public FactionRank getRank(int rankId) { return ranks.get(rankId); } public Map<Integer, FactionRank> getRanks() { return Collections.unmodifiableMap(ranks); } public FactionRank getLeaderRank() { FactionRank lr = ranks.get(11); return (lr!=null)?lr:ranks.values().stream().max(Comparator.comparingInt(FactionRank::getInternalId)).orElse(null); }
 
     // Сеттеры и методы управления (ПУБЛИЧНЫЕ)
     public void setName(String name) { if(isNewValue(name,this.name)&&name!=null&&!name.isEmpty()){ this.name = name; markModified(); } }
     public void setType(FactionType type) { if (isNewValue(type, this.type)) { this.type = type; markModified(); } }
     public void setColor(String color) { if(color!=null&&color.matches("^#[a-fA-F0-9]{6}")&&isNewValue(color,this.color)){this.color=color;markModified();}else if(color!=null&&!color.matches("^#[a-fA-F0-9]{6}$")){logWarning("Invalid HEX color '"+color+"' for "+id);}}
     public void setPrefix(String prefix) { if (isNewValue(prefix, this.prefix)) { this.prefix = prefix; markModified(); } }
-    public void setBalance(double balance) { double newBalance = Math.max(0.0, balance); if (newBalance != this.balance) { this.balance = newBalance; markModified(); } }
-    public void deposit(double amount) { if (amount > 0) this.balance += amount; } // markModified в FactionManager
-    public boolean withdraw(double amount) { if (amount > 0 && this.balance >= amount) { this.balance -= amount; return true; } return false; } // markModified в FactionManager
+    public void setBalance(double balance) { if (treasury.set(FactionTreasury.toCents(balance))) markModified(); }
+    public boolean deposit(double amount) { return treasury.deposit(FactionTreasury.toCents(amount)) >= 0; } // markModified в FactionManager
+    public boolean withdraw(double amount) { return treasury.tryWithdraw(FactionTreasury.toCents(amount)) >= 0; } // markModified в FactionManager
     public void updateRank(FactionRank rank) { if (rank != null && ranks.containsKey(rank.getInternalId())) { ranks.put(rank.getInternalId(), rank); markModified(); } }
     public void addRank(FactionRank rank) { if(rank != null) { ranks.put(rank.getInternalId(), rank); markModified(); } }
     public FactionRank removeRank(int rankId) { if (rankId == 1 || ranks.size() <= 1) { logWarning("Cannot remove rank " + rankId); return null; } FactionRank removed = ranks.remove(rankId); if (removed != null) markModified(); return removed; }
-    public void setWarehouseContents(ItemStack[] newContents) { ItemStack[] cs;int s=this.warehouseSize;if(newContents!=null&&newContents.length==s){cs=newContents.clone();}else{cs=new ItemStack[s];if(newContents!=null)logWarning("WH size mismatch "+id);} if(!Arrays.equals(this.warehouseContents,cs)){this.warehouseContents=cs;markModified();logFine("WH updated "+id);}}
+    public void setWarehouseContents(ItemStack[] newContents) { int s=this.warehouseSize; if(newContents!=null&&newContents.length!=s)logWarning("WH size mismatch "+id); boolean changed=false; synchronized(warehouseLock){for(int i=0;i<s;i++){ItemStack n=(newContents!=null&&i<newContents.length)?newContents[i]:null;if(setSlotLocked(i,n))changed=true;}} if(changed){markModified();logFine("WH updated "+id);} }
+
+    /**
+     * Применяет название, тип, цвет, префикс и ранги, записанные в БД другим сервером сети.
+     * Фракция не помечается измененной: это уже сохраненное состояние. Основной поток.
+     */
+    public void applyStored(Faction stored) { this.name = stored.name; this.type = stored.type; this.color = stored.color; this.prefix = stored.prefix; this.ranks.putAll(stored.ranks); this.ranks.keySet().retainAll(stored.ranks.keySet()); }
+
+    // --- Склад по слотам ---
+
+    /** @return копия предмета в слоте склада или null. */
+    public ItemStack getWarehouseItem(int slot) { synchronized (warehouseLock) { ItemStack item = (slot >= 0 && slot < warehouseSize) ? warehouseContents[slot] : null; return item != null ? item.clone() : null; } }
+
+    /**
+     * Меняет один слот склада. Если предмет действительно изменился - слот помечается для сохранения.
+     * @return true, если содержимое слота изменилось.
+     */
+    public boolean setWarehouseSlot(int slot, ItemStack item) {
+        if (slot < 0 || slot >= warehouseSize) return false;
+        boolean changed;
+        synchronized (warehouseLock) { changed = setSlotLocked(slot, item); }
+        if (changed) markModified();
+        return changed;
+    }
+
+    /**
+     * Забирает изменения склада с последнего вызова: слот -> копия предмета (null - слот опустел).
+     * Флаги изменений сбрасываются; если записать не удалось, верните их через markWarehouseSlotsDirty.
+     */
+    public Map<Integer, ItemStack> drainWarehouseChanges() {
+        synchronized (warehouseLock) {
+            Map<Integer, ItemStack> changes = new HashMap<>();
+            for (int slot = dirtyWarehouseSlots.nextSetBit(0); slot >= 0; slot = dirtyWarehouseSlots.nextSetBit(slot + 1)) {
+                ItemStack item = slot < warehouseSize ? warehouseContents[slot] : null;
+                changes.put(slot, item != null ? item.clone() : null);
+            }
+            dirtyWarehouseSlots.clear();
+            return changes;
+        }
+    }
+
+    /** @return true, если есть слоты склада, ожидающие сохранения. */
+    public boolean hasWarehouseChanges() { synchronized (warehouseLock) { return !dirtyWarehouseSlots.isEmpty(); } }
+
+    /** Повторно помечает слоты измененными (после неудачной записи). */
+    public void markWarehouseSlotsDirty(Collection<Integer> slots) { synchronized (warehouseLock) { for (int slot : slots) dirtyWarehouseSlots.set(slot); } }
+
+    /** Помечает весь склад измененным (например, при переносе в новое хранилище). */
+    public void markAllWarehouseSlotsDirty() { synchronized (warehouseLock) { dirtyWarehouseSlots.set(0, warehouseSize); } }
+
+    private boolean setSlotLocked(int slot, ItemStack item) {
+        ItemStack current = warehouseContents[slot];
+        if (Objects.equals(current, item)) return false;
+        warehouseContents[slot] = item != null ? item.clone() : null;
+        dirtyWarehouseSlots.set(slot);
+        return true;
+    }
 
     // Приватные вспомогательные
     private <T> boolean isNewValue(T n,T o){return n!=null&&!n.equals(o);}
@@ -5,6 +5,9 @@ import java.util.stream.Collectors;
 
 /**
  * Представляет ранг внутри фракции.
+ * <p>
+ * Права ранга компилируются в BitSet по индексам {@link PermissionRegistry}: {@link #has(PermissionKey)}
+ * проверяет один бит и не создает объектов, сколько бы узлов ни было у ранга.
  */
 public final class FactionRank {
 
@@ -13,6 +16,8 @@ public final class FactionRank {
     private String displayName;
     private double salary;
     private List<String> permissions;
+    // Скомпилированный набор прав; заменяется целиком, сам BitSet после публикации не меняется
+    private volatile CompiledPermissions compiled;
 
     public FactionRank(int internalId, String defaultName, String displayName, double salary, List<String> permissions) {
         if (internalId < 1) throw new IllegalArgumentException("Rank ID must be >= 1");
@@ -30,9 +35,52 @@ public final class FactionRank {
 
     public void setDisplayName(String displayName) { String t = (displayName != null) ? displayName.trim() : null; this.displayName = (t == null || t.isEmpty()) ? this.defaultName : t; }
     public void setSalary(double salary) { this.salary = Math.max(0.0, salary); }
-    public void setPermissions(List<String> permissions) { if(permissions==null)this.permissions=new ArrayList<>();else this.permissions=permissions.stream().filter(p->p!=null&&!p.trim().isEmpty()).map(String::trim).distinct().collect(Collectors.toList());}
+    public void setPermissions(List<String> permissions) { if(permissions==null)this.permissions=new ArrayList<>();else this.permissions=permissions.stream().filter(p->p!=null&&!p.trim().isEmpty()).map(String::trim).distinct().collect(Collectors.toList()); this.compiled=compile(this.permissions);}
     public void resetDisplayName() { setDisplayName(null); }
-    public boolean hasPermission(String permission) { return !(permission==null||permission.trim().isEmpty()) && this.permissions.contains(permission.trim()); }
+
+    /** Проверка права за O(1) без аллокаций (шаблоны вроде hfactions.faction.* уже раскрыты). */
+    public boolean has(PermissionKey key) {
+        if (key == null) return false;
+        CompiledPermissions c = this.compiled;
+        // Новые узлы в реестре влияют только на шаблоны - ранги без шаблонов не перекомпилируются
+        if (c.hasWildcards && c.generation != PermissionRegistry.generation()) {
+            c = compile(this.permissions);
+            this.compiled = c;
+        }
+        return c.bits.get(key.getIndex());
+    }
+
+    public boolean hasPermission(String permission) {
+        if (permission == null || permission.trim().isEmpty()) return false;
+        String node = permission.trim();
+        if (PermissionRegistry.isWildcard(node)) return this.permissions.contains(node); // Шаблон как строка, а не узел
+        PermissionKey key = PermissionRegistry.find(node);
+        if (key != null) return has(key);
+        // Неизвестный узел не регистрируется: иначе любая строка навсегда попала бы в реестр и заставила
+        // перекомпилировать все ранги с шаблонами. Точные узлы ранга уже в реестре - дать его может только шаблон
+        for (String granted : this.permissions) {
+            if (PermissionRegistry.isWildcard(granted) && node.startsWith(granted.substring(0, granted.length() - 1))) return true;
+        }
+        return false;
+    }
+
+    private static CompiledPermissions compile(List<String> permissions) {
+        int generation = PermissionRegistry.generation(); // До компиляции: узел, добавленный во время нее, вызовет повторную
+        boolean wildcards = permissions.stream().anyMatch(PermissionRegistry::isWildcard);
+        return new CompiledPermissions(PermissionRegistry.compile(permissions), generation, wildcards);
+    }
+
+    private static final class CompiledPermissions {
+        final BitSet bits;
+        final int generation;
+        final boolean hasWildcards;
+
+        CompiledPermissions(BitSet bits, int generation, boolean hasWildcards) {
+            this.bits = bits;
+            this.generation = generation;
+            this.hasWildcards = hasWildcards;
+        }
+    }
 
     @Override public String toString() { return "FactionRank{id="+internalId+", name='"+displayName+"', salary="+salary+", perms="+permissions.size()+'}'; }
     @Override public boolean equals(Object o){if(this==o)return true;if(o==null||getClass()!=o.getClass())return false;FactionRank t=(FactionRank)o;return internalId==t.internalId&&Double.compare(t.salary,salary)==0&&defaultName.equals(t.defaultName)&&displayName.equals(t.displayName)&&new HashSet<>(permissions).equals(new HashSet<>(t.permissions));}
@@ -0,0 +1,125 @@
+package org.isyateq.hfactions.models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Казна фракции в копейках (сотых долях валюты) без блокировок.
+ * Все изменения - CAS над AtomicLong, поэтому PayDay, штрафы из потоков диалогов
+ * и команды не теряют деньги при одновременных операциях, а целые копейки не накапливают ошибку округления.
+ * <p>
+ * Счетчик изменений растет при каждом успешном изменении баланса (по нему видно, что баланс менялся
+ * с момента снимка, даже если итоговая сумма совпала).
+ */
+public final class FactionTreasury {
+
+    private final AtomicLong balanceCents;
+    private final AtomicLong changeCount = new AtomicLong();
+
+    public FactionTreasury(long initialCents) {
+        this.balanceCents = new AtomicLong(Math.max(0L, initialCents));
+    }
+
+    public long getCents() { return balanceCents.get(); }
+    public double getAmount() { return toAmount(balanceCents.get()); }
+    public long getChangeCount() { return changeCount.get(); }
+
+    /**
+     * Зачисляет сумму.
+     * @return новый баланс в копейках или -1, если сумма не положительна или баланс переполнился бы.
+     */
+    public long deposit(long cents) {
+        if (cents <= 0) return -1L;
+        while (true) {
+            long current = balanceCents.get();
+            long updated = current + cents;
+            if (updated < current) return -1L; // Переполнение
+            if (balanceCents.compareAndSet(current, updated)) {
+                changeCount.incrementAndGet();
+                return updated;
+            }
+        }
+    }
+
+    /**
+     * Списывает сумму, только если на балансе ее хватает (атомарно: проверка и списание не разделимы).
+     * @return новый баланс в копейках или -1, если средств недостаточно или сумма не положительна.
+     */
+    public long tryWithdraw(long cents) {
+        return tryWithdraw(cents, 0L);
+    }
+
+    /**
+     * Условное списание: после списания на балансе должно остаться не меньше minRemainingCents.
+     * @return новый баланс в копейках или -1, если условие не выполнено или сумма не положительна.
+     */
+    public long tryWithdraw(long cents, long minRemainingCents) {
+        if (cents <= 0) return -1L;
+        long floor = Math.max(0L, minRemainingCents);
+        while (true) {
+            long current = balanceCents.get();
+            if (current - floor < cents) return -1L;
+            long updated = current - cents;
+            if (balanceCents.compareAndSet(current, updated)) {
+                changeCount.incrementAndGet();
+                return updated;
+            }
+        }
+    }
+
+    /**
+     * Устанавливает баланс (отрицательные значения приводятся к нулю).
+     * @return true, если баланс изменился.
+     */
+    public boolean set(long cents) {
+        long updated = Math.max(0L, cents);
+        long previous = balanceCents.getAndSet(updated);
+        if (previous == updated) return false;
+        changeCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Прибавляет приращение (в том числе отрицательное) без проверок минимума: изменения баланса,
+     * сделанные на другом сервере сети, уже записаны в БД и применяются как есть.
+     * @return новый баланс в копейках.
+     */
+    public long adjust(long deltaCents) {
+        if (deltaCents == 0) return balanceCents.get();
+        long updated = balanceCents.addAndGet(deltaCents);
+        changeCount.incrementAndGet();
+        return updated;
+    }
+
+    /**
+     * Меняет баланс, только если он все еще равен expectedCents.
+     * @return true, если значение заменено.
+     */
+    public boolean compareAndSet(long expectedCents, long newCents) {
+        if (newCents < 0) return false;
+        if (!balanceCents.compareAndSet(expectedCents, newCents)) return false;
+        if (expectedCents != newCents) changeCount.incrementAndGet();
+        return true;
+    }
+
+    // --- Перевод между валютой (double, как в Vault и конфиге) и копейками ---
+
+    /** Переводит сумму в копейки с математическим округлением. NaN/бесконечность -> 0. */
+    public static long toCents(double amount) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) return 0L;
+        // Через десятичное представление: 0.1 + 0.2 должны дать ровно 30 копеек
+        return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValue();
+    }
+
+    public static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    /** Сумма в виде "1234.50" (без символа валюты). */
+    public static String format(long cents) {
+        return BigDecimal.valueOf(cents, 2).toPlainString();
+    }
+
+    @Override public String toString() { return "FactionTreasury{" + format(balanceCents.get()) + ", changes=" + changeCount.get() + '}'; }
+}
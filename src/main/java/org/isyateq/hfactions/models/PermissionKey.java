@@ -0,0 +1,23 @@
+package org.isyateq.hfactions.models;
+
+/**
+ * Интернированный узел права фракции (например, hfactions.faction.invite).
+ * Экземпляры создаются только через {@link PermissionRegistry}: для одного узла всегда один объект,
+ * а его индекс - номер бита в скомпилированном наборе прав ранга.
+ */
+public final class PermissionKey {
+
+    private final String node;
+    private final int index;
+
+    PermissionKey(String node, int index) {
+        this.node = node;
+        this.index = index;
+    }
+
+    public String getNode() { return node; }
+    public int getIndex() { return index; }
+
+    // equals/hashCode по ссылке: ключи интернированы реестром
+    @Override public String toString() { return node; }
+}
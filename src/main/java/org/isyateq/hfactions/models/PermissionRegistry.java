@@ -0,0 +1,120 @@
+package org.isyateq.hfactions.models;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Реестр известных узлов прав фракций.
+ * Каждому узлу выдается постоянный индекс, поэтому набор прав ранга компилируется в BitSet,
+ * а проверка права - одно обращение к биту без строковых операций.
+ * <p>
+ * Реестр только растет. При регистрации нового узла увеличивается поколение, и ранги
+ * при следующей проверке заново раскрывают свои шаблоны (hfactions.faction.*) с учетом нового узла.
+ */
+public final class PermissionRegistry {
+
+    private static final Map<String, PermissionKey> KEYS = new ConcurrentHashMap<>();
+    // Индекс -> ключ; пишется только под блокировкой реестра
+    private static final List<PermissionKey> BY_INDEX = new ArrayList<>();
+    private static volatile int generation = 0;
+
+    // --- Встроенные права фракций ---
+    public static final PermissionKey INVITE = key("hfactions.faction.invite");
+    public static final PermissionKey KICK = key("hfactions.faction.kick");
+    public static final PermissionKey PROMOTE = key("hfactions.faction.promote");
+    public static final PermissionKey DEMOTE = key("hfactions.faction.demote");
+    public static final PermissionKey SET_RANK = key("hfactions.faction.setrank");
+    public static final PermissionKey MANAGE_RANKS = key("hfactions.faction.manage_ranks");
+    public static final PermissionKey BALANCE_VIEW = key("hfactions.faction.balance.view");
+    public static final PermissionKey DEPOSIT = key("hfactions.faction.deposit");
+    public static final PermissionKey WITHDRAW = key("hfactions.faction.withdraw");
+    public static final PermissionKey MANAGE_BALANCE = key("hfactions.faction.manage_balance");
+    public static final PermissionKey WAREHOUSE_OPEN = key("hfactions.faction.warehouse.open");
+    public static final PermissionKey WAREHOUSE_DEPOSIT = key("hfactions.faction.warehouse.deposit");
+    public static final PermissionKey WAREHOUSE_WITHDRAW = key("hfactions.faction.warehouse.withdraw");
+    public static final PermissionKey TERRITORY_MANAGE_OWN = key("hfactions.territory.manage.own");
+    public static final PermissionKey PD_FINE = key("hfactions.pd.fine");
+
+    private PermissionRegistry() {}
+
+    /**
+     * Возвращает ключ узла, регистрируя его при первом обращении.
+     * Только для встроенных узлов и узлов из настроек рангов; произвольные строки проверяются через {@link #find}.
+     * @throws IllegalArgumentException для пустого узла или шаблона.
+     */
+    public static PermissionKey key(String node) {
+        String normalized = normalize(node);
+        if (normalized == null || isWildcard(normalized)) throw new IllegalArgumentException("Invalid permission node: " + node);
+        PermissionKey existing = KEYS.get(normalized);
+        if (existing != null) return existing;
+        synchronized (BY_INDEX) {
+            existing = KEYS.get(normalized);
+            if (existing != null) return existing;
+            PermissionKey created = new PermissionKey(normalized, BY_INDEX.size());
+            BY_INDEX.add(created);
+            KEYS.put(normalized, created);
+            generation++;
+            return created;
+        }
+    }
+
+    /** @return ключ узла или null, если узел не зарегистрирован (без регистрации). */
+    public static PermissionKey find(String node) {
+        String normalized = normalize(node);
+        return normalized != null ? KEYS.get(normalized) : null;
+    }
+
+    /** Текущее поколение реестра (меняется при каждой регистрации узла). */
+    public static int generation() { return generation; }
+
+    public static int size() { return KEYS.size(); }
+
+    /** Снимок всех известных ключей в порядке индексов. */
+    public static List<PermissionKey> all() {
+        synchronized (BY_INDEX) {
+            return Collections.unmodifiableList(new ArrayList<>(BY_INDEX));
+        }
+    }
+
+    /**
+     * Компилирует список прав в набор битов. Точные узлы регистрируются,
+     * шаблоны ("*" или "префикс.*") раскрываются по всем известным сейчас узлам.
+     */
+    public static BitSet compile(List<String> nodes) {
+        BitSet bits = new BitSet();
+        List<String> wildcardPrefixes = null;
+        for (String node : nodes) {
+            if (isWildcard(node)) {
+                if (wildcardPrefixes == null) wildcardPrefixes = new ArrayList<>();
+                wildcardPrefixes.add(node.substring(0, node.length() - 1)); // "*" -> "", "a.b.*" -> "a.b."
+            } else {
+                bits.set(key(node).getIndex());
+            }
+        }
+        if (wildcardPrefixes != null) {
+            for (PermissionKey known : all()) {
+                for (String prefix : wildcardPrefixes) {
+                    if (known.getNode().startsWith(prefix)) {
+                        bits.set(known.getIndex());
+                        break;
+                    }
+                }
+            }
+        }
+        return bits;
+    }
+
+    static boolean isWildcard(String node) {
+        return node.equals("*") || node.endsWith(".*");
+    }
+
+    private static String normalize(String node) {
+        if (node == null) return null;
+        String trimmed = node.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
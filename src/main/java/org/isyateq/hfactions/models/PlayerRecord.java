@@ -0,0 +1,45 @@
+package org.isyateq.hfactions.models;
+
+import java.util.UUID;
+
+/**
+ * Неизменяемая запись о фракции игрока, в том числе оффлайн (строка player_data).
+ */
+public final class PlayerRecord {
+
+    private final UUID uuid;
+    private final String factionId;
+    private final Integer rankId;
+    // Время последнего выхода (System.currentTimeMillis()) или 0, если неизвестно
+    private final long lastSeenMillis;
+    // Версия строки player_data или UNKNOWN_VERSION (запись собрана из памяти, а не прочитана из БД)
+    private final long version;
+
+    public static final long UNKNOWN_VERSION = -1L;
+
+    public PlayerRecord(UUID uuid, String factionId, Integer rankId, long lastSeenMillis) {
+        this(uuid, factionId, rankId, lastSeenMillis, UNKNOWN_VERSION);
+    }
+
+    public PlayerRecord(UUID uuid, String factionId, Integer rankId, long lastSeenMillis, long version) {
+        this.uuid = uuid;
+        this.factionId = factionId;
+        this.rankId = rankId;
+        this.lastSeenMillis = Math.max(0L, lastSeenMillis);
+        this.version = version;
+    }
+
+    /** Запись для игрока, о котором в БД ничего нет. */
+    public static PlayerRecord empty(UUID uuid) {
+        return new PlayerRecord(uuid, null, null, 0L, 0L);
+    }
+
+    public UUID getUuid() { return uuid; }
+    public String getFactionId() { return factionId; }
+    public Integer getRankId() { return rankId; }
+    public long getLastSeenMillis() { return lastSeenMillis; }
+    public long getVersion() { return version; }
+    public boolean isInFaction() { return factionId != null; }
+
+    @Override public String toString() { return "PlayerRecord{" + uuid + ", faction=" + factionId + ", rank=" + rankId + ", lastSeen=" + lastSeenMillis + ", v" + version + '}'; }
+}
@@ -0,0 +1,116 @@
+package org.isyateq.hfactions.models;
+
+import org.bukkit.scheduler.BukkitTask;
+import org.isyateq.hfactions.util.LocaleBundle;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Все состояние игрока онлайн в одном объекте: фракция и ранг, режим чата, приглашение,
+ * админский режим, язык сообщений, наручники и кулдауны.
+ * <p>
+ * Сессия открывается при входе и закрывается при выходе (PlayerManager), поэтому после выхода
+ * от игрока не остается записей ни в одном менеджере. Обработчик события получает сессию
+ * одним обращением и дальше читает поля напрямую.
+ * <p>
+ * Поля меняются в основном потоке. Они volatile, поэтому асинхронный чат и задачи ввода-вывода
+ * видят актуальные значения без блокировок (но пара полей фракция/ранг читается не атомарно).
+ */
+public final class PlayerSession {
+
+    private final UUID uuid;
+    private final long openedAtMillis = System.currentTimeMillis();
+
+    // --- Фракция ---
+    private volatile String factionId;
+    private volatile Integer rankId;
+    private volatile boolean factionChat;
+    private volatile PendingInvite pendingInvite;
+    private volatile String adminModeFactionId;
+
+    // --- Язык: набор сообщений по языку клиента (null - язык сервера по умолчанию) ---
+    private volatile LocaleBundle locale;
+
+    // --- Наручники ---
+    private volatile UUID cuffedBy;
+    private volatile BukkitTask leashTask;
+    // Игроки, на которых этот игрок надел наручники (для освобождения при его выходе)
+    private final Set<UUID> cuffing = ConcurrentHashMap.newKeySet();
+
+    // --- Кулдауны: действие -> время окончания (System.currentTimeMillis()) ---
+    private final Map<String, Long> cooldowns = new ConcurrentHashMap<>(4);
+
+    public PlayerSession(UUID uuid) {
+        this.uuid = uuid;
+    }
+
+    public UUID getUuid() { return uuid; }
+    public long getOpenedAtMillis() { return openedAtMillis; }
+
+    public String getFactionId() { return factionId; }
+    public Integer getRankId() { return rankId; }
+    public boolean isInFaction() { return factionId != null; }
+    public boolean isFactionChat() { return factionChat; }
+    public PendingInvite getPendingInvite() { return pendingInvite; }
+    public String getAdminModeFactionId() { return adminModeFactionId; }
+    public boolean isAdminMode() { return adminModeFactionId != null; }
+
+    public void setFactionId(String factionId) { this.factionId = factionId; }
+    public void setRankId(Integer rankId) { this.rankId = rankId; }
+    public void setFactionChat(boolean factionChat) { this.factionChat = factionChat; }
+    public void setPendingInvite(PendingInvite pendingInvite) { this.pendingInvite = pendingInvite; }
+    public void setAdminModeFactionId(String adminModeFactionId) { this.adminModeFactionId = adminModeFactionId; }
+
+    public LocaleBundle getLocale() { return locale; }
+    public void setLocale(LocaleBundle locale) { this.locale = locale; }
+
+    /** Сбрасывает все фракционное состояние (выход, кик, удаление фракции). Наручники и кулдауны не трогает. */
+    public void clearFactionState() {
+        this.factionId = null;
+        this.rankId = null;
+        this.factionChat = false;
+        this.pendingInvite = null;
+    }
+
+    // --- Наручники ---
+
+    public UUID getCuffedBy() { return cuffedBy; }
+    public boolean isCuffed() { return cuffedBy != null; }
+    public void setCuffedBy(UUID cuffedBy) { this.cuffedBy = cuffedBy; }
+
+    public BukkitTask getLeashTask() { return leashTask; }
+    public void setLeashTask(BukkitTask leashTask) { this.leashTask = leashTask; }
+
+    /** @return неизменяемый живой вид UUID игроков, на которых этот игрок надел наручники. */
+    public Set<UUID> getCuffing() { return Collections.unmodifiableSet(cuffing); }
+    public void addCuffing(UUID cuffed) { cuffing.add(cuffed); }
+    public void removeCuffing(UUID cuffed) { cuffing.remove(cuffed); }
+
+    // --- Кулдауны ---
+
+    public void setCooldown(String action, long durationMillis) {
+        if (action == null || durationMillis <= 0) return;
+        cooldowns.put(action, System.currentTimeMillis() + durationMillis);
+    }
+
+    /** @return оставшееся время кулдауна в миллисекундах или 0, если кулдауна нет (истекший удаляется). */
+    public long getCooldownRemaining(String action) {
+        Long expireTime = cooldowns.get(action);
+        if (expireTime == null) return 0L;
+        long remaining = expireTime - System.currentTimeMillis();
+        if (remaining <= 0) {
+            cooldowns.remove(action, expireTime);
+            return 0L;
+        }
+        return remaining;
+    }
+
+    public boolean isOnCooldown(String action) { return getCooldownRemaining(action) > 0; }
+    public void removeCooldown(String action) { cooldowns.remove(action); }
+
+    @Override public String toString() { return "PlayerSession{" + uuid + ", faction=" + factionId + ", rank=" + rankId + ", cuffed=" + (cuffedBy != null) + '}'; }
+}
@@ -11,6 +11,9 @@ import org.isyateq.hfactions.managers.FactionManager;
 import org.isyateq.hfactions.managers.PlayerManager;
 import org.isyateq.hfactions.models.Faction;
 import org.isyateq.hfactions.models.FactionRank;
+import org.isyateq.hfactions.models.FactionTreasury;
+import org.isyateq.hfactions.util.MessageTemplate;
+import org.isyateq.hfactions.util.Placeholders;
 import org.isyateq.hfactions.util.Utils; // Для color
 
 import java.util.UUID;
@@ -25,7 +28,7 @@ public class PaydayTask extends BukkitRunnable {
     private final ConfigManager configManager;
 
     private final boolean requireOnline;
-    private final String paydayMessage;
+    private final MessageTemplate paydayMessage; // Разобран один раз: в цикле выплат только подстановка суммы
     private final String paydayErrorNoAccount;
     private final String paydayErrorNoFactionFunds;
 
@@ -45,13 +48,13 @@ public class PaydayTask extends BukkitRunnable {
             plugin.getLogger().severe("ConfigManager or config is null in PaydayTask! Using default settings.");
             // Задаем дефолты, чтобы избежать NPE
             this.requireOnline = true;
-            this.paydayMessage = Utils.color("&a[PayDay] You received ${amount} salary.");
+            this.paydayMessage = MessageTemplate.compile("&a[PayDay] You received ${amount} salary.");
             this.paydayErrorNoAccount = Utils.color("&c[PayDay] Error: Could not access your bank account.");
             this.paydayErrorNoFactionFunds = Utils.color("&c[PayDay] Error: Your faction doesn't have enough funds to pay your salary.");
         } else {
             FileConfiguration config = configManager.getConfig();
             this.requireOnline = config.getBoolean("payday.require_online", true);
-            this.paydayMessage = Utils.color(config.getString("payday.message", "&a[PayDay] You received {amount} salary."));
+            this.paydayMessage = MessageTemplate.compile(config.getString("payday.message", "&a[PayDay] You received {amount} salary."));
             this.paydayErrorNoAccount = Utils.color(config.getString("payday.error_no_account", "&c[PayDay] Error: Could not access your bank account."));
             this.paydayErrorNoFactionFunds = Utils.color(config.getString("payday.error_no_faction_funds", "&c[PayDay] Error: Your faction doesn't have enough funds to pay salary."));
         }
@@ -73,6 +76,7 @@ public class PaydayTask extends BukkitRunnable {
         int skippedNoSalary = 0;
         int skippedNoFunds = 0;
         int skippedNoAccount = 0;
+        long paidCentsTotal = 0L;
 
         // Кого обрабатываем: всех онлайн или всех, кто есть в базе?
         // ТЗ не уточняет, но require_online намекает на обработку только онлайн игроков.
@@ -107,37 +111,40 @@ public class PaydayTask extends BukkitRunnable {
                 continue; // Ранг удален?
             }
 
-            double salary = rank.getSalary();
-            if (salary <= 0) {
+            // Деньги считаем в копейках: фракция теряет ровно столько, сколько получает игрок
+            long salaryCents = FactionTreasury.toCents(rank.getSalary());
+            double salary = FactionTreasury.toAmount(salaryCents);
+            if (salaryCents <= 0) {
                 skippedNoSalary++;
                 continue; // Зарплата не установлена или равна нулю
             }
 
-            // Проверяем баланс фракции
-            if (!factionManager.withdrawFromFaction(factionId, salary)) { // Метод withdraw уже помечает для сохранения
+            // Проверка баланса и списание - одна атомарная операция (казна может меняться из других потоков)
+            if (!factionManager.withdrawFromFactionCents(factionId, salaryCents)) { // Метод withdraw уже помечает для сохранения
                 skippedNoFunds++;
                 player.sendMessage(paydayErrorNoFactionFunds);
-                plugin.getLogger().warning("Faction " + factionId + " has insufficient funds (" + faction.getBalance() + ") to pay salary (" + salary + ") to " + player.getName());
+                plugin.getLogger().warning("Faction " + factionId + " has insufficient funds (" + FactionTreasury.format(faction.getBalanceCents()) + ") to pay salary (" + FactionTreasury.format(salaryCents) + ") to " + player.getName());
                 continue; // Недостаточно средств
             }
 
             // Начисляем зарплату игроку через Vault
             if (vaultIntegration.deposit(uuid, salary)) {
                 paidCount++;
+                paidCentsTotal += salaryCents;
                 String formattedAmount = vaultIntegration.format(salary); // Форматируем сумму
-                player.sendMessage(paydayMessage.replace("{amount}", formattedAmount));
+                player.sendMessage(paydayMessage.render(Placeholders.of("{amount}", formattedAmount)));
             } else {
                 skippedNoAccount++;
                 player.sendMessage(paydayErrorNoAccount);
                 plugin.getLogger().severe("Failed to deposit payday salary (" + salary + ") to player " + player.getName() + " (UUID: " + uuid + "). Refunding faction...");
                 // Возвращаем деньги фракции, если не удалось начислить игроку
-                factionManager.depositToFaction(factionId, salary); // Метод deposit помечает для сохранения
+                factionManager.depositToFactionCents(factionId, salaryCents); // Метод deposit помечает для сохранения
             }
         }
 
         // Если нужно было платить оффлайн, здесь была бы логика загрузки данных из БД.
 
-        plugin.getLogger().info("PayDay processing complete. Paid: " + paidCount +
+        plugin.getLogger().info("PayDay processing complete. Paid: " + paidCount + " (" + FactionTreasury.format(paidCentsTotal) + " total)" +
                 ", No Faction: " + skippedNoFaction +
                 ", No Rank/Salary: " + (skippedNoRank + skippedNoSalary) +
                 ", No Faction Funds: " + skippedNoFunds +
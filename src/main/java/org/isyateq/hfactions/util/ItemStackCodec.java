@@ -0,0 +1,236 @@
+package org.isyateq.hfactions.util;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Компактный бинарный формат массивов ItemStack (замена BukkitObjectOutputStream + Base64).
+ * <p>
+ * Формат v1: [MAGIC][VERSION][FLAGS] + тело (при FLAG_DEFLATE - сжатое deflate).
+ * Тело: varint размер массива, затем чередование "varint число пустых слотов подряд" и
+ * "varint длина + байты ItemStack.serializeAsBytes()". Хвост из пустых слотов записывается одним числом.
+ * <p>
+ * Старый формат (строка Base64 от {@link Utils#itemStackArrayToBase64}) читается через {@link #decodeAny(Object)}.
+ */
+public final class ItemStackCodec {
+
+    public static final byte MAGIC = 0x48; // 'H'
+    public static final byte VERSION = 1;
+    private static final int FLAG_DEFLATE = 1;
+
+    // Тело меньше этого размера не сжимаем - выигрыша почти нет
+    private static final int COMPRESSION_THRESHOLD = 128;
+    // Защита от битых данных
+    private static final int MAX_SLOTS = 10000;
+    private static final int MAX_ITEM_BYTES = 8 * 1024 * 1024;
+
+    private ItemStackCodec() {}
+
+    /** Получатель слотов при потоковом декодировании. Пустые слоты не передаются. */
+    @FunctionalInterface
+    public interface SlotConsumer {
+        void accept(int slot, ItemStack item);
+    }
+
+    // --- Кодирование ---
+
+    /**
+     * Кодирует массив предметов.
+     * @param compress сжимать ли тело deflate (применяется, только если это уменьшает размер).
+     * @return байты в формате v1 (для null - пустой массив нулевой длины в формате v1).
+     */
+    public static byte[] encode(ItemStack[] items, boolean compress) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        try {
+            int size = items != null ? items.length : 0;
+            writeVarInt(body, size);
+            int emptyRun = 0;
+            for (int i = 0; i < size; i++) {
+                ItemStack item = items[i];
+                if (isEmpty(item)) {
+                    emptyRun++;
+                    continue;
+                }
+                writeVarInt(body, emptyRun);
+                emptyRun = 0;
+                byte[] itemBytes = item.serializeAsBytes();
+                writeVarInt(body, itemBytes.length);
+                body.write(itemBytes);
+            }
+            if (emptyRun > 0) writeVarInt(body, emptyRun);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteArrayOutputStream не бросает IOException
+        }
+
+        byte[] raw = body.toByteArray();
+        int flags = 0;
+        byte[] payload = raw;
+        if (compress && raw.length >= COMPRESSION_THRESHOLD) {
+            byte[] deflated = deflate(raw);
+            if (deflated.length < raw.length) {
+                payload = deflated;
+                flags |= FLAG_DEFLATE;
+            }
+        }
+        byte[] result = new byte[3 + payload.length];
+        result[0] = MAGIC;
+        result[1] = VERSION;
+        result[2] = (byte) flags;
+        System.arraycopy(payload, 0, result, 3, payload.length);
+        return result;
+    }
+
+    /** Кодирует один предмет (массив из одного слота). */
+    public static byte[] encodeItem(ItemStack item, boolean compress) {
+        return encode(new ItemStack[]{item}, compress);
+    }
+
+    // --- Декодирование ---
+
+    /** @return true, если данные в бинарном формате этого кодека. */
+    public static boolean isBinaryFormat(byte[] data) {
+        return data != null && data.length >= 3 && data[0] == MAGIC;
+    }
+
+    /**
+     * Потоковое декодирование: предметы передаются в consumer по мере чтения, без промежуточного массива.
+     * @return размер закодированного массива.
+     */
+    public static int decode(byte[] data, SlotConsumer consumer) throws IOException {
+        return decode(data, null, consumer);
+    }
+
+    /**
+     * Потоковое декодирование с уведомлением о размере массива до первого предмета.
+     * @param onSize может быть null.
+     */
+    public static int decode(byte[] data, IntConsumer onSize, SlotConsumer consumer) throws IOException {
+        return read(data, onSize, (slot, itemBytes) -> consumer.accept(slot, ItemStack.deserializeBytes(itemBytes)));
+    }
+
+    /**
+     * Первая половина декодирования без обращения к API сервера (можно вызывать в любом потоке):
+     * распаковка и разбор формата до байтов отдельных предметов.
+     * @return байты ItemStack.serializeAsBytes() по слотам, пустые слоты - null.
+     */
+    public static byte[][] unpack(byte[] data) throws IOException {
+        byte[][][] result = new byte[1][][];
+        read(data, size -> result[0] = new byte[size][], (slot, itemBytes) -> result[0][slot] = itemBytes);
+        return result[0];
+    }
+
+    /**
+     * Вторая половина декодирования: предметы из байтов {@link #unpack}.
+     * Создание ItemStack не потокобезопасно - только в основном потоке сервера.
+     */
+    public static ItemStack[] materialize(byte[][] slots) {
+        ItemStack[] items = new ItemStack[slots.length];
+        for (int slot = 0; slot < slots.length; slot++) {
+            if (slots[slot] != null) items[slot] = ItemStack.deserializeBytes(slots[slot]);
+        }
+        return items;
+    }
+
+    // Разбор формата v1: байты каждого непустого слота передаются в consumer
+    private static int read(byte[] data, IntConsumer onSize, RawSlotConsumer consumer) throws IOException {
+        if (!isBinaryFormat(data)) throw new IOException("Not an HFactions item codec payload");
+        if (data[1] != VERSION) throw new IOException("Unsupported item codec version " + data[1]);
+        InputStream in = new ByteArrayInputStream(data, 3, data.length - 3);
+        if ((data[2] & FLAG_DEFLATE) != 0) in = new InflaterInputStream(in);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(in))) {
+            int size = readVarInt(input);
+            if (size < 0 || size > MAX_SLOTS) throw new IOException("Invalid item array size " + size);
+            if (onSize != null) onSize.accept(size);
+            int slot = 0;
+            while (slot < size) {
+                slot += readVarInt(input);
+                if (slot >= size) break;
+                int length = readVarInt(input);
+                if (length <= 0 || length > MAX_ITEM_BYTES) throw new IOException("Invalid item length " + length + " at slot " + slot);
+                byte[] itemBytes = new byte[length];
+                input.readFully(itemBytes);
+                consumer.accept(slot, itemBytes);
+                slot++;
+            }
+            return size;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RawSlotConsumer {
+        void accept(int slot, byte[] itemBytes);
+    }
+
+    /** Декодирует в массив. */
+    public static ItemStack[] decode(byte[] data) throws IOException {
+        ItemStack[][] result = new ItemStack[1][];
+        decode(data, size -> result[0] = new ItemStack[size], (slot, item) -> result[0][slot] = item);
+        return result[0];
+    }
+
+    /**
+     * Декодирует данные в любом поддерживаемом формате (миграция со старого):
+     * byte[] в формате v1 или строка Base64 от BukkitObjectOutputStream.
+     * @return массив предметов или null, если данные пусты/не распознаны.
+     */
+    public static ItemStack[] decodeAny(Object stored) throws IOException {
+        if (stored == null) return null;
+        if (stored instanceof byte[] bytes) {
+            if (isBinaryFormat(bytes)) return decode(bytes);
+            // Старые строки, прочитанные как байты
+            return Utils.itemStackArrayFromBase64(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return Utils.itemStackArrayFromBase64(stored.toString());
+    }
+
+    /** @return true, если данные записаны в старом формате и их стоит перезаписать. */
+    public static boolean isLegacyFormat(Object stored) {
+        return stored != null && !(stored instanceof byte[] bytes && isBinaryFormat(bytes));
+    }
+
+    // --- Вспомогательные ---
+
+    private static boolean isEmpty(ItemStack item) {
+        return item == null || item.getType().isAir() || item.getAmount() <= 0;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater)) {
+            deflaterOut.write(raw);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 28) throw new IOException("VarInt too long");
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
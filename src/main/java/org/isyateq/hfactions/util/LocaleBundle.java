@@ -0,0 +1,30 @@
+package org.isyateq.hfactions.util;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Разобранный языковой файл lang_&lt;язык&gt;.yml. Цепочка запасных языков уже сведена в одну карту
+ * при загрузке, поэтому поиск сообщения - одно обращение к карте.
+ * Неизменяемо: при перезагрузке создаются новые наборы.
+ */
+public final class LocaleBundle {
+
+    private final String language;
+    private final Map<String, MessageTemplate> messages;
+
+    public LocaleBundle(String language, Map<String, MessageTemplate> messages) {
+        this.language = language;
+        this.messages = Collections.unmodifiableMap(messages);
+    }
+
+    /** @return код языка (имя файла без lang_ и .yml), например "ru". */
+    public String getLanguage() { return language; }
+
+    /** @return сообщение или null, если его нет ни в этом языке, ни в запасных. */
+    public MessageTemplate get(String key) { return messages.get(key); }
+
+    public int size() { return messages.size(); }
+
+    @Override public String toString() { return "LocaleBundle{" + language + ", " + messages.size() + " messages}"; }
+}
@@ -0,0 +1,80 @@
+package org.isyateq.hfactions.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Сообщение, разобранное один раз при загрузке: чередование готового текста (цвета уже применены)
+ * и мест подстановки {name}. Рендер - один проход по сегментам без поиска и замены в строке.
+ * Неизменяемо и безопасно для любых потоков.
+ */
+public final class MessageTemplate {
+
+    private final String[] literals; // На один больше, чем names: текст до, между и после подстановок
+    private final String[] names;
+    private final String unresolved; // Текст с подстановками как есть - для рендера без контекста
+    private final int literalLength;
+
+    private MessageTemplate(String[] literals, String[] names, String unresolved) {
+        this.literals = literals;
+        this.names = names;
+        this.unresolved = unresolved;
+        int length = 0;
+        for (String literal : literals) length += literal.length();
+        this.literalLength = length;
+    }
+
+    /** Разбирает сообщение с &-кодами и подстановками {name}. */
+    public static MessageTemplate compile(String raw) {
+        String colored = Utils.color(raw != null ? raw : "");
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < colored.length()) {
+            char c = colored.charAt(i);
+            int close = c == '{' ? colored.indexOf('}', i + 1) : -1;
+            if (close > i + 1 && isPlaceholderName(colored, i + 1, close)) {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                names.add(colored.substring(i + 1, close));
+                i = close + 1;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(literals.toArray(new String[0]), names.toArray(new String[0]), colored);
+    }
+
+    /** @return сообщение без подстановок (готовая строка, без выделения памяти). */
+    public String render() {
+        return unresolved;
+    }
+
+    /** Подставляет значения из context; неизвестные подстановки остаются как {name}. */
+    public String render(Placeholders context) {
+        if (names.length == 0 || context == null || context.isEmpty()) return unresolved;
+        StringBuilder out = new StringBuilder(literalLength + names.length * 16);
+        for (int i = 0; i < names.length; i++) {
+            out.append(literals[i]);
+            String value = context.resolve(names[i]);
+            if (value != null) out.append(value);
+            else out.append('{').append(names[i]).append('}');
+        }
+        return out.append(literals[names.length]).toString();
+    }
+
+    public boolean hasPlaceholders() { return names.length > 0; }
+
+    @Override public String toString() { return unresolved; }
+
+    private static boolean isPlaceholderName(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') return false;
+        }
+        return true;
+    }
+}
@@ -1,34 +1,27 @@
 package org.isyateq.hfactions.util;
 
 import org.isyateq.hfactions.HFactions;
+import org.isyateq.hfactions.managers.ConfigManager;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.file.FileConfiguration;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MessageUtil {
 
     private final HFactions plugin;
-    private final FileConfiguration config;
-    private final String prefix;
-    private final Pattern placeholderPattern = Pattern.compile("\\{([^{}]+)\\}"); // Pattern для {placeholder}
 
     public MessageUtil(HFactions plugin) {
         this.plugin = plugin;
-        this.config = plugin.getConfig();
-        this.prefix = ChatColor.translateAlternateColorCodes('&', config.getString("messages.prefix", "&e[HFactions] &r"));
     }
 
     public String get(String key) {
-        return get(key, true, new HashMap<>());
+        return get(key, true, (Placeholders) null);
     }
 
     public String get(String key, boolean usePrefix) {
-        return get(key, usePrefix, new HashMap<>());
+        return get(key, usePrefix, (Placeholders) null);
     }
 
     public String get(String key, Map<String, String> placeholders) {
@@ -36,20 +29,23 @@ public class MessageUtil {
     }
 
     public String get(String key, boolean usePrefix, Map<String, String> placeholders) {
-        String message = config.getString("messages." + key);
-        if (message == null) {
+        return get(key, usePrefix, placeholders != null && !placeholders.isEmpty() ? Placeholders.from(placeholders) : null);
+    }
+
+    /** Сообщение из разобранного каталога ConfigManager'а: без поиска по конфигу и замен в строке. */
+    public String get(String key, boolean usePrefix, Placeholders placeholders) {
+        ConfigManager configManager = plugin.getConfigManager(); // MessageUtil создается раньше ConfigManager
+        MessageTemplate template = configManager != null ? configManager.getMessageTemplate(key) : null;
+        if (template == null) {
             plugin.getLogger().warning("Missing message in config.yml: messages." + key);
             return ChatColor.RED + "Ошибка: Сообщение не найдено (" + key + ")";
         }
-
-        message = replacePlaceholders(message, placeholders);
-        message = ChatColor.translateAlternateColorCodes('&', message);
-
-        return usePrefix ? prefix + message : message;
+        String message = template.render(placeholders);
+        return usePrefix ? configManager.getMessagePrefix() + message : message;
     }
 
     public void send(CommandSender sender, String key) {
-        send(sender, key, true, new HashMap<>());
+        send(sender, key, true, (Map<String, String>) null);
     }
 
     public void send(CommandSender sender, String key, Map<String, String> placeholders) {
@@ -57,29 +53,19 @@ public class MessageUtil {
     }
 
     public void send(CommandSender sender, String key, boolean usePrefix) {
-        send(sender, key, usePrefix, new HashMap<>());
+        send(sender, key, usePrefix, (Map<String, String>) null);
     }
 
-    public void send(CommandSender sender, String key, boolean usePrefix, Map<String, String> placeholders) {
+    public void send(CommandSender sender, String key, Placeholders placeholders) {
         if (sender != null) {
-            sender.sendMessage(get(key, usePrefix, placeholders));
+            sender.sendMessage(get(key, true, placeholders));
         }
     }
 
-    private String replacePlaceholders(String message, Map<String, String> placeholders) {
-        if (placeholders == null || placeholders.isEmpty()) {
-            return message;
-        }
-        Matcher matcher = placeholderPattern.matcher(message);
-        StringBuffer buffer = new StringBuffer();
-        while (matcher.find()) {
-            String placeholderKey = matcher.group(1);
-            String replacement = placeholders.getOrDefault(placeholderKey, matcher.group(0)); // Use original if no replacement
-            // Важно: Экранируем символы '$' и '\' в замене, чтобы избежать проблем с Matcher.appendReplacement
-            matcher.appendReplacement(buffer, Matcher.quoteReplacement(replacement));
+    public void send(CommandSender sender, String key, boolean usePrefix, Map<String, String> placeholders) {
+        if (sender != null) {
+            sender.sendMessage(get(key, usePrefix, placeholders));
         }
-        matcher.appendTail(buffer);
-        return buffer.toString();
     }
 
     // Удобные методы для создания карт плейсхолдеров
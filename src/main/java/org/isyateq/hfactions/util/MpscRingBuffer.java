@@ -0,0 +1,85 @@
+package org.isyateq.hfactions.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Ограниченный кольцевой буфер без блокировок: много производителей, один потребитель.
+ * <p>
+ * У каждой ячейки есть номер последовательности: производитель занимает ячейку одним CAS хвоста
+ * и публикует элемент записью номера, потребитель забирает только опубликованные элементы.
+ * Переполненный буфер не ждет - offer возвращает false, и вызывающий решает, что делать.
+ * drain в любой момент должен выполнять только один поток.
+ */
+public final class MpscRingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    // Номер ячейки: == позиции - свободна для записи, == позиции + 1 - элемент опубликован
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0L; // Пишет только потребитель
+
+    /** @param capacity вместимость, округляется вверх до степени двойки */
+    public MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    /** @return false, если буфер полон (элемент не добавлен). */
+    public boolean offer(E element) {
+        if (element == null) throw new NullPointerException("element");
+        long position;
+        while (true) {
+            position = tail.get();
+            long available = sequences.get((int) (position & mask)) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (available < 0) {
+                return false; // Ячейку еще не освободил потребитель - буфер полон
+            }
+            // Иначе ячейку занял другой производитель - повторяем с новым хвостом
+        }
+        int index = (int) (position & mask);
+        slots.lazySet(index, element);
+        sequences.set(index, position + 1); // Публикация после записи элемента
+        return true;
+    }
+
+    /**
+     * Передает consumer опубликованные элементы в порядке добавления.
+     * @return сколько элементов забрано (не больше limit)
+     */
+    public int drain(Consumer<? super E> consumer, int limit) {
+        int drained = 0;
+        long position = head;
+        while (drained < limit) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) break; // Дальше еще не опубликовано
+            E element = slots.get(index);
+            slots.lazySet(index, null);
+            sequences.set(index, position + capacity); // Ячейка свободна для следующего круга
+            position++;
+            drained++;
+            consumer.accept(element);
+        }
+        head = position;
+        return drained;
+    }
+
+    /** @return примерное число элементов (производители могут добавлять одновременно). */
+    public int size() {
+        return (int) Math.max(0L, Math.min(capacity, tail.get() - head));
+    }
+
+    public boolean isEmpty() { return size() == 0; }
+
+    public int capacity() { return capacity; }
+}
@@ -0,0 +1,89 @@
+package org.isyateq.hfactions.util;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Значения подстановок для {@link MessageTemplate}. Ключи принимаются как "name" и как "{name}".
+ * Значения хранятся как есть (строки, числа) и превращаются в текст только при подстановке,
+ * поэтому неиспользуемое сообщением значение ничего не стоит. Подстановок в сообщении мало -
+ * поиск линейный, без карты.
+ * <p>
+ * Цвета шаблона переводятся при его разборе, значения подставляются как есть (ник или причина штрафа
+ * не могут внедрить &-коды). Значения, которые сами задаются с &-кодами (название и префикс фракции,
+ * название ранга), передаются через {@link #withColored}.
+ */
+public final class Placeholders {
+
+    private String[] keys;
+    private Object[] values;
+    private boolean[] colored;
+    private int size = 0;
+
+    private Placeholders(int capacity) {
+        this.keys = new String[capacity];
+        this.values = new Object[capacity];
+        this.colored = new boolean[capacity];
+    }
+
+    public static Placeholders of(String key, Object value) {
+        return new Placeholders(2).with(key, value);
+    }
+
+    /** @param pairs ключ, значение, ключ, значение... */
+    public static Placeholders of(Object... pairs) {
+        return new Placeholders(Math.max(1, pairs.length / 2)).withAll(pairs);
+    }
+
+    public static Placeholders from(Map<String, String> map) {
+        Placeholders context = new Placeholders(Math.max(1, map != null ? map.size() : 0));
+        if (map != null) map.forEach(context::with);
+        return context;
+    }
+
+    public Placeholders with(String key, Object value) {
+        return put(key, value, false);
+    }
+
+    /** Значение с &-кодами: цвета переводятся при подстановке (Utils.color), как в тексте самого шаблона. */
+    public Placeholders withColored(String key, Object value) {
+        return put(key, value, true);
+    }
+
+    private Placeholders put(String key, Object value, boolean color) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            colored = Arrays.copyOf(colored, size * 2);
+        }
+        keys[size] = normalize(key);
+        values[size] = value;
+        colored[size] = color;
+        size++;
+        return this;
+    }
+
+    /** @param pairs ключ, значение, ключ, значение... */
+    public Placeholders withAll(Object... pairs) {
+        if (pairs.length % 2 != 0) throw new IllegalArgumentException("Must provide key-value pairs for placeholders.");
+        for (int i = 0; i < pairs.length; i += 2) with(String.valueOf(pairs[i]), pairs[i + 1]);
+        return this;
+    }
+
+    public boolean isEmpty() { return size == 0; }
+
+    /** @return текст значения или null, если подстановки нет. */
+    String resolve(String name) {
+        for (int i = size - 1; i >= 0; i--) { // Последнее значение ключа важнее
+            if (!keys[i].equals(name)) continue;
+            if (values[i] == null) return "";
+            String text = String.valueOf(values[i]);
+            return colored[i] ? Utils.color(text) : text;
+        }
+        return null;
+    }
+
+    private static String normalize(String key) {
+        return key.length() > 1 && key.charAt(0) == '{' && key.charAt(key.length() - 1) == '}' ? key.substring(1, key.length() - 1) : key;
+    }
+}
@@ -0,0 +1,146 @@
+package org.isyateq.hfactions.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Префиксное дерево для автодополнения: поиск без учета регистра, результат - строки в исходном регистре.
+ * <p>
+ * Обход отдает совпадения сразу в алфавитном порядке, поэтому ни сортировка, ни промежуточные
+ * коллекции не нужны. Дети узла хранятся в отсортированном массиве символов (поиск двоичный).
+ * Все методы синхронизированы: изменения идут из основного потока, чтение возможно и из асинхронного.
+ */
+public final class PrefixTrie {
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Node root = new Node();
+    private int size = 0;
+
+    /** Добавляет строку (или заменяет строку с тем же ключом без учета регистра). @return true, если ключ новый. */
+    public synchronized boolean add(String value) {
+        if (value == null || value.isEmpty()) return false;
+        Node node = root;
+        for (int i = 0; i < value.length(); i++) {
+            node = node.getOrAddChild(Character.toLowerCase(value.charAt(i)));
+        }
+        boolean added = node.value == null;
+        node.value = value;
+        if (added) size++;
+        return added;
+    }
+
+    /** Удаляет строку (без учета регистра) и пустые ветви. @return true, если строка была. */
+    public synchronized boolean remove(String value) {
+        if (value == null || value.isEmpty()) return false;
+        Node[] path = new Node[value.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < value.length(); i++) {
+            Node next = path[i].child(Character.toLowerCase(value.charAt(i)));
+            if (next == null) return false;
+            path[i + 1] = next;
+        }
+        Node terminal = path[value.length()];
+        if (terminal.value == null) return false;
+        terminal.value = null;
+        size--;
+        // Обрезаем ветку снизу, пока узлы пусты
+        for (int i = value.length(); i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].removeChild(Character.toLowerCase(value.charAt(i - 1)));
+        }
+        return true;
+    }
+
+    public synchronized boolean contains(String value) {
+        Node node = find(value);
+        return node != null && node.value != null;
+    }
+
+    /**
+     * Добавляет в out строки, начинающиеся с prefix (без учета регистра), в алфавитном порядке.
+     * @param limit максимум добавляемых строк
+     * @return сколько строк добавлено
+     */
+    public synchronized int collect(String prefix, Collection<String> out, int limit) {
+        if (limit <= 0) return 0;
+        Node node = find(prefix != null ? prefix : "");
+        return node != null ? collect(node, out, limit) : 0;
+    }
+
+    public synchronized int size() { return size; }
+
+    public synchronized void clear() {
+        root.clear();
+        size = 0;
+    }
+
+    private Node find(String prefix) {
+        if (prefix == null) return null;
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(Character.toLowerCase(prefix.charAt(i)));
+        }
+        return node;
+    }
+
+    private static int collect(Node node, Collection<String> out, int limit) {
+        int added = 0;
+        if (node.value != null) {
+            out.add(node.value);
+            added++;
+        }
+        for (int i = 0; i < node.childCount && added < limit; i++) {
+            added += collect(node.children[i], out, limit - added);
+        }
+        return added;
+    }
+
+    private static final class Node {
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private int childCount = 0;
+        private String value;
+
+        private Node child(char key) {
+            int index = Arrays.binarySearch(keys, 0, childCount, key);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node getOrAddChild(char key) {
+            int index = Arrays.binarySearch(keys, 0, childCount, key);
+            if (index >= 0) return children[index];
+            int insertAt = -index - 1;
+            if (childCount == keys.length) {
+                int capacity = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, insertAt, keys, insertAt + 1, childCount - insertAt);
+            System.arraycopy(children, insertAt, children, insertAt + 1, childCount - insertAt);
+            Node created = new Node();
+            keys[insertAt] = key;
+            children[insertAt] = created;
+            childCount++;
+            return created;
+        }
+
+        private void removeChild(char key) {
+            int index = Arrays.binarySearch(keys, 0, childCount, key);
+            if (index < 0) return;
+            System.arraycopy(keys, index + 1, keys, index, childCount - index - 1);
+            System.arraycopy(children, index + 1, children, index, childCount - index - 1);
+            childCount--;
+            children[childCount] = null;
+        }
+
+        private boolean isEmpty() { return value == null && childCount == 0; }
+
+        private void clear() {
+            keys = NO_KEYS;
+            children = NO_CHILDREN;
+            childCount = 0;
+            value = null;
+        }
+    }
+}
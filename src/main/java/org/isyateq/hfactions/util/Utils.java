@@ -18,7 +18,9 @@ public class Utils {
      * Сериализует массив ItemStack в строку Base64.
      * @param items Массив ItemStack для сериализации.
      * @return Строка Base64 или null в случае ошибки или пустого массива.
+     * @deprecated Старый формат, оставлен только для совместимости. Новые данные пишутся через {@link ItemStackCodec}.
      */
+    @Deprecated
     public static String itemStackArrayToBase64(ItemStack[] items) {
         if (items == null) { // Считаем null массив как пустой для сохранения
             return null;
@@ -0,0 +1,117 @@
+package org.isyateq.hfactions.managers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoopbackMessageBusTest {
+
+    // Доставка сразу в потоке отправителя
+    private static LoopbackMessageBus bus(String channel, List<byte[]> received) {
+        LoopbackMessageBus bus = new LoopbackMessageBus(channel, Runnable::run);
+        bus.start(received::add);
+        return bus;
+    }
+
+    @Test
+    void peersReceiveMessagesInOrderButSenderDoesNot() {
+        List<byte[]> first = new ArrayList<>();
+        List<byte[]> second = new ArrayList<>();
+        List<byte[]> third = new ArrayList<>();
+        LoopbackMessageBus a = bus("order", first);
+        LoopbackMessageBus b = bus("order", second);
+        LoopbackMessageBus c = bus("order", third);
+        try {
+            for (int i = 0; i < 10; i++) assertTrue(a.publish(new byte[]{(byte) i}));
+
+            assertTrue(first.isEmpty());
+            assertEquals(10, second.size());
+            assertEquals(10, third.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, second.get(i)[0]);
+                assertEquals(i, third.get(i)[0]);
+            }
+        } finally {
+            a.close();
+            b.close();
+            c.close();
+        }
+    }
+
+    @Test
+    void channelsAreIsolated() {
+        List<byte[]> received = new ArrayList<>();
+        LoopbackMessageBus sender = bus("isolated-a", new ArrayList<>());
+        LoopbackMessageBus other = bus("isolated-b", received);
+        try {
+            assertTrue(sender.publish(new byte[]{1}));
+            assertTrue(received.isEmpty());
+        } finally {
+            sender.close();
+            other.close();
+        }
+    }
+
+    @Test
+    void closedBusReceivesNothing() {
+        List<byte[]> received = new ArrayList<>();
+        LoopbackMessageBus sender = bus("close", new ArrayList<>());
+        LoopbackMessageBus receiver = bus("close", received);
+        try {
+            sender.publish(new byte[]{1});
+            receiver.close();
+            sender.publish(new byte[]{2});
+            assertEquals(1, received.size());
+            assertEquals(1, received.get(0)[0]);
+        } finally {
+            sender.close();
+        }
+        // Без получателей отправка не считается ошибкой
+        assertTrue(sender.publish(new byte[]{3}));
+    }
+
+    @Test
+    void deliversCopiesOfPayload() {
+        List<byte[]> first = new ArrayList<>();
+        List<byte[]> second = new ArrayList<>();
+        LoopbackMessageBus sender = bus("copies", new ArrayList<>());
+        LoopbackMessageBus a = bus("copies", first);
+        LoopbackMessageBus b = bus("copies", second);
+        try {
+            byte[] payload = {1, 2, 3};
+            sender.publish(payload);
+            payload[0] = 9; // Отправитель переиспользует буфер
+
+            assertArrayEquals(new byte[]{1, 2, 3}, first.get(0));
+            assertNotSame(first.get(0), second.get(0));
+            first.get(0)[1] = 7;
+            assertArrayEquals(new byte[]{1, 2, 3}, second.get(0));
+        } finally {
+            sender.close();
+            a.close();
+            b.close();
+        }
+    }
+
+    @Test
+    void deliversThroughReceiverExecutor() {
+        List<Runnable> scheduled = new ArrayList<>();
+        List<byte[]> received = new ArrayList<>();
+        LoopbackMessageBus sender = bus("executor", new ArrayList<>());
+        LoopbackMessageBus receiver = new LoopbackMessageBus("executor", scheduled::add);
+        receiver.start(received::add);
+        try {
+            sender.publish(new byte[]{1});
+            assertTrue(received.isEmpty()); // Еще не выполнено "основным потоком" получателя
+            assertEquals(1, scheduled.size());
+            scheduled.get(0).run();
+            assertEquals(1, received.size());
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+    }
+}
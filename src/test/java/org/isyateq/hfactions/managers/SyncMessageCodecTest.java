@@ -0,0 +1,125 @@
+package org.isyateq.hfactions.managers;
+
+import org.isyateq.hfactions.managers.SyncMessageCodec.Change;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyncMessageCodecTest {
+
+    private static final UUID PLAYER = UUID.fromString("123e4567-e89b-12d3-a456-426614174000");
+
+    @Test
+    void roundTripsAllChangeTypes() throws IOException {
+        List<Change> changes = List.of(
+                Change.faction("police", 42L, 7L, 123_456L),
+                Change.factionDeleted("mafia"),
+                Change.player(PLAYER, "police", 3),
+                Change.player(UUID.randomUUID(), null, null));
+
+        SyncMessageCodec.Message message = SyncMessageCodec.decode(SyncMessageCodec.encode("lobby-1", changes));
+
+        assertEquals("lobby-1", message.getOrigin());
+        assertEquals(4, message.getChanges().size());
+
+        Change faction = message.getChanges().get(0);
+        assertEquals(SyncMessageCodec.TYPE_FACTION, faction.getType());
+        assertEquals("f:police", faction.getKey());
+        assertEquals("police", faction.getFactionId());
+        assertEquals(42L, faction.getVersion());
+        assertEquals(7L, faction.getBalanceSeq());
+        assertEquals(123_456L, faction.getBalanceCents());
+
+        Change deleted = message.getChanges().get(1);
+        assertEquals(SyncMessageCodec.TYPE_FACTION_DELETED, deleted.getType());
+        assertEquals("mafia", deleted.getFactionId());
+
+        Change player = message.getChanges().get(2);
+        assertEquals(SyncMessageCodec.TYPE_PLAYER, player.getType());
+        assertEquals("p:" + PLAYER, player.getKey());
+        assertEquals(PLAYER, player.getUuid());
+        assertEquals("police", player.getPlayerFactionId());
+        assertEquals(3, player.getRankId());
+
+        // Игрок без фракции: null проходит через флаг наличия
+        Change factionless = message.getChanges().get(3);
+        assertEquals(changes.get(3).getUuid(), factionless.getUuid());
+        assertNull(factionless.getPlayerFactionId());
+        assertNull(factionless.getRankId());
+    }
+
+    @Test
+    void keepsChangeOrder() throws IOException {
+        List<Change> changes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) changes.add(Change.faction("f" + i, i, i, i * 100L));
+
+        List<Change> decoded = SyncMessageCodec.decode(SyncMessageCodec.encode("s", changes)).getChanges();
+
+        assertEquals(500, decoded.size());
+        for (int i = 0; i < decoded.size(); i++) {
+            assertEquals("f" + i, decoded.get(i).getFactionId());
+            assertEquals(i, decoded.get(i).getVersion());
+        }
+    }
+
+    @Test
+    void roundTripsEmptyMessage() throws IOException {
+        SyncMessageCodec.Message message = SyncMessageCodec.decode(SyncMessageCodec.encode("s", List.of()));
+        assertEquals("s", message.getOrigin());
+        assertTrue(message.getChanges().isEmpty());
+    }
+
+    @Test
+    void rejectsOtherProtocolVersion() throws IOException {
+        byte[] data = SyncMessageCodec.encode("s", List.of(Change.factionDeleted("x")));
+        data[0] = (byte) (SyncMessageCodec.PROTOCOL_VERSION + 1);
+
+        SyncMessageCodec.UnsupportedProtocolException e =
+                assertThrows(SyncMessageCodec.UnsupportedProtocolException.class, () -> SyncMessageCodec.decode(data));
+        assertEquals(SyncMessageCodec.PROTOCOL_VERSION + 1, e.getProtocol());
+    }
+
+    @Test
+    void rejectsTruncatedAndCorruptedData() throws IOException {
+        byte[] data = SyncMessageCodec.encode("s", List.of(Change.faction("police", 1L, 1L, 1L), Change.player(PLAYER, "police", 1)));
+
+        // Любой обрезанный вариант - ошибка, а не частичный результат
+        for (int length = 0; length < data.length; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThrows(IOException.class, () -> SyncMessageCodec.decode(truncated));
+        }
+
+        byte[] trailing = Arrays.copyOf(data, data.length + 1);
+        assertThrows(IOException.class, () -> SyncMessageCodec.decode(trailing));
+
+        byte[] unknownType = SyncMessageCodec.encode("s", List.of(Change.factionDeleted("x")));
+        unknownType[1 + 2 + 1 + 2] = 99; // протокол, UTF "s", число изменений - затем тип
+        assertThrows(IOException.class, () -> SyncMessageCodec.decode(unknownType));
+    }
+
+    @Test
+    void mergeKeepsNewestVersionAndNewestBalance() {
+        Change older = Change.faction("police", 10L, 5L, 500L);
+        Change newer = Change.faction("police", 9L, 4L, 400L); // Записи завершились не по порядку
+
+        Change merged = Change.merge(older, newer);
+        assertEquals(10L, merged.getVersion());
+        assertEquals(5L, merged.getBalanceSeq());
+        assertEquals(500L, merged.getBalanceCents());
+
+        merged = Change.merge(Change.faction("police", 1L, 1L, 100L), Change.faction("police", 2L, 3L, 300L));
+        assertEquals(2L, merged.getVersion());
+        assertEquals(3L, merged.getBalanceSeq());
+        assertEquals(300L, merged.getBalanceCents());
+
+        // Удаление после записи побеждает
+        Change deleted = Change.factionDeleted("police");
+        assertSame(deleted, Change.merge(older, deleted));
+    }
+}
@@ -0,0 +1,120 @@
+package org.isyateq.hfactions.models;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FactionTreasuryTest {
+
+    @Test
+    void convertsAmountsToCentsWithoutDrift() {
+        assertEquals(30L, FactionTreasury.toCents(0.1 + 0.2));
+        assertEquals(123_450L, FactionTreasury.toCents(1234.5));
+        assertEquals(1L, FactionTreasury.toCents(0.005)); // Математическое округление
+        assertEquals(-250L, FactionTreasury.toCents(-2.5));
+        assertEquals(0L, FactionTreasury.toCents(Double.NaN));
+        assertEquals(0L, FactionTreasury.toCents(Double.POSITIVE_INFINITY));
+
+        assertEquals("1234.50", FactionTreasury.format(123_450L));
+        assertEquals("0.05", FactionTreasury.format(5L));
+        assertEquals(12.34, FactionTreasury.toAmount(1234L), 0.0);
+        for (long cents : new long[]{0L, 1L, 99L, 100L, 123_456_789L}) {
+            assertEquals(cents, FactionTreasury.toCents(FactionTreasury.toAmount(cents)));
+        }
+    }
+
+    @Test
+    void depositAndWithdraw() {
+        FactionTreasury treasury = new FactionTreasury(1_000L);
+        assertEquals(1_500L, treasury.deposit(500L));
+        assertEquals(-1L, treasury.deposit(0L));
+        assertEquals(-1L, treasury.deposit(-5L));
+
+        assertEquals(500L, treasury.tryWithdraw(1_000L));
+        assertEquals(-1L, treasury.tryWithdraw(501L));
+        assertEquals(-1L, treasury.tryWithdraw(0L));
+        assertEquals(0L, treasury.tryWithdraw(500L));
+        assertEquals(0L, treasury.getCents());
+        assertEquals(3L, treasury.getChangeCount()); // Только успешные изменения
+    }
+
+    @Test
+    void withdrawKeepsMinimumRemaining() {
+        FactionTreasury treasury = new FactionTreasury(1_000L);
+        assertEquals(-1L, treasury.tryWithdraw(600L, 500L));
+        assertEquals(500L, treasury.tryWithdraw(500L, 500L));
+        assertEquals(500L, treasury.getCents());
+    }
+
+    @Test
+    void rejectsOverflowAndClampsNegativeBalances() {
+        FactionTreasury treasury = new FactionTreasury(Long.MAX_VALUE - 10L);
+        assertEquals(-1L, treasury.deposit(11L));
+        assertEquals(Long.MAX_VALUE, treasury.deposit(10L));
+
+        assertEquals(0L, new FactionTreasury(-100L).getCents());
+
+        FactionTreasury other = new FactionTreasury(100L);
+        assertTrue(other.set(-50L));
+        assertEquals(0L, other.getCents());
+        assertFalse(other.set(0L));
+        assertEquals(1L, other.getChangeCount());
+    }
+
+    @Test
+    void adjustAppliesRemoteDeltasAsIs() {
+        FactionTreasury treasury = new FactionTreasury(100L);
+        assertEquals(100L, treasury.adjust(0L));
+        assertEquals(0L, treasury.getChangeCount());
+        assertEquals(-50L, treasury.adjust(-150L)); // Без проверки минимума
+        assertEquals(25L, treasury.adjust(75L));
+        assertEquals(2L, treasury.getChangeCount());
+    }
+
+    @Test
+    void compareAndSetReplacesOnlyExpectedValue() {
+        FactionTreasury treasury = new FactionTreasury(100L);
+        assertFalse(treasury.compareAndSet(99L, 200L));
+        assertFalse(treasury.compareAndSet(100L, -1L));
+        assertTrue(treasury.compareAndSet(100L, 200L));
+        assertEquals(200L, treasury.getCents());
+        assertTrue(treasury.compareAndSet(200L, 200L));
+        assertEquals(1L, treasury.getChangeCount());
+    }
+
+    @Test
+    void concurrentDepositsAndWithdrawalsLoseNothing() throws InterruptedException {
+        int threads = 8;
+        int operations = 10_000;
+        FactionTreasury treasury = new FactionTreasury(0L);
+        AtomicLong withdrawn = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            boolean depositor = t % 2 == 0;
+            Thread worker = new Thread(() -> {
+                try { start.await(); } catch (InterruptedException e) { return; }
+                for (int i = 0; i < operations; i++) {
+                    if (depositor) {
+                        treasury.deposit(3L);
+                    } else if (treasury.tryWithdraw(2L) >= 0) {
+                        withdrawn.addAndGet(2L);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+
+        long deposited = (threads / 2) * (long) operations * 3L;
+        assertEquals(deposited - withdrawn.get(), treasury.getCents());
+        assertTrue(treasury.getCents() >= 0);
+    }
+}
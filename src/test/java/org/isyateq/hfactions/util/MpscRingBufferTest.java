@@ -0,0 +1,120 @@
+package org.isyateq.hfactions.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(8, new MpscRingBuffer<Integer>(5).capacity());
+        assertEquals(8, new MpscRingBuffer<Integer>(8).capacity());
+        assertEquals(1024, new MpscRingBuffer<Integer>(1000).capacity());
+    }
+
+    @Test
+    void drainReturnsElementsInOfferOrder() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(16);
+        for (int i = 0; i < 10; i++) assertTrue(buffer.offer(i));
+        assertEquals(10, buffer.size());
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(10, buffer.drain(drained::add, Integer.MAX_VALUE));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), drained);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void drainStopsAtLimit() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(8);
+        for (int i = 0; i < 6; i++) buffer.offer(i);
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, buffer.drain(drained::add, 4));
+        assertEquals(List.of(0, 1, 2, 3), drained);
+        assertEquals(2, buffer.size());
+        assertEquals(2, buffer.drain(drained::add, 4));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), drained);
+    }
+
+    @Test
+    void offerFailsWhenFullAndSucceedsAfterDrain() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) assertTrue(buffer.offer(i));
+        assertFalse(buffer.offer(99));
+        assertEquals(4, buffer.size());
+
+        assertEquals(1, buffer.drain(value -> {}, 1));
+        assertTrue(buffer.offer(4));
+        assertFalse(buffer.offer(5));
+
+        List<Integer> drained = new ArrayList<>();
+        buffer.drain(drained::add, Integer.MAX_VALUE);
+        assertEquals(List.of(1, 2, 3, 4), drained);
+    }
+
+    @Test
+    void keepsOrderAcrossManyWrapArounds() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(4);
+        List<Integer> drained = new ArrayList<>();
+        int next = 0;
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 3; i++) assertTrue(buffer.offer(next++));
+            buffer.drain(drained::add, Integer.MAX_VALUE);
+        }
+        assertEquals(300, drained.size());
+        for (int i = 0; i < drained.size(); i++) assertEquals(i, drained.get(i));
+    }
+
+    @Test
+    void rejectsNull() {
+        assertThrows(NullPointerException.class, () -> new MpscRingBuffer<Integer>(4).offer(null));
+    }
+
+    @Test
+    void concurrentProducersLoseNothingAndKeepPerProducerOrder() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20_000;
+        MpscRingBuffer<long[]> buffer = new MpscRingBuffer<>(256);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try { start.await(); } catch (InterruptedException e) { return; }
+                for (int i = 0; i < perProducer; i++) {
+                    long[] element = {producer, i};
+                    while (!buffer.offer(element)) Thread.onSpinWait(); // Полон - ждем потребителя
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        // Один потребитель: элементы каждого производителя должны прийти по порядку и без пропусков
+        int[] expectedNext = new int[producers];
+        AtomicBoolean outOfOrder = new AtomicBoolean(false);
+        start.countDown();
+        int received = 0;
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (received < producers * perProducer && System.nanoTime() < deadline) {
+            received += buffer.drain(element -> {
+                int producer = (int) element[0];
+                if (element[1] != expectedNext[producer]) outOfOrder.set(true);
+                expectedNext[producer]++;
+            }, 64);
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertFalse(outOfOrder.get());
+        assertEquals(producers * perProducer, received);
+        for (int next : expectedNext) assertEquals(perProducer, next);
+        assertTrue(buffer.isEmpty());
+    }
+}
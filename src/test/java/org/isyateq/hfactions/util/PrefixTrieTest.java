@@ -0,0 +1,81 @@
+package org.isyateq.hfactions.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefixTrieTest {
+
+    private static List<String> collect(PrefixTrie trie, String prefix, int limit) {
+        List<String> out = new ArrayList<>();
+        trie.collect(prefix, out, limit);
+        return out;
+    }
+
+    @Test
+    void collectsMatchesInAlphabeticalOrderIgnoringCase() {
+        PrefixTrie trie = new PrefixTrie();
+        for (String value : new String[]{"Steve", "alex", "Stan", "steel", "Bob", "st"}) trie.add(value);
+
+        assertEquals(List.of("st", "Stan", "steel", "Steve"), collect(trie, "ST", 100));
+        assertEquals(List.of("steel", "Steve"), collect(trie, "ste", 100));
+        assertEquals(List.of("alex", "Bob", "st", "Stan", "steel", "Steve"), collect(trie, "", 100));
+        assertEquals(List.of(), collect(trie, "x", 100));
+    }
+
+    @Test
+    void collectStopsAtLimit() {
+        PrefixTrie trie = new PrefixTrie();
+        for (String value : new String[]{"a1", "a2", "a3", "a4"}) trie.add(value);
+
+        List<String> out = new ArrayList<>();
+        assertEquals(2, trie.collect("a", out, 2));
+        assertEquals(List.of("a1", "a2"), out);
+        assertEquals(0, trie.collect("a", out, 0));
+    }
+
+    @Test
+    void addingSameKeyInOtherCaseReplacesValue() {
+        PrefixTrie trie = new PrefixTrie();
+        assertTrue(trie.add("Notch"));
+        assertFalse(trie.add("notch"));
+        assertEquals(1, trie.size());
+        assertEquals(List.of("notch"), collect(trie, "N", 10));
+        assertTrue(trie.contains("NOTCH"));
+    }
+
+    @Test
+    void removePrunesOnlyTheRemovedBranch() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.add("police");
+        trie.add("pol");
+        trie.add("polar");
+
+        assertTrue(trie.remove("POLICE"));
+        assertFalse(trie.remove("police"));
+        assertFalse(trie.contains("police"));
+        assertEquals(List.of("pol", "polar"), collect(trie, "po", 10));
+        assertEquals(2, trie.size());
+
+        assertTrue(trie.remove("pol"));
+        assertEquals(List.of("polar"), collect(trie, "p", 10));
+        assertFalse(trie.remove("po")); // Только префикс, не строка
+        assertEquals(1, trie.size());
+    }
+
+    @Test
+    void ignoresEmptyValuesAndClears() {
+        PrefixTrie trie = new PrefixTrie();
+        assertFalse(trie.add(""));
+        assertFalse(trie.add(null));
+        trie.add("one");
+        trie.add("two");
+        trie.clear();
+        assertEquals(0, trie.size());
+        assertEquals(List.of(), collect(trie, "", 10));
+        assertTrue(trie.add("one"));
+    }
+}